@@ -165,13 +165,14 @@ public class Configuration implements SourceResolver, NotationSet {
     protected IndependentContext staticContextForSystemFunctions;
 
     private DocumentPool globalDocumentPool = new DocumentPool();
+    private volatile SharedDocumentCache sharedDocumentCache;
     private IntegratedFunctionLibrary integratedFunctionLibrary = new IntegratedFunctionLibrary();
     private transient LocalizerFactory localizerFactory;
     private NamePool namePool = new NamePool();
 
     protected Optimizer optimizer = null;
 
-    private SerializerFactory serializerFactory = new SerializerFactory(this);
+    private volatile SerializerFactory serializerFactory;
     private volatile ConcurrentLinkedQueue<XMLReader> sourceParserPool = new ConcurrentLinkedQueue<>();
     private volatile ConcurrentLinkedQueue<XMLReader> styleParserPool = new ConcurrentLinkedQueue<>();
     private String sourceParserClass;
@@ -189,8 +190,8 @@ public class Configuration implements SourceResolver, NotationSet {
     private String traceListenerOutput = null;
     private String defaultRegexEngine = "S";
     protected transient TypeHierarchy typeHierarchy;
-    private TypeChecker typeChecker = new TypeChecker();
-    private TypeChecker10 typeChecker10 = new TypeChecker10();
+    private TypeChecker typeChecker;
+    private TypeChecker10 typeChecker10;
 
     private transient URIResolver uriResolver;
     protected FunctionLibraryList builtInExtensionLibraryList;
@@ -205,6 +206,13 @@ public class Configuration implements SourceResolver, NotationSet {
     private Map<String, FunctionAnnotationHandler> functionAnnotationHandlers = new HashMap<>();
     protected int byteCodeThreshold = 100;
     private int regexBacktrackingLimit = 10000000;
+    private int externalSortThreshold = -1;
+    private int externalGroupingThreshold = -1;
+    private int expressionCompilationThreshold = -1;
+    private String temporaryFileDirectory = null;
+    private int collectionPrefetch = 0;
+    private int documentCacheSize = 100;
+    private int documentCacheTimeToLive = 0;
 
     private TreeStatistics treeStatistics = new TreeStatistics();
 
@@ -256,6 +264,10 @@ public class Configuration implements SourceResolver, NotationSet {
 //#if EE==true
         configurationClass = com.saxonica.config.EnterpriseConfiguration.class;
 //#endif
+        if (configurationClass == Configuration.class) {
+            // no need for reflection in Saxon-HE
+            return new Configuration();
+        }
         try {
             return configurationClass.newInstance();
         } catch (Exception e) {
@@ -2281,14 +2293,25 @@ public class Configuration implements SourceResolver, NotationSet {
 
     /**
      * Get the SerializerFactory. This returns the standard built-in SerializerFactory, unless
-     * a custom SerializerFactory has been registered.
+     * a custom SerializerFactory has been registered. The standard SerializerFactory is created
+     * when it is first requested.
      *
      * @return the SerializerFactory in use
      * @since 8.8
      */
 
     public SerializerFactory getSerializerFactory() {
-        return serializerFactory;
+        SerializerFactory factory = serializerFactory;
+        if (factory == null) {
+            synchronized (this) {
+                factory = serializerFactory;
+                if (factory == null) {
+                    factory = new SerializerFactory(this);
+                    serializerFactory = factory;
+                }
+            }
+        }
+        return factory;
     }
 
     /**
@@ -2664,10 +2687,19 @@ public class Configuration implements SourceResolver, NotationSet {
      */
 
     public TypeChecker getTypeChecker(boolean backwardsCompatible) {
+        // the type checkers hold no state, so there is no harm if two threads both create one
         if (backwardsCompatible) {
-            return typeChecker10;
+            TypeChecker10 checker = typeChecker10;
+            if (checker == null) {
+                typeChecker10 = checker = new TypeChecker10();
+            }
+            return checker;
         } else {
-            return typeChecker;
+            TypeChecker checker = typeChecker;
+            if (checker == null) {
+                typeChecker = checker = new TypeChecker();
+            }
+            return checker;
         }
     }
 
@@ -2746,6 +2778,31 @@ public class Configuration implements SourceResolver, NotationSet {
         return globalDocumentPool;
     }
 
+    /**
+     * Get the shared document cache. This holds documents read using doc() or document() by stylesheets
+     * and queries that mark their documents as cacheable, so that each such document is parsed once and
+     * shared by all the transformations and queries run using this Configuration. Unlike the global
+     * document pool, the cache is bounded in size (see {@link Feature#DOCUMENT_CACHE_SIZE}) and the documents
+     * it holds may expire (see {@link Feature#DOCUMENT_CACHE_TIME_TO_LIVE}) or be discarded when memory is short.
+     *
+     * @return the shared document cache
+     * @since 10.3
+     */
+
+    public SharedDocumentCache getSharedDocumentCache() {
+        SharedDocumentCache cache = sharedDocumentCache;
+        if (cache == null) {
+            synchronized (this) {
+                cache = sharedDocumentCache;
+                if (cache == null) {
+                    cache = new SharedDocumentCache(documentCacheSize, documentCacheTimeToLive * 1000L);
+                    sharedDocumentCache = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
     /**
      * Determine whether whitespace-only text nodes are to be stripped unconditionally
      * from source documents.
@@ -4536,6 +4593,40 @@ public class Configuration implements SourceResolver, NotationSet {
                     regexBacktrackingLimit = requireInteger(name, value);
                     break;
 
+                case FeatureCode.THRESHOLD_FOR_EXTERNAL_SORT:
+                    externalSortThreshold = requireInteger(name, value);
+                    break;
+
+                case FeatureCode.THRESHOLD_FOR_EXTERNAL_GROUPING:
+                    externalGroupingThreshold = requireInteger(name, value);
+                    break;
+
+                case FeatureCode.THRESHOLD_FOR_EXPRESSION_COMPILATION:
+                    expressionCompilationThreshold = requireInteger(name, value);
+                    break;
+
+                case FeatureCode.TEMPORARY_FILE_DIRECTORY:
+                    temporaryFileDirectory = requireString(name, value);
+                    break;
+
+                case FeatureCode.COLLECTION_PREFETCH:
+                    collectionPrefetch = requireInteger(name, value);
+                    break;
+
+                case FeatureCode.DOCUMENT_CACHE_SIZE:
+                    documentCacheSize = requireInteger(name, value);
+                    if (sharedDocumentCache != null) {
+                        sharedDocumentCache.setMaximumSize(documentCacheSize);
+                    }
+                    break;
+
+                case FeatureCode.DOCUMENT_CACHE_TIME_TO_LIVE:
+                    documentCacheTimeToLive = requireInteger(name, value);
+                    if (sharedDocumentCache != null) {
+                        sharedDocumentCache.setTimeToLive(documentCacheTimeToLive * 1000L);
+                    }
+                    break;
+
                 case FeatureCode.SERIALIZER_FACTORY_CLASS:
                     setSerializerFactory(
                             (SerializerFactory) instantiateClassName(name, value, SerializerFactory.class));
@@ -4780,6 +4871,10 @@ public class Configuration implements SourceResolver, NotationSet {
                     getDefaultXsltCompilerInfo().setAssertionsEnabled(requireBoolean(name, value));
                     break;
 
+                case FeatureCode.XSLT_PARALLEL_COMPILATION:
+                    getDefaultXsltCompilerInfo().setParallelCompilation(requireBoolean(name, value));
+                    break;
+
                 case FeatureCode.XSLT_INITIAL_MODE: {
                     String s = requireString(name, value);
                     getDefaultXsltCompilerInfo().setDefaultInitialMode(StructuredQName.fromClarkName(s));
@@ -5132,6 +5227,27 @@ public class Configuration implements SourceResolver, NotationSet {
             case FeatureCode.REGEX_BACKTRACKING_LIMIT:
                 return (T) Integer.valueOf(regexBacktrackingLimit);
 
+            case FeatureCode.THRESHOLD_FOR_EXTERNAL_SORT:
+                return (T) Integer.valueOf(externalSortThreshold);
+
+            case FeatureCode.THRESHOLD_FOR_EXTERNAL_GROUPING:
+                return (T) Integer.valueOf(externalGroupingThreshold);
+
+            case FeatureCode.THRESHOLD_FOR_EXPRESSION_COMPILATION:
+                return (T) Integer.valueOf(expressionCompilationThreshold);
+
+            case FeatureCode.TEMPORARY_FILE_DIRECTORY:
+                return (T) temporaryFileDirectory;
+
+            case FeatureCode.COLLECTION_PREFETCH:
+                return (T) Integer.valueOf(collectionPrefetch);
+
+            case FeatureCode.DOCUMENT_CACHE_SIZE:
+                return (T) Integer.valueOf(documentCacheSize);
+
+            case FeatureCode.DOCUMENT_CACHE_TIME_TO_LIVE:
+                return (T) Integer.valueOf(documentCacheTimeToLive);
+
             case FeatureCode.SCHEMA_VALIDATION:
                 return (T) Integer.valueOf(getSchemaValidationMode());
 
@@ -5262,6 +5378,9 @@ public class Configuration implements SourceResolver, NotationSet {
             case FeatureCode.XSLT_ENABLE_ASSERTIONS:
                 return (T)Boolean.valueOf(getDefaultXsltCompilerInfo().isAssertionsEnabled());
 
+            case FeatureCode.XSLT_PARALLEL_COMPILATION:
+                return (T)Boolean.valueOf(getDefaultXsltCompilerInfo().isParallelCompilation());
+
             case FeatureCode.XSLT_INITIAL_MODE:
                 return (T) getDefaultXsltCompilerInfo().getDefaultInitialMode().getClarkName();
 
@@ -97,6 +97,29 @@ public class PreparedStylesheet extends Executable {
     public XsltController newController() {
         Configuration config = getConfiguration();
         XsltController c = new XsltController(config, this);
+        applyControllerDefaults(c);
+        return c;
+    }
+
+    /**
+     * Restore a controller created using {@link #newController()} to the state it was in when first
+     * created, so that it can be used for a further, unrelated transformation. The values of global variables
+     * and parameters, the documents in the document pool, and all settings made through the API are discarded.
+     * The controller must not be in use.
+     *
+     * @param c the controller to be reset
+     * @since 10.3
+     */
+
+    public void resetController(XsltController c) {
+        c.reset();
+        c.clearInvocationSettings();
+        c.clearGlobalVariables();
+        c.resetDynamicState();
+        applyControllerDefaults(c);
+    }
+
+    private void applyControllerDefaults(XsltController c) {
         c.setMessageReceiverClassName(messageReceiverClassName);
         c.setOutputURIResolver(outputURIResolver);
         if (defaultInitialMode != null) {
@@ -106,7 +129,6 @@ public class PreparedStylesheet extends Executable {
                 // ignore the error if the default initial mode is not defined
             }
         }
-        return c;
     }
 
     /**
@@ -0,0 +1,268 @@
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Copyright (c) 2020 Saxonica Limited
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is "Incompatible With Secondary Licenses", as defined by the Mozilla Public License, v. 2.0.
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+package net.sf.saxon;
+
+import net.sf.saxon.functions.MathFunctionSet;
+import net.sf.saxon.functions.registry.BuiltInFunctionSet;
+import net.sf.saxon.functions.registry.ExsltCommonFunctionSet;
+import net.sf.saxon.functions.registry.UseWhen30FunctionSet;
+import net.sf.saxon.functions.registry.VendorFunctionSetHE;
+import net.sf.saxon.functions.registry.XSLT30FunctionSet;
+import net.sf.saxon.ma.arrays.ArrayFunctionSet;
+import net.sf.saxon.ma.map.MapFunctionSet;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * This <b>TrainingRun</b> class is a command-line entry point that runs a list of Saxon commands
+ * (<code>Transform</code> and <code>Query</code> command lines) in a single Java VM. Its purpose is to exercise the
+ * classes that these commands use, so that the Java VM can record them and make later runs start faster.
+ *
+ * <p>The format is:</p>
+ * <p>java net.sf.saxon.TrainingRun [-native:<i>directory</i>] <i>command-file</i></p>
+ * <p>Each line of the command file holds the name of a command, <code>Transform</code> or <code>Query</code>,
+ * followed by its options exactly as they would be written on the command line. Options containing spaces
+ * can be enclosed in double quotes. Blank lines, and lines starting with <code>#</code>, are ignored. Relative
+ * file names are resolved against the current directory. As well as running the commands, the training run
+ * loads the classes that implement every built-in function, since a stylesheet or query may call any of them.</p>
+ *
+ * <p><b>Class data sharing.</b> With Java 13 or later, an application class-data sharing archive is created by
+ * running</p>
+ * <pre>java -XX:ArchiveClassesAtExit=saxon-he.jsa -cp saxon-he.jar net.sf.saxon.TrainingRun commands.txt</pre>
+ * <p>and used by running</p>
+ * <pre>java -XX:SharedArchiveFile=saxon-he.jsa -cp saxon-he.jar net.sf.saxon.Transform ...</pre>
+ * <p>With Java 10 to 12, the training run is made with <code>-XX:DumpLoadedClassList=saxon-he.classlist</code>,
+ * and the archive is then created with <code>-Xshare:dump -XX:SharedClassListFile=saxon-he.classlist
+ * -XX:SharedArchiveFile=saxon-he.jsa -cp saxon-he.jar</code>. In every case the class path used to create the
+ * archive must be the same as (or a prefix of) the class path used to run Saxon, and must consist of JAR files;
+ * classes loaded from directories are not archived. The archive is specific to the Java VM that created it.
+ * The Ant target <code>cds-archive-hej</code> creates an archive in this way from the commands listed in
+ * <code>samples/training.txt</code>.</p>
+ *
+ * <p><b>Native images.</b> The option <code>-native:<i>directory</i></code> writes a GraalVM
+ * <code>native-image</code> configuration to the given directory, typically
+ * <code>META-INF/native-image/net.sf.saxon/Saxon-HE</code> within a directory or JAR file on the class path of
+ * the <code>native-image</code> build. It contains two files:</p>
+ * <ul>
+ * <li><code>reflect-config.json</code>, listing the classes that Saxon instantiates by reflection: the
+ * implementation classes of the built-in functions, which are instantiated when a call on the function
+ * is compiled;</li>
+ * <li><code>resource-config.json</code>, including the data files that Saxon reads from the class path
+ * (such as Unicode tables, schemas for built-in namespaces, and the W3C DTDs).</li>
+ * </ul>
+ * <p>Saxon-HE makes no other use of reflection unless it is configured to do so: for example, by naming
+ * a class in a configuration file or on the command line, or by calling reflexive extension functions.
+ * Any such classes must be added to the configuration; running the training run under the GraalVM tracing
+ * agent (<code>-agentlib:native-image-agent=config-merge-dir=<i>directory</i></code>) with commands that use
+ * them is the simplest way to do this.</p>
+ *
+ * @since 10.3
+ */
+
+public class TrainingRun {
+
+    /**
+     * Main program, can be used directly from the command line.
+     *
+     * @param args List of arguments supplied on operating system command line
+     * @throws IOException if the command file cannot be read, or the native image configuration
+     * cannot be written
+     */
+
+    public static void main(String[] args) throws IOException {
+        String commandFile = null;
+        File nativeDir = null;
+        for (String arg : args) {
+            if (arg.startsWith("-native:")) {
+                nativeDir = new File(arg.substring(8));
+            } else if (commandFile == null && !arg.startsWith("-")) {
+                commandFile = arg;
+            } else {
+                badUsage("Unrecognized argument " + arg);
+            }
+        }
+        if (commandFile == null) {
+            badUsage("No command file supplied");
+        }
+
+        List<String[]> commands = readCommands(new File(commandFile));
+        long start = System.nanoTime();
+        int failures = 0;
+        for (String[] command : commands) {
+            if (!runCommand(command)) {
+                failures++;
+            }
+        }
+        Set<String> functionClasses = loadBuiltInFunctions();
+        System.err.printf("Training run: %d commands (%d failed), %d built-in function classes, %.1f ms%n",
+                          commands.size(), failures, functionClasses.size(), (System.nanoTime() - start) / 1e6);
+
+        if (nativeDir != null) {
+            writeNativeImageConfiguration(nativeDir, functionClasses);
+            System.err.println("Native image configuration written to " + nativeDir);
+        }
+    }
+
+    private static void badUsage(String message) {
+        System.err.println(message);
+        System.err.println("Usage: java net.sf.saxon.TrainingRun [-native:directory] command-file");
+        System.exit(2);
+    }
+
+    /**
+     * Read the command file
+     *
+     * @param file the command file
+     * @return the commands, each as an array whose first member is the command name and whose other
+     * members are its arguments
+     * @throws IOException if the file cannot be read
+     */
+
+    private static List<String[]> readCommands(File file) throws IOException {
+        List<String[]> commands = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    commands.add(tokenize(line));
+                }
+            }
+        }
+        return commands;
+    }
+
+    private static String[] tokenize(String line) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder token = new StringBuilder();
+        boolean quoted = false;
+        boolean inToken = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+                inToken = true;
+            } else if (Character.isWhitespace(c) && !quoted) {
+                if (inToken) {
+                    tokens.add(token.toString());
+                    token.setLength(0);
+                    inToken = false;
+                }
+            } else {
+                token.append(c);
+                inToken = true;
+            }
+        }
+        if (inToken) {
+            tokens.add(token.toString());
+        }
+        return tokens.toArray(new String[0]);
+    }
+
+    /**
+     * Run one command, in this Java VM, with <code>-quit:off</code> so that it does not exit the VM
+     *
+     * @param command the command name followed by its arguments
+     * @return true if the command succeeded
+     */
+
+    private static boolean runCommand(String[] command) {
+        String name = command[0];
+        String[] args = new String[command.length];
+        System.arraycopy(command, 1, args, 0, command.length - 1);
+        args[command.length - 1] = "-quit:off";
+        long start = System.nanoTime();
+        try {
+            switch (name) {
+                case "Transform":
+                case "net.sf.saxon.Transform":
+                    new Transform().doTransform(args, "java net.sf.saxon.Transform");
+                    break;
+                case "Query":
+                case "net.sf.saxon.Query":
+                    new Query().doQuery(args, "java net.sf.saxon.Query");
+                    break;
+                default:
+                    System.err.println("Unknown command " + name + ": expected Transform or Query");
+                    return false;
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Command failed: " + String.join(" ", command) + ": " + e.getMessage());
+            return false;
+        }
+        System.err.printf("%.1f ms: %s%n", (System.nanoTime() - start) / 1e6, String.join(" ", command));
+        return true;
+    }
+
+    /**
+     * Load the classes implementing the built-in functions of all the function libraries available
+     * in Saxon-HE
+     *
+     * @return the names of the classes
+     */
+
+    private static Set<String> loadBuiltInFunctions() {
+        BuiltInFunctionSet[] sets = {
+                XSLT30FunctionSet.getInstance(),
+                UseWhen30FunctionSet.getInstance(),
+                MathFunctionSet.getInstance(),
+                MapFunctionSet.getInstance(),
+                ArrayFunctionSet.getInstance(),
+                VendorFunctionSetHE.getInstance(),
+                ExsltCommonFunctionSet.getInstance()
+        };
+        Set<String> classes = new TreeSet<>();
+        for (BuiltInFunctionSet set : sets) {
+            for (BuiltInFunctionSet.Entry entry : set.getAllEntries()) {
+                classes.add(entry.implementationClass.getName());
+            }
+        }
+        return classes;
+    }
+
+    /**
+     * Write the configuration files needed to build a GraalVM native image
+     *
+     * @param dir             the directory to which the files are written. It is created if necessary.
+     * @param functionClasses the names of the classes implementing built-in functions
+     * @throws IOException if the files cannot be written
+     */
+
+    private static void writeNativeImageConfiguration(File dir, Set<String> functionClasses) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create directory " + dir);
+        }
+        try (Writer w = new OutputStreamWriter(
+                new FileOutputStream(new File(dir, "reflect-config.json")), StandardCharsets.UTF_8)) {
+            w.write("[\n");
+            boolean first = true;
+            for (String name : functionClasses) {
+                if (!first) {
+                    w.write(",\n");
+                }
+                w.write("  {\"name\": \"" + name + "\", \"methods\": [{\"name\": \"<init>\", \"parameterTypes\": []}]}");
+                first = false;
+            }
+            w.write("\n]\n");
+        }
+        try (Writer w = new OutputStreamWriter(
+                new FileOutputStream(new File(dir, "resource-config.json")), StandardCharsets.UTF_8)) {
+            w.write("{\n  \"resources\": {\n    \"includes\": [\n");
+            w.write("      {\"pattern\": \"\\\\Qnet/sf/saxon/data/\\\\E.*\"}\n");
+            w.write("    ]\n  }\n}\n");
+        }
+    }
+}
+
+// Copyright (c) 2020 Saxonica Limited
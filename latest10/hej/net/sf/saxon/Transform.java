@@ -750,7 +750,13 @@ public class Transform {
                         repeatComp = 20;
                     }
                     if (repeatComp == 1) {
-                        sheet = compiler.compile(styleSource);
+                        // With -t, report the time taken by each phase of compilation
+                        Compilation.TIMING = showTime;
+                        try {
+                            sheet = compiler.compile(styleSource);
+                        } finally {
+                            Compilation.TIMING = false;
+                        }
                         if (showTime) {
                             long endTime = now();
                             System.err.println("Stylesheet compilation time: " + CommandLineOptions.showExecutionTimeNano(endTime - startTime));
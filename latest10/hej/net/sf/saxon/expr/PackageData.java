@@ -36,6 +36,7 @@ public class PackageData {
     private int localLicenseId = -1;
     private String targetEdition;
     private boolean relocatable;
+    private boolean cachingDocuments;
     private TypeAliasManager typeAliasManager;
 
 
@@ -170,6 +171,31 @@ public class PackageData {
         this.relocatable = relocatable;
     }
 
+    /**
+     * Ask whether documents read using doc() or document() in this package are to be held in the
+     * Configuration's shared document cache, so that they are parsed only once for all transformations
+     * or queries
+     *
+     * @return true if the documents are to be cached
+     * @see net.sf.saxon.om.SharedDocumentCache
+     */
+
+    public boolean isCachingDocuments() {
+        return cachingDocuments;
+    }
+
+    /**
+     * Say whether documents read using doc() or document() in this package are to be held in the
+     * Configuration's shared document cache. This is appropriate only for documents that do not change
+     * while the Configuration is in use.
+     *
+     * @param cachingDocuments true if the documents are to be cached
+     */
+
+    public void setCachingDocuments(boolean cachingDocuments) {
+        this.cachingDocuments = cachingDocuments;
+    }
+
 
 
     /**
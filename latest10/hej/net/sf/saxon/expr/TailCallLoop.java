@@ -224,13 +224,32 @@ public final class TailCallLoop extends UnaryExpression {
 
     public interface TailCallInfo {}
 
+    /**
+     * Identifies the target of a tail call to a function component. Instances are immutable, so that
+     * a function call can reuse the same instance for each tail call to the same component.
+     */
+
     protected static class TailCallComponent implements TailCallInfo {
-        public Component component;
-        public UserFunction function;
+        public final Component component;
+        public final UserFunction function;
+
+        public TailCallComponent(Component component) {
+            this.component = component;
+            this.function = (UserFunction) component.getActor();
+        }
     }
 
+    /**
+     * Identifies the target of a tail call to a function that is not called via a component binding.
+     * Instances are immutable, so that a function call can reuse the same instance for each tail call.
+     */
+
     protected static class TailCallFunction implements TailCallInfo {
-        public UserFunction function;
+        public final UserFunction function;
+
+        public TailCallFunction(UserFunction function) {
+            this.function = function;
+        }
     }
 
 
@@ -24,6 +24,7 @@ import net.sf.saxon.value.SequenceType;
 import net.sf.saxon.value.Whitespace;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 
@@ -50,7 +51,10 @@ public class UserFunctionCall extends FunctionCall implements UserFunctionResolv
     private boolean beingInlined = false;
 
 
-    /*@Nullable*/ private Evaluator[] argumentEvaluators = null;
+    /*@Nullable*/ private volatile Evaluator[] argumentEvaluators = null;
+
+    // The target of the most recent tail call, reused while the target is unchanged
+    private TailCallLoop.TailCallInfo lastTailCallTarget;
 
     public static final int NOT_TAIL_CALL = 0;
     public static final int FOREIGN_TAIL_CALL = 1;
@@ -203,7 +207,7 @@ public class UserFunctionCall extends FunctionCall implements UserFunctionResolv
             StaticProperty.DEPENDS_ON_XSLT_CONTEXT | StaticProperty.DEPENDS_ON_USER_FUNCTIONS;
 
     public void allocateArgumentEvaluators() {
-        argumentEvaluators = new Evaluator[getArity()];
+        Evaluator[] evaluators = new Evaluator[getArity()];
         int i=0;
         for (Operand o : operands()) {
             Expression arg = o.getChildExpression();
@@ -211,16 +215,16 @@ public class UserFunctionCall extends FunctionCall implements UserFunctionResolv
             int cardinality = required.getCardinality();
 
             if (i == 0 && function.getDeclaredStreamability().isConsuming()) {
-                argumentEvaluators[i] = Evaluator.STREAMING_ARGUMENT;
+                evaluators[i] = Evaluator.STREAMING_ARGUMENT;
             } else if (function.getParameterDefinitions()[i].isIndexedVariable()) {
-                argumentEvaluators[i] = Evaluator.MAKE_INDEXED_VARIABLE;
+                evaluators[i] = Evaluator.MAKE_INDEXED_VARIABLE;
             } else {
                 if (arg instanceof Literal) {
-                    argumentEvaluators[i] = Evaluator.LITERAL;
+                    evaluators[i] = Evaluator.LITERAL;
                 } else if (arg instanceof VariableReference) {
-                    argumentEvaluators[i] = Evaluator.VARIABLE;
+                    evaluators[i] = Evaluator.VARIABLE;
                 } else if (cardinality == StaticProperty.EXACTLY_ONE) {
-                    argumentEvaluators[i] = Evaluator.SINGLE_ITEM;
+                    evaluators[i] = Evaluator.SINGLE_ITEM;
                 } else if ((arg.getDependencies() & UNHANDLED_DEPENDENCIES) != 0) {
                     // If the argument contains a call to a user-defined function, then it might be a recursive call.
                     // It's better to evaluate it now, rather than waiting until we are on a new stack frame, as
@@ -228,12 +232,12 @@ public class UserFunctionCall extends FunctionCall implements UserFunctionResolv
                     // If the argument contains calls to position(), last(), regex-group(), current-group(),
                     // current-merge-group(), etc, then in general we can't save the values in a Closure
                     // so we need to evaluate the argument eagerly. (Tests position-0103, merge-096).
-                    argumentEvaluators[i] = Evaluator.EAGER_SEQUENCE;
+                    evaluators[i] = Evaluator.EAGER_SEQUENCE;
                 } else if (!Cardinality.allowsMany(arg.getCardinality()) && arg.getCost() < 20) {
                     // the argument is cheap to evaluate and doesn't use much memory...
-                    argumentEvaluators[i] = Evaluator.EAGER_SEQUENCE;
+                    evaluators[i] = Evaluator.EAGER_SEQUENCE;
                 } else if (cardinality == StaticProperty.ALLOWS_ZERO_OR_ONE) {
-                    argumentEvaluators[i] = Evaluator.OPTIONAL_ITEM;
+                    evaluators[i] = Evaluator.OPTIONAL_ITEM;
                 } else if (arg instanceof Block && ((Block) arg).isCandidateForSharedAppend()) {
                     // If the expression is a Block, that is, it is appending a value to a sequence,
                     // then we have the opportunity to use a shared list underpinning the old value and
@@ -242,13 +246,14 @@ public class UserFunctionCall extends FunctionCall implements UserFunctionResolv
                     // reference as one of its subexpressions. The most common case is that the first argument is a reference
                     // to an argument of recursive function, where the recursive function returns the result of
                     // appending to the sequence.
-                    argumentEvaluators[i] = Evaluator.SHARED_APPEND;
+                    evaluators[i] = Evaluator.SHARED_APPEND;
                 } else {
-                    argumentEvaluators[i] = Evaluator.MEMO_CLOSURE;
+                    evaluators[i] = Evaluator.MEMO_CLOSURE;
                 }
             }
             i++;
         }
+        argumentEvaluators = evaluators;
     }
 
     public Evaluator[] getArgumentEvaluators() {
@@ -530,13 +535,13 @@ public class UserFunctionCall extends FunctionCall implements UserFunctionResolv
      * @throws XPathException if dynamic errors occur
      */
     private Sequence callFunction(XPathContext context) throws XPathException {
-        UserFunction targetFunction;
-        Sequence[] actualArgs = evaluateArguments(context);
-        XPathContextMajor c2;
         if (isTailCall()) {
-            requestTailCall(context, actualArgs);
+            requestTailCall(context);
             return EmptySequence.getInstance();
         }
+        UserFunction targetFunction;
+        Sequence[] actualArgs = evaluateArguments(context);
+        XPathContextMajor c2;
 
         if (bindingSlot >= 0) {
             Component target = getTargetComponent(context);
@@ -568,25 +573,38 @@ public class UserFunctionCall extends FunctionCall implements UserFunctionResolv
         }
     }
 
-    private void requestTailCall(XPathContext context, Sequence[] actualArgs) throws XPathException {
+    /**
+     * Request a tail call. The arguments are evaluated into an array owned by the calling context, and then
+     * copied into the stack frame, which is reused for the next iteration of the {@link TailCallLoop}. Neither the
+     * array nor the object identifying the target function is allocated afresh for each call, so a
+     * self-recursive function performs no allocation on each iteration other than that needed for the
+     * argument values themselves.
+     */
+
+    private void requestTailCall(XPathContext context) throws XPathException {
+        XPathContextMajor cm = (XPathContextMajor) context;
+        TailCallLoop.TailCallInfo info = lastTailCallTarget;
         if (bindingSlot >= 0) {
-            TailCallLoop.TailCallComponent info = new TailCallLoop.TailCallComponent();
             Component target = getTargetComponent(context);
-            info.component = target;
-            info.function = (UserFunction) target.getActor();
             if (target.isHiddenAbstractComponent()) {
                 throw new XPathException("Cannot call an abstract function (" +
                                                  name.getDisplayName() +
                                                  ") with no implementation", "XTDE3052");
             }
-            ((XPathContextMajor) context).requestTailCall(info, actualArgs);
-
-        } else {
-            TailCallLoop.TailCallFunction info = new TailCallLoop.TailCallFunction();
-            info.function = function;
-            ((XPathContextMajor) context).requestTailCall(info, actualArgs);
+            if (!(info instanceof TailCallLoop.TailCallComponent) ||
+                    ((TailCallLoop.TailCallComponent) info).component != target) {
+                info = new TailCallLoop.TailCallComponent(target);
+                lastTailCallTarget = info;
+            }
+        } else if (!(info instanceof TailCallLoop.TailCallFunction) ||
+                ((TailCallLoop.TailCallFunction) info).function != function) {
+            info = new TailCallLoop.TailCallFunction(function);
+            lastTailCallTarget = info;
         }
-
+        Sequence[] actualArgs = cm.getTailCallArguments(getArity());
+        evaluateArguments(context, false, actualArgs);
+        cm.requestTailCall(info, actualArgs);
+        Arrays.fill(actualArgs, null);
     }
 
     /**
@@ -601,13 +619,13 @@ public class UserFunctionCall extends FunctionCall implements UserFunctionResolv
     @Override
     public void process(Outputter output, XPathContext context) throws XPathException {
 
-        Sequence[] actualArgs = evaluateArguments(context);
-
         if (isTailCall()) {
-            requestTailCall(context, actualArgs);
+            requestTailCall(context);
             return;
         }
 
+        Sequence[] actualArgs = evaluateArguments(context);
+
         if (bindingSlot >= 0) {
             Component target = getTargetComponent(context);
             UserFunction targetFunction = (UserFunction) target.getActor();
@@ -646,16 +664,25 @@ public class UserFunctionCall extends FunctionCall implements UserFunctionResolv
 
 
     public Sequence[] evaluateArguments(XPathContext c, boolean streamed) throws XPathException {
+        Sequence[] actualArgs = SequenceTool.makeSequenceArray(getArity());
+        evaluateArguments(c, streamed, actualArgs);
+        return actualArgs;
+    }
+
+    private void evaluateArguments(XPathContext c, boolean streamed, Sequence[] actualArgs) throws XPathException {
         int numArgs = getArity();
-        Sequence[] actualArgs = SequenceTool.makeSequenceArray(numArgs);
-        synchronized(this) {
-            if (argumentEvaluators == null) {
-                // should have been done at compile time
-                allocateArgumentEvaluators();
+        Evaluator[] evaluators = argumentEvaluators;
+        if (evaluators == null) {
+            synchronized (this) {
+                if (argumentEvaluators == null) {
+                    // should have been done at compile time
+                    allocateArgumentEvaluators();
+                }
             }
+            evaluators = argumentEvaluators;
         }
         for (int i = 0; i < numArgs; i++) {
-            Evaluator eval = argumentEvaluators[i];
+            Evaluator eval = evaluators[i];
             if (eval == Evaluator.STREAMING_ARGUMENT && !streamed) {
                 eval = Evaluator.EAGER_SEQUENCE;
             }
@@ -665,7 +692,6 @@ public class UserFunctionCall extends FunctionCall implements UserFunctionResolv
                 actualArgs[i] = EmptySequence.getInstance();
             }
         }
-        return actualArgs;
     }
 
     /**
@@ -38,6 +38,7 @@ public class XPathContextMajor extends XPathContextMinor {
     private ParameterSet localParameters;
     private ParameterSet tunnelParameters;
     /*@Nullable*/ private TailCallLoop.TailCallInfo tailCallInfo;
+    /*@Nullable*/ private Sequence[] tailCallArguments;
     private Component.M currentMode;
     /*@Nullable*/ private Rule currentTemplate;
     private GroupIterator currentGroupIterator;
@@ -386,6 +387,25 @@ public class XPathContextMajor extends XPathContextMinor {
         tailCallInfo = targetFn;
     }
 
+    /**
+     * Get an array to hold the values of the arguments of a tail call, or of the parameters of the next
+     * iteration of <code>xsl:iterate</code>. The same array is returned on each call with the same size, so that
+     * a loop that iterates many times does not allocate a new array on each iteration. The values are copied
+     * into the stack frame by {@link #requestTailCall} or {@link #setLocalVariable}; the caller should then
+     * clear the array, so that it does not keep the values reachable.
+     *
+     * @param size the number of values to be held
+     * @return an array of the requested size, all of whose entries are null
+     */
+
+    public Sequence[] getTailCallArguments(int size) {
+        Sequence[] args = tailCallArguments;
+        if (args == null || args.length != size) {
+            args = tailCallArguments = new Sequence[size];
+        }
+        return args;
+    }
+
 
     /**
      * Determine whether the body of a function is to be repeated, due to tail-recursive function calls
@@ -7,18 +7,27 @@
 
 package net.sf.saxon.expr.accum;
 
-import net.sf.saxon.expr.Component;
-import net.sf.saxon.expr.Expression;
-import net.sf.saxon.expr.Literal;
+import net.sf.saxon.expr.*;
 import net.sf.saxon.expr.instruct.Actor;
 import net.sf.saxon.expr.instruct.Block;
 import net.sf.saxon.expr.instruct.SlotManager;
+import net.sf.saxon.expr.parser.ExpressionTool;
+import net.sf.saxon.functions.AccumulatorFn;
+import net.sf.saxon.functions.ApplyFn;
+import net.sf.saxon.functions.SystemFunction;
+import net.sf.saxon.functions.hof.FunctionLiteral;
+import net.sf.saxon.functions.hof.FunctionLookup;
+import net.sf.saxon.functions.hof.UserFunctionReference;
 import net.sf.saxon.lib.NamespaceConstant;
+import net.sf.saxon.ma.arrays.ArrayItemType;
+import net.sf.saxon.ma.map.MapType;
 import net.sf.saxon.om.StandardNames;
 import net.sf.saxon.om.StructuredQName;
 import net.sf.saxon.trace.ExpressionPresenter;
 import net.sf.saxon.trans.*;
 import net.sf.saxon.trans.rules.Rule;
+import net.sf.saxon.type.ItemType;
+import net.sf.saxon.type.UType;
 import net.sf.saxon.value.SequenceType;
 
 import java.util.Map;
@@ -42,6 +51,8 @@ public class Accumulator extends Actor {
 
     private SlotManager slotManagerForInitialValueExpression;
 
+    // Whether the accumulator can be evaluated without evaluating other accumulators: 0 = not yet known
+    private volatile int selfContained = 0;
 
 
     public Accumulator() {
@@ -268,6 +279,57 @@ public class Accumulator extends Actor {
         this.type = type;
     }
 
+    /**
+     * Ask whether the values of this accumulator can be computed without evaluating any other
+     * accumulator. This is true if the initial value expression, the match patterns and the new-value
+     * expressions of the rules contain no call on accumulator-before() or accumulator-after(), and nothing
+     * that could lead indirectly to such a call: a call on a function or template, a dynamic function call,
+     * or a reference to a function item. The answer is computed on first use and then retained.
+     * Accumulators for which the answer is true can safely be evaluated together in a single traversal of a tree.
+     *
+     * @return true if the accumulator is known not to depend on any accumulator
+     */
+
+    public boolean isSelfContained() {
+        if (selfContained == 0) {
+            boolean result = !ExpressionTool.contains(initialValueExpression, false, Accumulator::mightUseAccumulators);
+            if (result) {
+                boolean[] found = new boolean[1];
+                SimpleMode.RuleAction action = r -> {
+                    if (ExpressionTool.contains(r.getPattern(), false, Accumulator::mightUseAccumulators) ||
+                            ExpressionTool.contains(((AccumulatorRule) r.getAction()).getNewValueExpression(),
+                                                    false, Accumulator::mightUseAccumulators)) {
+                        found[0] = true;
+                    }
+                };
+                try {
+                    preDescentRules.processRules(action);
+                    postDescentRules.processRules(action);
+                    result = !found[0];
+                } catch (XPathException e) {
+                    result = false;
+                }
+            }
+            selfContained = result ? 1 : -1;
+        }
+        return selfContained > 0;
+    }
+
+    private static boolean mightUseAccumulators(Expression exp) {
+        if (exp instanceof GlobalVariableReference) {
+            // The value of a global variable might be a function item that uses an accumulator
+            ItemType type = exp.getItemType();
+            return type.getUType().overlaps(UType.FUNCTION) &&
+                    !(type instanceof MapType || type instanceof ArrayItemType);
+        } else if (exp instanceof SystemFunctionCall) {
+            SystemFunction target = ((SystemFunctionCall) exp).getTargetFunction();
+            return target instanceof AccumulatorFn || target instanceof ApplyFn || target instanceof FunctionLookup;
+        } else {
+            return exp instanceof ComponentInvocation || exp instanceof FunctionLiteral ||
+                    exp instanceof UserFunctionReference;
+        }
+    }
+
     /**
      * Determine whether this accumulator is compatible with one that it overrides
      * @param other the accumlator that this one overrides
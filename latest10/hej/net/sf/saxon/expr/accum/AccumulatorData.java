@@ -21,20 +21,61 @@ import net.sf.saxon.trans.Err;
 import net.sf.saxon.trans.XPathException;
 import net.sf.saxon.trans.rules.Rule;
 import net.sf.saxon.tree.iter.ManualIterator;
+import net.sf.saxon.tree.tiny.TinyNodeImpl;
+import net.sf.saxon.tree.tiny.TinyTree;
 import net.sf.saxon.tree.util.Navigator;
 import net.sf.saxon.type.Type;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 /**
- * Holds the values of an accumulator function for one non-streamed document
+ * Holds the values of an accumulator function for one non-streamed document.
+ *
+ * <p>A value is held for each visit to a node (before or after visiting its descendants) at which
+ * the value of the accumulator changes, in the order of the visits; the value for other visits is
+ * found by a binary search for the last change at or before the visit in question. The data is held
+ * in parallel arrays. For a {@link TinyTree}, each visit is represented by a <code>long</code> key
+ * derived from node numbers, so that visits can be compared without navigating the tree; for other trees,
+ * the node and the phase of the visit are held. Because the value is often required for successive
+ * nodes in document order, the position found by the previous search is tried first.</p>
+ *
+ * <p>The values are computed lazily. The data is populated by an {@link AccumulatorTraversal}, which is
+ * advanced only as far as the visit for which a value is requested, so a request for the value at a node
+ * early in a large document does not require the whole document to be processed. The traversal may be shared
+ * with other accumulators. Until the traversal is complete, access to the data is synchronized on a lock
+ * shared by all the accumulators of a transformation.</p>
  */
 public class AccumulatorData implements IAccumulatorData {
 
     private Accumulator accumulator;
-    private List<DataPoint> values = new ArrayList<>();
-    private boolean building = false;
+
+    // The values of the accumulator, in the order of the visits at which they were computed
+    private Sequence[] values = new Sequence[16];
+    private int size = 0;
+
+    // For a TinyTree: the visit key of each value, the node number of the root, and the node number
+    // of the last node in the document (-1 until known)
+    private TinyTree tree;
+    private long[] visitKeys;
+    private int rootNr;
+    private int docEnd = -1;
+
+    // For other trees: the node visited, and whether the visit was after visiting its descendants
+    private NodeInfo[] visitNodes;
+    private boolean[] visitIsPostDescent;
+
+    // The result of the most recent search, used as a starting point for the next. If several threads
+    // search concurrently this is no more than a hint, and is always checked before use.
+    private int lastFound = 0;
+
+    // State used while the values are being computed. Once the traversal is complete, complete is set
+    // and the other fields are cleared; until then, they are accessed only while holding the lock.
+    private Object lock;
+    private AccumulatorTraversal traversal;
+    private XPathContextMajor context;
+    private Sequence currentValue;
+    private XPathException failure;
+    private volatile boolean complete = false;
 
     public AccumulatorData(Accumulator acc) {
         this.accumulator = acc;
@@ -53,7 +94,7 @@ public class AccumulatorData implements IAccumulatorData {
     /**
      * Build a data structure containing the values of the accumulator for each node in a document.
      * The data structure holds the value for all nodes where the value changes; the value for other
-     * nodes is obtained by interpolation
+     * nodes is obtained by interpolation. The values are computed immediately for the whole document.
      *
      * @param doc     the root of the tree for which the accumulator is to be evaluated
      * @param context the dynamic evaluation context
@@ -61,12 +102,38 @@ public class AccumulatorData implements IAccumulatorData {
      */
 
     public void buildIndex(NodeInfo doc, XPathContext context) throws XPathException {
-        //System.err.println("Building accData " + this);
-        if (building) {
-            throw new XPathException("Accumulator " + accumulator.getAccumulatorName().getDisplayName() +
-                " requires access to its own value", "XTDE3400");
+        AccumulatorTraversal traversal = new AccumulatorTraversal(doc, this);
+        start(traversal, context);
+        synchronized (this) {
+            while (!complete) {
+                if (failure != null) {
+                    throw failure;
+                }
+                traversal.advance(this);
+            }
+        }
+    }
+
+    /**
+     * Start the evaluation of the accumulator: evaluate its initial value, and register the accumulator
+     * with the traversal that will compute its subsequent values. The traversal must not have advanced
+     * beyond its initial position.
+     *
+     * @param traversal the traversal of the document that will compute the values
+     * @param context   the dynamic evaluation context
+     * @throws XPathException if a dynamic error occurs evaluating the initial value
+     */
+
+    void start(AccumulatorTraversal traversal, XPathContext context) throws XPathException {
+        NodeInfo doc = traversal.getRoot();
+        if (doc instanceof TinyNodeImpl) {
+            tree = ((TinyNodeImpl) doc).getTree();
+            rootNr = ((TinyNodeImpl) doc).getNodeNumber();
+            visitKeys = new long[values.length];
+        } else {
+            visitNodes = new NodeInfo[values.length];
+            visitIsPostDescent = new boolean[values.length];
         }
-        building = true;
         Expression initialValue = accumulator.getInitialValueExpression();
         XPathContextMajor c2 = context.newContext();
         SlotManager sf = accumulator.getSlotManagerForInitialValueExpression();
@@ -74,63 +141,77 @@ public class AccumulatorData implements IAccumulatorData {
         c2.setStackFrame(sf, slots);
         c2.setCurrentIterator(new ManualIterator(doc));
         Sequence val = initialValue.iterate(c2).materialize();
-        values.add(new DataPoint(new Visit(doc, false), val));
-        val = visit(doc, val, c2);
-        values.add(new DataPoint(new Visit(doc, true), val));
-        ((ArrayList) values).trimToSize();
-        building = false;
-        //diagnosticPrint();
+        this.context = c2;
+        this.lock = traversal.getLock();
+        this.traversal = traversal;
+        currentValue = val;
+        addValue(doc, false, tree == null ? 0 : getVisitKey(tree, doc, false, -1), val);
+        traversal.addMember(this);
     }
 
-    /*
-     * Diagnostic output of the entire data structure
+    /**
+     * Set the traversal that is computing the values of this accumulator, when the traversal
+     * is merged with another
+     *
+     * @param traversal the traversal that will compute any further values
      */
 
-//    public void diagnosticPrint() {
-//        for (DataPoint dp : values) {
-//            System.err.println((dp.visit.isPostDescent ? "B:" : "A:") + Navigator.getPath(dp.visit.node) + " = " + dp.value);
-//        }
-//    }
+    void setTraversal(AccumulatorTraversal traversal) {
+        this.traversal = traversal;
+    }
 
     /**
-     * Recursive routine to evaluate the accumulator for a given node, before and after
-     * visiting its descendants
+     * Process a visit to a node, called by the traversal. The visits must be notified in order.
      *
-     * @param node    the node to be visited
-     * @param value   the value of the accumulator before visiting this node
-     * @param context the dynamic evaluation context
-     * @return the value of the accumulator after visiting this node
-     * @throws XPathException if a dynamic evaluation error occurs
+     * @param node          the node being visited
+     * @param isPostDescent false for the pre-descent visit, true for the post-descent visit
+     * @param key           for a TinyTree, the key of the visit
+     * @throws XPathException if a dynamic error occurs evaluating the accumulator rule
      */
 
-    @SuppressWarnings({"InfiniteRecursion"}) //Spurious warning from IntelliJ
-    private Sequence visit(NodeInfo node, Sequence value, XPathContext context) throws XPathException {
-        try {
-            ((ManualIterator)context.getCurrentIterator()).setContextItem(node);
-            Rule rule = accumulator.getPreDescentRules().getRule(node, context);
-            if (rule != null) {
-                value = processRule(rule, node, false, value, context);
-                logChange(node, value, context, " BEFORE ");
-            }
-            for (NodeInfo kid : node.children()) {
-                value = visit(kid, value, context);
-            }
-            ((ManualIterator) context.getCurrentIterator()).setContextItem(node);
-            rule = accumulator.getPostDescentRules().getRule(node, context);
-            if (rule != null) {
-                value = processRule(rule, node, true, value, context);
-                logChange(node, value, context, " AFTER ");
-            }
-            return value;
-        } catch (StackOverflowError e) {
-            XPathException err = new XPathException.StackOverflow(
-                    "Too many nested accumulator evaluations. The accumulator definition may have cyclic dependencies",
-                    "XTDE3400", accumulator);
-            err.setXPathContext(context);
-            throw err;
+    void visit(NodeInfo node, boolean isPostDescent, long key) throws XPathException {
+        ((ManualIterator) context.getCurrentIterator()).setContextItem(node);
+        Rule rule = isPostDescent ?
+                accumulator.getPostDescentRules().getRule(node, context) :
+                accumulator.getPreDescentRules().getRule(node, context);
+        if (rule != null) {
+            currentValue = processRule(rule, node, isPostDescent, key, currentValue, context);
+            logChange(node, currentValue, context, isPostDescent ? " AFTER " : " BEFORE ");
         }
     }
 
+    /**
+     * Record the final value, at the end of the traversal
+     *
+     * @param doc       the root of the tree
+     * @param key       for a TinyTree, the key of the post-descent visit to the root
+     * @param lastNodeNr for a TinyTree, the node number of the last node in the document
+     */
+
+    void finish(NodeInfo doc, long key, int lastNodeNr) {
+        addValue(doc, true, key, currentValue);
+        trim();
+        docEnd = lastNodeNr;
+        traversal = null;
+        context = null;
+        currentValue = null;
+        complete = true;
+    }
+
+    /**
+     * Record that the evaluation of the accumulator has failed. The error will be reported
+     * on any subsequent request for a value of the accumulator.
+     *
+     * @param error the dynamic error
+     */
+
+    void fail(XPathException error) {
+        failure = error;
+        traversal = null;
+        context = null;
+        currentValue = null;
+    }
+
     private void logChange(NodeInfo node, Sequence value, XPathContext context, String phase) {
         if (accumulator.isTracing()) {
             context.getConfiguration().getLogger().info(
@@ -145,13 +226,15 @@ public class AccumulatorData implements IAccumulatorData {
      * @param rule    the rule to apply
      * @param node    the node that was matched
      * @param isPostDescent false for the pre-descent visit to a node, true for the post-descent visit
+     * @param key     for a TinyTree, the key of the visit
      * @param value   the value of the accumulator before applying the rule
      * @param context the dynamic evaluation context
      * @return the value of the accumulator after applying the rule
      * @throws XPathException if a dynamic error occurs during the evaluation
      */
 
-    private Sequence processRule(Rule rule, NodeInfo node, boolean isPostDescent, Sequence value, XPathContext context) throws XPathException {
+    private Sequence processRule(Rule rule, NodeInfo node, boolean isPostDescent, long key,
+                                 Sequence value, XPathContext context) throws XPathException {
         AccumulatorRule target = (AccumulatorRule) rule.getAction();
         Expression delta = target.getNewValueExpression();
         XPathContextMajor c2 = context.newCleanContext();
@@ -165,126 +248,281 @@ public class AccumulatorData implements IAccumulatorData {
         c2.setTemporaryOutputState(StandardNames.XSL_ACCUMULATOR_RULE);
         value = Evaluator.EAGER_SEQUENCE.evaluate(delta, c2);
         //System.err.println("Node " + ((TinyNodeImpl) node).getNodeNumber() + " : " + value);
-        if (node.getNodeKind() == Type.DOCUMENT && !isPostDescent && values.size() == 1) {
+        if (node.getNodeKind() == Type.DOCUMENT && !isPostDescent && size == 1) {
             // Overwrite the accumulator's initial value with the "before document start" value. Bug 4786.
-            values.clear();
+            size = 0;
         }
-        values.add(new DataPoint(new Visit(node, isPostDescent), value));
+        addValue(node, isPostDescent, key, value);
         return value;
     }
 
     /**
-     * Get the value of the accumulator for a given node
-     *
-     * @param node        the node in question
-     * @param postDescent false if the pre-descent value of the accumulator is required;
-     *                    false if the post-descent value is wanted.
-     * @return the value of the accumulator for this node
+     * Record the value of the accumulator following a visit to a node. Visits must be recorded
+     * in the order in which they occur.
      */
 
-//    public Sequence getValue(NodeInfo node, boolean postDescent) {
-//        Visit visit = new Visit(node, postDescent);
-//        return search(0, values.size(), visit);
-//    }
+    private void addValue(NodeInfo node, boolean isPostDescent, long key, Sequence value) {
+        if (size == values.length) {
+            int newLength = size * 2;
+            values = Arrays.copyOf(values, newLength);
+            if (tree != null) {
+                visitKeys = Arrays.copyOf(visitKeys, newLength);
+            } else {
+                visitNodes = Arrays.copyOf(visitNodes, newLength);
+                visitIsPostDescent = Arrays.copyOf(visitIsPostDescent, newLength);
+            }
+        }
+        values[size] = value;
+        if (tree != null) {
+            visitKeys[size] = key;
+        } else {
+            visitNodes[size] = node;
+            visitIsPostDescent[size] = isPostDescent;
+        }
+        size++;
+    }
 
-    @Override
-    public Sequence getValue(NodeInfo node, boolean postDescent) {
-        Visit visit = new Visit(node, postDescent);
-        return search(0, values.size(), visit);
-        //System.err.println("Searched " + values.size() + " " + ((TinyNodeImpl) visit.node).getNodeNumber() + " : " + seq);
+    private void trim() {
+        values = Arrays.copyOf(values, size);
+        if (tree != null) {
+            visitKeys = Arrays.copyOf(visitKeys, size);
+        } else {
+            visitNodes = Arrays.copyOf(visitNodes, size);
+            visitIsPostDescent = Arrays.copyOf(visitIsPostDescent, size);
+        }
     }
 
     /**
-     * Recursive binary chop search for the value applicable to a given node
+     * Get the key representing a visit to a node in a TinyTree. Keys compare in the order
+     * of the visits: the pre-descent visits to nodes occur in order of node number, and the post-descent
+     * visit to a node occurs after the pre-descent visit to its last descendant and before the pre-descent
+     * visit to the next node; post-descent visits occurring at the same point are ordered deepest first.
      *
-     * @param start  the start index of the search
-     * @param end    the end index of the search
-     * @param sought the visit being sought
-     * @return the value associated with this node
+     * @param tree           the TinyTree
+     * @param node           the node, which must be in the TinyTree
+     * @param isPostDescent  true for the post-descent visit, false for the pre-descent visit
+     * @param lastDescendant for the post-descent visit, the node number of the last descendant of the node
+     *                       (or of the node itself, if it has no descendants). Not used for the pre-descent visit,
+     *                       or for the text node child of a TinyTextualElement.
+     * @return the key of the visit
      */
 
-    private Sequence search(int start, int end, Visit sought) {
-        //System.err.println("-- Search " + start + ".." + end);
-        if (start == end) {
-            // sometimes we want the value for the visit we've found, sometimes for the previous visit
-            int rel = sought.compareTo(values.get(start).visit);
-            if (rel < 0 /*|| (rel == 0 && sought.isPostDescent)*/) {
-                return values.get(start - 1).value;
-            } else {
-                return values.get(start).value;
+    static long getVisitKey(TinyTree tree, NodeInfo node, boolean isPostDescent, int lastDescendant) {
+        int nodeNr;
+        int depth;
+        if (node instanceof TinyNodeImpl) {
+            nodeNr = ((TinyNodeImpl) node).getNodeNumber();
+            if (!isPostDescent) {
+                return (long) nodeNr << 17;
             }
+            depth = tree.getNodeDepthArray()[nodeNr];
+            nodeNr = lastDescendant;
+        } else {
+            // The text node child of a TinyTextualElement, which has no node number of its own.
+            // Both its visits occur between the visits to its parent, which has no other children.
+            nodeNr = ((TinyNodeImpl) node.getParent()).getNodeNumber();
+            if (!isPostDescent) {
+                return ((long) nodeNr << 17) | 1;
+            }
+            depth = tree.getNodeDepthArray()[nodeNr] + 1;
         }
-        int mid = (start + end) / 2;
-        if (sought.compareTo(values.get(mid).visit) <= 0) {
-            return search(start, mid, sought);
+        return ((long) nodeNr << 17) | 0x10000 | (0xFFFF - depth);
+    }
+
+    /**
+     * Get the key representing a visit to a node in this accumulator's TinyTree
+     */
+
+    private long getVisitKey(NodeInfo node, boolean isPostDescent) {
+        if (isPostDescent && node instanceof TinyNodeImpl) {
+            return getVisitKey(tree, node, true, getLastDescendant(((TinyNodeImpl) node).getNodeNumber()));
         } else {
-            return search(mid + 1, end, sought);
+            return getVisitKey(tree, node, isPostDescent, -1);
         }
+    }
 
-        // 9.6:
-//        int mid = (start + end) / 2;
-//        if (sought.compareTo(values.get(mid).visit) <= 0) {
-//            return search(start, mid, sought);
-//        } else {
-//            return search(mid + 1, end, sought);
-//        }
+    /**
+     * Get the last descendant of a node in a TinyTree: that is, the node preceding the first node that
+     * follows it in document order, found by following next-sibling and parent pointers
+     */
+
+    private int getLastDescendant(int nodeNr) {
+        int[] next = tree.getNextPointerArray();
+        int n = nodeNr;
+        while (true) {
+            int following = next[n];
+            if (following > n) {
+                return following - 1;
+            } else if (following < 0) {
+                // no following node within the document
+                return getDocumentEnd();
+            }
+            n = following;
+        }
     }
 
     /**
-     * Class representing one of the two visits to a node during a tree-walk
+     * Get the node number of the last node in the document. This is known once the traversal is complete;
+     * before that, it is found by scanning the depths of the nodes that follow the root.
      */
 
-    private static class Visit implements Comparable<Visit> {
-        public NodeInfo node;
-        public boolean isPostDescent;
+    private int getDocumentEnd() {
+        if (docEnd < 0) {
+            short[] depths = tree.getNodeDepthArray();
+            int limit = tree.getNumberOfNodes();
+            int n = rootNr + 1;
+            while (n < limit && depths[n] > depths[rootNr]) {
+                n++;
+            }
+            docEnd = n - 1;
+        }
+        return docEnd;
+    }
+
+    /**
+     * Get the value of the accumulator for a given node
+     *
+     * @param node        the node in question
+     * @param postDescent false if the pre-descent value of the accumulator is required;
+     *                    true if the post-descent value is wanted.
+     * @return the value of the accumulator for this node
+     * @throws XPathException if a dynamic error occurs computing the value
+     */
+
+    @Override
+    public Sequence getValue(NodeInfo node, boolean postDescent) throws XPathException {
+        if (!complete) {
+            synchronized (lock) {
+                if (!complete) {
+                    // the arrays may be reallocated as the traversal advances
+                    int index = advanceTo(node, postDescent);
+                    return values[index];
+                }
+            }
+        }
+        if (tree != null && node.getTreeInfo() == tree) {
+            return values[search(getVisitKey(node, postDescent))];
+        } else {
+            return values[search(node, postDescent)];
+        }
+    }
+
+    /**
+     * Advance the traversal until the value for a given visit is known, and find the value.
+     * Must be called while holding the lock.
+     *
+     * @param node        the node
+     * @param postDescent true for the post-descent visit, false for the pre-descent visit
+     * @return the index of the value applicable to the visit
+     * @throws XPathException if the evaluation of the accumulator fails
+     */
 
-        public Visit(NodeInfo node, boolean isPostDescent) {
-            this.node = node;
-            this.isPostDescent = isPostDescent;
+    private int advanceTo(NodeInfo node, boolean postDescent) throws XPathException {
+        boolean tiny = tree != null && node.getTreeInfo() == tree;
+        long sought = tiny ? getVisitKey(node, postDescent) : 0;
+        while (!complete) {
+            if (failure != null) {
+                throw failure;
+            }
+            if (tiny ? traversal.hasPassed(sought) : traversal.hasPassed(node, postDescent)) {
+                break;
+            }
+            traversal.advance(this);
         }
+        return tiny ? search(sought) : search(node, postDescent);
+    }
 
-        /**
-         * Compare the order of two node visits.
-         *
-         * @param other the other node visit
-         * @return -1 if this visit is earlier, 0 if they are the same visit, +1 if this visit is later
-         */
-
-        @Override
-        public int compareTo(Visit other) {
-            int relation = Navigator.comparePosition(node, other.node);
-            switch (relation) {
-                case AxisInfo.SELF:
-                    if (isPostDescent == other.isPostDescent) {
-                        return 0;
-                    } else {
-                        return isPostDescent ? +1 : -1;
-                    }
-                case AxisInfo.PRECEDING:
-                    return -1;
-                case AxisInfo.FOLLOWING:
-                    return +1;
-                case AxisInfo.ANCESTOR:
-                    return isPostDescent ? +1 : -1;
-                case AxisInfo.DESCENDANT:
-                    return other.isPostDescent ? -1 : +1;
-                default:
-                    throw new IllegalStateException();
+    /**
+     * Find the last value recorded at or before a visit to a node in a TinyTree
+     *
+     * @param sought the key of the visit
+     * @return the index of the value applicable to the visit
+     */
+
+    private int search(long sought) {
+        long[] keys = visitKeys;
+        int hint = lastFound;
+        // try the previous result, and the one after it, before doing a binary search
+        if (keys[hint] <= sought) {
+            if (hint + 1 == size || keys[hint + 1] > sought) {
+                return hint;
+            }
+            if (hint + 2 == size || keys[hint + 2] > sought) {
+                lastFound = hint + 1;
+                return hint + 1;
             }
         }
+        int start = 0;
+        int end = size - 1;
+        while (start < end) {
+            int mid = (start + end + 1) >>> 1;
+            if (keys[mid] <= sought) {
+                start = mid;
+            } else {
+                end = mid - 1;
+            }
+        }
+        lastFound = start;
+        return start;
     }
 
     /**
-     * Class representing a value of the accumulator immediately after a particular visit to a node.
+     * Find the last value recorded at or before a visit to a node, for a tree other than a TinyTree
+     *
+     * @param node        the node
+     * @param postDescent true for the post-descent visit, false for the pre-descent visit
+     * @return the index of the value applicable to the visit
      */
 
-    private static class DataPoint {
-        public Visit visit;
-        public Sequence value;
+    private int search(NodeInfo node, boolean postDescent) {
+        int hint = lastFound;
+        if (compareVisits(visitNodes[hint], visitIsPostDescent[hint], node, postDescent) <= 0 &&
+                (hint + 1 == size || compareVisits(visitNodes[hint + 1], visitIsPostDescent[hint + 1], node, postDescent) > 0)) {
+            return hint;
+        }
+        int start = 0;
+        int end = size - 1;
+        while (start < end) {
+            int mid = (start + end + 1) >>> 1;
+            if (compareVisits(visitNodes[mid], visitIsPostDescent[mid], node, postDescent) <= 0) {
+                start = mid;
+            } else {
+                end = mid - 1;
+            }
+        }
+        lastFound = start;
+        return start;
+    }
+
+    /**
+     * Compare the order of two node visits.
+     *
+     * @param node1          the first node
+     * @param isPostDescent1 true if the first visit is the post-descent visit
+     * @param node2          the second node
+     * @param isPostDescent2 true if the second visit is the post-descent visit
+     * @return -1 if the first visit is earlier, 0 if they are the same visit, +1 if the first visit is later
+     */
 
-        public DataPoint(Visit visit, Sequence value) {
-            this.visit = visit;
-            this.value = value;
+    static int compareVisits(NodeInfo node1, boolean isPostDescent1, NodeInfo node2, boolean isPostDescent2) {
+        int relation = Navigator.comparePosition(node1, node2);
+        switch (relation) {
+            case AxisInfo.SELF:
+                if (isPostDescent1 == isPostDescent2) {
+                    return 0;
+                } else {
+                    return isPostDescent1 ? +1 : -1;
+                }
+            case AxisInfo.PRECEDING:
+                return -1;
+            case AxisInfo.FOLLOWING:
+                return +1;
+            case AxisInfo.ANCESTOR:
+                return isPostDescent1 ? +1 : -1;
+            case AxisInfo.DESCENDANT:
+                return isPostDescent2 ? -1 : +1;
+            default:
+                throw new IllegalStateException();
         }
     }
 
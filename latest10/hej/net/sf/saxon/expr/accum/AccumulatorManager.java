@@ -33,6 +33,11 @@ import java.util.WeakHashMap;
  * <p>It is important that the accumulator data for a tree does not cause the tree to be locked in
  * memory for the duration of a transformation. We therefore keep a weak reference to the tree. For
  * each tree, until it is garbage collected, there is a map from accumulator names to accumulator data.</p>
+ *
+ * <p>The values of an accumulator are computed lazily, as far as the nodes for which values are
+ * requested. Accumulators that do not depend on each other share one traversal of the tree. Because the
+ * data for an accumulator may be extended at any time, access to it is synchronized on the
+ * AccumulatorManager until the traversal of the tree is complete.</p>
  */
 public class AccumulatorManager {
 
@@ -43,6 +48,9 @@ public class AccumulatorManager {
     private transient WeakHashMap<TreeInfo, Set<? extends Accumulator>> applicableAccumulators =
             new WeakHashMap<TreeInfo, Set<? extends Accumulator>>();
 
+    private transient WeakHashMap<TreeInfo, AccumulatorTraversal> sharedTraversals =
+            new WeakHashMap<TreeInfo, AccumulatorTraversal>();
+
     public AccumulatorManager() {
     }
 
@@ -112,7 +120,7 @@ public class AccumulatorManager {
             XPathContextMajor c2 = context.newCleanContext();
             c2.setCurrentComponent(acc.getDeclaringComponent());
             try {
-                d.buildIndex(doc.getRootNode(), c2);
+                d.start(allocateTraversal(doc, acc), c2);
                 map.put(acc, d);
                 return d;
             } catch (XPathException err) {
@@ -123,6 +131,35 @@ public class AccumulatorManager {
         }
     }
 
+    /**
+     * Allocate a traversal of a document to compute the values of an accumulator. Accumulators that do not
+     * depend on other accumulators share a traversal; others have a traversal of their own, so that evaluating
+     * one accumulator can cause another to be evaluated further.
+     *
+     * @param doc the document
+     * @param acc the accumulator
+     * @return the traversal to be used
+     */
+
+    private AccumulatorTraversal allocateTraversal(TreeInfo doc, Accumulator acc) {
+        NodeInfo root = doc.getRootNode();
+        if (!acc.isSelfContained()) {
+            return new AccumulatorTraversal(root, this);
+        }
+        AccumulatorTraversal shared = sharedTraversals.get(doc);
+        if (shared == null || shared.isFinished()) {
+            shared = new AccumulatorTraversal(root, this);
+            sharedTraversals.put(doc, shared);
+            return shared;
+        } else if (!shared.isStarted()) {
+            return shared;
+        } else {
+            AccumulatorTraversal traversal = new AccumulatorTraversal(root, this);
+            traversal.setJoinTarget(shared);
+            return traversal;
+        }
+    }
+
     /**
      * Add the accumulator data for a particular accumulator, if it does not already exist
      * @param doc the document/tree whose accumulator data is being added
@@ -0,0 +1,281 @@
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Copyright (c) 2020 Saxonica Limited
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is "Incompatible With Secondary Licenses", as defined by the Mozilla Public License, v. 2.0.
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+package net.sf.saxon.expr.accum;
+
+import net.sf.saxon.om.AxisInfo;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.tree.iter.AxisIterator;
+import net.sf.saxon.tree.tiny.TinyNodeImpl;
+import net.sf.saxon.tree.tiny.TinyTree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A resumable traversal of a document, visiting each node before and after its descendants, and
+ * computing the values of one or more accumulators as it goes. The traversal is advanced one visit
+ * at a time, on demand, so that the values of an accumulator are computed only as far as the last
+ * visit for which a value has been requested.
+ *
+ * <p>Accumulators that do not depend on other accumulators (see {@link Accumulator#isSelfContained()})
+ * share a single traversal of each document. An accumulator whose values are first requested after the shared
+ * traversal has started is given a private traversal, which is merged into the shared traversal when it
+ * catches up with it, or when the shared traversal is next advanced from the same position.</p>
+ *
+ * <p>All methods must be called while holding the lock returned by {@link #getLock()}.</p>
+ */
+
+class AccumulatorTraversal {
+
+    private final NodeInfo root;
+    private final Object lock;
+    private final TinyTree tree;
+    private final List<AccumulatorData> members = new ArrayList<>(4);
+
+    // A shared traversal which this traversal will merge into, when they reach the same position
+    private AccumulatorTraversal joinTarget;
+    // Private traversals waiting to merge into this one
+    private List<AccumulatorTraversal> joiners;
+
+    // The path from the root to the current node, with an iterator over the remaining children of each node
+    private NodeInfo[] nodeStack = new NodeInfo[32];
+    private AxisIterator[] childStack = new AxisIterator[32];
+    private int depth = -1;
+
+    private boolean started = false;
+    private boolean finished = false;
+    private boolean stepping = false;
+    private long visitCount = 0;
+
+    // The most recent visit: its key (for a TinyTree), or its node and phase (for other trees)
+    private long lastKey;
+    private NodeInfo lastNode;
+    private boolean lastPostDescent;
+    // For a TinyTree: the number of the last node to have had its pre-descent visit
+    private int lastNodeNr;
+
+    /**
+     * Create a traversal
+     *
+     * @param root the root of the tree to be traversed
+     * @param lock the object used to synchronize access to the traversal and to the data
+     *             of its member accumulators
+     */
+
+    AccumulatorTraversal(NodeInfo root, Object lock) {
+        this.root = root;
+        this.lock = lock;
+        this.tree = root instanceof TinyNodeImpl ? ((TinyNodeImpl) root).getTree() : null;
+    }
+
+    NodeInfo getRoot() {
+        return root;
+    }
+
+    Object getLock() {
+        return lock;
+    }
+
+    boolean isStarted() {
+        return started;
+    }
+
+    boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Add an accumulator whose values are to be computed by this traversal. The data for the
+     * accumulator must contain the values for all visits up to the current position.
+     *
+     * @param data the accumulator data
+     */
+
+    void addMember(AccumulatorData data) {
+        members.add(data);
+        data.setTraversal(this);
+    }
+
+    /**
+     * Nominate a shared traversal that this traversal will merge into, once they reach the same position
+     *
+     * @param target the shared traversal
+     */
+
+    void setJoinTarget(AccumulatorTraversal target) {
+        joinTarget = target;
+        if (target.joiners == null) {
+            target.joiners = new ArrayList<>(4);
+        }
+        target.joiners.add(this);
+    }
+
+    /**
+     * Ask whether the traversal has passed a given visit, for a TinyTree
+     *
+     * @param key the key of the visit
+     * @return true if the visit has been processed
+     */
+
+    boolean hasPassed(long key) {
+        return finished || (started && key <= lastKey);
+    }
+
+    /**
+     * Ask whether the traversal has passed a given visit, for a tree other than a TinyTree
+     *
+     * @param node          the node
+     * @param isPostDescent true for the post-descent visit, false for the pre-descent visit
+     * @return true if the visit has been processed
+     */
+
+    boolean hasPassed(NodeInfo node, boolean isPostDescent) {
+        return finished ||
+                (started && AccumulatorData.compareVisits(lastNode, lastPostDescent, node, isPostDescent) >= 0);
+    }
+
+    /**
+     * Advance the traversal by one visit, or merge it with the shared traversal if they have reached the
+     * same position
+     *
+     * @param requester the accumulator whose value is required
+     * @throws XPathException if the traversal is already being advanced, which means that the value of an
+     *                        accumulator depends on itself
+     */
+
+    void advance(AccumulatorData requester) throws XPathException {
+        if (stepping) {
+            throw new XPathException("Accumulator " + requester.getAccumulator().getAccumulatorName().getDisplayName() +
+                                             " requires access to its own value", "XTDE3400");
+        }
+        if (joinTarget != null) {
+            AccumulatorTraversal target = joinTarget;
+            if (target.finished) {
+                joinTarget = null;
+            } else if (target.visitCount == visitCount && !target.stepping) {
+                target.absorb(this);
+                return;
+            }
+        }
+        if (joiners != null) {
+            for (Iterator<AccumulatorTraversal> iter = joiners.iterator(); iter.hasNext(); ) {
+                AccumulatorTraversal joiner = iter.next();
+                if (joiner.finished || joiner.joinTarget != this) {
+                    iter.remove();
+                } else if (joiner.visitCount == visitCount && !joiner.stepping) {
+                    iter.remove();
+                    absorb(joiner);
+                }
+            }
+        }
+        stepping = true;
+        try {
+            step();
+        } finally {
+            stepping = false;
+        }
+    }
+
+    /**
+     * Take over the members of another traversal that has reached the same position as this one
+     */
+
+    private void absorb(AccumulatorTraversal other) {
+        for (AccumulatorData member : other.members) {
+            addMember(member);
+        }
+        other.members.clear();
+        other.joinTarget = null;
+        other.finished = true;
+        if (joiners != null) {
+            joiners.remove(other);
+        }
+    }
+
+    /**
+     * Perform the next visit, and notify it to each member accumulator. A member whose rule fails
+     * is removed from the traversal; the error is reported when its value is next requested.
+     */
+
+    private void step() {
+        NodeInfo node;
+        boolean isPostDescent;
+        if (!started) {
+            started = true;
+            node = root;
+            isPostDescent = false;
+            push(root);
+        } else {
+            AxisIterator kids = childStack[depth];
+            NodeInfo kid = kids == null ? null : kids.next();
+            if (kid != null) {
+                node = kid;
+                isPostDescent = false;
+                push(kid);
+            } else {
+                node = nodeStack[depth];
+                isPostDescent = true;
+                nodeStack[depth] = null;
+                childStack[depth] = null;
+                depth--;
+            }
+        }
+        long key = 0;
+        if (tree != null) {
+            if (!isPostDescent && node instanceof TinyNodeImpl) {
+                // nodes are visited in order of node number, so the last node visited before the
+                // post-descent visit to a node is its last descendant
+                lastNodeNr = ((TinyNodeImpl) node).getNodeNumber();
+            }
+            key = AccumulatorData.getVisitKey(tree, node, isPostDescent, lastNodeNr);
+        }
+        for (int i = 0; i < members.size(); ) {
+            AccumulatorData member = members.get(i);
+            try {
+                member.visit(node, isPostDescent, key);
+                i++;
+            } catch (XPathException e) {
+                members.remove(i);
+                member.fail(e);
+            } catch (StackOverflowError e) {
+                members.remove(i);
+                member.fail(new XPathException.StackOverflow(
+                        "Too many nested accumulator evaluations. The accumulator definition may have cyclic dependencies",
+                        "XTDE3400", member.getAccumulator()));
+            }
+        }
+        visitCount++;
+        lastKey = key;
+        lastNode = node;
+        lastPostDescent = isPostDescent;
+        if (depth < 0) {
+            finished = true;
+            for (AccumulatorData member : members) {
+                member.finish(root, key, lastNodeNr);
+            }
+            members.clear();
+            nodeStack = null;
+            childStack = null;
+        }
+    }
+
+    private void push(NodeInfo node) {
+        depth++;
+        if (depth == nodeStack.length) {
+            nodeStack = Arrays.copyOf(nodeStack, depth * 2);
+            childStack = Arrays.copyOf(childStack, depth * 2);
+        }
+        nodeStack[depth] = node;
+        childStack[depth] = node.hasChildNodes() ? node.iterateAxis(AxisInfo.CHILD) : null;
+    }
+}
+
+// Copyright (c) 2020 Saxonica Limited
@@ -0,0 +1,272 @@
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Copyright (c) 2020 Saxonica Limited
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is "Incompatible With Secondary Licenses", as defined by the Mozilla Public License, v. 2.0.
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+package net.sf.saxon.expr.bytecode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a Java class file for a class that has no fields and no interfaces, and whose methods are written
+ * using a {@link CodeWriter}.
+ *
+ * <p>The class file has version 49 (Java 5). Class files of this version are verified by type inference, so
+ * the methods need no <code>StackMapTable</code> attributes, which keeps the writer small.</p>
+ */
+
+final class ClassFileWriter {
+
+    private static final int VERSION = 49;
+
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    private final ByteVector pool = new ByteVector();
+    private int poolCount = 1;
+    private final Map<String, Integer> poolIndex = new HashMap<>();
+    private final int thisClass;
+    private final int superClass;
+    private final List<byte[]> methods = new ArrayList<>();
+
+    /**
+     * Create a class file writer
+     *
+     * @param className the internal name of the class, for example <code>a/b/C</code>
+     * @param superName the internal name of the superclass
+     */
+
+    ClassFileWriter(String className, String superName) {
+        thisClass = classRef(className);
+        superClass = classRef(superName);
+    }
+
+    private int entry(String key) {
+        Integer index = poolIndex.get(key);
+        return index == null ? 0 : index;
+    }
+
+    private int newEntry(String key, int slots) {
+        int index = poolCount;
+        poolIndex.put(key, index);
+        poolCount += slots;
+        if (poolCount > 0xffff) {
+            throw new IllegalStateException("Too many constants");
+        }
+        return index;
+    }
+
+    int utf8(String value) {
+        String key = "U" + value;
+        int index = entry(key);
+        if (index == 0) {
+            pool.putByte(1);
+            pool.putUTF(value);
+            index = newEntry(key, 1);
+        }
+        return index;
+    }
+
+    int classRef(String internalName) {
+        String key = "C" + internalName;
+        int index = entry(key);
+        if (index == 0) {
+            int name = utf8(internalName);
+            pool.putByte(7).putShort(name);
+            index = newEntry(key, 1);
+        }
+        return index;
+    }
+
+    int string(String value) {
+        String key = "S" + value;
+        int index = entry(key);
+        if (index == 0) {
+            int utf = utf8(value);
+            pool.putByte(8).putShort(utf);
+            index = newEntry(key, 1);
+        }
+        return index;
+    }
+
+    int integer(int value) {
+        String key = "I" + value;
+        int index = entry(key);
+        if (index == 0) {
+            pool.putByte(3).putInt(value);
+            index = newEntry(key, 1);
+        }
+        return index;
+    }
+
+    int doubleConstant(double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        String key = "D" + bits;
+        int index = entry(key);
+        if (index == 0) {
+            pool.putByte(6).putInt((int) (bits >>> 32)).putInt((int) bits);
+            index = newEntry(key, 2);
+        }
+        return index;
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        String key = "N" + name + ' ' + descriptor;
+        int index = entry(key);
+        if (index == 0) {
+            int n = utf8(name);
+            int d = utf8(descriptor);
+            pool.putByte(12).putShort(n).putShort(d);
+            index = newEntry(key, 1);
+        }
+        return index;
+    }
+
+    int methodRef(String owner, String name, String descriptor, boolean isInterface) {
+        String key = (isInterface ? "J" : "M") + owner + ' ' + name + ' ' + descriptor;
+        int index = entry(key);
+        if (index == 0) {
+            int c = classRef(owner);
+            int nt = nameAndType(name, descriptor);
+            pool.putByte(isInterface ? 11 : 10).putShort(c).putShort(nt);
+            index = newEntry(key, 1);
+        }
+        return index;
+    }
+
+    /**
+     * Add a method to the class
+     *
+     * @param access     the access flags of the method
+     * @param name       the name of the method
+     * @param descriptor the method descriptor
+     * @param code       the code of the method, which must be complete
+     */
+
+    void addMethod(int access, String name, String descriptor, CodeWriter code) {
+        byte[] body = code.toByteArray();
+        ByteVector method = new ByteVector();
+        method.putShort(access).putShort(utf8(name)).putShort(utf8(descriptor)).putShort(1);
+        method.putShort(utf8("Code")).putInt(12 + body.length);
+        method.putShort(code.getMaxStack()).putShort(code.getMaxLocals()).putInt(body.length);
+        method.putBytes(body);
+        method.putShort(0).putShort(0);  // no exception table, no attributes
+        methods.add(method.toByteArray());
+    }
+
+    /**
+     * Get the class file
+     *
+     * @return the bytes of the class file
+     */
+
+    byte[] toByteArray() {
+        ByteVector out = new ByteVector();
+        out.putInt(0xCAFEBABE).putShort(0).putShort(VERSION);
+        out.putShort(poolCount).putBytes(pool.toByteArray());
+        out.putShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER).putShort(thisClass).putShort(superClass);
+        out.putShort(0).putShort(0);  // no interfaces, no fields
+        out.putShort(methods.size());
+        for (byte[] method : methods) {
+            out.putBytes(method);
+        }
+        out.putShort(0);  // no attributes
+        return out.toByteArray();
+    }
+
+    /**
+     * A growable array of bytes, written in the big-endian order used by class files
+     */
+
+    static final class ByteVector {
+
+        private byte[] data = new byte[256];
+        private int length = 0;
+
+        private void ensure(int extra) {
+            if (length + extra > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, length + extra));
+            }
+        }
+
+        int length() {
+            return length;
+        }
+
+        ByteVector putByte(int b) {
+            ensure(1);
+            data[length++] = (byte) b;
+            return this;
+        }
+
+        ByteVector putShort(int s) {
+            ensure(2);
+            data[length++] = (byte) (s >>> 8);
+            data[length++] = (byte) s;
+            return this;
+        }
+
+        ByteVector putInt(int i) {
+            return putShort(i >>> 16).putShort(i);
+        }
+
+        ByteVector putBytes(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, data, length, bytes.length);
+            length += bytes.length;
+            return this;
+        }
+
+        /**
+         * Overwrite two bytes already written
+         *
+         * @param position the offset of the first byte
+         * @param s        the value to be written
+         */
+
+        void setShort(int position, int s) {
+            data[position] = (byte) (s >>> 8);
+            data[position + 1] = (byte) s;
+        }
+
+        /**
+         * Write a string in the modified UTF-8 encoding used in class files, preceded by its length
+         *
+         * @param s the string
+         */
+
+        ByteVector putUTF(String s) {
+            int start = length;
+            putShort(0);
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c >= 0x0001 && c <= 0x007F) {
+                    putByte(c);
+                } else if (c <= 0x07FF) {
+                    putByte(0xC0 | (c >> 6)).putByte(0x80 | (c & 0x3F));
+                } else {
+                    putByte(0xE0 | (c >> 12)).putByte(0x80 | ((c >> 6) & 0x3F)).putByte(0x80 | (c & 0x3F));
+                }
+            }
+            int bytes = length - start - 2;
+            if (bytes > 0xffff) {
+                throw new IllegalStateException("String constant too long");
+            }
+            setShort(start, bytes);
+            return this;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(data, length);
+        }
+    }
+}
+
+// Copyright (c) 2020 Saxonica Limited
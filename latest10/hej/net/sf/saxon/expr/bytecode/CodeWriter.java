@@ -0,0 +1,288 @@
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Copyright (c) 2020 Saxonica Limited
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is "Incompatible With Secondary Licenses", as defined by the Mozilla Public License, v. 2.0.
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+package net.sf.saxon.expr.bytecode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes the bytecode of one method, keeping track of the depth of the operand stack and the number of
+ * local variables so that the <code>max_stack</code> and <code>max_locals</code> values of the method
+ * can be computed. Only the instructions needed by the {@link ExpressionCompiler} are provided.
+ */
+
+final class CodeWriter {
+
+    static final int ACONST_NULL = 0x01;
+    static final int ICONST_M1 = 0x02;
+    static final int ICONST_0 = 0x03;
+    static final int ICONST_1 = 0x04;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int LDC = 0x12;
+    static final int LDC_W = 0x13;
+    static final int LDC2_W = 0x14;
+    static final int ALOAD = 0x19;
+    static final int ASTORE = 0x3a;
+    static final int DUP = 0x59;
+    static final int DADD = 0x63;
+    static final int DSUB = 0x67;
+    static final int DMUL = 0x6b;
+    static final int DDIV = 0x6f;
+    static final int DREM = 0x73;
+    static final int DCMPL = 0x97;
+    static final int DCMPG = 0x98;
+    static final int IFEQ = 0x99;
+    static final int IFNE = 0x9a;
+    static final int IFLT = 0x9b;
+    static final int IFGE = 0x9c;
+    static final int IFGT = 0x9d;
+    static final int IFLE = 0x9e;
+    static final int GOTO = 0xa7;
+    static final int IRETURN = 0xac;
+    static final int ARETURN = 0xb0;
+    static final int RETURN = 0xb1;
+    static final int INVOKEVIRTUAL = 0xb6;
+    static final int INVOKESPECIAL = 0xb7;
+    static final int INVOKEINTERFACE = 0xb9;
+    static final int NEW = 0xbb;
+    static final int IFNULL = 0xc6;
+
+    private final ClassFileWriter classFile;
+    private final ClassFileWriter.ByteVector code = new ClassFileWriter.ByteVector();
+    private final List<Label> labels = new ArrayList<>();
+    private int stack = 0;
+    private int maxStack = 0;
+    private int maxLocals;
+
+    /**
+     * A position in the code that can be the target of a branch instruction
+     */
+
+    static final class Label {
+        private int position = -1;
+        private int stack = -1;
+        private final List<Integer> branches = new ArrayList<>();
+    }
+
+    /**
+     * Create a writer for the code of a method
+     *
+     * @param classFile     the class file to which the method belongs, which holds the constant pool
+     * @param argumentSlots the number of local variable slots used by <code>this</code> and the arguments
+     */
+
+    CodeWriter(ClassFileWriter classFile, int argumentSlots) {
+        this.classFile = classFile;
+        this.maxLocals = argumentSlots;
+    }
+
+    /**
+     * Allocate a local variable slot for a reference or int value
+     *
+     * @return the slot number
+     */
+
+    int newLocal() {
+        if (maxLocals >= 0xff) {
+            throw new IllegalStateException("Too many local variables");
+        }
+        return maxLocals++;
+    }
+
+    private void adjustStack(int change) {
+        stack += change;
+        if (stack > maxStack) {
+            maxStack = stack;
+        }
+    }
+
+    /**
+     * Write an instruction that has no operands
+     *
+     * @param opcode      the opcode
+     * @param stackChange the change in the depth of the operand stack, in slots
+     */
+
+    void op(int opcode, int stackChange) {
+        code.putByte(opcode);
+        adjustStack(stackChange);
+    }
+
+    void loadInt(int value) {
+        if (value >= -1 && value <= 5) {
+            code.putByte(ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            code.putByte(BIPUSH).putByte(value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            code.putByte(SIPUSH).putShort(value);
+        } else {
+            loadConstant(classFile.integer(value));
+            return;
+        }
+        adjustStack(1);
+    }
+
+    void loadString(String value) {
+        loadConstant(classFile.string(value));
+    }
+
+    private void loadConstant(int index) {
+        if (index <= 0xff) {
+            code.putByte(LDC).putByte(index);
+        } else {
+            code.putByte(LDC_W).putShort(index);
+        }
+        adjustStack(1);
+    }
+
+    void loadDouble(double value) {
+        code.putByte(LDC2_W).putShort(classFile.doubleConstant(value));
+        adjustStack(2);
+    }
+
+    void aload(int slot) {
+        code.putByte(ALOAD).putByte(slot);
+        adjustStack(1);
+    }
+
+    void astore(int slot) {
+        code.putByte(ASTORE).putByte(slot);
+        adjustStack(-1);
+    }
+
+    void newObject(String internalName) {
+        code.putByte(NEW).putShort(classFile.classRef(internalName));
+        adjustStack(1);
+    }
+
+    /**
+     * Write a method call
+     *
+     * @param opcode     one of INVOKEVIRTUAL, INVOKESPECIAL or INVOKEINTERFACE
+     * @param owner      the internal name of the class or interface declaring the method
+     * @param name       the name of the method
+     * @param descriptor the method descriptor
+     */
+
+    void invoke(int opcode, String owner, String name, String descriptor) {
+        boolean isInterface = opcode == INVOKEINTERFACE;
+        int argumentSlots = argumentSlots(descriptor);
+        code.putByte(opcode).putShort(classFile.methodRef(owner, name, descriptor, isInterface));
+        if (isInterface) {
+            code.putByte(argumentSlots + 1).putByte(0);
+        }
+        adjustStack(returnSlots(descriptor) - argumentSlots - 1);
+    }
+
+    private static int argumentSlots(String descriptor) {
+        int slots = 0;
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            char c = descriptor.charAt(i);
+            boolean array = false;
+            while (c == '[') {
+                array = true;
+                c = descriptor.charAt(++i);
+            }
+            if (c == 'L') {
+                i = descriptor.indexOf(';', i);
+            }
+            slots += !array && (c == 'D' || c == 'J') ? 2 : 1;
+            i++;
+        }
+        return slots;
+    }
+
+    private static int returnSlots(String descriptor) {
+        char c = descriptor.charAt(descriptor.indexOf(')') + 1);
+        return c == 'V' ? 0 : (c == 'D' || c == 'J') ? 2 : 1;
+    }
+
+    /**
+     * Write a branch instruction
+     *
+     * @param opcode the opcode: GOTO, IFNULL, or one of the IFxx instructions that test an int
+     * @param target the target of the branch
+     */
+
+    void jump(int opcode, Label target) {
+        adjustStack(opcode == GOTO ? 0 : -1);
+        target.branches.add(code.length());
+        if (target.stack < 0) {
+            target.stack = stack;
+        } else if (target.stack != stack) {
+            throw new IllegalStateException("Inconsistent stack depth at branch target");
+        }
+        code.putByte(opcode).putShort(0);
+        if (!labels.contains(target)) {
+            labels.add(target);
+        }
+    }
+
+    /**
+     * Set the position of a label to the current position in the code
+     *
+     * @param label the label
+     */
+
+    void mark(Label label) {
+        label.position = code.length();
+        if (label.stack >= 0) {
+            stack = label.stack;
+        } else {
+            label.stack = stack;
+        }
+        if (!labels.contains(label)) {
+            labels.add(label);
+        }
+    }
+
+    /**
+     * Write a return instruction. The code following it is reachable only through a label.
+     *
+     * @param opcode IRETURN, ARETURN or RETURN
+     */
+
+    void returnValue(int opcode) {
+        code.putByte(opcode);
+        stack = 0;
+    }
+
+    int getMaxStack() {
+        return maxStack;
+    }
+
+    int getMaxLocals() {
+        return maxLocals;
+    }
+
+    /**
+     * Get the code, with the offsets of all branch instructions filled in
+     *
+     * @return the bytes of the code
+     */
+
+    byte[] toByteArray() {
+        for (Label label : labels) {
+            if (label.position < 0 && !label.branches.isEmpty()) {
+                throw new IllegalStateException("Branch to a label that has not been marked");
+            }
+            for (int branch : label.branches) {
+                int offset = label.position - branch;
+                if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+                    throw new IllegalStateException("Method too large");
+                }
+                code.setShort(branch + 1, offset);
+            }
+        }
+        return code.toByteArray();
+    }
+}
+
+// Copyright (c) 2020 Saxonica Limited
@@ -0,0 +1,207 @@
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Copyright (c) 2020 Saxonica Limited
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is "Incompatible With Secondary Licenses", as defined by the Mozilla Public License, v. 2.0.
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+package net.sf.saxon.expr.bytecode;
+
+import net.sf.saxon.expr.*;
+import net.sf.saxon.expr.parser.ContextItemStaticInfo;
+import net.sf.saxon.expr.parser.ExpressionTool;
+import net.sf.saxon.expr.parser.ExpressionVisitor;
+import net.sf.saxon.expr.parser.RebindingMap;
+import net.sf.saxon.om.Item;
+import net.sf.saxon.trace.ExpressionPresenter;
+import net.sf.saxon.trans.XPathException;
+
+/**
+ * A wrapper around an expression that can be compiled to a Java class by the {@link ExpressionCompiler}.
+ * The wrapped expression is interpreted until it has been evaluated a given number of times; it is then
+ * compiled, and subsequent evaluations use the compiled code.
+ *
+ * <p>If the compiled code cannot handle a particular evaluation (for example because an attribute value is
+ * not a valid number, so that the interpreter must raise an error), the evaluation is done by the interpreter
+ * instead. If this happens too often, the compiled code is discarded, and the expression is interpreted from
+ * then on.</p>
+ *
+ * <p>The wrapper is transparent: it is removed when the expression is type-checked or optimized again, and it
+ * exports the wrapped expression.</p>
+ */
+
+public class CompilationCandidate extends UnaryExpression {
+
+    // The minimum number of evaluations of the compiled code before its deoptimization rate is assessed
+    private static final int DEOPTIMIZATION_SAMPLE = 16;
+
+    private final int threshold;
+    private int evaluations = 0;
+    private int deoptimizations = 0;
+    private volatile CompiledExpression compiled;
+    private volatile boolean abandoned = false;
+
+    /**
+     * Create a compilation candidate
+     *
+     * @param target    the expression to be compiled, for which {@link ExpressionCompiler#isCompilable} is true
+     * @param threshold the number of evaluations after which the expression is compiled
+     */
+
+    private CompilationCandidate(Expression target, int threshold) {
+        super(target);
+        this.threshold = threshold;
+    }
+
+    /**
+     * Wrap every subexpression of an expression that can be compiled in a compilation candidate
+     *
+     * @param exp       the expression, typically the body of a template or function
+     * @param threshold the number of evaluations after which each subexpression is compiled
+     */
+
+    public static void inject(Expression exp, int threshold) {
+        for (Operand o : exp.operands()) {
+            Expression child = o.getChildExpression();
+            if (o.getOperandRole().isConstrainedClass() || child instanceof CompilationCandidate) {
+                continue;
+            }
+            if (ExpressionCompiler.isCompilable(child)) {
+                CompilationCandidate candidate = new CompilationCandidate(child, threshold);
+                ExpressionTool.copyLocationInfo(child, candidate);
+                candidate.setRetainedStaticContext(child.getRetainedStaticContext());
+                o.setChildExpression(candidate);
+            } else {
+                inject(child, threshold);
+            }
+        }
+    }
+
+    @Override
+    protected OperandRole getOperandRole() {
+        return OperandRole.SAME_FOCUS_ACTION;
+    }
+
+    @Override
+    public Expression typeCheck(ExpressionVisitor visitor, ContextItemStaticInfo contextInfo) throws XPathException {
+        return getBaseExpression().typeCheck(visitor, contextInfo);
+    }
+
+    @Override
+    public Expression optimize(ExpressionVisitor visitor, ContextItemStaticInfo contextInfo) throws XPathException {
+        return getBaseExpression().optimize(visitor, contextInfo);
+    }
+
+    @Override
+    public int getImplementationMethod() {
+        return EVALUATE_METHOD;
+    }
+
+    @Override
+    public Expression copy(RebindingMap rebindings) {
+        CompilationCandidate c2 = new CompilationCandidate(getBaseExpression().copy(rebindings), threshold);
+        ExpressionTool.copyLocationInfo(this, c2);
+        return c2;
+    }
+
+    @Override
+    public Item evaluateItem(XPathContext context) throws XPathException {
+        CompiledExpression code = getCompiledCode(context);
+        if (code != null) {
+            try {
+                return code.evaluateItem(context);
+            } catch (CompiledExpression.Deoptimization e) {
+                deoptimized();
+            }
+        }
+        return getBaseExpression().evaluateItem(context);
+    }
+
+    @Override
+    public boolean effectiveBooleanValue(XPathContext context) throws XPathException {
+        CompiledExpression code = getCompiledCode(context);
+        if (code != null) {
+            try {
+                return code.effectiveBooleanValue(context);
+            } catch (CompiledExpression.Deoptimization e) {
+                deoptimized();
+            }
+        }
+        return getBaseExpression().effectiveBooleanValue(context);
+    }
+
+    /**
+     * Count an evaluation, and get the compiled code to be used for it
+     *
+     * @param context the dynamic context
+     * @return the compiled code, or null if the expression is to be interpreted
+     */
+
+    private CompiledExpression getCompiledCode(XPathContext context) {
+        if (abandoned) {
+            return null;
+        }
+        // The counts are not synchronized: a lost update only changes the moment of compilation
+        // or of the assessment of the deoptimization rate
+        int count = ++evaluations;
+        CompiledExpression code = compiled;
+        if (code == null && count >= threshold) {
+            code = compile(context);
+        }
+        return code;
+    }
+
+    private synchronized CompiledExpression compile(XPathContext context) {
+        if (compiled == null && !abandoned) {
+            try {
+                compiled = ExpressionCompiler.compile(getBaseExpression(), context.getConfiguration().getConversionRules());
+                evaluations = 0;
+            } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+                context.getConfiguration().getLogger().warning(
+                        "Failed to compile expression " + getBaseExpression().toShortString() + ": " + e);
+                abandoned = true;
+            }
+        }
+        return compiled;
+    }
+
+    /**
+     * Note that the compiled code could not handle an evaluation, and discard it if this happens for
+     * more than one evaluation in {@link #DEOPTIMIZATION_SAMPLE}
+     */
+
+    private void deoptimized() {
+        int count = ++deoptimizations;
+        if (evaluations >= DEOPTIMIZATION_SAMPLE && count * DEOPTIMIZATION_SAMPLE > evaluations) {
+            abandoned = true;
+            compiled = null;
+        }
+    }
+
+    @Override
+    public String getExpressionName() {
+        return "compilationCandidate";
+    }
+
+    @Override
+    public String toString() {
+        return getBaseExpression().toString();
+    }
+
+    @Override
+    public String toShortString() {
+        return getBaseExpression().toShortString();
+    }
+
+    /**
+     * Diagnostic print of expression structure. The candidate is not shown: only the wrapped expression is
+     * exported.
+     */
+
+    @Override
+    public void export(ExpressionPresenter out) throws XPathException {
+        getBaseExpression().export(out);
+    }
+}
+
+// Copyright (c) 2020 Saxonica Limited
@@ -0,0 +1,196 @@
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Copyright (c) 2020 Saxonica Limited
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is "Incompatible With Secondary Licenses", as defined by the Mozilla Public License, v. 2.0.
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+package net.sf.saxon.expr.bytecode;
+
+import net.sf.saxon.expr.XPathContext;
+import net.sf.saxon.expr.parser.Token;
+import net.sf.saxon.expr.sort.UntypedNumericComparer;
+import net.sf.saxon.lib.ConversionRules;
+import net.sf.saxon.om.FingerprintedQName;
+import net.sf.saxon.om.Item;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.tree.tiny.TinyElementImpl;
+import net.sf.saxon.type.StringToDouble;
+import net.sf.saxon.type.Type;
+import net.sf.saxon.value.AtomicValue;
+import net.sf.saxon.value.BooleanValue;
+import net.sf.saxon.value.NumericValue;
+import net.sf.saxon.value.UntypedAtomicValue;
+
+/**
+ * The superclass of the classes generated by the {@link ExpressionCompiler}. A generated class implements
+ * either {@link #evaluateBoolean(XPathContext)}, for a comparison or a boolean combination of comparisons,
+ * or {@link #evaluateItem(XPathContext)}, for an arithmetic expression.
+ *
+ * <p>The protected methods of this class are called from the generated code. Where they meet a case that
+ * the generated code does not handle, for example a context item that is not a node, or an attribute value
+ * that cannot be converted to a number, they throw a {@link Deoptimization}; the expression is then evaluated
+ * by interpreting the expression tree instead, which produces the result or error that the specification
+ * requires.</p>
+ *
+ * <p>This class is public only because the generated classes, which are defined in their own class loader,
+ * must be able to extend it.</p>
+ */
+
+public abstract class CompiledExpression {
+
+    private int[] fingerprints;
+    private String[] uris;
+    private String[] localNames;
+    private Object[] constants;
+    private ConversionRules rules;
+    private StringToDouble toDouble;
+    private boolean booleanValued;
+
+    /**
+     * Thrown by the generated code when it cannot evaluate the expression for the current context
+     */
+
+    static final class Deoptimization extends RuntimeException {
+        private Deoptimization() {
+            super("Expression not handled by generated code", null, false, false);
+        }
+    }
+
+    private static final Deoptimization DEOPTIMIZE = new Deoptimization();
+
+    /**
+     * Initialize the compiled expression after the generated class has been instantiated
+     *
+     * @param attributeNames the names of the attributes read by the generated code, indexed by the
+     *                       argument to {@link #attribute(Item, int)}
+     * @param constants      the constants used by the generated code, indexed by the argument to
+     *                       {@link #compareUntyped(String, int, int)}
+     * @param rules          the conversion rules of the configuration
+     * @param booleanValued  true if the generated class implements {@link #evaluateBoolean(XPathContext)},
+     *                       false if it implements {@link #evaluateItem(XPathContext)}
+     */
+
+    void init(FingerprintedQName[] attributeNames, Object[] constants, ConversionRules rules, boolean booleanValued) {
+        int n = attributeNames.length;
+        fingerprints = new int[n];
+        uris = new String[n];
+        localNames = new String[n];
+        for (int i = 0; i < n; i++) {
+            fingerprints[i] = attributeNames[i].getFingerprint();
+            uris[i] = attributeNames[i].getURI();
+            localNames[i] = attributeNames[i].getLocalPart();
+        }
+        this.constants = constants;
+        this.rules = rules;
+        this.toDouble = rules.getStringToDoubleConverter();
+        this.booleanValued = booleanValued;
+    }
+
+    /**
+     * Evaluate a boolean-valued expression
+     *
+     * @param context the dynamic evaluation context
+     * @return 1 for true, 0 for false, or -1 for an empty sequence
+     * @throws Deoptimization if the generated code cannot evaluate the expression in this context
+     */
+
+    public int evaluateBoolean(XPathContext context) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Evaluate the expression
+     *
+     * @param context the dynamic evaluation context
+     * @return the value of the expression, or null for an empty sequence
+     * @throws Deoptimization if the generated code cannot evaluate the expression in this context
+     * @throws XPathException never, but permitted for the benefit of subclasses
+     */
+
+    public Item evaluateItem(XPathContext context) throws XPathException {
+        int result = evaluateBoolean(context);
+        return result < 0 ? null : BooleanValue.get(result > 0);
+    }
+
+    /**
+     * Get the effective boolean value of the expression
+     *
+     * @param context the dynamic evaluation context
+     * @return the effective boolean value
+     * @throws Deoptimization if the generated code cannot evaluate the expression in this context
+     * @throws XPathException never, but permitted for the benefit of subclasses
+     */
+
+    public boolean effectiveBooleanValue(XPathContext context) throws XPathException {
+        if (booleanValued) {
+            return evaluateBoolean(context) > 0;
+        }
+        AtomicValue value = (AtomicValue) evaluateItem(context);
+        return value != null && value.effectiveBooleanValue();
+    }
+
+    /**
+     * Get the value of an attribute of the context item, as the untyped atomic value of an
+     * {@link net.sf.saxon.expr.AttributeGetter} would have it
+     *
+     * @param item the context item
+     * @param name the index of the attribute name
+     * @return the value of the attribute, or null if there is no such attribute or the context item
+     * is not an element
+     * @throws Deoptimization if the context item is absent or is not a node
+     */
+
+    protected final String attribute(Item item, int name) {
+        if (item instanceof TinyElementImpl) {
+            return ((TinyElementImpl) item).getAttributeValue(fingerprints[name]);
+        }
+        if (item instanceof NodeInfo) {
+            NodeInfo node = (NodeInfo) item;
+            return node.getNodeKind() == Type.ELEMENT ? node.getAttributeValue(uris[name], localNames[name]) : null;
+        }
+        throw DEOPTIMIZE;
+    }
+
+    /**
+     * Convert an untyped value to a double
+     *
+     * @param value the value
+     * @return the double
+     * @throws Deoptimization if the value is not a valid xs:double
+     */
+
+    protected final double toDouble(String value) {
+        try {
+            return toDouble.stringToNumber(value);
+        } catch (NumberFormatException e) {
+            throw DEOPTIMIZE;
+        }
+    }
+
+    /**
+     * Compare an untyped value with a number, as a value comparison using an {@link UntypedNumericComparer}
+     * does
+     *
+     * @param value    the untyped value
+     * @param constant the index of the number among the constants
+     * @param operator the comparison operator, for example {@link Token#FEQ}
+     * @return the result of the comparison
+     * @throws Deoptimization if the value is not a valid xs:double
+     */
+
+    protected final boolean compareUntyped(String value, int constant, int operator) {
+        NumericValue number = (NumericValue) constants[constant];
+        if (number.isNaN()) {
+            return operator == Token.FNE;
+        }
+        try {
+            return UntypedNumericComparer.quickCompare(new UntypedAtomicValue(value), number, operator, rules);
+        } catch (XPathException e) {
+            throw DEOPTIMIZE;
+        }
+    }
+}
+
+// Copyright (c) 2020 Saxonica Limited
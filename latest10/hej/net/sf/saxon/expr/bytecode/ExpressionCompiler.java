@@ -0,0 +1,477 @@
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Copyright (c) 2020 Saxonica Limited
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is "Incompatible With Secondary Licenses", as defined by the Mozilla Public License, v. 2.0.
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+package net.sf.saxon.expr.bytecode;
+
+import net.sf.saxon.expr.*;
+import net.sf.saxon.expr.parser.Token;
+import net.sf.saxon.expr.sort.AtomicComparer;
+import net.sf.saxon.expr.sort.CodepointCollatingComparer;
+import net.sf.saxon.expr.sort.ComparableAtomicValueComparer;
+import net.sf.saxon.expr.sort.UntypedNumericComparer;
+import net.sf.saxon.functions.NotFn;
+import net.sf.saxon.lib.ConversionRules;
+import net.sf.saxon.om.FingerprintedQName;
+import net.sf.saxon.om.GroundedValue;
+import net.sf.saxon.type.BuiltInAtomicType;
+import net.sf.saxon.value.BooleanValue;
+import net.sf.saxon.value.DoubleValue;
+import net.sf.saxon.value.Int64Value;
+import net.sf.saxon.value.NumericValue;
+import net.sf.saxon.value.StringValue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static net.sf.saxon.expr.bytecode.CodeWriter.*;
+
+/**
+ * Compiles an expression to a Java class, which is a subclass of {@link CompiledExpression}.
+ *
+ * <p>The expressions that can be compiled are value comparisons, and combinations of value comparisons
+ * using <code>and</code>, <code>or</code> and <code>not()</code>, whose operands are attributes of the
+ * context item (as read by an {@link AttributeGetter}), literals, and arithmetic on these using the operators
+ * <code>+</code>, <code>-</code>, <code>*</code>, <code>div</code> and <code>mod</code>; and such arithmetic
+ * expressions themselves. More precisely:</p>
+ * <ul>
+ *     <li>a numeric operand is a literal, an untyped attribute converted to <code>xs:double</code>, or an
+ *     arithmetic expression on two numeric operands whose calculator works in <code>xs:double</code>;</li>
+ *     <li>a comparison compares two numeric operands using the default numeric comparer; or an untyped
+ *     attribute with a numeric literal; or, for <code>eq</code> and <code>ne</code> only, two string
+ *     operands (untyped attributes cast to <code>xs:string</code>, or string literals) using the Unicode
+ *     codepoint collation.</li>
+ * </ul>
+ *
+ * <p>These are the forms that the optimizer produces for general comparisons and arithmetic on attributes of
+ * untyped elements, such as <code>@price * @quantity &gt; 100</code> or <code>@status = 'open'</code>.
+ * The generated code reads each attribute once, works on unboxed doubles and strings, and allocates nothing,
+ * except for the result of an arithmetic expression.</p>
+ */
+
+final class ExpressionCompiler {
+
+    private static final String SUPER = "net/sf/saxon/expr/bytecode/CompiledExpression";
+    private static final String CONTEXT = "net/sf/saxon/expr/XPathContext";
+    private static final String ITEM = "net/sf/saxon/om/Item";
+    private static final String DOUBLE_VALUE = "net/sf/saxon/value/DoubleValue";
+
+    private static final int THIS_SLOT = 0;
+    private static final int CONTEXT_SLOT = 1;
+    private static final int ITEM_SLOT = 2;
+
+    private static final AtomicInteger sequence = new AtomicInteger();
+
+    private final CodeWriter code;
+    private final List<FingerprintedQName> attributeNames = new ArrayList<>();
+    private final List<Object> constants = new ArrayList<>();
+
+    private ExpressionCompiler(CodeWriter code) {
+        this.code = code;
+    }
+
+    /**
+     * Ask whether an expression can be compiled
+     *
+     * @param exp the expression
+     * @return true if the expression, with all its subexpressions, is of a form that can be compiled
+     */
+
+    static boolean isCompilable(Expression exp) {
+        return isCondition(exp) || exp instanceof ArithmeticExpression && isNumeric(exp, false);
+    }
+
+    private static boolean isCondition(Expression exp) {
+        if (exp instanceof ValueComparison) {
+            return isComparison((ValueComparison) exp);
+        } else if (exp instanceof AndExpression || exp instanceof OrExpression) {
+            BooleanExpression b = (BooleanExpression) exp;
+            return isCondition(b.getLhsExpression()) && isCondition(b.getRhsExpression());
+        } else if (isNot(exp)) {
+            return isCondition(((SystemFunctionCall) exp).getArg(0));
+        }
+        return false;
+    }
+
+    private static boolean isNot(Expression exp) {
+        return exp instanceof SystemFunctionCall && ((SystemFunctionCall) exp).getTargetFunction() instanceof NotFn;
+    }
+
+    private static boolean isComparison(ValueComparison vc) {
+        Expression lhs = vc.getLhsExpression();
+        Expression rhs = vc.getRhsExpression();
+        AtomicComparer comparer = vc.getAtomicComparer();
+        int op = vc.getOperator();
+        if (comparer == null || op < Token.FEQ || op > Token.FGE) {
+            return false;
+        }
+        if (comparer.getClass() == ComparableAtomicValueComparer.class) {
+            return isNumeric(lhs, true) && isNumeric(rhs, true) &&
+                    !(lhs instanceof Literal && rhs instanceof Literal);
+        } else if (comparer instanceof UntypedNumericComparer) {
+            return lhs instanceof AttributeGetter &&
+                    rhs instanceof Literal && ((Literal) rhs).getValue() instanceof NumericValue;
+        } else if (comparer instanceof CodepointCollatingComparer) {
+            return (op == Token.FEQ || op == Token.FNE) && isString(lhs) && isString(rhs) &&
+                    !(lhs instanceof Literal && rhs instanceof Literal);
+        }
+        return false;
+    }
+
+    /**
+     * Ask whether an expression is a numeric operand that can be evaluated as a Java double
+     *
+     * @param exp       the expression
+     * @param comparand true if the expression is an operand of a comparison, where only literals whose
+     *                  comparison with a double is done by converting them to double are allowed;
+     *                  false if it is an operand of an arithmetic expression, whose calculator converts
+     *                  every numeric operand to double
+     * @return true if the expression can be compiled as a numeric operand
+     */
+
+    private static boolean isNumeric(Expression exp, boolean comparand) {
+        if (exp instanceof ArithmeticExpression) {
+            ArithmeticExpression arith = (ArithmeticExpression) exp;
+            return arithmeticOpcode(arith.getCalculator()) != 0 &&
+                    isNumeric(arith.getLhsExpression(), false) && isNumeric(arith.getRhsExpression(), false);
+        } else if (exp instanceof UntypedSequenceConverter) {
+            UntypedSequenceConverter converter = (UntypedSequenceConverter) exp;
+            return converter.getRequiredItemType() == BuiltInAtomicType.DOUBLE &&
+                    converter.getBaseExpression() instanceof AttributeGetter;
+        } else if (exp instanceof Literal) {
+            GroundedValue value = ((Literal) exp).getValue();
+            return value instanceof DoubleValue || value instanceof Int64Value ||
+                    !comparand && value instanceof NumericValue;
+        }
+        return false;
+    }
+
+    private static boolean isString(Expression exp) {
+        if (exp instanceof CastExpression) {
+            CastExpression cast = (CastExpression) exp;
+            return cast.getTargetType() == BuiltInAtomicType.STRING && cast.allowsEmpty() &&
+                    cast.getBaseExpression() instanceof AttributeGetter;
+        }
+        return exp instanceof StringLiteral && ((StringLiteral) exp).getValue() instanceof StringValue;
+    }
+
+    private static int arithmeticOpcode(Calculator calculator) {
+        Class<?> c = calculator == null ? null : calculator.getClass();
+        if (c == Calculator.DoublePlusDouble.class) {
+            return DADD;
+        } else if (c == Calculator.DoubleMinusDouble.class) {
+            return DSUB;
+        } else if (c == Calculator.DoubleTimesDouble.class) {
+            return DMUL;
+        } else if (c == Calculator.DoubleDivDouble.class) {
+            return DDIV;
+        } else if (c == Calculator.DoubleModDouble.class) {
+            return DREM;
+        }
+        return 0;
+    }
+
+    /**
+     * Compile an expression to a Java class, and instantiate it
+     *
+     * @param exp   the expression, for which {@link #isCompilable(Expression)} must be true
+     * @param rules the conversion rules of the configuration
+     * @return an instance of the generated class
+     * @throws ReflectiveOperationException if the class cannot be instantiated
+     * @throws IllegalStateException if the expression is too large to compile
+     */
+
+    static CompiledExpression compile(Expression exp, ConversionRules rules) throws ReflectiveOperationException {
+        String className = "net/sf/saxon/expr/bytecode/Generated" + sequence.incrementAndGet();
+        ClassFileWriter classFile = new ClassFileWriter(className, SUPER);
+
+        CodeWriter init = new CodeWriter(classFile, 1);
+        init.aload(THIS_SLOT);
+        init.invoke(INVOKESPECIAL, SUPER, "<init>", "()V");
+        init.returnValue(RETURN);
+        classFile.addMethod(ClassFileWriter.ACC_PUBLIC, "<init>", "()V", init);
+
+        CodeWriter code = new CodeWriter(classFile, 2);
+        ExpressionCompiler compiler = new ExpressionCompiler(code);
+        int itemSlot = code.newLocal();
+        assert itemSlot == ITEM_SLOT;
+        code.aload(CONTEXT_SLOT);
+        code.invoke(INVOKEINTERFACE, CONTEXT, "getContextItem", "()L" + ITEM + ";");
+        code.astore(ITEM_SLOT);
+        boolean booleanValued = isCondition(exp);
+        if (booleanValued) {
+            compiler.compileBooleanMethod(exp);
+            classFile.addMethod(ClassFileWriter.ACC_PUBLIC, "evaluateBoolean", "(L" + CONTEXT + ";)I", code);
+        } else {
+            compiler.compileItemMethod(exp);
+            classFile.addMethod(ClassFileWriter.ACC_PUBLIC, "evaluateItem", "(L" + CONTEXT + ";)L" + ITEM + ";", code);
+        }
+
+        byte[] bytes = classFile.toByteArray();
+        Class<?> generated = new GeneratedClassLoader().define(className.replace('/', '.'), bytes);
+        CompiledExpression compiled = (CompiledExpression) generated.getConstructor().newInstance();
+        compiled.init(compiler.attributeNames.toArray(new FingerprintedQName[0]), compiler.constants.toArray(),
+                      rules, booleanValued);
+        return compiled;
+    }
+
+    private void compileBooleanMethod(Expression exp) {
+        Label isFalse = new Label();
+        Label isEmpty = null;
+        if (exp instanceof ValueComparison && ((ValueComparison) exp).getResultWhenEmpty() == null) {
+            // the value of the expression can be an empty sequence
+            isEmpty = new Label();
+        }
+        condition(exp, isFalse, false, isEmpty);
+        code.op(ICONST_1, 1);
+        code.returnValue(IRETURN);
+        code.mark(isFalse);
+        code.op(ICONST_0, 1);
+        code.returnValue(IRETURN);
+        if (isEmpty != null) {
+            code.mark(isEmpty);
+            code.op(ICONST_M1, 1);
+            code.returnValue(IRETURN);
+        }
+    }
+
+    private void compileItemMethod(Expression exp) {
+        Label isEmpty = new Label();
+        Map<Integer, Integer> attributes = readAttributes(exp, isEmpty);
+        code.newObject(DOUBLE_VALUE);
+        code.op(DUP, 1);
+        number(exp, attributes);
+        code.invoke(INVOKESPECIAL, DOUBLE_VALUE, "<init>", "(D)V");
+        code.returnValue(ARETURN);
+        code.mark(isEmpty);
+        code.op(ACONST_NULL, 1);
+        code.returnValue(ARETURN);
+    }
+
+    /**
+     * Generate code that evaluates a condition and branches on the result
+     *
+     * @param exp        the condition
+     * @param target     the target of the branch
+     * @param jumpIfTrue true if the branch is taken when the condition is true, false if it is taken when
+     *                   the condition is false. Otherwise the code falls through.
+     * @param isEmpty    if not null, the target of a branch taken when the condition is a value comparison
+     *                   and one of its operands is empty; if null, an empty operand gives the effective
+     *                   boolean value of the comparison
+     */
+
+    private void condition(Expression exp, Label target, boolean jumpIfTrue, Label isEmpty) {
+        if (exp instanceof AndExpression || exp instanceof OrExpression) {
+            BooleanExpression b = (BooleanExpression) exp;
+            // for "and", stop at the first false operand; for "or", at the first true one
+            boolean stopWhen = exp instanceof OrExpression;
+            if (stopWhen == jumpIfTrue) {
+                condition(b.getLhsExpression(), target, jumpIfTrue, null);
+                condition(b.getRhsExpression(), target, jumpIfTrue, null);
+            } else {
+                Label skip = new Label();
+                condition(b.getLhsExpression(), skip, stopWhen, null);
+                condition(b.getRhsExpression(), target, jumpIfTrue, null);
+                code.mark(skip);
+            }
+        } else if (isNot(exp)) {
+            condition(((SystemFunctionCall) exp).getArg(0), target, !jumpIfTrue, null);
+        } else {
+            comparison((ValueComparison) exp, target, jumpIfTrue, isEmpty);
+        }
+    }
+
+    private void comparison(ValueComparison vc, Label target, boolean jumpIfTrue, Label isEmpty) {
+        Label next = null;
+        if (isEmpty == null) {
+            if ((vc.getResultWhenEmpty() == BooleanValue.TRUE) == jumpIfTrue) {
+                isEmpty = target;
+            } else {
+                isEmpty = next = new Label();
+            }
+        }
+        Map<Integer, Integer> attributes = readAttributes(vc, isEmpty);
+        Expression lhs = vc.getLhsExpression();
+        Expression rhs = vc.getRhsExpression();
+        AtomicComparer comparer = vc.getAtomicComparer();
+        int op = vc.getOperator();
+        if (comparer instanceof UntypedNumericComparer) {
+            code.aload(THIS_SLOT);
+            code.aload(attributes.get(attributeIndex((AttributeGetter) lhs)));
+            code.loadInt(constant(((Literal) rhs).getValue()));
+            code.loadInt(op);
+            code.invoke(INVOKEVIRTUAL, SUPER, "compareUntyped", "(Ljava/lang/String;II)Z");
+            code.jump(jumpIfTrue ? IFNE : IFEQ, target);
+        } else if (comparer instanceof CodepointCollatingComparer) {
+            string(lhs, attributes);
+            string(rhs, attributes);
+            code.invoke(INVOKEVIRTUAL, "java/lang/String", "equals", "(Ljava/lang/Object;)Z");
+            code.jump((op == Token.FEQ) == jumpIfTrue ? IFNE : IFEQ, target);
+        } else {
+            number(lhs, attributes);
+            number(rhs, attributes);
+            // Choose the comparison instruction so that NaN gives false for every operator except "ne",
+            // as ValueComparison.compare() does
+            boolean lessThan = op == Token.FLT || op == Token.FLE;
+            code.op(lessThan ? DCMPG : DCMPL, -3);
+            code.jump(jumpIfTrue ? branchIfTrue(op) : branchIfFalse(op), target);
+        }
+        if (next != null) {
+            code.mark(next);
+        }
+    }
+
+    private static int branchIfTrue(int op) {
+        switch (op) {
+            case Token.FEQ:
+                return IFEQ;
+            case Token.FNE:
+                return IFNE;
+            case Token.FLT:
+                return IFLT;
+            case Token.FLE:
+                return IFLE;
+            case Token.FGT:
+                return IFGT;
+            default:
+                return IFGE;
+        }
+    }
+
+    private static int branchIfFalse(int op) {
+        switch (op) {
+            case Token.FEQ:
+                return IFNE;
+            case Token.FNE:
+                return IFEQ;
+            case Token.FLT:
+                return IFGE;
+            case Token.FLE:
+                return IFGT;
+            case Token.FGT:
+                return IFLE;
+            default:
+                return IFLT;
+        }
+    }
+
+    /**
+     * Generate code that reads each attribute used in an expression into a local variable, and branches if
+     * any of them is absent. This is done before anything is pushed on the operand stack, so that the stack is
+     * empty at the branch target.
+     *
+     * @param exp     a comparison, or an arithmetic expression
+     * @param isEmpty the target of the branch taken if an attribute is absent
+     * @return a map from the index of each attribute name to the local variable holding its value
+     */
+
+    private Map<Integer, Integer> readAttributes(Expression exp, Label isEmpty) {
+        List<AttributeGetter> getters = new ArrayList<>();
+        collectAttributeGetters(exp, getters);
+        Map<Integer, Integer> locals = new HashMap<>();
+        for (AttributeGetter getter : getters) {
+            int name = attributeIndex(getter);
+            if (!locals.containsKey(name)) {
+                int slot = code.newLocal();
+                locals.put(name, slot);
+                code.aload(THIS_SLOT);
+                code.aload(ITEM_SLOT);
+                code.loadInt(name);
+                code.invoke(INVOKEVIRTUAL, SUPER, "attribute", "(L" + ITEM + ";I)Ljava/lang/String;");
+                code.op(DUP, 1);
+                code.astore(slot);
+                code.jump(IFNULL, isEmpty);
+            }
+        }
+        return locals;
+    }
+
+    private static void collectAttributeGetters(Expression exp, List<AttributeGetter> getters) {
+        if (exp instanceof AttributeGetter) {
+            getters.add((AttributeGetter) exp);
+        } else {
+            for (Operand o : exp.operands()) {
+                collectAttributeGetters(o.getChildExpression(), getters);
+            }
+        }
+    }
+
+    private int attributeIndex(AttributeGetter getter) {
+        FingerprintedQName name = getter.getAttributeName();
+        for (int i = 0; i < attributeNames.size(); i++) {
+            if (attributeNames.get(i).getFingerprint() == name.getFingerprint()) {
+                return i;
+            }
+        }
+        attributeNames.add(name);
+        return attributeNames.size() - 1;
+    }
+
+    private int constant(Object value) {
+        constants.add(value);
+        return constants.size() - 1;
+    }
+
+    /**
+     * Generate code that pushes the value of a numeric operand as a double
+     *
+     * @param exp        the operand
+     * @param attributes the local variables holding the attribute values
+     */
+
+    private void number(Expression exp, Map<Integer, Integer> attributes) {
+        if (exp instanceof ArithmeticExpression) {
+            ArithmeticExpression arith = (ArithmeticExpression) exp;
+            number(arith.getLhsExpression(), attributes);
+            number(arith.getRhsExpression(), attributes);
+            code.op(arithmeticOpcode(arith.getCalculator()), -2);
+        } else if (exp instanceof UntypedSequenceConverter) {
+            AttributeGetter getter = (AttributeGetter) ((UntypedSequenceConverter) exp).getBaseExpression();
+            code.aload(THIS_SLOT);
+            code.aload(attributes.get(attributeIndex(getter)));
+            code.invoke(INVOKEVIRTUAL, SUPER, "toDouble", "(Ljava/lang/String;)D");
+        } else {
+            code.loadDouble(((NumericValue) ((Literal) exp).getValue()).getDoubleValue());
+        }
+    }
+
+    /**
+     * Generate code that pushes the value of a string operand as a Java string
+     *
+     * @param exp        the operand
+     * @param attributes the local variables holding the attribute values
+     */
+
+    private void string(Expression exp, Map<Integer, Integer> attributes) {
+        if (exp instanceof CastExpression) {
+            AttributeGetter getter = (AttributeGetter) ((CastExpression) exp).getBaseExpression();
+            code.aload(attributes.get(attributeIndex(getter)));
+        } else {
+            code.loadString(((StringLiteral) exp).getStringValue());
+        }
+    }
+
+    /**
+     * The class loader for a generated class. Each class has its own loader, so that it can be unloaded when
+     * the expression is no longer in use.
+     */
+
+    private static class GeneratedClassLoader extends ClassLoader {
+
+        GeneratedClassLoader() {
+            super(CompiledExpression.class.getClassLoader());
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
+
+// Copyright (c) 2020 Saxonica Limited
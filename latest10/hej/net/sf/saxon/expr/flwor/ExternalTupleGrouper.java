@@ -0,0 +1,208 @@
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Copyright (c) 2020 Saxonica Limited
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is "Incompatible With Secondary Licenses", as defined by the Mozilla Public License, v. 2.0.
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+package net.sf.saxon.expr.flwor;
+
+import net.sf.saxon.expr.XPathContext;
+import net.sf.saxon.expr.sort.GenericAtomicComparer;
+import net.sf.saxon.expr.sort.SpillCodec;
+import net.sf.saxon.lib.Feature;
+import net.sf.saxon.trans.XPathException;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Performs the grouping for an XQuery "group by" clause using temporary files, for use when the number of
+ * tuples exceeds the threshold set by {@link Feature#THRESHOLD_FOR_EXTERNAL_GROUPING}. The tuples are divided
+ * between a fixed number of partition files according to the hash code of their grouping key, so that all
+ * the tuples in a group are in the same partition; each partition is then read back and grouped in memory
+ * in turn. Because the order of the groups in XQuery is implementation-dependent, the groups are delivered
+ * partition by partition.
+ *
+ * <p>The tuples are written using a {@link SpillCodec}.</p>
+ */
+
+final class ExternalTupleGrouper {
+
+    private static final int PARTITION_BITS = 6;
+    private static final int PARTITIONS = 1 << PARTITION_BITS;
+
+    private final GroupByClause groupByClause;
+    private final GenericAtomicComparer[] comparers;
+    private final SpillCodec codec;
+    private final File[] partitionFiles = new File[PARTITIONS];
+    private final DataOutputStream[] partitions = new DataOutputStream[PARTITIONS];
+    private final int[] partitionSizes = new int[PARTITIONS];
+    private int nextPartition = -1;
+    private Iterator<List<GroupByClause.ObjectToBeGrouped>> partitionGroups;
+
+    /**
+     * Create an ExternalTupleGrouper
+     *
+     * @param groupByClause the group by clause
+     * @param comparers     the comparers for the grouping keys
+     * @param context       the dynamic evaluation context
+     * @throws XPathException if the temporary files cannot be created
+     */
+
+    ExternalTupleGrouper(GroupByClause groupByClause, GenericAtomicComparer[] comparers, XPathContext context)
+            throws XPathException {
+        this.groupByClause = groupByClause;
+        this.comparers = comparers;
+        this.codec = new SpillCodec(context.getConfiguration());
+        try {
+            for (int p = 0; p < PARTITIONS; p++) {
+                partitionFiles[p] = codec.createTempFile("saxon-group", "grouping");
+                partitions[p] = SpillCodec.openOutput(partitionFiles[p]);
+            }
+        } catch (IOException e) {
+            discard();
+            throw writeFailure(e);
+        } catch (XPathException e) {
+            discard();
+            throw e;
+        }
+    }
+
+    /**
+     * Get the number of tuples above which grouping should be done using temporary files
+     *
+     * @param context the dynamic evaluation context
+     * @return the number of tuples that may be grouped in memory, or -1 if grouping is always
+     * to be done in memory
+     */
+
+    static int getThreshold(XPathContext context) {
+        int threshold = context.getConfiguration().getConfigurationProperty(Feature.THRESHOLD_FOR_EXTERNAL_GROUPING);
+        return threshold > 0 ? threshold : -1;
+    }
+
+    /**
+     * Write the groups formed in memory before the threshold was reached. The map is cleared.
+     *
+     * @param map the groups, indexed by their comparison keys
+     * @throws XPathException if the temporary file cannot be written
+     */
+
+    void addGroups(Map<Object, List<GroupByClause.ObjectToBeGrouped>> map) throws XPathException {
+        for (Map.Entry<Object, List<GroupByClause.ObjectToBeGrouped>> entry : map.entrySet()) {
+            for (GroupByClause.ObjectToBeGrouped otbg : entry.getValue()) {
+                add(entry.getKey(), otbg);
+            }
+        }
+        map.clear();
+    }
+
+    /**
+     * Write a tuple to the partition for its grouping key
+     *
+     * @param key  the comparison key of the tuple
+     * @param otbg the grouping values and retained values of the tuple
+     * @throws XPathException if the temporary file cannot be written
+     */
+
+    void add(Object key, GroupByClause.ObjectToBeGrouped otbg) throws XPathException {
+        int p = (key.hashCode() * 0x9E3779B9) >>> (32 - PARTITION_BITS);
+        DataOutputStream out = partitions[p];
+        partitionSizes[p]++;
+        try {
+            codec.writeItem(out, otbg.groupingValues);
+            codec.writeItem(out, otbg.retainedValues);
+        } catch (IOException e) {
+            discard();
+            throw writeFailure(e);
+        } catch (XPathException e) {
+            discard();
+            throw e;
+        }
+    }
+
+    /**
+     * Get the next group. The first call signals that all the tuples have been written.
+     *
+     * @return the tuples in the next group, or null if there are no more groups
+     * @throws XPathException if a temporary file cannot be read
+     */
+
+    List<GroupByClause.ObjectToBeGrouped> nextGroup() throws XPathException {
+        if (nextPartition < 0) {
+            try {
+                for (int p = 0; p < PARTITIONS; p++) {
+                    partitions[p].close();
+                    partitions[p] = null;
+                }
+            } catch (IOException e) {
+                discard();
+                throw writeFailure(e);
+            }
+            nextPartition = 0;
+        }
+        while (partitionGroups == null || !partitionGroups.hasNext()) {
+            if (nextPartition == PARTITIONS) {
+                return null;
+            }
+            partitionGroups = groupPartition(nextPartition++);
+        }
+        return partitionGroups.next();
+    }
+
+    private Iterator<List<GroupByClause.ObjectToBeGrouped>> groupPartition(int p) throws XPathException {
+        HashMap<Object, List<GroupByClause.ObjectToBeGrouped>> map = new HashMap<>();
+        try (DataInputStream in = SpillCodec.openInput(partitionFiles[p])) {
+            for (int i = 0; i < partitionSizes[p]; i++) {
+                GroupByClause.ObjectToBeGrouped otbg = new GroupByClause.ObjectToBeGrouped();
+                otbg.groupingValues = (Tuple) codec.readItem(in);
+                otbg.retainedValues = (Tuple) codec.readItem(in);
+                Object key = groupByClause.getComparisonKey(otbg.groupingValues, comparers);
+                map.computeIfAbsent(key, k -> new ArrayList<>()).add(otbg);
+            }
+        } catch (IOException e) {
+            discard();
+            throw new XPathException("Cannot read temporary file for grouping: " + e.getMessage(), e);
+        }
+        //noinspection ResultOfMethodCallIgnored
+        partitionFiles[p].delete();
+        return map.values().iterator();
+    }
+
+    /**
+     * Delete all the temporary files. This is called if grouping is abandoned.
+     */
+
+    void discard() {
+        for (int p = 0; p < PARTITIONS; p++) {
+            if (partitions[p] != null) {
+                try {
+                    partitions[p].close();
+                } catch (IOException e) {
+                    // no action
+                }
+                partitions[p] = null;
+            }
+            if (partitionFiles[p] != null) {
+                //noinspection ResultOfMethodCallIgnored
+                partitionFiles[p].delete();
+            }
+        }
+        nextPartition = PARTITIONS;
+        partitionGroups = null;
+    }
+
+    private static XPathException writeFailure(IOException e) {
+        return new XPathException("Cannot write temporary file for grouping: " + e.getMessage(), e);
+    }
+}
+
+// Copyright (c) 2020 Saxonica Limited
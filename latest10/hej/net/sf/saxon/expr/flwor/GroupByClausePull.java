@@ -28,6 +28,7 @@ public class GroupByClausePull extends TuplePull {
     private GroupByClause groupByClause;
     /*@Nullable*/ Iterator<List<GroupByClause.ObjectToBeGrouped>> groupIterator;
     private GenericAtomicComparer[] comparers;
+    private ExternalTupleGrouper externalGrouper;
 
 
     public GroupByClausePull(TuplePull base, GroupByClause groupBy, XPathContext context) {
@@ -57,15 +58,31 @@ public class GroupByClausePull extends TuplePull {
             TupleExpression groupingTupleExpr = groupByClause.getGroupingTupleExpression();
             TupleExpression retainedTupleExpr = groupByClause.getRetainedTupleExpression();
             HashMap<Object, List<GroupByClause.ObjectToBeGrouped>> map = new HashMap<>();
-            while (base.nextTuple(context)) {
-                GroupByClause.ObjectToBeGrouped otbg = new GroupByClause.ObjectToBeGrouped();
-                Sequence[] groupingValues = groupingTupleExpr.evaluateItem(context).getMembers();
-                GroupByClausePush.checkGroupingValues(groupingValues);
-                otbg.groupingValues = new Tuple(groupingValues);
-                otbg.retainedValues = retainedTupleExpr.evaluateItem(context);
-                Object key = groupByClause.getComparisonKey(otbg.groupingValues, comparers);
-                List<GroupByClause.ObjectToBeGrouped> group = map.get(key);
-                GroupByClausePush.addToGroup(key, otbg, group, map);
+            int threshold = ExternalTupleGrouper.getThreshold(context);
+            int count = 0;
+            try {
+                while (base.nextTuple(context)) {
+                    GroupByClause.ObjectToBeGrouped otbg = new GroupByClause.ObjectToBeGrouped();
+                    Sequence[] groupingValues = groupingTupleExpr.evaluateItem(context).getMembers();
+                    GroupByClausePush.checkGroupingValues(groupingValues);
+                    otbg.groupingValues = new Tuple(groupingValues);
+                    otbg.retainedValues = retainedTupleExpr.evaluateItem(context);
+                    Object key = groupByClause.getComparisonKey(otbg.groupingValues, comparers);
+                    if (externalGrouper != null) {
+                        externalGrouper.add(key, otbg);
+                        continue;
+                    }
+                    List<GroupByClause.ObjectToBeGrouped> group = map.get(key);
+                    GroupByClausePush.addToGroup(key, otbg, group, map);
+                    if (threshold > 0 && ++count >= threshold) {
+                        // Too many tuples to group in memory: partition them to temporary files
+                        externalGrouper = new ExternalTupleGrouper(groupByClause, comparers, context);
+                        externalGrouper.addGroups(map);
+                    }
+                }
+            } catch (XPathException e) {
+                close();
+                throw e;
             }
             // get an iterator over the groups
 
@@ -73,6 +90,15 @@ public class GroupByClausePull extends TuplePull {
 
         }
 
+        if (externalGrouper != null) {
+            List<GroupByClause.ObjectToBeGrouped> group = externalGrouper.nextGroup();
+            if (group == null) {
+                return false;
+            }
+            groupByClause.processGroup(group, context);
+            return true;
+        }
+
         if (groupIterator.hasNext()) {
             List<GroupByClause.ObjectToBeGrouped> group = groupIterator.next();
             groupByClause.processGroup(group, context);
@@ -93,6 +119,9 @@ public class GroupByClausePull extends TuplePull {
     public void close() {
         base.close();
         groupIterator = null;
+        if (externalGrouper != null) {
+            externalGrouper.discard();
+        }
     }
 
 }
@@ -33,6 +33,9 @@ public class GroupByClausePush extends TuplePush {
     private HashMap<Object, List<GroupByClause.ObjectToBeGrouped>> map = new HashMap<>();
     private XPathContext context;
     private GenericAtomicComparer[] comparers;
+    private int threshold;
+    private int count;
+    private ExternalTupleGrouper externalGrouper;
 
     public GroupByClausePush(Outputter outputter, TuplePush destination, GroupByClause groupBy, XPathContext context) {
         super(outputter);
@@ -43,6 +46,7 @@ public class GroupByClausePush extends TuplePush {
         for (int i=0; i<comparers.length; i++) {
             comparers[i] = groupBy.comparers[i].provideContext(context);
         }
+        threshold = ExternalTupleGrouper.getThreshold(context);
     }
 
     /**
@@ -60,14 +64,32 @@ public class GroupByClausePush extends TuplePush {
         TupleExpression retainedTupleExpr = groupByClause.getRetainedTupleExpression();
 
 
-        GroupByClause.ObjectToBeGrouped otbg = new GroupByClause.ObjectToBeGrouped();
-        Sequence[] groupingValues = groupingTupleExpr.evaluateItem(context).getMembers();
-        checkGroupingValues(groupingValues);
-        otbg.groupingValues = new Tuple(groupingValues);
-        otbg.retainedValues = retainedTupleExpr.evaluateItem(context);
-        Object key = groupByClause.getComparisonKey(otbg.groupingValues, comparers);
-        List<GroupByClause.ObjectToBeGrouped> group = map.get(key);
-        addToGroup(key, otbg, group, map);
+        try {
+            GroupByClause.ObjectToBeGrouped otbg = new GroupByClause.ObjectToBeGrouped();
+            Sequence[] groupingValues = groupingTupleExpr.evaluateItem(context).getMembers();
+            checkGroupingValues(groupingValues);
+            otbg.groupingValues = new Tuple(groupingValues);
+            otbg.retainedValues = retainedTupleExpr.evaluateItem(context);
+            Object key = groupByClause.getComparisonKey(otbg.groupingValues, comparers);
+            if (externalGrouper != null) {
+                externalGrouper.add(key, otbg);
+                return;
+            }
+            List<GroupByClause.ObjectToBeGrouped> group = map.get(key);
+            addToGroup(key, otbg, group, map);
+            if (threshold > 0 && ++count >= threshold) {
+                // Too many tuples to group in memory: partition them to temporary files
+                externalGrouper = new ExternalTupleGrouper(groupByClause, comparers, context);
+                externalGrouper.addGroups(map);
+            }
+        } catch (XPathException e) {
+            // Delete any partition files now, since close() will not be called after a failure
+            if (externalGrouper != null) {
+                externalGrouper.discard();
+                externalGrouper = null;
+            }
+            throw e;
+        }
     }
 
     protected static void addToGroup(
@@ -112,6 +134,18 @@ public class GroupByClausePush extends TuplePush {
             destination.processTuple(context);
         }
 
+        if (externalGrouper != null) {
+            try {
+                List<GroupByClause.ObjectToBeGrouped> group;
+                while ((group = externalGrouper.nextGroup()) != null) {
+                    groupByClause.processGroup(group, context);
+                    destination.processTuple(context);
+                }
+            } finally {
+                externalGrouper.discard();
+            }
+        }
+
         destination.close();
     }
 
@@ -9,7 +9,7 @@ package net.sf.saxon.expr.flwor;
 
 import net.sf.saxon.expr.XPathContext;
 import net.sf.saxon.expr.sort.*;
-import net.sf.saxon.trans.NoDynamicContextException;
+import net.sf.saxon.om.SequenceIterator;
 import net.sf.saxon.trans.XPathException;
 
 import java.util.ArrayList;
@@ -26,6 +26,7 @@ public class OrderByClausePull extends TuplePull {
     private int currentPosition = -1;
     private AtomicComparer[] comparers;
     private ArrayList<ItemToBeSorted> tupleArray = new ArrayList<ItemToBeSorted>(100);
+    private SequenceIterator mergedRuns;
 
     public OrderByClausePull(TuplePull base, TupleExpression tupleExpr, OrderByClause orderBy, XPathContext context) {
         this.base = base;
@@ -53,46 +54,57 @@ public class OrderByClausePull extends TuplePull {
         if (currentPosition < 0) {
             currentPosition = 0;
             int position = 0;
-
-            while (base.nextTuple(context)) {
-                Tuple tuple = tupleExpr.evaluateItem(context);
-                SortKeyDefinitionList sortKeyDefinitions = orderByClause.getSortKeyDefinitions();
-                ItemToBeSorted itbs = new ItemToBeSorted(sortKeyDefinitions.size());
-                itbs.value = tuple;
-                for (int i = 0; i < sortKeyDefinitions.size(); i++) {
-                    itbs.sortKeyValues[i] = orderByClause.evaluateSortKey(i, context);
-                }
-                itbs.originalPosition = ++position;
-                tupleArray.add(itbs);
-            }
+            int threshold = ExternalSorter.getThreshold(context);
+            ExternalSorter externalSorter = null;
 
             try {
-                tupleArray.sort((a, b) -> {
-                    try {
-                        for (int i = 0; i < comparers.length; i++) {
-                            int comp = comparers[i].compareAtomicValues(
-                                    a.sortKeyValues[i], b.sortKeyValues[i]);
-                            if (comp != 0) {
-                                // we have found a difference, so we can return
-                                return comp;
-                            }
+                while (base.nextTuple(context)) {
+                    if (tupleArray.size() == threshold) {
+                        // write the tuples read so far to a sorted run on disk
+                        if (externalSorter == null) {
+                            externalSorter = new ExternalSorter(comparers, context, "XPTY0004");
                         }
-                    } catch (NoDynamicContextException e) {
-                        throw new AssertionError("Sorting without dynamic context: " + e.getMessage());
+                        externalSorter.addRun(tupleArray);
                     }
+                    Tuple tuple = tupleExpr.evaluateItem(context);
+                    SortKeyDefinitionList sortKeyDefinitions = orderByClause.getSortKeyDefinitions();
+                    ItemToBeSorted itbs = new ItemToBeSorted(sortKeyDefinitions.size());
+                    itbs.value = tuple;
+                    for (int i = 0; i < sortKeyDefinitions.size(); i++) {
+                        itbs.sortKeyValues[i] = orderByClause.evaluateSortKey(i, context);
+                    }
+                    itbs.originalPosition = ++position;
+                    tupleArray.add(itbs);
+                }
+            } catch (XPathException e) {
+                if (externalSorter != null) {
+                    externalSorter.discard();
+                }
+                throw e;
+            }
 
-                    // all sort keys equal: return the items in their original order
-                    // TODO: unnecessary, we are now using a stable sort routine
-                    return a.originalPosition - b.originalPosition;
-                });
-                //GenericSorter.quickSort(0, position, this);
-            } catch (ClassCastException e) {
-                XPathException err = new XPathException("Non-comparable types found while sorting: " + e.getMessage());
-                err.setErrorCode("XPTY0004");
-                throw err;
+            if (externalSorter != null) {
+                mergedRuns = externalSorter.merge(tupleArray);
+            } else {
+                try {
+                    ObjectSorter.sort(tupleArray, comparers, context);
+                    //GenericSorter.quickSort(0, position, this);
+                } catch (ClassCastException e) {
+                    XPathException err = new XPathException("Non-comparable types found while sorting: " + e.getMessage());
+                    err.setErrorCode("XPTY0004");
+                    throw err;
+                }
             }
         }
 
+        if (mergedRuns != null) {
+            Tuple next = (Tuple) mergedRuns.next();
+            if (next == null) {
+                return false;
+            }
+            tupleExpr.setCurrentTuple(context, next);
+            return true;
+        }
         if (currentPosition < tupleArray.size()) {
             tupleExpr.setCurrentTuple(context, (Tuple) tupleArray.get(currentPosition++).value);
             return true;
@@ -109,6 +121,9 @@ public class OrderByClausePull extends TuplePull {
     @Override
     public void close() {
         base.close();
+        if (mergedRuns != null) {
+            mergedRuns.close();
+        }
     }
 }
 
@@ -10,7 +10,7 @@ package net.sf.saxon.expr.flwor;
 import net.sf.saxon.event.Outputter;
 import net.sf.saxon.expr.XPathContext;
 import net.sf.saxon.expr.sort.*;
-import net.sf.saxon.trans.NoDynamicContextException;
+import net.sf.saxon.om.SequenceIterator;
 import net.sf.saxon.trans.XPathException;
 
 import java.util.ArrayList;
@@ -28,6 +28,8 @@ public class OrderByClausePush extends TuplePush {
     private XPathContext context;
     private int position = 0;
     private ArrayList<ItemToBeSorted> tupleArray = new ArrayList<>(100);
+    private int threshold;
+    private ExternalSorter externalSorter;
 
     public OrderByClausePush(Outputter outputter, TuplePush destination, TupleExpression tupleExpr, OrderByClause orderBy, XPathContext context) {
         super(outputter);
@@ -41,6 +43,7 @@ public class OrderByClausePush extends TuplePush {
         for (int n = 0; n < comparers.length; n++) {
             this.comparers[n] = suppliedComparers[n].provideContext(context);
         }
+        threshold = ExternalSorter.getThreshold(context);
     }
 
     /**
@@ -48,6 +51,13 @@ public class OrderByClausePush extends TuplePush {
      */
     @Override
     public void processTuple(XPathContext context) throws XPathException {
+        if (tupleArray.size() == threshold) {
+            // write the tuples received so far to a sorted run on disk
+            if (externalSorter == null) {
+                externalSorter = new ExternalSorter(comparers, context, "XPTY0004");
+            }
+            externalSorter.addRun(tupleArray);
+        }
         Tuple tuple = tupleExpr.evaluateItem(context);
         SortKeyDefinitionList sortKeyDefinitions = orderByClause.getSortKeyDefinitions();
         ItemToBeSorted itbs = new ItemToBeSorted(sortKeyDefinitions.size());
@@ -65,25 +75,23 @@ public class OrderByClausePush extends TuplePush {
      */
     @Override
     public void close() throws XPathException {
-        try {
-            tupleArray.sort((a, b) -> {
-                try {
-                    for (int i = 0; i < comparers.length; i++) {
-                        int comp = comparers[i].compareAtomicValues(
-                                a.sortKeyValues[i], b.sortKeyValues[i]);
-                        if (comp != 0) {
-                            // we have found a difference, so we can return
-                            return comp;
-                        }
-                    }
-                } catch (NoDynamicContextException e) {
-                    throw new AssertionError("Sorting without dynamic context: " + e.getMessage());
+        if (externalSorter != null) {
+            SequenceIterator mergedRuns = externalSorter.merge(tupleArray);
+            try {
+                Tuple tuple;
+                while ((tuple = (Tuple) mergedRuns.next()) != null) {
+                    tupleExpr.setCurrentTuple(context, tuple);
+                    destination.processTuple(context);
                 }
+            } finally {
+                mergedRuns.close();
+            }
+            destination.close();
+            return;
+        }
 
-                // all sort keys equal: return the items in their original order
-                // TODO: unnecessary, we are now using a stable sort routine
-                return a.originalPosition - b.originalPosition;
-            });
+        try {
+            ObjectSorter.sort(tupleArray, comparers, context);
         } catch (ClassCastException e) {
             XPathException err = new XPathException("Non-comparable types found while sorting: " + e.getMessage());
             err.setErrorCode("XPTY0004");
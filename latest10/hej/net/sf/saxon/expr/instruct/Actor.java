@@ -39,6 +39,7 @@ import java.util.List;
 public abstract class Actor implements ExpressionOwner, Location {
 
     protected Expression body;
+    private volatile DeferredBody deferredBody;
     private String systemId;
     private int lineNumber;
     private SlotManager stackFrameMap;
@@ -191,7 +192,27 @@ public abstract class Actor implements ExpressionOwner, Location {
         }
     }
 
+    /**
+     * Supply the body in deferred form, to be built when it is first requested
+     *
+     * @param deferredBody the deferred body
+     * @since 10.3
+     */
+
+    public void setDeferredBody(DeferredBody deferredBody) {
+        this.deferredBody = deferredBody;
+    }
+
     public final Expression getBody() {
+        DeferredBody deferred = deferredBody;
+        if (deferred != null) {
+            synchronized (deferred.getLock()) {
+                if (deferredBody != null) {
+                    setBody(deferred.build());
+                    deferredBody = null;
+                }
+            }
+        }
         return body;
     }
 
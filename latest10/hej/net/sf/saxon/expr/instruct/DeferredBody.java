@@ -0,0 +1,86 @@
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Copyright (c) 2020 Saxonica Limited
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is "Incompatible With Secondary Licenses", as defined by the Mozilla Public License, v. 2.0.
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+package net.sf.saxon.expr.instruct;
+
+import net.sf.saxon.expr.Expression;
+import net.sf.saxon.trans.UncheckedXPathException;
+import net.sf.saxon.trans.XPathException;
+
+/**
+ * The body of a function, named template, or template rule whose construction has been deferred until
+ * it is first needed. This is used when a package is loaded lazily from an export file: the expression
+ * tree for the body of a component is built the first time the component is used, so components that
+ * are never invoked are never built.
+ *
+ * <p>The deferred bodies created while loading a package share a lock, because building any one of them
+ * uses the working state of the package loader. A deferred body is built at most once.</p>
+ *
+ * @since 10.3
+ */
+
+public class DeferredBody {
+
+    /**
+     * Builds the body of a component
+     */
+
+    @FunctionalInterface
+    public interface Builder {
+        /**
+         * Build the body
+         *
+         * @return the expression forming the body of the component
+         * @throws XPathException if the body cannot be built
+         */
+        Expression build() throws XPathException;
+    }
+
+    private final Object lock;
+    private final Builder builder;
+
+    /**
+     * Create a deferred body
+     *
+     * @param lock    the object on which to synchronize while building the body
+     * @param builder the function that builds the body
+     */
+
+    public DeferredBody(Object lock, Builder builder) {
+        this.lock = lock;
+        this.builder = builder;
+    }
+
+    /**
+     * Get the object on which to synchronize while building the body
+     *
+     * @return the lock
+     */
+
+    public Object getLock() {
+        return lock;
+    }
+
+    /**
+     * Build the body. The caller must hold the lock, and must ensure that a body that has been built
+     * successfully is not built again.
+     *
+     * @return the expression forming the body of the component
+     * @throws UncheckedXPathException if the body cannot be built. This is a dynamic error, since
+     * it occurs when the component is first used.
+     */
+
+    public Expression build() {
+        try {
+            return builder.build();
+        } catch (XPathException e) {
+            throw new UncheckedXPathException(e);
+        }
+    }
+}
+
+// Copyright (c) 2020 Saxonica Limited
@@ -599,19 +599,25 @@ public class ForEachGroup extends Instruction
         c2.setCurrentTemplateRule(null);
         pipe.setXPathContext(c2);
 
-        if (controller.isTracing()) {
-            TraceListener listener = controller.getTraceListener();
-            assert listener != null;
-            Item item;
-            while ((item = focusIterator.next()) != null) {
-                listener.startCurrentItem(item);
-                getActionExpression().process(output, c2);
-                listener.endCurrentItem(item);
-            }
-        } else {
-            while (focusIterator.next() != null) {
-                getActionExpression().process(output, c2);
+        try {
+            if (controller.isTracing()) {
+                TraceListener listener = controller.getTraceListener();
+                assert listener != null;
+                Item item;
+                while ((item = focusIterator.next()) != null) {
+                    listener.startCurrentItem(item);
+                    getActionExpression().process(output, c2);
+                    listener.endCurrentItem(item);
+                }
+            } else {
+                while (focusIterator.next() != null) {
+                    getActionExpression().process(output, c2);
+                }
             }
+        } catch (XPathException e) {
+            // release any temporary files held by the group iterator
+            groupIterator.close();
+            throw e;
         }
 
         pipe.setXPathContext(context);
@@ -260,6 +260,7 @@ public class NamedTemplate extends Actor implements TraceableComponent {
                 context.setCurrentIterator(null);
             }
         }
+        Expression body = getBody();
         if (bodyIsTailCallReturner) {
             return ((TailCallReturner) body).processLeavingTail(output, context);
         } else if (body != null) {
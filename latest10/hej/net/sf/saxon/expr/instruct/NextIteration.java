@@ -121,13 +121,18 @@ public class NextIteration extends Instruction implements TailCallLoop.TailCallI
         if (actualParams.length == 1) {
             cm.setLocalVariable(actualParams[0].getSlotNumber(), actualParams[0].getSelectValue(context));
         } else {
-            // we can't overwrite any of the parameters until we've evaluated all of them: test iterate012
-            Sequence[] oldVars = cm.getAllVariableValues();
-            Sequence[] newVars = Arrays.copyOf(oldVars, oldVars.length);
-            for (WithParam wp : actualParams) {
-                newVars[wp.getSlotNumber()] = wp.getSelectValue(context);
+            // we can't overwrite any of the parameters until we've evaluated all of them: test iterate012.
+            // The new values are held in an array that is reused on each iteration, and are then written
+            // into the existing stack frame
+            int n = actualParams.length;
+            Sequence[] newValues = cm.getTailCallArguments(n);
+            for (int i = 0; i < n; i++) {
+                newValues[i] = actualParams[i].getSelectValue(context);
             }
-            cm.resetAllVariableValues(newVars);
+            for (int i = 0; i < n; i++) {
+                cm.setLocalVariable(actualParams[i].getSlotNumber(), newValues[i]);
+            }
+            Arrays.fill(newValues, null);
         }
         cm.requestTailCall(this, null);
         return null;
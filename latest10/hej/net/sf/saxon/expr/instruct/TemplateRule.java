@@ -48,6 +48,7 @@ public class TemplateRule implements RuleTarget, Location, ExpressionOwner, Trac
     // which is responsible for any type checking that's needed.
 
     protected Expression body;
+    private volatile DeferredBody deferredBody;
     protected Pattern matchPattern;
     private boolean hasRequiredParams;
     private boolean bodyIsTailCallReturner;
@@ -89,12 +90,21 @@ public class TemplateRule implements RuleTarget, Location, ExpressionOwner, Trac
 
     @Override
     public Expression getBody() {
+        DeferredBody deferred = deferredBody;
+        if (deferred != null) {
+            synchronized (deferred.getLock()) {
+                if (deferredBody != null) {
+                    setBody(deferred.build());
+                    deferredBody = null;
+                }
+            }
+        }
         return body;
     }
 
     @Override
     public Expression getChildExpression() {
-        return body;
+        return getBody();
     }
 
     @Override
@@ -154,6 +164,17 @@ public class TemplateRule implements RuleTarget, Location, ExpressionOwner, Trac
         bodyIsTailCallReturner = (body instanceof TailCallReturner);
     }
 
+    /**
+     * Supply the body of the template in deferred form, to be built when it is first requested
+     *
+     * @param deferredBody the deferred body
+     * @since 10.3
+     */
+
+    public void setDeferredBody(DeferredBody deferredBody) {
+        this.deferredBody = deferredBody;
+    }
+
     public void setStackFrameMap(SlotManager map) {
         stackFrameMap = map;
     }
@@ -380,6 +401,7 @@ public class TemplateRule implements RuleTarget, Location, ExpressionOwner, Trac
         }
 
         try {
+            Expression body = getBody();
             if (bodyIsTailCallReturner) {
                 return ((TailCallReturner) body).processLeavingTail(output, context);
             } else {
@@ -453,7 +475,7 @@ public class TemplateRule implements RuleTarget, Location, ExpressionOwner, Trac
     }
 
     public Expression getInterpretedBody() {
-        return body.getInterpretedExpression();
+        return getBody().getInterpretedExpression();
     }
 
 
@@ -311,6 +311,7 @@ public class UserFunction extends Actor implements Function, ContextOriginator,
         if (inlineable != -1) {
             return inlineable > 0 && inliningCount < MAX_INLININGS;
         }
+        Expression body = getBody();
         if (body == null) {
             // bug 2226
             return null;
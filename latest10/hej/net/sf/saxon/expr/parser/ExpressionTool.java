@@ -1082,6 +1082,7 @@ public class ExpressionTool {
             body = opt.eliminateCommonSubexpressions(body);
         }
         opt.injectByteCodeCandidates(body);
+        opt.injectCompilationCandidates(body);
         opt.prepareForStreaming(body);
 
         computeEvaluationModesForUserFunctionCalls(body);
@@ -9,6 +9,7 @@ package net.sf.saxon.expr.parser;
 
 import net.sf.saxon.Configuration;
 import net.sf.saxon.expr.*;
+import net.sf.saxon.expr.bytecode.CompilationCandidate;
 import net.sf.saxon.expr.instruct.*;
 import net.sf.saxon.expr.sort.DocumentSorter;
 import net.sf.saxon.functions.PositionAndLast;
@@ -531,6 +532,22 @@ public class Optimizer {
 
     }
 
+    /**
+     * Wrap those subexpressions of an expression that can be compiled to Java bytecode in a
+     * {@link CompilationCandidate}, which compiles its target after it has been evaluated a number
+     * of times. This is done only if the configuration property
+     * {@link Feature#THRESHOLD_FOR_EXPRESSION_COMPILATION} is set to a positive value.
+     *
+     * @param exp the expression, typically the body of a template or function, after optimization
+     */
+
+    public void injectCompilationCandidates(Expression exp) {
+        int threshold = getConfiguration().getConfigurationProperty(Feature.THRESHOLD_FOR_EXPRESSION_COMPILATION);
+        if (threshold > 0) {
+            CompilationCandidate.inject(exp, threshold);
+        }
+    }
+
     public Expression optimizeNumberInstruction(NumberInstruction ni, ContextItemStaticInfo contextInfo) {
         return null;
     }
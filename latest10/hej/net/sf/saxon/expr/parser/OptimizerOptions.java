@@ -32,7 +32,7 @@ public class OptimizerOptions {
 
     private int options;
 
-    public final static OptimizerOptions FULL_HE_OPTIMIZATION = new OptimizerOptions("lvmt");
+    public final static OptimizerOptions FULL_HE_OPTIMIZATION = new OptimizerOptions("lvmrt");
     public final static OptimizerOptions FULL_EE_OPTIMIZATION = new OptimizerOptions(-1);
 
     public OptimizerOptions(int options) {
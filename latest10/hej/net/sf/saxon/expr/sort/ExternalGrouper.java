@@ -0,0 +1,461 @@
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Copyright (c) 2020 Saxonica Limited
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is "Incompatible With Secondary Licenses", as defined by the Mozilla Public License, v. 2.0.
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+package net.sf.saxon.expr.sort;
+
+import net.sf.saxon.expr.XPathContext;
+import net.sf.saxon.lib.Feature;
+import net.sf.saxon.lib.StringCollator;
+import net.sf.saxon.om.AtomicArray;
+import net.sf.saxon.om.AtomicSequence;
+import net.sf.saxon.om.Item;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.value.AtomicValue;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Performs grouping for xsl:for-each-group group-by using temporary files, for use when the number of items
+ * held in groups exceeds the threshold set by {@link Feature#THRESHOLD_FOR_EXTERNAL_GROUPING}. This is a
+ * grace hash join in all but name: the groups are divided between a fixed number of partitions according to
+ * the hash code of the grouping key, so that each partition can be grouped in memory on its own.
+ *
+ * <p>When the threshold is reached, the groups formed so far are written to the partition files as group
+ * records, and each item read subsequently is written to the partition files as an item record, once for each
+ * of its grouping keys. When the input is exhausted, each partition is read in turn, its groups are formed
+ * using a {@link GroupKeyIndex}, and they are written to a group file in order of first appearance.
+ * The group files are then merged, using the sequence number of the first appearance of each group (see
+ * {@link #sequenceNumber(int, int)}), so that the groups are delivered in order of first appearance across the whole population.</p>
+ *
+ * <p>Items and grouping keys are written using a {@link SpillCodec}.</p>
+ */
+
+final class ExternalGrouper {
+
+    private static final int PARTITION_BITS = 6;
+    private static final int PARTITIONS = 1 << PARTITION_BITS;
+
+    private static final byte GROUP_RECORD = 0;
+    private static final byte ITEM_RECORD = 1;
+
+    private final SpillCodec codec;
+    private final StringCollator collator;
+    private final int implicitTimezone;
+    private final boolean composite;
+    private final File[] partitionFiles = new File[PARTITIONS];
+    private final DataOutputStream[] partitions = new DataOutputStream[PARTITIONS];
+    private final List<File> groupFiles = new ArrayList<>(PARTITIONS);
+    private PriorityQueue<GroupReader> readers;
+    private int groupCount;
+    private List<Item> currentGroup;
+    private AtomicSequence currentKey;
+
+    /**
+     * Create an ExternalGrouper
+     *
+     * @param context          the dynamic evaluation context
+     * @param collator         the collation used to compare string-valued grouping keys
+     * @param implicitTimezone the implicit timezone used to compare date/time grouping keys
+     * @param composite        true if the grouping keys are composite keys
+     * @throws XPathException if the temporary files cannot be created
+     */
+
+    ExternalGrouper(XPathContext context, StringCollator collator, int implicitTimezone, boolean composite)
+            throws XPathException {
+        this.codec = new SpillCodec(context.getConfiguration());
+        this.collator = collator;
+        this.implicitTimezone = implicitTimezone;
+        this.composite = composite;
+        try {
+            for (int p = 0; p < PARTITIONS; p++) {
+                partitionFiles[p] = codec.createTempFile("saxon-group", "grouping");
+                partitions[p] = SpillCodec.openOutput(partitionFiles[p]);
+            }
+        } catch (IOException e) {
+            discard();
+            throw writeFailure(e);
+        } catch (XPathException e) {
+            discard();
+            throw e;
+        }
+    }
+
+    /**
+     * Get the number of items above which grouping should be done using temporary files
+     *
+     * @param context the dynamic evaluation context
+     * @return the number of items that may be held in groups in memory, or -1 if grouping is always
+     * to be done in memory
+     */
+
+    static int getThreshold(XPathContext context) {
+        int threshold = context.getConfiguration().getConfigurationProperty(Feature.THRESHOLD_FOR_EXTERNAL_GROUPING);
+        return threshold > 0 ? threshold : -1;
+    }
+
+    /**
+     * Get the partition to which a grouping key is allocated. The hash code is the one used by
+     * {@link GroupKeyIndex}; the high-order bits of the spread hash code are used to choose the partition,
+     * so that the keys within one partition are still well distributed when the partition is grouped.
+     */
+
+    private int partition(AtomicSequence key) throws XPathException {
+        int hash;
+        if (composite) {
+            int length = key.getLength();
+            AtomicMatchKey[] matchKeys = new AtomicMatchKey[length];
+            for (int i = 0; i < length; i++) {
+                matchKeys[i] = GroupByIterator.getMatchKey(key.itemAt(i), collator, implicitTimezone);
+            }
+            hash = GroupKeyIndex.compositeHashCode(matchKeys, length);
+        } else {
+            hash = GroupByIterator.getMatchKey((AtomicValue) key, collator, implicitTimezone).hashCode();
+        }
+        return (hash * 0x9E3779B9) >>> (32 - PARTITION_BITS);
+    }
+
+    /**
+     * Get the sequence number of an item and one of its grouping keys. Sequence numbers increase in
+     * population order, and for an item with several grouping keys, in the order of the keys; so a group
+     * whose first appearance has a lower sequence number precedes the other in order of first appearance.
+     *
+     * @param position  the position of the item in the population
+     * @param keyNumber the position of the grouping key among the grouping keys of the item, zero-based
+     * @return the sequence number
+     */
+
+    static long sequenceNumber(int position, int keyNumber) {
+        return ((long) position << 32) | keyNumber;
+    }
+
+    /**
+     * Write a group that was formed in memory before the threshold was reached
+     *
+     * @param firstSequence the sequence number of the first appearance of the group
+     * @param key           the grouping key
+     * @param items         the items in the group, in population order
+     * @throws XPathException if the temporary file cannot be written
+     */
+
+    void addGroup(long firstSequence, AtomicSequence key, List<Item> items) throws XPathException {
+        try {
+            DataOutputStream out = partitions[partition(key)];
+            out.writeByte(GROUP_RECORD);
+            out.writeLong(firstSequence);
+            writeKey(out, key);
+            out.writeInt(items.size());
+            for (Item item : items) {
+                codec.writeItem(out, item);
+            }
+        } catch (IOException e) {
+            discard();
+            throw writeFailure(e);
+        }
+    }
+
+    /**
+     * Write an item to the partition for one of its grouping keys
+     *
+     * @param sequence the sequence number of the item and grouping key
+     * @param key      the grouping key: an atomic value, or for a composite key, an {@link AtomicArray}
+     * @param item     the item
+     * @throws XPathException if the temporary file cannot be written
+     */
+
+    void addItem(long sequence, AtomicSequence key, Item item) throws XPathException {
+        try {
+            DataOutputStream out = partitions[partition(key)];
+            out.writeByte(ITEM_RECORD);
+            out.writeLong(sequence);
+            writeKey(out, key);
+            codec.writeItem(out, item);
+        } catch (IOException e) {
+            discard();
+            throw writeFailure(e);
+        }
+    }
+
+    private void writeKey(DataOutputStream out, AtomicSequence key) throws IOException {
+        if (composite) {
+            out.writeInt(key.getLength());
+            for (AtomicValue value : key) {
+                codec.writeAtomicValue(out, value);
+            }
+        } else {
+            codec.writeAtomicValue(out, (AtomicValue) key);
+        }
+    }
+
+    private AtomicSequence readKey(DataInputStream in) throws IOException, XPathException {
+        if (composite) {
+            AtomicValue[] values = new AtomicValue[in.readInt()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = codec.readAtomicValue(in);
+            }
+            return new AtomicArray(Arrays.asList(values));
+        } else {
+            return codec.readAtomicValue(in);
+        }
+    }
+
+    /**
+     * Signal that all the items have been written. Each partition is now grouped in memory and written to
+     * a group file, after which the groups can be read using {@link #nextGroup()}.
+     *
+     * @throws XPathException if a temporary file cannot be written or read
+     */
+
+    void finish() throws XPathException {
+        try {
+            for (DataOutputStream out : partitions) {
+                out.close();
+            }
+            for (File file : partitionFiles) {
+                groupPartition(file);
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+            readers = new PriorityQueue<>(PARTITIONS, (a, b) -> Long.compare(a.firstSequence, b.firstSequence));
+            for (File file : groupFiles) {
+                GroupReader reader = new GroupReader(file);
+                if (reader.advance()) {
+                    readers.add(reader);
+                }
+            }
+        } catch (IOException e) {
+            discard();
+            throw new XPathException("Cannot read or write temporary file for grouping: " + e.getMessage(), e);
+        } catch (XPathException e) {
+            discard();
+            throw e;
+        }
+    }
+
+    /**
+     * Form the groups in one partition, and write them to a group file in order of first appearance.
+     * The group records in the partition were written before any item records, and both are in population
+     * order, so the order of first appearance is the order in which the groups are created.
+     */
+
+    private void groupPartition(File partitionFile) throws IOException, XPathException {
+        GroupKeyIndex index = new GroupKeyIndex();
+        List<AtomicSequence> keys = new ArrayList<>();
+        List<List<Item>> groups = new ArrayList<>();
+        long[] firstSequences = new long[16];
+        int[] lastPositions = new int[16];
+        AtomicMatchKey[] scratch = new AtomicMatchKey[4];
+        try (DataInputStream in = SpillCodec.openInput(partitionFile)) {
+            int kind;
+            while ((kind = in.read()) >= 0) {
+                long sequence = in.readLong();
+                int position = (int) (sequence >>> 32);
+                AtomicSequence key = readKey(in);
+                int newGroup = groups.size();
+                int g;
+                if (composite) {
+                    int length = key.getLength();
+                    if (scratch.length < length) {
+                        scratch = new AtomicMatchKey[length];
+                    }
+                    for (int i = 0; i < length; i++) {
+                        scratch[i] = GroupByIterator.getMatchKey(key.itemAt(i), collator, implicitTimezone);
+                    }
+                    g = index.findOrAdd(scratch, length, newGroup);
+                } else {
+                    g = index.findOrAdd(GroupByIterator.getMatchKey((AtomicValue) key, collator, implicitTimezone), newGroup);
+                }
+                if (g == newGroup) {
+                    keys.add(key);
+                    groups.add(new ArrayList<>());
+                    if (newGroup == firstSequences.length) {
+                        firstSequences = Arrays.copyOf(firstSequences, newGroup * 2);
+                        lastPositions = Arrays.copyOf(lastPositions, newGroup * 2);
+                    }
+                    firstSequences[newGroup] = sequence;
+                    lastPositions[newGroup] = -1;
+                }
+                List<Item> group = groups.get(g);
+                if (kind == GROUP_RECORD) {
+                    int size = in.readInt();
+                    for (int i = 0; i < size; i++) {
+                        group.add(codec.readItem(in));
+                    }
+                } else {
+                    Item item = codec.readItem(in);
+                    // An item with several grouping keys is written once for each key, but is added to
+                    // a group only once
+                    if (lastPositions[g] != position) {
+                        group.add(item);
+                        lastPositions[g] = position;
+                    }
+                }
+            }
+        }
+        if (groups.isEmpty()) {
+            return;
+        }
+        File groupFile = codec.createTempFile("saxon-group", "grouping");
+        groupFiles.add(groupFile);
+        try (DataOutputStream out = SpillCodec.openOutput(groupFile)) {
+            out.writeInt(groups.size());
+            for (int g = 0; g < groups.size(); g++) {
+                out.writeLong(firstSequences[g]);
+                writeKey(out, keys.get(g));
+                List<Item> group = groups.get(g);
+                out.writeInt(group.size());
+                for (Item item : group) {
+                    codec.writeItem(out, item);
+                }
+            }
+        }
+        groupCount += groups.size();
+    }
+
+    /**
+     * Get the total number of groups. Available after {@link #finish()} has been called.
+     *
+     * @return the number of groups
+     */
+
+    int getGroupCount() {
+        return groupCount;
+    }
+
+    /**
+     * Move to the next group, in order of first appearance
+     *
+     * @return true if there is another group, false if all the groups have been read
+     * @throws XPathException if a temporary file cannot be read
+     */
+
+    boolean nextGroup() throws XPathException {
+        GroupReader reader = readers.poll();
+        if (reader == null) {
+            currentGroup = null;
+            currentKey = null;
+            discard();
+            return false;
+        }
+        currentGroup = reader.items;
+        currentKey = reader.key;
+        try {
+            if (reader.advance()) {
+                readers.add(reader);
+            }
+        } catch (IOException e) {
+            discard();
+            throw new XPathException("Cannot read temporary file for grouping: " + e.getMessage(), e);
+        }
+        return true;
+    }
+
+    /**
+     * Get the items in the current group
+     *
+     * @return the items in the current group, in population order
+     */
+
+    List<Item> getCurrentGroup() {
+        return currentGroup;
+    }
+
+    /**
+     * Get the grouping key of the current group
+     *
+     * @return the grouping key
+     */
+
+    AtomicSequence getCurrentKey() {
+        return currentKey;
+    }
+
+    /**
+     * Delete all the temporary files. This is called when the groups have all been read, or if
+     * grouping is abandoned.
+     */
+
+    void discard() {
+        for (int p = 0; p < PARTITIONS; p++) {
+            if (partitions[p] != null) {
+                try {
+                    partitions[p].close();
+                } catch (IOException e) {
+                    // no action
+                }
+                partitions[p] = null;
+            }
+            if (partitionFiles[p] != null) {
+                //noinspection ResultOfMethodCallIgnored
+                partitionFiles[p].delete();
+            }
+        }
+        if (readers != null) {
+            for (GroupReader reader : readers) {
+                reader.close();
+            }
+            readers.clear();
+        }
+        for (File file : groupFiles) {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    private static XPathException writeFailure(IOException e) {
+        return new XPathException("Cannot write temporary file for grouping: " + e.getMessage(), e);
+    }
+
+    /**
+     * Reader for a group file, holding the group most recently read
+     */
+
+    private class GroupReader {
+
+        private final DataInputStream in;
+        private int remaining;
+        long firstSequence;
+        AtomicSequence key;
+        List<Item> items;
+
+        GroupReader(File file) throws IOException {
+            in = SpillCodec.openInput(file);
+            remaining = in.readInt();
+        }
+
+        boolean advance() throws IOException, XPathException {
+            if (remaining-- <= 0) {
+                close();
+                return false;
+            }
+            firstSequence = in.readLong();
+            key = readKey(in);
+            int size = in.readInt();
+            items = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                items.add(codec.readItem(in));
+            }
+            return true;
+        }
+
+        void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // no action
+            }
+        }
+    }
+}
+
+// Copyright (c) 2020 Saxonica Limited
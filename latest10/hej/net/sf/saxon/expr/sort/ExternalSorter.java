@@ -0,0 +1,312 @@
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Copyright (c) 2020 Saxonica Limited
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is "Incompatible With Secondary Licenses", as defined by the Mozilla Public License, v. 2.0.
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+package net.sf.saxon.expr.sort;
+
+import net.sf.saxon.expr.XPathContext;
+import net.sf.saxon.expr.flwor.Tuple;
+import net.sf.saxon.lib.Feature;
+import net.sf.saxon.om.Item;
+import net.sf.saxon.om.SequenceIterator;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.tree.iter.ListIterator;
+import net.sf.saxon.value.AtomicValue;
+import net.sf.saxon.value.ObjectValue;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Performs an external merge sort, for use when the number of items to be sorted exceeds the threshold
+ * set by {@link Feature#THRESHOLD_FOR_EXTERNAL_SORT}. The caller reads the input in chunks; each chunk
+ * is sorted in memory and written as a sorted run to a temporary file, and when the input is exhausted,
+ * the runs are merged using a tree of {@link MergeIterator}s.
+ *
+ * <p>Each record in a run holds the original position of the item, the values of its sort keys, and the
+ * item itself, written using a {@link SpillCodec}.</p>
+ */
+
+public class ExternalSorter {
+
+    private final AtomicComparer[] comparers;
+    private final XPathContext context;
+    private final String errorCode;
+    private final SpillCodec codec;
+    private final List<File> runFiles = new ArrayList<>();
+
+    /**
+     * Create an external sorter
+     *
+     * @param comparers the comparers for the sort keys, in major-to-minor order
+     * @param context   the dynamic evaluation context
+     * @param errorCode the error code to be used if non-comparable sort key values are found
+     */
+
+    public ExternalSorter(AtomicComparer[] comparers, XPathContext context, String errorCode) {
+        this.comparers = comparers;
+        this.context = context;
+        this.errorCode = errorCode;
+        this.codec = new SpillCodec(context.getConfiguration());
+    }
+
+    /**
+     * Get the number of items above which sorting should be done externally
+     *
+     * @param context the dynamic evaluation context
+     * @return the number of items to be sorted in memory, after which sorted runs should be written to
+     * temporary files; or -1 if the sort is always to be done in memory
+     */
+
+    public static int getThreshold(XPathContext context) {
+        int threshold = context.getConfiguration().getConfigurationProperty(Feature.THRESHOLD_FOR_EXTERNAL_SORT);
+        return threshold > 0 ? threshold : -1;
+    }
+
+    /**
+     * Sort a chunk of the input, and write it as a sorted run to a temporary file. The entries in the
+     * array are cleared, so that the memory can be reclaimed.
+     *
+     * @param values the objects to be sorted, whose sort keys have been evaluated. The value of each object
+     *               must be an item; if it is a {@link Tuple}, each member of the tuple must be a sequence of items
+     *               that can be read repeatedly.
+     * @param count  the number of objects, starting at the beginning of the array
+     * @throws XPathException if non-comparable sort key values are found, or if the temporary file cannot be written
+     */
+
+    public void addRun(ObjectToBeSorted<?>[] values, int count) throws XPathException {
+        sortRun(values, count);
+        File file = codec.createTempFile("saxon-sort", "external sort");
+        runFiles.add(file);
+        try (DataOutputStream out = SpillCodec.openOutput(file)) {
+            out.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                ObjectToBeSorted<?> obj = values[i];
+                out.writeInt(obj.originalPosition);
+                for (AtomicValue key : obj.sortKeyValues) {
+                    codec.writeAtomicValue(out, key);
+                }
+                codec.writeItem(out, (Item) obj.value);
+                values[i] = null;
+            }
+        } catch (IOException e) {
+            throw new XPathException("Cannot write temporary file for external sort: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Sort a chunk of the input held in a list, and write it as a sorted run to a temporary file.
+     * The list is cleared.
+     *
+     * @param values the objects to be sorted
+     * @throws XPathException if non-comparable sort key values are found, or if the temporary file cannot be written
+     */
+
+    public void addRun(List<? extends ObjectToBeSorted<?>> values) throws XPathException {
+        ObjectToBeSorted<?>[] array = values.toArray(new ObjectToBeSorted<?>[0]);
+        values.clear();
+        addRun(array, array.length);
+    }
+
+    /**
+     * Sort the final chunk of the input, which is retained in memory, and merge it with the runs
+     * previously written to temporary files
+     *
+     * @param lastRun the objects in the final chunk of the input
+     * @param count   the number of objects in the final chunk
+     * @return an iterator over the values of all the objects (that is, the items or tuples) in sorted order.
+     * The temporary files are deleted when the iterator is exhausted or closed.
+     * @throws XPathException if non-comparable sort key values are found, or if a temporary file cannot be read
+     */
+
+    public SequenceIterator merge(ObjectToBeSorted<?>[] lastRun, int count) throws XPathException {
+        sortRun(lastRun, count);
+        List<SequenceIterator> inputs = new ArrayList<>(runFiles.size() + 1);
+        try {
+            for (File file : runFiles) {
+                inputs.add(new RunReader(file));
+            }
+        } catch (XPathException e) {
+            for (SequenceIterator input : inputs) {
+                input.close();
+            }
+            discard();
+            throw e;
+        }
+        List<ObjectValue<ObjectToBeSorted<?>>> memoryRun = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            memoryRun.add(new ObjectValue<>(lastRun[i]));
+        }
+        inputs.add(new ListIterator<>(memoryRun));
+        try {
+            return new MergedRunIterator(mergeInputs(inputs, 0, inputs.size()));
+        } catch (ClassCastException e) {
+            for (SequenceIterator input : inputs) {
+                input.close();
+            }
+            discard();
+            throw nonComparable(e);
+        }
+    }
+
+    /**
+     * Sort the final chunk of the input held in a list, and merge it with the runs previously written to
+     * temporary files
+     *
+     * @param lastRun the objects in the final chunk of the input. The list is cleared.
+     * @return an iterator over the values of all the objects in sorted order
+     * @throws XPathException if non-comparable sort key values are found, or if a temporary file cannot be read
+     */
+
+    public SequenceIterator merge(List<? extends ObjectToBeSorted<?>> lastRun) throws XPathException {
+        ObjectToBeSorted<?>[] array = lastRun.toArray(new ObjectToBeSorted<?>[0]);
+        lastRun.clear();
+        return merge(array, array.length);
+    }
+
+    /**
+     * Delete any temporary files that have been written. This is called if the sort is abandoned,
+     * for example because of a dynamic error.
+     */
+
+    public void discard() {
+        for (File file : runFiles) {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    private void sortRun(ObjectToBeSorted<?>[] values, int count) throws XPathException {
+        try {
+            ObjectSorter.sort(values, count, comparers, context);
+        } catch (ClassCastException e) {
+            discard();
+            throw nonComparable(e);
+        }
+    }
+
+    private XPathException nonComparable(ClassCastException e) {
+        XPathException err = new XPathException("Non-comparable types found while sorting: " + e.getMessage());
+        err.setErrorCode(errorCode);
+        return err;
+    }
+
+    /**
+     * Merge a range of inputs, by building a balanced binary tree of MergeIterators. Because the comparer
+     * uses the original position of each item as the final sort key, the result is the same whatever the
+     * shape of the tree.
+     */
+
+    private SequenceIterator mergeInputs(List<SequenceIterator> inputs, int from, int to) throws XPathException {
+        if (to - from == 1) {
+            return inputs.get(from);
+        }
+        int mid = (from + to) >>> 1;
+        Comparator<ObjectToBeSorted<?>> comparator = ObjectSorter.makeComparator(comparers);
+        ItemOrderComparer itemComparer = (a, b) -> comparator.compare(
+                (ObjectToBeSorted<?>) ((ObjectValue<?>) a).getObject(),
+                (ObjectToBeSorted<?>) ((ObjectValue<?>) b).getObject());
+        return new MergeIterator(mergeInputs(inputs, from, mid), mergeInputs(inputs, mid, to), itemComparer);
+    }
+
+    /**
+     * Iterator over a sorted run held in a temporary file, delivering each record as an
+     * {@link ObjectValue} wrapping an {@link ObjectToBeSorted}, which is the form required by {@link MergeIterator}.
+     * The file is deleted when the iterator is exhausted or closed.
+     */
+
+    private class RunReader implements SequenceIterator {
+
+        private final File file;
+        private DataInputStream in;
+        private int remaining;
+
+        RunReader(File file) throws XPathException {
+            this.file = file;
+            try {
+                in = SpillCodec.openInput(file);
+                remaining = in.readInt();
+            } catch (IOException e) {
+                close();
+                throw new XPathException("Cannot read temporary file for external sort: " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public Item next() throws XPathException {
+            if (remaining <= 0) {
+                close();
+                return null;
+            }
+            remaining--;
+            try {
+                ObjectToBeSorted<Item> obj = new ObjectToBeSorted<>(comparers.length);
+                obj.originalPosition = in.readInt();
+                for (int k = 0; k < comparers.length; k++) {
+                    obj.sortKeyValues[k] = codec.readAtomicValue(in);
+                }
+                obj.value = codec.readItem(in);
+                return new ObjectValue<>(obj);
+            } catch (IOException e) {
+                close();
+                throw new XPathException("Cannot read temporary file for external sort: " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // no action
+                }
+                in = null;
+            }
+            remaining = 0;
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    /**
+     * Iterator over the result of the merge, delivering the values of the sorted objects
+     */
+
+    private class MergedRunIterator implements SequenceIterator {
+
+        private final SequenceIterator base;
+
+        MergedRunIterator(SequenceIterator base) {
+            this.base = base;
+        }
+
+        @Override
+        public Item next() throws XPathException {
+            Item next;
+            try {
+                next = base.next();
+            } catch (ClassCastException e) {
+                close();
+                throw nonComparable(e);
+            }
+            return next == null ? null : (Item) ((ObjectToBeSorted<?>) ((ObjectValue<?>) next).getObject()).value;
+        }
+
+        @Override
+        public void close() {
+            base.close();
+            discard();
+        }
+    }
+}
+
+// Copyright (c) 2020 Saxonica Limited
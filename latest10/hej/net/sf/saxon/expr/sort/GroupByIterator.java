@@ -19,8 +19,8 @@ import net.sf.saxon.tree.iter.LookaheadIterator;
 import net.sf.saxon.value.AtomicValue;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.EnumSet;
-import java.util.HashMap;
 import java.util.List;
 
 /**
@@ -41,10 +41,11 @@ public class GroupByIterator implements GroupIterator, LastPositionFinder, Looka
 
     // The implementation of group-by is not pipelined. All the items in the population
     // are read at the start, their grouping keys are calculated, and the groups are formed
-    // in memory as a hash table indexed by the grouping key. This hash table is then
-    // flattened into three parallel lists: a list of groups (each group being represented
-    // as a list of items in population order), a list of grouping keys, and a list of
-    // the initial items of the groups.
+    // in memory, using a hash table that maps each grouping key to a group number. The groups
+    // are held in two parallel lists: a list of groups (each group being represented
+    // as a list of items in population order), and a list of grouping keys.
+    // If the number of items held in groups reaches the threshold for external grouping,
+    // the groups are handed over to an ExternalGrouper, which partitions them to temporary files.
 
     private SequenceIterator population;
     protected Expression keyExpression;
@@ -66,6 +67,13 @@ public class GroupByIterator implements GroupIterator, LastPositionFinder, Looka
 
     protected boolean composite;
 
+    // Sequence number of the first appearance of each group (see ExternalGrouper.sequenceNumber()),
+    // maintained only if the groups may need to be written to temporary files
+    private long[] firstSequences;
+
+    // Set if the number of items exceeds the threshold for grouping in memory
+    private ExternalGrouper externalGrouper;
+
     /**
      * Create a GroupByIterator
      *
@@ -104,48 +112,62 @@ public class GroupByIterator implements GroupIterator, LastPositionFinder, Looka
      */
 
     private void buildIndexedGroups() throws XPathException {
-        HashMap<AtomicMatchKey, List<Item>> index = new HashMap<>(40);
+        GroupKeyIndex index = new GroupKeyIndex();
         XPathContext c2 = keyContext.newMinorContext();
         FocusIterator focus = c2.trackFocus(population);
         int implicitTimezone = c2.getImplicitTimezone();
+        int threshold = ExternalGrouper.getThreshold(keyContext);
+        int held = 0;
         Item item;
-        while ((item = focus.next()) != null) {
-            SequenceIterator keys = keyExpression.iterate(c2);
-            boolean firstKey = true;
-            while (true) {
-                AtomicValue key = (AtomicValue) keys.next();
-                if (key == null) {
-                    break;
-                }
-                AtomicMatchKey comparisonKey;
-                if (key.isNaN()) {
-                    comparisonKey = AtomicMatchKey.NaN_MATCH_KEY;
-                } else {
-                    comparisonKey = key.getXPathComparable(false, collator, implicitTimezone);
-                }
-                List<Item> g = index.get(comparisonKey);
-                if (g == null) {
-                    List<Item> newGroup = new ArrayList<>(20);
-                    newGroup.add(item);
-                    groups.add(newGroup);
-                    groupKeys.add(key);
-                    index.put(comparisonKey, newGroup);
-                } else {
-                    if (firstKey) {
-                        g.add(item);
+        try {
+            while ((item = focus.next()) != null) {
+                SequenceIterator keys = keyExpression.iterate(c2);
+                int keyNr = 0;
+                while (true) {
+                    AtomicValue key = (AtomicValue) keys.next();
+                    if (key == null) {
+                        break;
+                    }
+                    if (externalGrouper != null) {
+                        long sequence = ExternalGrouper.sequenceNumber(focus.position(), keyNr++);
+                        externalGrouper.addItem(sequence, key, item);
+                        continue;
+                    }
+                    int newGroupNr = groups.size();
+                    int groupNr = index.findOrAdd(getMatchKey(key, collator, implicitTimezone), newGroupNr);
+                    if (groupNr == newGroupNr) {
+                        List<Item> newGroup = new ArrayList<>(20);
+                        newGroup.add(item);
+                        groups.add(newGroup);
+                        groupKeys.add(key);
+                        if (threshold > 0) {
+                            recordFirstSequence(newGroupNr, ExternalGrouper.sequenceNumber(focus.position(), keyNr));
+                        }
+                        held++;
                     } else {
+                        List<Item> g = groups.get(groupNr);
                         // if this is not the first key value for this item, we
                         // check whether the item is already in this group before
                         // adding it again. If it is in this group, then we know
                         // it will be at the end.
-                        if (g.get(g.size() - 1) != item) {
+                        if (keyNr == 0 || g.get(g.size() - 1) != item) {
                             g.add(item);
+                            held++;
                         }
                     }
+                    keyNr++;
+                }
+                if (threshold > 0 && held >= threshold && externalGrouper == null) {
+                    spill(c2, implicitTimezone);
+                    index = null;
                 }
-                firstKey = false;
             }
-
+            if (externalGrouper != null) {
+                externalGrouper.finish();
+            }
+        } catch (XPathException e) {
+            close();
+            throw e;
         }
     }
 
@@ -157,43 +179,116 @@ public class GroupByIterator implements GroupIterator, LastPositionFinder, Looka
      */
 
     private void buildIndexedGroupsComposite() throws XPathException {
-        HashMap<List<AtomicMatchKey>, List<Item>> index = new HashMap<>(40);
+        GroupKeyIndex index = new GroupKeyIndex();
         XPathContext c2 = keyContext.newMinorContext();
         FocusIterator focus = c2.trackFocus(population);
         int implicitTimezone = c2.getImplicitTimezone();
+        int threshold = ExternalGrouper.getThreshold(keyContext);
+        int held = 0;
+        // The components of the key of each item are assembled in these arrays, which are reused
+        // from one item to the next
+        AtomicValue[] compositeKey = new AtomicValue[4];
+        AtomicMatchKey[] ckList = new AtomicMatchKey[4];
         Item item;
-        while ((item = focus.next()) != null) {
-            SequenceIterator keys = keyExpression.iterate(c2);
-            List<AtomicMatchKey> ckList = new ArrayList<>();
-            List<AtomicValue> compositeKey = new ArrayList<>();
-            while (true) {
-                AtomicValue key = (AtomicValue) keys.next();
-                if (key == null) {
-                    break;
+        try {
+            while ((item = focus.next()) != null) {
+                SequenceIterator keys = keyExpression.iterate(c2);
+                int length = 0;
+                while (true) {
+                    AtomicValue key = (AtomicValue) keys.next();
+                    if (key == null) {
+                        break;
+                    }
+                    if (length == compositeKey.length) {
+                        compositeKey = Arrays.copyOf(compositeKey, length * 2);
+                        ckList = Arrays.copyOf(ckList, length * 2);
+                    }
+                    compositeKey[length] = key;
+                    ckList[length++] = getMatchKey(key, collator, implicitTimezone);
+                }
+                if (externalGrouper != null) {
+                    long sequence = ExternalGrouper.sequenceNumber(focus.position(), 0);
+                    externalGrouper.addItem(sequence, makeCompositeKey(compositeKey, length), item);
+                    continue;
                 }
-                compositeKey.add(key);
-                AtomicMatchKey comparisonKey;
-                if (key.isNaN()) {
-                    comparisonKey = AtomicMatchKey.NaN_MATCH_KEY;
+                int newGroupNr = groups.size();
+                int groupNr = index.findOrAdd(ckList, length, newGroupNr);
+                if (groupNr == newGroupNr) {
+                    List<Item> newGroup = new ArrayList<>(20);
+                    newGroup.add(item);
+                    groups.add(newGroup);
+                    groupKeys.add(makeCompositeKey(compositeKey, length));
+                    if (threshold > 0) {
+                        recordFirstSequence(newGroupNr, ExternalGrouper.sequenceNumber(focus.position(), 0));
+                    }
                 } else {
-                    comparisonKey = key.getXPathComparable(false, collator, implicitTimezone);
+                    groups.get(groupNr).add(item);
+                }
+                if (threshold > 0 && ++held >= threshold) {
+                    spill(c2, implicitTimezone);
+                    index = null;
                 }
-                ckList.add(comparisonKey);
             }
-
-            List<Item> g = index.get(ckList);
-            if (g == null) {
-                List<Item> newGroup = new ArrayList<>(20);
-                newGroup.add(item);
-                groups.add(newGroup);
-                groupKeys.add(new AtomicArray(compositeKey));
-                index.put(ckList, newGroup);
-            } else {
-                g.add(item);
+            if (externalGrouper != null) {
+                externalGrouper.finish();
             }
+        } catch (XPathException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private static AtomicArray makeCompositeKey(AtomicValue[] values, int length) {
+        return new AtomicArray(Arrays.asList(Arrays.copyOf(values, length)));
+    }
+
+    /**
+     * Get the key used to compare a grouping key value with others
+     *
+     * @param key              the grouping key value
+     * @param collator         the collation used to compare strings
+     * @param implicitTimezone the implicit timezone used to compare dates and times
+     * @return a key whose equals() and hashCode() methods implement the rules for comparing grouping keys
+     */
+
+    static AtomicMatchKey getMatchKey(AtomicValue key, StringCollator collator, int implicitTimezone)
+            throws XPathException {
+        if (key.isNaN()) {
+            return AtomicMatchKey.NaN_MATCH_KEY;
+        } else {
+            return key.getXPathComparable(false, collator, implicitTimezone);
         }
     }
 
+    /**
+     * Record the sequence number of the first appearance of a group, which is needed
+     * if the groups are later written to temporary files
+     */
+
+    private void recordFirstSequence(int groupNr, long sequence) {
+        if (firstSequences == null) {
+            firstSequences = new long[40];
+        } else if (groupNr == firstSequences.length) {
+            firstSequences = Arrays.copyOf(firstSequences, groupNr * 2);
+        }
+        firstSequences[groupNr] = sequence;
+    }
+
+    /**
+     * Write the groups formed so far to temporary files, after which all further items are
+     * also written to temporary files
+     */
+
+    private void spill(XPathContext context, int implicitTimezone) throws XPathException {
+        externalGrouper = new ExternalGrouper(context, collator, implicitTimezone, composite);
+        for (int g = 0; g < groups.size(); g++) {
+            externalGrouper.addGroup(firstSequences[g], groupKeys.get(g), groups.get(g));
+            groups.set(g, null);
+        }
+        groups.clear();
+        groupKeys.clear();
+        firstSequences = null;
+    }
 
     /**
      * Get the value of the grouping key for the current group
@@ -203,7 +298,7 @@ public class GroupByIterator implements GroupIterator, LastPositionFinder, Looka
 
     @Override
     public synchronized AtomicSequence getCurrentGroupingKey() {
-        AtomicSequence val = groupKeys.get(position - 1);
+        AtomicSequence val = externalGrouper == null ? groupKeys.get(position - 1) : externalGrouper.getCurrentKey();
         if (val == null) {
             return EmptyAtomicSequence.getInstance();
         } else {
@@ -219,7 +314,7 @@ public class GroupByIterator implements GroupIterator, LastPositionFinder, Looka
 
     @Override
     public SequenceIterator iterateCurrentGroup() {
-        return new ListIterator<>(groups.get(position - 1));
+        return new ListIterator<>(getCurrentGroup());
     }
 
     /**
@@ -228,23 +323,31 @@ public class GroupByIterator implements GroupIterator, LastPositionFinder, Looka
      * @return the contents of the current group
      */
 
-    public List getCurrentGroup() {
-        return groups.get(position - 1);
+    public List<Item> getCurrentGroup() {
+        return externalGrouper == null ? groups.get(position - 1) : externalGrouper.getCurrentGroup();
+    }
+
+    private int getGroupCount() {
+        return externalGrouper == null ? groups.size() : externalGrouper.getGroupCount();
     }
 
     @Override
     public boolean hasNext() {
-        return position < groups.size();
+        return position < getGroupCount();
     }
 
     /*@Nullable*/
     @Override
     public Item next() throws XPathException {
-        if (position >= 0 && position < groups.size()) {
+        if (position >= 0 && position < getGroupCount()) {
             position++;
+            if (externalGrouper != null) {
+                externalGrouper.nextGroup();
+            }
             return current();
         } else {
             position = -1;
+            close();
             return null;
         }
     }
@@ -254,7 +357,18 @@ public class GroupByIterator implements GroupIterator, LastPositionFinder, Looka
             return null;
         }
         // return the initial item of the current group
-        return groups.get(position - 1).get(0);
+        return getCurrentGroup().get(0);
+    }
+
+    /**
+     * Close the iterator. This deletes any temporary files used for grouping.
+     */
+
+    @Override
+    public void close() {
+        if (externalGrouper != null) {
+            externalGrouper.discard();
+        }
     }
 
     /**
@@ -278,7 +392,7 @@ public class GroupByIterator implements GroupIterator, LastPositionFinder, Looka
 
     @Override
     public int getLength() throws XPathException {
-        return groups.size();
+        return getGroupCount();
     }
 
 //#if EE==true
@@ -290,12 +404,12 @@ public class GroupByIterator implements GroupIterator, LastPositionFinder, Looka
 
     public class ManualGroupByIterator extends ManualGroupIterator {
 
-        List<Item> currentGroup = groups.get(position - 1);
-        AtomicSequence currentGroupingKey = groupKeys.get(position - 1);
+        List<Item> currentGroup = GroupByIterator.this.getCurrentGroup();
+        AtomicSequence currentGroupingKey = GroupByIterator.this.getCurrentGroupingKey();
 
         public ManualGroupByIterator() {
-            super(groups.get(position - 1).get(0), position);
-            setLastPositionFinder(() -> groups.size());
+            super(GroupByIterator.this.getCurrentGroup().get(0), position);
+            setLastPositionFinder(GroupByIterator.this::getGroupCount);
         }
 
         @Override
@@ -311,7 +425,7 @@ public class GroupByIterator implements GroupIterator, LastPositionFinder, Looka
 
         @Override
         public int getLength() throws XPathException {
-            return groups.size();
+            return getGroupCount();
         }
 
 
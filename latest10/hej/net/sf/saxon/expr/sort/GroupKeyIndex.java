@@ -0,0 +1,148 @@
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Copyright (c) 2020 Saxonica Limited
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is "Incompatible With Secondary Licenses", as defined by the Mozilla Public License, v. 2.0.
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+package net.sf.saxon.expr.sort;
+
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash table mapping grouping keys to group numbers, used by {@link GroupByIterator}.
+ * A key is either a single {@link AtomicMatchKey}, or (for composite grouping keys) an array of
+ * AtomicMatchKeys. The hash code of each key is held alongside it, so that most failed probes are
+ * rejected without calling equals().
+ *
+ * <p>A composite key is looked up using an array owned by the caller, which can be reused from one item
+ * to the next; the array is copied only when a new group is created.</p>
+ */
+
+final class GroupKeyIndex {
+
+    private int[] hashes;
+    private Object[] keys;
+    private int[] groupNumbers;
+    private int mask;
+    private int size;
+
+    GroupKeyIndex() {
+        allocate(64);
+    }
+
+    private void allocate(int capacity) {
+        hashes = new int[capacity];
+        keys = new Object[capacity];
+        groupNumbers = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Get the group number for a key, adding the key to the table if it is not already present
+     *
+     * @param key      the key
+     * @param newGroup the group number to be allocated to the key if it is not already present
+     * @return the group number of the key; this is equal to newGroup if the key was not already present
+     */
+
+    int findOrAdd(AtomicMatchKey key, int newGroup) {
+        int h = key.hashCode();
+        int slot = firstSlot(h);
+        Object k;
+        while ((k = keys[slot]) != null) {
+            if (hashes[slot] == h && k.equals(key)) {
+                return groupNumbers[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        insert(slot, h, key, newGroup);
+        return newGroup;
+    }
+
+    /**
+     * Get the group number for a composite key, adding the key to the table if it is not already present
+     *
+     * @param key      an array holding the components of the key. The array is not retained, and may be
+     *                 reused by the caller after the call.
+     * @param length   the number of components in the key, starting at the beginning of the array
+     * @param newGroup the group number to be allocated to the key if it is not already present
+     * @return the group number of the key; this is equal to newGroup if the key was not already present
+     */
+
+    int findOrAdd(AtomicMatchKey[] key, int length, int newGroup) {
+        int h = compositeHashCode(key, length);
+        int slot = firstSlot(h);
+        Object k;
+        while ((k = keys[slot]) != null) {
+            if (hashes[slot] == h && compositeEquals((AtomicMatchKey[]) k, key, length)) {
+                return groupNumbers[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        insert(slot, h, Arrays.copyOf(key, length), newGroup);
+        return newGroup;
+    }
+
+    /**
+     * Get the hash code of a composite key. This is the value used to place the key in the table.
+     *
+     * @param key    an array holding the components of the key
+     * @param length the number of components in the key
+     * @return the hash code
+     */
+
+    static int compositeHashCode(AtomicMatchKey[] key, int length) {
+        int h = 0x77557755 ^ length;
+        for (int i = 0; i < length; i++) {
+            h = h * 31 + key[i].hashCode();
+        }
+        return h;
+    }
+
+    private static boolean compositeEquals(AtomicMatchKey[] a, AtomicMatchKey[] b, int length) {
+        if (a.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (!a[i].equals(b[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void insert(int slot, int h, Object key, int group) {
+        hashes[slot] = h;
+        keys[slot] = key;
+        groupNumbers[slot] = group;
+        if (++size > (keys.length >> 1) + (keys.length >> 2)) {
+            rehash();
+        }
+    }
+
+    private int firstSlot(int h) {
+        h *= 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private void rehash() {
+        int[] oldHashes = hashes;
+        Object[] oldKeys = keys;
+        int[] oldGroups = groupNumbers;
+        allocate(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int slot = firstSlot(oldHashes[i]);
+                while (keys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                hashes[slot] = oldHashes[i];
+                keys[slot] = oldKeys[i];
+                groupNumbers[slot] = oldGroups[i];
+            }
+        }
+    }
+}
+
+// Copyright (c) 2020 Saxonica Limited
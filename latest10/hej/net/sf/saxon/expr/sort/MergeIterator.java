@@ -20,6 +20,9 @@ import java.util.EnumSet;
  * An iterator representing the sorted merge of two merge inputs, retaining all duplicates.
  * This iterator simply returns the items from all the inputs merged into a single sequence;
  * it does not do any grouping of adjacent items that share the same merge key.
+ *
+ * <p>The class is also used by {@link ExternalSorter} to merge the sorted runs of an external sort, in which
+ * case the objects being merged are instances of {@link ObjectToBeSorted} rather than {@link ItemWithMergeKeys}.</p>
  */
 
 public class MergeIterator implements
@@ -69,6 +72,10 @@ public class MergeIterator implements
             try {
                 c = comparer.compare(nextItem1, nextItem2);
             } catch (ClassCastException e) {
+                if (!(nextItem1.getObject() instanceof ItemWithMergeKeys)) {
+                    // merging the runs of an external sort: the caller reports the error
+                    throw e;
+                }
                 ItemWithMergeKeys i1 = nextItem1.getObject();
                 ItemWithMergeKeys i2 = nextItem2.getObject();
                 AtomicValue a1 = i1.sortKeyValues.get(0);
@@ -0,0 +1,213 @@
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Copyright (c) 2020 Saxonica Limited
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is "Incompatible With Secondary Licenses", as defined by the Mozilla Public License, v. 2.0.
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+package net.sf.saxon.expr.sort;
+
+import net.sf.saxon.expr.XPathContext;
+import net.sf.saxon.lib.Feature;
+import net.sf.saxon.trans.NoDynamicContextException;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.ListIterator;
+
+/**
+ * The sorting engine shared by xsl:sort, the XQuery "order by" clause, fn:sort, and array:sort.
+ * It performs a stable sort of an array or list of objects, using a single thread for small inputs, and
+ * a parallel merge sort ({@link Arrays#parallelSort(Object[], int, int, Comparator)}) for large inputs
+ * when the configuration allows multi-threading.
+ *
+ * <p>The sort keys are evaluated by the caller before the sort starts, so the comparator supplied to
+ * the sort compares precomputed values and has no access to the dynamic context other than the
+ * read-only information (such as the implicit timezone) held by the {@link AtomicComparer}s.
+ * This is what makes it safe to perform the comparisons on multiple threads. Collations are
+ * assumed to be thread-safe, as they are when multi-threaded xsl:for-each is used.</p>
+ */
+
+public class ObjectSorter {
+
+    /**
+     * The number of objects to be sorted, below which a parallel sort is never used. Below this
+     * size the cost of dividing the work between threads outweighs the benefit.
+     */
+
+    public static final int PARALLEL_THRESHOLD = 20000;
+
+    /**
+     * The number of objects to be sorted, below which a radix sort is never used. Below this size
+     * the fixed cost of the passes over the data outweighs the saving in comparisons.
+     */
+
+    public static final int RADIX_THRESHOLD = 1000;
+
+    private ObjectSorter() {}
+
+    /**
+     * Make a comparator that compares objects by the values of their sort keys, using
+     * the supplied AtomicComparers, and that uses the original position of the object as the final sort
+     * key. This makes the comparator a total order, so the result of a parallel sort is the same as
+     * the result of a sequential one.
+     *
+     * @param comparators the comparers to be used for each sort key, in major-to-minor order
+     * @param <T> the class of the objects being sorted
+     * @return a comparator suitable for use with {@link #sort(Object[], int, Comparator, XPathContext)}
+     */
+
+    public static <T extends ObjectToBeSorted<?>> Comparator<T> makeComparator(AtomicComparer[] comparators) {
+        return (a, b) -> {
+            try {
+                for (int i = 0; i < comparators.length; i++) {
+                    int comp = comparators[i].compareAtomicValues(
+                            a.sortKeyValues[i], b.sortKeyValues[i]);
+                    if (comp != 0) {
+                        // we have found a difference, so we can return
+                        return comp;
+                    }
+                }
+            } catch (NoDynamicContextException e) {
+                throw new AssertionError("Sorting without dynamic context: " + e.getMessage());
+            }
+
+            // all sort keys equal: return the items in their original order
+            return Integer.compare(a.originalPosition, b.originalPosition);
+        };
+    }
+
+    /**
+     * Sort the first {@code count} entries of an array of objects by the values of their sort keys, stably.
+     * Where possible the sort key values are first converted to a normalized form
+     * (see {@link SortKeyEncoder}) so that most comparisons avoid calling the {@link AtomicComparer}s,
+     * and if all the sort keys are numeric, a radix sort may be used in place of a comparison sort.
+     * The result is the same as sorting with the comparator returned by {@link #makeComparator(AtomicComparer[])}.
+     *
+     * @param values    the array to be sorted, whose entries must be in order of their original position
+     * @param count     the number of entries to be sorted, starting at the beginning of the array
+     * @param comparers the comparers to be used for each sort key, in major-to-minor order
+     * @param context   the dynamic evaluation context
+     * @param <T>       the class of the objects being sorted
+     * @throws ClassCastException if the comparers find values that are not comparable
+     */
+
+    public static <T extends ObjectToBeSorted<?>> void sort(T[] values, int count, AtomicComparer[] comparers, XPathContext context) {
+        SortKeyEncoder encoder = SortKeyEncoder.encode(values, count, comparers);
+        if (encoder == null) {
+            sort(values, count, makeComparator(comparers), context);
+            return;
+        }
+        try {
+            if (count >= RADIX_THRESHOLD && encoder.isRadixSortable() && !isParallel(count, context)) {
+                encoder.radixSort(values, count);
+            } else {
+                sort(values, count, encoder.<T>makeComparator(), context);
+            }
+        } finally {
+            encoder.release(values, count);
+        }
+    }
+
+    /**
+     * Sort a list of objects by the values of their sort keys, stably, as described for
+     * {@link #sort(ObjectToBeSorted[], int, AtomicComparer[], XPathContext)}
+     *
+     * @param list      the list to be sorted, which must be in order of the original positions of its members
+     * @param comparers the comparers to be used for each sort key, in major-to-minor order
+     * @param context   the dynamic evaluation context
+     * @param <T>       the class of the objects being sorted
+     * @throws ClassCastException if the comparers find values that are not comparable
+     */
+
+    @SuppressWarnings("unchecked")
+    public static <T extends ObjectToBeSorted<?>> void sort(List<T> list, AtomicComparer[] comparers, XPathContext context) {
+        T[] values = (T[]) list.toArray(new ObjectToBeSorted<?>[0]);
+        sort(values, values.length, comparers, context);
+        ListIterator<T> iter = list.listIterator();
+        for (T value : values) {
+            iter.next();
+            iter.set(value);
+        }
+    }
+
+    /**
+     * Ask whether a parallel sort should be used
+     *
+     * @param count   the number of objects to be sorted
+     * @param context the dynamic evaluation context
+     * @return true if the number of objects exceeds the threshold and the configuration allows
+     * multi-threading
+     */
+
+    public static boolean isParallel(int count, XPathContext context) {
+        return count >= PARALLEL_THRESHOLD &&
+                context.getConfiguration().getBooleanProperty(Feature.ALLOW_MULTITHREADING);
+    }
+
+    /**
+     * Sort the first {@code count} entries of an array, stably
+     *
+     * @param values     the array to be sorted
+     * @param count      the number of entries to be sorted, starting at the beginning of the array
+     * @param comparator the comparator to be used
+     * @param context    the dynamic evaluation context
+     * @param <T>        the type of the objects being sorted
+     * @throws ClassCastException if the comparator finds values that are not comparable
+     */
+
+    public static <T> void sort(T[] values, int count, Comparator<? super T> comparator, XPathContext context) {
+        if (isParallel(count, context)) {
+            try {
+                Arrays.parallelSort(values, 0, count, comparator);
+            } catch (ClassCastException e) {
+                throw unwrap(e);
+            }
+        } else {
+            Arrays.sort(values, 0, count, comparator);
+        }
+    }
+
+    /**
+     * Sort a list, stably
+     *
+     * @param list       the list to be sorted
+     * @param comparator the comparator to be used
+     * @param context    the dynamic evaluation context
+     * @param <T>        the type of the objects being sorted
+     * @throws ClassCastException if the comparator finds values that are not comparable
+     */
+
+    @SuppressWarnings("unchecked")
+    public static <T> void sort(List<T> list, Comparator<? super T> comparator, XPathContext context) {
+        if (isParallel(list.size(), context)) {
+            Object[] values = list.toArray();
+            try {
+                Arrays.parallelSort((T[]) values, comparator);
+            } catch (ClassCastException e) {
+                throw unwrap(e);
+            }
+            ListIterator<T> iter = list.listIterator();
+            for (Object value : values) {
+                iter.next();
+                iter.set((T) value);
+            }
+        } else {
+            list.sort(comparator);
+        }
+    }
+
+    /**
+     * When an exception is thrown on a worker thread, the fork-join framework may rethrow it in the calling
+     * thread wrapped in a new exception of the same class. Recover the original exception, so that
+     * the error message is the same as for a sequential sort.
+     */
+
+    private static ClassCastException unwrap(ClassCastException e) {
+        return e.getCause() instanceof ClassCastException ? (ClassCastException) e.getCause() : e;
+    }
+
+}
+
+// Copyright (c) 2020 Saxonica Limited
@@ -21,6 +21,11 @@ public class ObjectToBeSorted<T> {
     public AtomicValue[] sortKeyValues;
     public int originalPosition;
 
+    // Normalized forms of the sort key values, computed by SortKeyEncoder immediately before
+    // the sort, and discarded when it is finished
+    long[] keyPrefixes;
+    CollationMatchKey[] collationKeys;
+
     public ObjectToBeSorted(int numberOfSortKeys) {
         sortKeyValues = new AtomicValue[numberOfSortKeys];
     }
@@ -0,0 +1,421 @@
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Copyright (c) 2020 Saxonica Limited
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is "Incompatible With Secondary Licenses", as defined by the Mozilla Public License, v. 2.0.
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+package net.sf.saxon.expr.sort;
+
+import net.sf.saxon.lib.StringCollator;
+import net.sf.saxon.trans.NoDynamicContextException;
+import net.sf.saxon.value.*;
+
+import java.text.Collator;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Computes normalized forms of the sort key values of a sequence of {@link ObjectToBeSorted}, so that
+ * most comparisons performed during the sort are comparisons of Java longs rather than calls on
+ * {@link AtomicComparer#compareAtomicValues}.
+ *
+ * <p>Each sort key value is encoded as a long "prefix" that is consistent with the ordering defined by
+ * the AtomicComparer: if the comparer says a &lt; b then prefix(a) &lt;= prefix(b). The encoding takes
+ * account of descending order and of the position of empty and NaN values. When two prefixes are equal
+ * the comparer is called to decide the ordering, unless the encoding is known to be exact.</p>
+ *
+ * <ul>
+ *     <li>Numeric values are encoded using the bits of their double value, rearranged so that the signed
+ *     long ordering is the numeric ordering. The encoding is exact if all the values are doubles, floats, or
+ *     integers small enough to be represented exactly as a double. A sort key that mixes floats with integers
+ *     or decimals is not encoded, because these are compared in float precision.</li>
+ *     <li>Strings compared using the Unicode codepoint collation are encoded using their first four characters.</li>
+ *     <li>Strings compared using a collation based on a {@link Collator} are compared using the collation
+ *     keys delivered by {@link StringCollator#getCollationKey(CharSequence)}, computed once for each string.</li>
+ * </ul>
+ *
+ * <p>A sort key whose comparer is not recognized, or whose values are of mixed types (for example strings and
+ * numbers), is not encoded, so that any error reported by the comparer is unaffected.</p>
+ *
+ * <p>If every sort key has an exact encoding, the sort can be performed using a radix sort, which
+ * requires no comparisons at all.</p>
+ */
+
+final class SortKeyEncoder {
+
+    private static final int UNENCODED = 0;
+    private static final int NUMERIC = 1;
+    private static final int CODEPOINT = 2;
+    private static final int COLLATED = 3;
+
+    private static final long TWO_POWER_53 = 1L << 53;
+
+    private final AtomicComparer[] comparers;
+    private final int[] kinds;
+    private final boolean[] exact;
+    private final boolean[] descending;
+
+    private SortKeyEncoder(AtomicComparer[] comparers) {
+        this.comparers = comparers;
+        this.kinds = new int[comparers.length];
+        this.exact = new boolean[comparers.length];
+        this.descending = new boolean[comparers.length];
+    }
+
+    /**
+     * Compute the normalized sort keys for a sequence of objects to be sorted
+     *
+     * @param values    the objects to be sorted, whose sort key values have already been evaluated
+     * @param count     the number of objects, starting at the beginning of the array
+     * @param comparers the comparers for each sort key, in major-to-minor order
+     * @return an encoder that can be used to sort the objects, or null if none of the sort keys
+     * can be encoded
+     */
+
+    static SortKeyEncoder encode(ObjectToBeSorted<?>[] values, int count, AtomicComparer[] comparers) {
+        SortKeyEncoder encoder = new SortKeyEncoder(comparers);
+        boolean encoded = false;
+        for (int col = 0; col < comparers.length; col++) {
+            encoder.classify(values, count, col);
+            if (encoder.kinds[col] != UNENCODED) {
+                encoded = encoder.computePrefixes(values, count, col) || encoded;
+            }
+        }
+        if (!encoded) {
+            encoder.release(values, count);
+            return null;
+        }
+        return encoder;
+    }
+
+    /**
+     * Decide how the values of a sort key are to be encoded, by examining the comparer and the values
+     */
+
+    private void classify(ObjectToBeSorted<?>[] values, int count, int col) {
+        AtomicComparer base = comparers[col];
+        boolean desc = false;
+        while (true) {
+            if (base instanceof DescendingComparer) {
+                desc = !desc;
+                base = ((DescendingComparer) base).getBaseComparer();
+            } else if (base instanceof EmptyGreatestComparer) {
+                base = ((EmptyGreatestComparer) base).getBaseComparer();
+            } else {
+                break;
+            }
+        }
+        descending[col] = desc;
+
+        boolean allNumeric = true;
+        boolean allString = true;
+        boolean allExactDoubles = true;
+        boolean anyFloat = false;
+        boolean anyIntegerOrDecimal = false;
+        for (int i = 0; i < count && (allNumeric || allString); i++) {
+            AtomicValue v = values[i].sortKeyValues[col];
+            if (v == null) {
+                continue;
+            }
+            if (v instanceof NumericValue) {
+                allString = false;
+                if (allExactDoubles && !isExactDouble(v)) {
+                    allExactDoubles = false;
+                }
+                if (v instanceof FloatValue) {
+                    anyFloat = true;
+                } else if (!(v instanceof DoubleValue)) {
+                    anyIntegerOrDecimal = true;
+                }
+            } else if (v instanceof StringValue) {
+                allNumeric = false;
+            } else {
+                allNumeric = false;
+                allString = false;
+            }
+        }
+
+        // An xs:float is compared with an xs:integer or xs:decimal in float precision, so values that
+        // differ as doubles can compare equal: the double encoding would then disagree with the comparer
+
+        boolean comparedAsDoubles = !(anyFloat && anyIntegerOrDecimal);
+
+        int kind = UNENCODED;
+        boolean isExact = false;
+        if (base instanceof NumericComparer) {
+            // values are compared as doubles, so the encoding is always exact
+            if (allNumeric) {
+                kind = NUMERIC;
+                isExact = true;
+            }
+        } else if (base instanceof DoubleSortComparer) {
+            if (allNumeric && comparedAsDoubles) {
+                kind = NUMERIC;
+                isExact = allExactDoubles;
+            }
+        } else if (base.getClass() == AtomicSortComparer.class) {
+            if (allNumeric && comparedAsDoubles) {
+                kind = NUMERIC;
+                isExact = allExactDoubles;
+            } else if (allString) {
+                kind = stringKind(base.getCollator());
+            }
+        } else if (base instanceof CodepointCollatingComparer) {
+            if (allString) {
+                kind = CODEPOINT;
+            }
+        } else if (base.getClass() == CollatingAtomicComparer.class) {
+            if (allString) {
+                kind = stringKind(base.getCollator());
+            }
+        }
+        kinds[col] = kind;
+        exact[col] = isExact;
+    }
+
+    private static boolean isExactDouble(AtomicValue v) {
+        if (v instanceof DoubleValue || v instanceof FloatValue) {
+            return true;
+        } else if (v instanceof Int64Value) {
+            long n = ((Int64Value) v).longValue();
+            return n >= -TWO_POWER_53 && n <= TWO_POWER_53;
+        } else {
+            return false;
+        }
+    }
+
+    private static int stringKind(StringCollator collator) {
+        if (collator instanceof CodepointCollator) {
+            return CODEPOINT;
+        } else if (collator instanceof UcaCollatorUsingJava ||
+                (collator instanceof SimpleCollation && ((SimpleCollation) collator).getComparator() instanceof Collator)) {
+            return COLLATED;
+        } else {
+            return UNENCODED;
+        }
+    }
+
+    /**
+     * Compute the prefixes (and if appropriate the collation keys) for one sort key
+     *
+     * @return true if the sort key has been encoded; false if encoding was abandoned
+     */
+
+    private boolean computePrefixes(ObjectToBeSorted<?>[] values, int count, int col) {
+        int kind = kinds[col];
+        AtomicComparer comparer = comparers[col];
+        StringCollator collator = comparer.getCollator();
+        for (int i = 0; i < count; i++) {
+            ObjectToBeSorted<?> obj = values[i];
+            AtomicValue v = obj.sortKeyValues[col];
+            if (obj.keyPrefixes == null) {
+                obj.keyPrefixes = new long[comparers.length];
+            }
+            if (kind == COLLATED && v != null) {
+                AtomicMatchKey key = collator.getCollationKey(v.getStringValueCS());
+                if (!(key instanceof CollationMatchKey)) {
+                    kinds[col] = UNENCODED;
+                    return false;
+                }
+                if (obj.collationKeys == null) {
+                    obj.collationKeys = new CollationMatchKey[comparers.length];
+                }
+                obj.collationKeys[col] = (CollationMatchKey) key;
+            }
+            obj.keyPrefixes[col] = prefix(comparer, v, kind);
+        }
+        return true;
+    }
+
+    /**
+     * Compute the prefix for one sort key value
+     *
+     * @param comparer the comparer for the sort key
+     * @param v        the value of the sort key (null representing an empty sequence)
+     * @param kind     the kind of encoding to be used
+     * @return a long whose ordering is consistent with the ordering of values defined by the comparer
+     */
+
+    private static long prefix(AtomicComparer comparer, AtomicValue v, int kind) {
+        if (comparer instanceof DescendingComparer) {
+            return ~prefix(((DescendingComparer) comparer).getBaseComparer(), v, kind);
+        } else if (comparer instanceof EmptyGreatestComparer) {
+            if (v == null) {
+                return Long.MAX_VALUE;
+            } else if (v.isNaN()) {
+                return Long.MAX_VALUE - 1;
+            } else {
+                return prefix(((EmptyGreatestComparer) comparer).getBaseComparer(), v, kind);
+            }
+        }
+        if (v == null) {
+            return Long.MIN_VALUE;
+        }
+        switch (kind) {
+            case NUMERIC: {
+                double d = ((NumericValue) v).getDoubleValue();
+                if (Double.isNaN(d)) {
+                    // NumericComparer treats NaN as equal to the empty sequence; other comparers put it next
+                    return comparer instanceof NumericComparer ? Long.MIN_VALUE : Long.MIN_VALUE + 1;
+                }
+                if (d == 0) {
+                    d = 0.0;  // eliminate negative zero
+                }
+                long bits = Double.doubleToLongBits(d);
+                return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+            }
+            case CODEPOINT: {
+                // Pack the first four UTF-16 code units, adjusted so that their unsigned ordering matches
+                // the ordering of Unicode codepoints
+                String s = v.getStringValue();
+                long p = 0;
+                for (int i = 0; i < 4; i++) {
+                    int u = 0;
+                    if (i < s.length()) {
+                        u = s.charAt(i);
+                        if (u >= 0xE000) {
+                            u -= 0x800;
+                        } else if (u >= 0xD800) {
+                            u += 0x2000;
+                        }
+                    }
+                    p = (p << 16) | u;
+                }
+                return p ^ Long.MIN_VALUE;
+            }
+            default:
+                // collated strings are ordered using their collation keys
+                return 0;
+        }
+    }
+
+    /**
+     * Ask whether the objects can be sorted using a radix sort, which is the case if every sort key
+     * has an exact encoding
+     *
+     * @return true if {@link #radixSort} may be used
+     */
+
+    boolean isRadixSortable() {
+        for (int col = 0; col < kinds.length; col++) {
+            if (kinds[col] != NUMERIC || !exact[col]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Make a comparator that compares objects using their normalized sort keys, falling back to the
+     * AtomicComparer where the normalized keys are equal but the encoding is not exact. Like the comparator
+     * returned by {@link ObjectSorter#makeComparator(AtomicComparer[])}, it uses the original position as the
+     * final sort key.
+     *
+     * @param <T> the class of the objects being sorted
+     * @return the comparator
+     */
+
+    <T extends ObjectToBeSorted<?>> Comparator<T> makeComparator() {
+        return (a, b) -> {
+            long[] pa = a.keyPrefixes;
+            long[] pb = b.keyPrefixes;
+            for (int i = 0; i < kinds.length; i++) {
+                int comp;
+                int kind = kinds[i];
+                if (kind != UNENCODED) {
+                    comp = Long.compare(pa[i], pb[i]);
+                    if (comp != 0) {
+                        return comp;
+                    }
+                    if (kind == COLLATED) {
+                        // equal prefixes mean that either both values are empty, or neither is
+                        if (a.collationKeys != null && b.collationKeys != null) {
+                            CollationMatchKey ka = a.collationKeys[i];
+                            CollationMatchKey kb = b.collationKeys[i];
+                            if (ka != null && kb != null) {
+                                comp = ka.compareTo(kb);
+                                if (comp != 0) {
+                                    return descending[i] ? -comp : comp;
+                                }
+                            }
+                        }
+                        continue;
+                    }
+                    if (exact[i]) {
+                        continue;
+                    }
+                }
+                try {
+                    comp = comparers[i].compareAtomicValues(a.sortKeyValues[i], b.sortKeyValues[i]);
+                } catch (NoDynamicContextException e) {
+                    throw new AssertionError("Sorting without dynamic context: " + e.getMessage());
+                }
+                if (comp != 0) {
+                    return comp;
+                }
+            }
+            return Integer.compare(a.originalPosition, b.originalPosition);
+        };
+    }
+
+    /**
+     * Sort the objects using a least-significant-digit radix sort of their normalized sort keys. This
+     * must only be used if {@link #isRadixSortable()} returns true. The sort is stable, so the objects must
+     * be supplied in order of their original position. Passes over a byte of the key that has the same
+     * value in every object are skipped, so keys occupying a small range of values need only a few passes.
+     *
+     * @param values the objects to be sorted
+     * @param count  the number of objects, starting at the beginning of the array
+     */
+
+    void radixSort(ObjectToBeSorted<?>[] values, int count) {
+        ObjectToBeSorted<?>[] src = values;
+        ObjectToBeSorted<?>[] dest = new ObjectToBeSorted<?>[count];
+        int[] offsets = new int[257];
+        for (int col = kinds.length - 1; col >= 0; col--) {
+            for (int shift = 0; shift < 64; shift += 8) {
+                Arrays.fill(offsets, 0);
+                for (int i = 0; i < count; i++) {
+                    offsets[digit(src[i], col, shift) + 1]++;
+                }
+                if (offsets[digit(src[0], col, shift) + 1] == count) {
+                    continue;
+                }
+                for (int d = 0; d < 256; d++) {
+                    offsets[d + 1] += offsets[d];
+                }
+                for (int i = 0; i < count; i++) {
+                    dest[offsets[digit(src[i], col, shift)]++] = src[i];
+                }
+                ObjectToBeSorted<?>[] temp = src;
+                src = dest;
+                dest = temp;
+            }
+        }
+        if (src != values) {
+            System.arraycopy(src, 0, values, 0, count);
+        }
+    }
+
+    private static int digit(ObjectToBeSorted<?> obj, int col, int shift) {
+        // flip the sign bit so that the unsigned ordering of the digits is the signed ordering of the prefix
+        return (int) (((obj.keyPrefixes[col] ^ Long.MIN_VALUE) >>> shift) & 0xff);
+    }
+
+    /**
+     * Release the normalized sort keys once the sort is finished
+     *
+     * @param values the objects that were sorted
+     * @param count  the number of objects
+     */
+
+    void release(ObjectToBeSorted<?>[] values, int count) {
+        for (int i = 0; i < count; i++) {
+            values[i].keyPrefixes = null;
+            values[i].collationKeys = null;
+        }
+    }
+}
+
+// Copyright (c) 2020 Saxonica Limited
@@ -15,11 +15,9 @@ import net.sf.saxon.om.Item;
 import net.sf.saxon.om.SequenceIterator;
 import net.sf.saxon.om.StandardNames;
 import net.sf.saxon.s9api.HostLanguage;
-import net.sf.saxon.trans.NoDynamicContextException;
 import net.sf.saxon.trans.XPathException;
 import net.sf.saxon.tree.iter.LookaheadIterator;
 
-import java.util.Arrays;
 import java.util.EnumSet;
 
 /**
@@ -55,6 +53,12 @@ public class SortedIterator implements SequenceIterator, LastPositionFinder, Loo
     // The host language (XSLT, XQuery, XPath). Used only to decide which error code to use on dynamic errors.
     private HostLanguage hostLanguage;
 
+    // Used if the number of items exceeds the threshold for an external sort; otherwise null
+    private ExternalSorter externalSorter;
+
+    // Delivers the sorted items, in the case of an external sort
+    private SequenceIterator mergedRuns;
+
     protected SortedIterator() {
     }
 
@@ -153,6 +157,10 @@ public class SortedIterator implements SequenceIterator, LastPositionFinder, Loo
             doSort();
         }
         if (position < count) {
+            if (mergedRuns != null) {
+                position++;
+                return mergedRuns.next();
+            }
             return (Item) values[position++].value;
         } else {
             position = -1;
@@ -160,6 +168,18 @@ public class SortedIterator implements SequenceIterator, LastPositionFinder, Loo
         }
     }
 
+    /**
+     * Close the iterator. In the case of an external sort, this deletes any temporary files
+     * that have not yet been fully read.
+     */
+
+    @Override
+    public void close() {
+        if (mergedRuns != null) {
+            mergedRuns.close();
+        }
+    }
+
     @Override
     public int getLength() throws XPathException {
         if (count < 0) {
@@ -190,9 +210,13 @@ public class SortedIterator implements SequenceIterator, LastPositionFinder, Loo
      */
 
     protected void buildArray() throws XPathException {
+        int threshold = ExternalSorter.getThreshold(context);
         int allocated;
         if (base.getProperties().contains(Property.LAST_POSITION_FINDER)) {
             allocated = ((LastPositionFinder) base).getLength();
+            if (threshold > 0 && allocated > threshold) {
+                allocated = threshold;
+            }
         } else {
             allocated = 100;
         }
@@ -203,7 +227,21 @@ public class SortedIterator implements SequenceIterator, LastPositionFinder, Loo
         // initialise the array with data
 
         Item item;
+        int total = 0;
         while ((item = base.next()) != null) {
+            if (count == threshold) {
+                // write the items read so far to a sorted run on disk
+                if (externalSorter == null) {
+                    externalSorter = new ExternalSorter(comparators, context, getErrorCode());
+                }
+                try {
+                    externalSorter.addRun(values, count);
+                } catch (XPathException e) {
+                    externalSorter.discard();
+                    throw e;
+                }
+                count = 0;
+            }
             if (count == allocated) {
                 allocated *= 2;
                 ObjectToBeSorted[] nk2 = new ObjectToBeSorted[allocated];
@@ -219,7 +257,8 @@ public class SortedIterator implements SequenceIterator, LastPositionFinder, Loo
                 itbs.sortKeyValues[n] = sortKeyEvaluator.evaluateSortKey(n, context);
             }
             // make the sort stable by adding the record number
-            itbs.originalPosition = count++;
+            itbs.originalPosition = total++;
+            count++;
         }
 
         // If there's lots of unused space, reclaim it
@@ -232,7 +271,21 @@ public class SortedIterator implements SequenceIterator, LastPositionFinder, Loo
     }
 
     private void doSort() throws XPathException {
-        buildArray();
+        try {
+            buildArray();
+        } catch (XPathException e) {
+            if (externalSorter != null) {
+                externalSorter.discard();
+            }
+            throw e;
+        }
+        if (externalSorter != null) {
+            int total = values[count - 1].originalPosition + 1;
+            mergedRuns = externalSorter.merge(values, count);
+            values = null;
+            count = total;
+            return;
+        }
         if (count < 2) {
             return;
         }
@@ -240,35 +293,18 @@ public class SortedIterator implements SequenceIterator, LastPositionFinder, Loo
         // sort the array
 
         try {
-            Arrays.sort(values, 0, count, (a, b) -> {
-                try {
-                    for (int i = 0; i < comparators.length; i++) {
-                        int comp = comparators[i].compareAtomicValues(
-                                a.sortKeyValues[i], b.sortKeyValues[i]);
-                        if (comp != 0) {
-                            // we have found a difference, so we can return
-                            return comp;
-                        }
-                    }
-                } catch (NoDynamicContextException e) {
-                    throw new AssertionError("Sorting without dynamic context: " + e.getMessage());
-                }
-
-                // all sort keys equal: return the items in their original order
-                // TODO: unnecessary, we are now using a stable sort routine
-                return a.originalPosition - b.originalPosition;
-            });
+            ObjectSorter.sort(values, count, comparators, context);
             //GenericSorter.quickSort(0, count, this);
         } catch (ClassCastException e) {
             XPathException err = new XPathException("Non-comparable types found while sorting: " + e.getMessage());
-            if (hostLanguage == HostLanguage.XSLT) {
-                err.setErrorCode("XTDE1030");
-            } else {
-                err.setErrorCode("XPTY0004");
-            }
+            err.setErrorCode(getErrorCode());
             throw err;
         }
     }
 
+    private String getErrorCode() {
+        return hostLanguage == HostLanguage.XSLT ? "XTDE1030" : "XPTY0004";
+    }
+
 }
 
@@ -0,0 +1,295 @@
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Copyright (c) 2020 Saxonica Limited
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is "Incompatible With Secondary Licenses", as defined by the Mozilla Public License, v. 2.0.
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+package net.sf.saxon.expr.sort;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.expr.flwor.Tuple;
+import net.sf.saxon.lib.ConversionRules;
+import net.sf.saxon.lib.Feature;
+import net.sf.saxon.om.*;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.tree.tiny.TinyAttributeImpl;
+import net.sf.saxon.tree.tiny.TinyNodeImpl;
+import net.sf.saxon.tree.tiny.TinyTree;
+import net.sf.saxon.type.BuiltInAtomicType;
+import net.sf.saxon.type.BuiltInType;
+import net.sf.saxon.type.SchemaType;
+import net.sf.saxon.value.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Writes items to temporary files, and reads them back, on behalf of operations such as
+ * {@link ExternalSorter} and {@link GroupByIterator} that hold their working data on disk when it
+ * is too large to hold in memory.
+ *
+ * <p>Atomic values of built-in types are written in serialized form. Nodes in a
+ * {@link TinyTree} are written as a reference to the tree and the node number within the tree; the tree
+ * itself is retained in memory. Any other item (for example a map, a function, or a node in some other kind
+ * of tree) is retained in memory, and the file holds a reference to it. The memory saving therefore comes
+ * from atomic values; for a tuple stream in XQuery, the tuples are written member by member.</p>
+ *
+ * <p>An item must be read back using the same SpillCodec that wrote it.</p>
+ */
+
+public class SpillCodec {
+
+    private static final byte EMPTY = 0;
+    private static final byte STRING = 1;
+    private static final byte UNTYPED_ATOMIC = 2;
+    private static final byte INTEGER = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte OTHER_ATOMIC = 5;
+    private static final byte TINY_NODE = 6;
+    private static final byte RETAINED = 7;
+    private static final byte TUPLE = 8;
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private final ConversionRules rules;
+    private final String directory;
+    private final List<TinyTree> trees = new ArrayList<>();
+    private final Map<TinyTree, Integer> treeNumbers = new IdentityHashMap<>();
+    private final List<Item> retainedItems = new ArrayList<>();
+
+    /**
+     * Create a SpillCodec
+     *
+     * @param config the Saxon configuration
+     */
+
+    public SpillCodec(Configuration config) {
+        this.rules = config.getConversionRules();
+        this.directory = config.getConfigurationProperty(Feature.TEMPORARY_FILE_DIRECTORY);
+    }
+
+    /**
+     * Create a temporary file, in the directory given by {@link Feature#TEMPORARY_FILE_DIRECTORY} if
+     * it is set. Where the file system supports it, the file is readable and writable only by its owner,
+     * since it will hold a copy of the data being processed.
+     *
+     * @param prefix  the prefix of the file name, for example "saxon-sort"
+     * @param purpose a description of the operation needing the file, used in error messages
+     * @return the new file, which the caller is responsible for deleting
+     * @throws XPathException if the file cannot be created
+     */
+
+    public File createTempFile(String prefix, String purpose) throws XPathException {
+        try {
+            Path file = directory == null
+                    ? Files.createTempFile(prefix, ".run")
+                    : Files.createTempFile(Paths.get(directory), prefix, ".run");
+            return file.toFile();
+        } catch (IOException | InvalidPathException e) {
+            throw new XPathException("Cannot create temporary file for " + purpose + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Open a buffered output stream to write a temporary file
+     *
+     * @param file the file to be written
+     * @return the output stream
+     * @throws IOException if the file cannot be opened
+     */
+
+    public static DataOutputStream openOutput(File file) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+    }
+
+    /**
+     * Open a buffered input stream to read a temporary file
+     *
+     * @param file the file to be read
+     * @return the input stream
+     * @throws IOException if the file cannot be opened
+     */
+
+    public static DataInputStream openInput(File file) throws IOException {
+        return new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+    }
+
+    /**
+     * Write an item
+     *
+     * @param out  the output stream
+     * @param item the item to be written. If it is a {@link Tuple}, each member of the tuple must be
+     *             a sequence of items that can be read repeatedly.
+     * @throws IOException    if writing fails
+     * @throws XPathException if a member of a tuple cannot be evaluated
+     */
+
+    public void writeItem(DataOutputStream out, Item item) throws IOException, XPathException {
+        if (item instanceof AtomicValue) {
+            writeAtomicValue(out, (AtomicValue) item);
+        } else if (item instanceof TinyNodeImpl && !(item instanceof TinyAttributeImpl)) {
+            TinyTree tree = ((TinyNodeImpl) item).getTree();
+            Integer treeNr = treeNumbers.get(tree);
+            if (treeNr == null) {
+                treeNr = trees.size();
+                trees.add(tree);
+                treeNumbers.put(tree, treeNr);
+            }
+            out.writeByte(TINY_NODE);
+            out.writeInt(treeNr);
+            out.writeInt(((TinyNodeImpl) item).getNodeNumber());
+        } else if (item instanceof Tuple) {
+            Sequence[] members = ((Tuple) item).getMembers();
+            out.writeByte(TUPLE);
+            out.writeInt(members.length);
+            for (Sequence member : members) {
+                if (member == null) {
+                    out.writeInt(-1);
+                    continue;
+                }
+                GroundedValue value = member.materialize();
+                out.writeInt(value.getLength());
+                for (Item it : value.asIterable()) {
+                    writeItem(out, it);
+                }
+            }
+        } else {
+            retain(out, item);
+        }
+    }
+
+    /**
+     * Write an atomic value
+     *
+     * @param out   the output stream
+     * @param value the value to be written, or null to represent an empty sequence
+     * @throws IOException if writing fails
+     */
+
+    public void writeAtomicValue(DataOutputStream out, AtomicValue value) throws IOException {
+        if (value == null) {
+            out.writeByte(EMPTY);
+            return;
+        }
+        SchemaType type = value.getItemType();
+        if (type == BuiltInAtomicType.STRING) {
+            out.writeByte(STRING);
+            writeString(out, value.getStringValue());
+        } else if (type == BuiltInAtomicType.UNTYPED_ATOMIC) {
+            out.writeByte(UNTYPED_ATOMIC);
+            writeString(out, value.getStringValue());
+        } else if (type == BuiltInAtomicType.INTEGER && value instanceof Int64Value) {
+            out.writeByte(INTEGER);
+            out.writeLong(((Int64Value) value).longValue());
+        } else if (type == BuiltInAtomicType.DOUBLE) {
+            out.writeByte(DOUBLE);
+            out.writeDouble(((DoubleValue) value).getDoubleValue());
+        } else if (type instanceof BuiltInAtomicType && !((BuiltInAtomicType) type).isNamespaceSensitive()) {
+            out.writeByte(OTHER_ATOMIC);
+            out.writeInt(type.getFingerprint());
+            writeString(out, value.getStringValue());
+        } else {
+            retain(out, value);
+        }
+    }
+
+    private void retain(DataOutputStream out, Item item) throws IOException {
+        out.writeByte(RETAINED);
+        out.writeInt(retainedItems.size());
+        retainedItems.add(item);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Read an item written using {@link #writeItem(DataOutputStream, Item)}
+     *
+     * @param in the input stream
+     * @return the item
+     * @throws IOException    if reading fails
+     * @throws XPathException if an atomic value cannot be reconstructed
+     */
+
+    public Item readItem(DataInputStream in) throws IOException, XPathException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case TINY_NODE: {
+                TinyTree tree = trees.get(in.readInt());
+                return tree.getNode(in.readInt());
+            }
+            case TUPLE: {
+                Sequence[] members = new Sequence[in.readInt()];
+                for (int m = 0; m < members.length; m++) {
+                    int length = in.readInt();
+                    if (length < 0) {
+                        continue;
+                    }
+                    Item[] items = new Item[length];
+                    for (int i = 0; i < items.length; i++) {
+                        items[i] = readItem(in);
+                    }
+                    members[m] = SequenceExtent.makeSequenceExtent(Arrays.asList(items));
+                }
+                return new Tuple(members);
+            }
+            case RETAINED:
+                return retainedItems.get(in.readInt());
+            default:
+                return readAtomicValue(tag, in);
+        }
+    }
+
+    /**
+     * Read an atomic value written using {@link #writeAtomicValue(DataOutputStream, AtomicValue)}
+     *
+     * @param in the input stream
+     * @return the atomic value, or null if an empty sequence was written
+     * @throws IOException    if reading fails
+     * @throws XPathException if the atomic value cannot be reconstructed
+     */
+
+    public AtomicValue readAtomicValue(DataInputStream in) throws IOException, XPathException {
+        return readAtomicValue(in.readByte(), in);
+    }
+
+    private AtomicValue readAtomicValue(byte tag, DataInputStream in) throws IOException, XPathException {
+        switch (tag) {
+            case EMPTY:
+                return null;
+            case STRING:
+                return new StringValue(readString(in));
+            case UNTYPED_ATOMIC:
+                return new UntypedAtomicValue(readString(in));
+            case INTEGER:
+                return Int64Value.makeIntegerValue(in.readLong());
+            case DOUBLE:
+                return new DoubleValue(in.readDouble());
+            case OTHER_ATOMIC: {
+                BuiltInAtomicType type = (BuiltInAtomicType) BuiltInType.getSchemaType(in.readInt());
+                return type.getStringConverter(rules).convertString(readString(in)).asAtomic();
+            }
+            case RETAINED:
+                return (AtomicValue) retainedItems.get(in.readInt());
+            default:
+                throw new IllegalStateException("Corrupt temporary file: tag " + tag);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
+
+// Copyright (c) 2020 Saxonica Limited
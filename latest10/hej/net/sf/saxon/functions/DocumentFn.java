@@ -33,6 +33,7 @@ import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamSource;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Arrays;
 
 
 /**
@@ -209,6 +210,10 @@ public class DocumentFn extends SystemFunction implements Callable {
         }
 
         DocumentPool pool = controller.getDocumentPool();
+        doc = pool.find(documentKey);
+        if (doc != null) {
+            return getFragment(doc, fragmentId, c, locator);
+        }
 
         //noinspection SynchronizationOnLocalVariableOrMethodParameter
         synchronized (controller) {
@@ -241,74 +246,14 @@ public class DocumentFn extends SystemFunction implements Callable {
         }
 
         try {
-
-            // Get a Source from the URIResolver
-
-            Source source = resolveURI(href, baseURI, documentKey.toString(), c);
-
-
-            //System.err.println("URI resolver returned " + source.getClass() + " " + source.getSystemId());
-            source = config.getSourceResolver().resolveSource(source, config);
-            //System.err.println("Resolved source " + source.getClass() + " " + source.getSystemId());
-
             TreeInfo newdoc;
-            if (source instanceof NodeInfo || source instanceof DOMSource) {
-                NodeInfo startNode = controller.prepareInputTree(source);
-                newdoc = startNode.getTreeInfo();
+            if (isCacheable(packageData, options, controller, c)) {
+                String uri = href;
+                newdoc = config.getSharedDocumentCache().getDocument(
+                        documentKey, getCacheVariant(packageData, controller),
+                        () -> buildDocument(uri, baseURI, documentKey, packageData, null, c, silent));
             } else {
-                Builder b = controller.makeBuilder();
-                b.setUseEventLocation(true);
-                if (b instanceof TinyBuilder) {
-                    ((TinyBuilder) b).setStatistics(config.getTreeStatistics().SOURCE_DOCUMENT_STATISTICS);
-                }
-
-                Receiver s = b;
-                if (options == null) {
-                    options = new ParseOptions(b.getPipelineConfiguration().getParseOptions());
-                    if (packageData instanceof StylesheetPackage) {
-                        SpaceStrippingRule rule = ((StylesheetPackage)packageData).getSpaceStrippingRule();
-                        if (rule != NoElementsSpaceStrippingRule.getInstance()) {
-                            options.setSpaceStrippingRule(rule);
-                        }
-                    }
-                    options.setSchemaValidationMode(controller.getSchemaValidationMode());
-                }
-                b.getPipelineConfiguration().setParseOptions(options);
-                if (options.isLineNumbering()) {
-                    b.setLineNumbering(true);
-                }
-
-                if (silent) {
-                    StandardErrorHandler eh = new StandardErrorHandler(controller.getErrorReporter());
-                    eh.setSilent(true);
-                    options.setErrorHandler(eh);
-                }
-                if (packageData instanceof StylesheetPackage && ((StylesheetPackage)packageData).isStripsTypeAnnotations()) {
-                    s = config.getAnnotationStripper(s);
-                }
-
-                PathMap map = controller.getPathMapForDocumentProjection();
-                if (map != null) {
-                    PathMap.PathMapRoot pathRoot = map.getRootForDocument(documentKey.toString());
-                    if (pathRoot != null && !pathRoot.isReturnable() && !pathRoot.hasUnknownDependencies()) {
-                        options.addFilter(config.makeDocumentProjector(pathRoot));
-                    }
-                }
-                s.setPipelineConfiguration(b.getPipelineConfiguration());
-                try {
-                    Sender.send(source, s, options);
-                    newdoc = b.getCurrentRoot().getTreeInfo();
-                    b.reset();
-                } catch (XPathException err) {
-                    if (err.getErrorCodeLocalPart() == null || err.getErrorCodeLocalPart().equals("SXXP0003")) {
-                        err.setErrorCode("FODC0002");
-                    }
-                    throw err;
-                } finally {
-                    if (options.isPleaseCloseAfterUse()) {
-                        ParseOptions.close(source);
-                    }
-                }
+                newdoc = buildDocument(href, baseURI, documentKey, packageData, options, c, silent);
             }
 
             // At this point, we have built the document. But it's possible that another thread
@@ -338,6 +283,125 @@ public class DocumentFn extends SystemFunction implements Callable {
         }
     }
 
+    /**
+     * Read and build a document, for {@link #makeDoc}
+     *
+     * @param href        the relative URI, stripped of any fragment identifier
+     * @param baseURI     the base URI
+     * @param documentKey the document key (absolute URI) of the document
+     * @param packageData the package in which the call appears
+     * @param options     parse options to be used. May be null.
+     * @param c           the dynamic XPath context
+     * @param silent      if true, errors should not be notified to the ErrorListener
+     * @return the constructed document
+     * @throws XPathException if reading or parsing the document fails
+     */
+
+    private static TreeInfo buildDocument(String href, String baseURI, DocumentKey documentKey, PackageData packageData,
+                                          ParseOptions options, XPathContext c, boolean silent) throws XPathException {
+        Configuration config = c.getConfiguration();
+        Controller controller = c.getController();
+
+        // Get a Source from the URIResolver
+
+        Source source = resolveURI(href, baseURI, documentKey.toString(), c);
+
+        //System.err.println("URI resolver returned " + source.getClass() + " " + source.getSystemId());
+        source = config.getSourceResolver().resolveSource(source, config);
+        //System.err.println("Resolved source " + source.getClass() + " " + source.getSystemId());
+
+        TreeInfo newdoc;
+        if (source instanceof NodeInfo || source instanceof DOMSource) {
+            NodeInfo startNode = controller.prepareInputTree(source);
+            newdoc = startNode.getTreeInfo();
+        } else {
+            Builder b = controller.makeBuilder();
+            b.setUseEventLocation(true);
+            if (b instanceof TinyBuilder) {
+                ((TinyBuilder) b).setStatistics(config.getTreeStatistics().SOURCE_DOCUMENT_STATISTICS);
+            }
+
+            Receiver s = b;
+            if (options == null) {
+                options = new ParseOptions(b.getPipelineConfiguration().getParseOptions());
+                if (packageData instanceof StylesheetPackage) {
+                    SpaceStrippingRule rule = ((StylesheetPackage)packageData).getSpaceStrippingRule();
+                    if (rule != NoElementsSpaceStrippingRule.getInstance()) {
+                        options.setSpaceStrippingRule(rule);
+                    }
+                }
+                options.setSchemaValidationMode(controller.getSchemaValidationMode());
+            }
+            b.getPipelineConfiguration().setParseOptions(options);
+            if (options.isLineNumbering()) {
+                b.setLineNumbering(true);
+            }
+
+            if (silent) {
+                StandardErrorHandler eh = new StandardErrorHandler(controller.getErrorReporter());
+                eh.setSilent(true);
+                options.setErrorHandler(eh);
+            }
+            if (packageData instanceof StylesheetPackage && ((StylesheetPackage)packageData).isStripsTypeAnnotations()) {
+                s = config.getAnnotationStripper(s);
+            }
+
+            PathMap map = controller.getPathMapForDocumentProjection();
+            if (map != null) {
+                PathMap.PathMapRoot pathRoot = map.getRootForDocument(documentKey.toString());
+                if (pathRoot != null && !pathRoot.isReturnable() && !pathRoot.hasUnknownDependencies()) {
+                    options.addFilter(config.makeDocumentProjector(pathRoot));
+                }
+            }
+            s.setPipelineConfiguration(b.getPipelineConfiguration());
+            try {
+                Sender.send(source, s, options);
+                newdoc = b.getCurrentRoot().getTreeInfo();
+                b.reset();
+            } catch (XPathException err) {
+                if (err.getErrorCodeLocalPart() == null || err.getErrorCodeLocalPart().equals("SXXP0003")) {
+                    err.setErrorCode("FODC0002");
+                }
+                throw err;
+            } finally {
+                if (options.isPleaseCloseAfterUse()) {
+                    ParseOptions.close(source);
+                }
+            }
+        }
+        return newdoc;
+    }
+
+    /**
+     * Decide whether a document is to be obtained from the shared document cache (see
+     * {@link Configuration#getSharedDocumentCache()}). This is the case if the package marks its documents as
+     * cacheable, and the document is to be built using the standard options, without document projection,
+     * and using the URIResolver of the configuration. A document obtained through a URIResolver supplied to
+     * this transformation is never shared, since another transformation might resolve the same URI differently.
+     */
+
+    private static boolean isCacheable(PackageData packageData, ParseOptions options, Controller controller, XPathContext c) {
+        return packageData != null && packageData.isCachingDocuments() && options == null &&
+                controller.getPathMapForDocumentProjection() == null &&
+                c.getURIResolver() == controller.getConfiguration().getURIResolver();
+    }
+
+    /**
+     * Get an object representing the options that affect how a document is built, to be used alongside the
+     * document key to identify a document in the shared document cache
+     */
+
+    private static Object getCacheVariant(PackageData packageData, Controller controller) {
+        SpaceStrippingRule rule = null;
+        boolean stripsTypes = false;
+        if (packageData instanceof StylesheetPackage) {
+            rule = ((StylesheetPackage) packageData).getSpaceStrippingRule();
+            stripsTypes = ((StylesheetPackage) packageData).isStripsTypeAnnotations();
+        }
+        return Arrays.asList(rule, stripsTypes, controller.getSchemaValidationMode(), controller.getModel(),
+                             controller.getConfiguration().isLineNumbering());
+    }
+
     /**
      * Call the URIResolver to resolve a URI
      *
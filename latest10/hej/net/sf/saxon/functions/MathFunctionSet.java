@@ -34,7 +34,6 @@ public class MathFunctionSet extends BuiltInFunctionSet {
     }
 
     private MathFunctionSet() {
-        init();
     }
 
     private void reg1(String name, Class<? extends SystemFunction> implementation) {
@@ -43,7 +42,8 @@ public class MathFunctionSet extends BuiltInFunctionSet {
     }
 
 
-    private void init() {
+    @Override
+    protected void registerFunctions() {
 
         // Arity 0 functions
 
@@ -10,6 +10,7 @@ package net.sf.saxon.functions;
 import net.sf.saxon.expr.XPathContext;
 import net.sf.saxon.expr.sort.AtomicComparer;
 import net.sf.saxon.expr.sort.AtomicSortComparer;
+import net.sf.saxon.expr.sort.ObjectSorter;
 import net.sf.saxon.lib.StringCollator;
 import net.sf.saxon.ma.arrays.ArraySort;
 import net.sf.saxon.om.*;
@@ -65,15 +66,14 @@ public class Sort_1 extends SystemFunction {
         final AtomicComparer atomicComparer = AtomicSortComparer.makeSortComparer(
                 collation, StandardNames.XS_ANY_ATOMIC_TYPE, context);
         try {
-            inputList.sort((a, b) -> {
+            ObjectSorter.sort(inputList, (a, b) -> {
                 int result = ArraySort.compareSortKeys(a.sortKey, b.sortKey, atomicComparer);
                 if (result == 0) {
-                    // TODO: unnecessary, we are now using a stable sort routine
-                    return a.originalPosition - b.originalPosition;
+                    return Integer.compare(a.originalPosition, b.originalPosition);
                 } else {
                     return result;
                 }
-            });
+            }, context);
             //GenericSorter.quickSort(0, inputList.size(), sortable);
         } catch (ClassCastException e) {
             XPathException err = new XPathException("Non-comparable types found while sorting: " + e.getMessage());
@@ -43,6 +43,7 @@ public class URIQueryParameters {
     Boolean stable = null;
     Boolean metadata = null;
     String contentType = null;
+    Integer prefetch = null;
 
     public static final int ON_ERROR_FAIL = 1;
     public static final int ON_ERROR_WARNING = 2;
@@ -115,6 +116,15 @@ public class URIQueryParameters {
             }
         } else if (keyword.equals("content-type")) {
             contentType = value;
+        } else if (keyword.equals("prefetch")) {
+            try {
+                int n = Integer.parseInt(value);
+                if (n >= 0) {
+                    prefetch = n;
+                }
+            } catch (NumberFormatException e) {
+                // ignore the parameter
+            }
         } else if (keyword.equals("on-error")) {
             switch (value) {
                 case "warning":
@@ -233,6 +243,15 @@ public class URIQueryParameters {
         return stable;
     }
 
+    /**
+     * Get the value of prefetch=N, the number of resources to be parsed ahead of the resource currently
+     * being read, or null if unspecified
+     */
+
+    public Integer getPrefetch() {
+        return prefetch;
+    }
+
     /**
      * Get a factory for the selected XML parser class, or null if unspecified
      */
@@ -35,6 +35,12 @@ import java.util.function.IntPredicate;
 
 public abstract class UnparsedTextFunction extends SystemFunction {
 
+    /**
+     * The number of characters requested from the Reader at a time when reading a file
+     */
+
+    public static final int READ_BUFFER_SIZE = 65536;
+
     @Override
     public int getSpecialProperties(Expression[] arguments) {
         int p = super.getSpecialProperties(arguments);
@@ -172,7 +178,7 @@ public abstract class UnparsedTextFunction extends SystemFunction {
      */
 
     public static void readFile(IntPredicate checker, Reader reader, CharSequenceConsumer output) throws IOException, XPathException {
-        char[] buffer = new char[2048];
+        char[] buffer = new char[READ_BUFFER_SIZE];
         boolean first = true;
         int actual;
         int line = 1;
@@ -185,6 +191,11 @@ public abstract class UnparsedTextFunction extends SystemFunction {
             }
             for (int c = 0; c < actual; ) {
                 int ch32 = buffer[c++];
+                if (ch32 >= 0x20 && ch32 < 0xD800) {
+                    // legal in both XML 1.0 and XML 1.1: no need to call the checker
+                    column++;
+                    continue;
+                }
                 if (ch32 == '\n') {
                     line++;
                     column = 0;
@@ -27,6 +27,8 @@ import net.sf.saxon.value.AtomicValue;
 import net.sf.saxon.value.EmptySequence;
 import net.sf.saxon.value.SequenceType;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 
@@ -82,8 +84,44 @@ public abstract class BuiltInFunctionSet implements FunctionLibrary {
     protected static final int NAV = 1 << 27;   // = usage NAVIGATION (function navigates from this node)
 
 
-    private HashMap<String, Entry> functionTable = new HashMap<>(200);
+    private final HashMap<String, Entry> functionTable = new HashMap<>(200);
     //private List<BuiltInFunctionSet> importedFunctions = new ArrayList<BuiltInFunctionSet>();
+    private volatile boolean registered = false;
+    private boolean registering = false;
+
+    /**
+     * Register the functions in this function set. This is called once, when the function table is
+     * first needed, rather than when the function set is created: creating a function set is therefore cheap,
+     * and the classes implementing its functions are not loaded until a function is looked up. The default
+     * implementation registers nothing.
+     * @since 10.3
+     */
+
+    protected void registerFunctions() {
+    }
+
+    /**
+     * Get the function table, registering the functions if this has not already been done. A call made
+     * while the functions are being registered (by the same thread) returns the table as it stands.
+     * @return the function table
+     */
+
+    private HashMap<String, Entry> getFunctionTable() {
+        if (!registered) {
+            synchronized (functionTable) {
+                if (!registered && !registering) {
+                    registering = true;
+                    try {
+                        registerFunctions();
+                        registered = true;
+                    } finally {
+                        registering = false;
+                    }
+                }
+            }
+        }
+        return functionTable;
+    }
 
     /**
      * Import another function set (which must be in the same namespace)
@@ -94,7 +132,7 @@ public abstract class BuiltInFunctionSet implements FunctionLibrary {
         if (!importee.getNamespace().equals(getNamespace())) {
             throw new IllegalArgumentException(importee.getNamespace());
         }
-        functionTable.putAll(importee.functionTable);
+        getFunctionTable().putAll(importee.getFunctionTable());
         //importedFunctions.add(importee);
     }
 
@@ -116,6 +154,7 @@ public abstract class BuiltInFunctionSet implements FunctionLibrary {
             }
             return null;
         }
+        HashMap<String, Entry> functionTable = getFunctionTable();
         String key = name + "#" + arity;
         Entry entry = functionTable.get(key);
         if (entry != null) {
@@ -130,6 +169,17 @@ public abstract class BuiltInFunctionSet implements FunctionLibrary {
         return null;
     }
 
+    /**
+     * Get the entries for all the functions in this function set, including those imported from other
+     * function sets
+     * @return the entries, in no particular order
+     * @since 10.3
+     */
+
+    public Collection<Entry> getAllEntries() {
+        return Collections.unmodifiableCollection(getFunctionTable().values());
+    }
+
     /**
      * Bind a function, given the URI and local parts of the function name,
      * and the list of expressions supplied as arguments. This method is called at compile
@@ -315,7 +365,7 @@ public abstract class BuiltInFunctionSet implements FunctionLibrary {
             e.resultIfEmpty = (Sequence[])new Sequence[arity];
             e.usage = new OperandUsage[arity];
         }
-        functionTable.put(name + "#" + arity, e);
+        getFunctionTable().put(name + "#" + arity, e);
         return e;
     }
 
@@ -325,6 +375,7 @@ public abstract class BuiltInFunctionSet implements FunctionLibrary {
      */
 
     protected void registerReducedArityVariants(String key, int min, int max) {
+        HashMap<String, Entry> functionTable = getFunctionTable();
         Entry master = functionTable.get(key);
         for (int arity = min; arity <= max; arity++) {
             Entry e = new Entry();
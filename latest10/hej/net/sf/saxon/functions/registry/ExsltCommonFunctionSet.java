@@ -31,10 +31,10 @@ public class ExsltCommonFunctionSet extends BuiltInFunctionSet {
     }
 
     private ExsltCommonFunctionSet() {
-        init();
     }
 
-    private void init() {
+    @Override
+    protected void registerFunctions() {
 
         register("node-set", 1, NodeSetFn.class, AnyItemType.getInstance(), OPT, 0)
                 .arg(0, AnyItemType.getInstance(), OPT, EMPTY);
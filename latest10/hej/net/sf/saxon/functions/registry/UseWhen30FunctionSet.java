@@ -24,6 +24,10 @@ public class UseWhen30FunctionSet extends BuiltInFunctionSet {
     }
 
     protected UseWhen30FunctionSet() {
+    }
+
+    @Override
+    protected void registerFunctions() {
         init();
     }
 
@@ -46,10 +46,10 @@ public class VendorFunctionSetHE extends BuiltInFunctionSet {
     }
 
     private VendorFunctionSetHE() {
-        init();
     }
 
-    private void init() {
+    @Override
+    protected void registerFunctions() {
 
         // Test whether supplied argument is equal to an integer
         register("is-whole-number", 1, IsWholeNumberFn.class, BuiltInAtomicType.BOOLEAN, ONE, 0)
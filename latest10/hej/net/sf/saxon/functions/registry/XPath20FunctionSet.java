@@ -31,10 +31,10 @@ public class XPath20FunctionSet extends BuiltInFunctionSet {
     }
 
     private XPath20FunctionSet() {
-        init();
     }
 
-    private void init() {
+    @Override
+    protected void registerFunctions() {
         register("abs", 1, Abs.class, NumericType.getInstance(), OPT, AS_PRIM_ARG0)
                 .arg(0, NumericType.getInstance(), OPT, EMPTY);
 
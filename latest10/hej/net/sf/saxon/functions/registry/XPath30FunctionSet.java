@@ -31,10 +31,10 @@ public class XPath30FunctionSet extends BuiltInFunctionSet {
     }
 
     private XPath30FunctionSet() {
-        init();
     }
 
-    private void init() {
+    @Override
+    protected void registerFunctions() {
 
         importFunctionSet(XPath20FunctionSet.getInstance());
 
@@ -39,10 +39,10 @@ public class XPath31FunctionSet extends BuiltInFunctionSet {
     }
 
     private XPath31FunctionSet() {
-        init();
     }
 
-    private void init() {
+    @Override
+    protected void registerFunctions() {
 
         importFunctionSet(XPath20FunctionSet.getInstance());
         importFunctionSet(XPath30FunctionSet.getInstance());
@@ -27,10 +27,10 @@ public class XSLT30FunctionSet extends BuiltInFunctionSet {
     }
 
     private XSLT30FunctionSet() {
-        init();
     }
 
-    private void init() {
+    @Override
+    protected void registerFunctions() {
 
         importFunctionSet(XPath31FunctionSet.getInstance());
 
@@ -2231,6 +2231,133 @@ public class Feature<T> {
 
 // AUTO-GENERATED FROM FeatureKeys.xml - DO NOT EDIT THIS FILE
 
+
+    /**
+    *            <p>Sets the number of items above which a sort (<code>xsl:sort</code>, <code>xsl:perform-sort</code>,
+    *                or an XQuery <code>order by</code> clause) is performed as an external merge sort. When the number
+    *                of items read reaches this value, they are sorted and written as a sorted run to a temporary file;
+    *                the runs are merged when all the input has been read.</p>
+    *            <p>The default is -1, meaning that sorting is always done in memory.</p>
+    *        
+    **/
+
+    public final static Feature<Integer> THRESHOLD_FOR_EXTERNAL_SORT = new Feature<Integer>(
+            "http://saxon.sf.net/feature/thresholdForExternalSort", 127, HE, Integer.class, -1);
+
+// AUTO-GENERATED FROM FeatureKeys.xml - DO NOT EDIT THIS FILE
+
+
+    /**
+    *            <p>Sets the number of items above which grouping (<code>xsl:for-each-group</code> with
+    *                <code>group-by</code>, or an XQuery <code>group by</code> clause) is performed using temporary files.
+    *                When the number of items read reaches this value, the groups formed so far are written to a set of
+    *                partition files according to the hash code of the grouping key, as are the items read subsequently;
+    *                each partition is then grouped in memory in turn.</p>
+    *            <p>The default is -1, meaning that grouping is always done in memory.</p>
+    *        
+    **/
+
+    public final static Feature<Integer> THRESHOLD_FOR_EXTERNAL_GROUPING = new Feature<Integer>(
+            "http://saxon.sf.net/feature/thresholdForExternalGrouping", 128, HE, Integer.class, -1);
+
+// AUTO-GENERATED FROM FeatureKeys.xml - DO NOT EDIT THIS FILE
+
+
+    /**
+    *            <p>Sets the default number of resources that <code>collection()</code> parses ahead of the
+    *                resource currently being read, when the collection is a directory of files. The files are
+    *                parsed in parallel by a pool of worker threads, but the resources are delivered in the
+    *                same order as when they are parsed one at a time. The value can be overridden for a
+    *                particular collection by the query parameter <code>prefetch=N</code> in the collection URI.</p>
+    *            <p>The default is 0, meaning that each file is parsed only when it is reached.</p>
+    *        
+    **/
+
+    public final static Feature<Integer> COLLECTION_PREFETCH = new Feature<Integer>(
+            "http://saxon.sf.net/feature/collectionPrefetch", 129, HE, Integer.class, 0);
+
+// AUTO-GENERATED FROM FeatureKeys.xml - DO NOT EDIT THIS FILE
+
+
+    /**
+    *            <p>Sets the maximum number of documents held in the Configuration's shared document cache.
+    *                The cache holds documents read using <code>doc()</code> or <code>document()</code> by a stylesheet
+    *                or query that marks its documents as cacheable (using <code>saxon:cache-documents="yes"</code>
+    *                on the <code>xsl:stylesheet</code> or <code>xsl:package</code> element, or
+    *                <code>declare option saxon:cache-documents "true"</code> in XQuery), so that they are parsed once
+    *                and shared by all transformations and queries using this Configuration. When the cache is full,
+    *                the least recently used document is evicted.</p>
+    *            <p>The default is 100. A value of 0 disables the cache.</p>
+    *        
+    **/
+
+    public final static Feature<Integer> DOCUMENT_CACHE_SIZE = new Feature<Integer>(
+            "http://saxon.sf.net/feature/documentCacheSize", 130, HE, Integer.class, 100);
+
+// AUTO-GENERATED FROM FeatureKeys.xml - DO NOT EDIT THIS FILE
+
+
+    /**
+    *            <p>Sets the number of seconds for which a document is held in the Configuration's shared
+    *                document cache (see {@link #DOCUMENT_CACHE_SIZE}) after it is parsed. A request for the document
+    *                after this time causes it to be parsed again.</p>
+    *            <p>The default is 0, meaning that documents do not expire.</p>
+    *        
+    **/
+
+    public final static Feature<Integer> DOCUMENT_CACHE_TIME_TO_LIVE = new Feature<Integer>(
+            "http://saxon.sf.net/feature/documentCacheTimeToLive", 131, HE, Integer.class, 0);
+
+// AUTO-GENERATED FROM FeatureKeys.xml - DO NOT EDIT THIS FILE
+
+
+    /**
+    *            <p>Indicates whether template rules and named templates should be compiled and optimized
+    *                in parallel, using the threads of the common fork-join pool. Other declarations, such as
+    *                functions and global variables, are compiled sequentially before the templates.</p>
+    *            <p>This option can be set for a particular XSLT compilation. When the option is set at
+    *                the <code>Configuration</code> level (or on a <code>TransformerFactory</code>), it
+    *                acts as a default.</p>
+    *        
+    **/
+
+    public final static Feature<Boolean> XSLT_PARALLEL_COMPILATION = new Feature<Boolean>(
+            "http://saxon.sf.net/feature/parallelCompilation", 132, HE, Boolean.class, false);
+
+// AUTO-GENERATED FROM FeatureKeys.xml - DO NOT EDIT THIS FILE
+
+
+    /**
+    *            <p>Sets the directory in which temporary files are created by sorting and grouping operations
+    *                that exceed {@link #THRESHOLD_FOR_EXTERNAL_SORT} or {@link #THRESHOLD_FOR_EXTERNAL_GROUPING}.
+    *                These files hold copies of the data being sorted or grouped, and are readable only by
+    *                their owner where the file system supports this.</p>
+    *            <p>The default is the directory given by the Java system property <code>java.io.tmpdir</code>.</p>
+    *        
+    **/
+
+    public final static Feature<String> TEMPORARY_FILE_DIRECTORY = new Feature<String>(
+            "http://saxon.sf.net/feature/temporaryFileDirectory", 133, HE, String.class, null);
+
+// AUTO-GENERATED FROM FeatureKeys.xml - DO NOT EDIT THIS FILE
+
+
+    /**
+    *            <p>Sets the number of evaluations after which a simple expression is compiled to Java bytecode.
+    *                The expressions compiled are arithmetic and value comparisons on attributes of the context node
+    *                and on literals, such as <code>@price * @quantity &gt; 100</code>, and boolean combinations of
+    *                these, within the bodies of templates and functions and the predicates of match patterns.
+    *                Cases that the compiled code does not handle, such as invalid numbers, are passed back to
+    *                the interpreter.</p>
+    *            <p>The default is -1, meaning that no expressions are compiled.</p>
+    *        
+    **/
+
+    public final static Feature<Integer> THRESHOLD_FOR_EXPRESSION_COMPILATION = new Feature<Integer>(
+            "http://saxon.sf.net/feature/thresholdForExpressionCompilation", 134, HE, Integer.class, -1);
+
+// AUTO-GENERATED FROM FeatureKeys.xml - DO NOT EDIT THIS FILE
+
             
 }
         
\ No newline at end of file
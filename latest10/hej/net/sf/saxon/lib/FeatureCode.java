@@ -270,9 +270,25 @@ public abstract class FeatureCode {
     public final static int RETAIN_NODE_FOR_DIAGNOSTICS = 125;
     /** @see Feature#ALLOW_UNRESOLVED_SCHEMA_COMPONENTS  */
     public final static int ALLOW_UNRESOLVED_SCHEMA_COMPONENTS = 126;
+    /** @see Feature#THRESHOLD_FOR_EXTERNAL_SORT  */
+    public final static int THRESHOLD_FOR_EXTERNAL_SORT = 127;
+    /** @see Feature#THRESHOLD_FOR_EXTERNAL_GROUPING  */
+    public final static int THRESHOLD_FOR_EXTERNAL_GROUPING = 128;
+    /** @see Feature#COLLECTION_PREFETCH  */
+    public final static int COLLECTION_PREFETCH = 129;
+    /** @see Feature#DOCUMENT_CACHE_SIZE  */
+    public final static int DOCUMENT_CACHE_SIZE = 130;
+    /** @see Feature#DOCUMENT_CACHE_TIME_TO_LIVE  */
+    public final static int DOCUMENT_CACHE_TIME_TO_LIVE = 131;
+    /** @see Feature#XSLT_PARALLEL_COMPILATION  */
+    public final static int XSLT_PARALLEL_COMPILATION = 132;
+    /** @see Feature#TEMPORARY_FILE_DIRECTORY  */
+    public final static int TEMPORARY_FILE_DIRECTORY = 133;
+    /** @see Feature#THRESHOLD_FOR_EXPRESSION_COMPILATION  */
+    public final static int THRESHOLD_FOR_EXPRESSION_COMPILATION = 134;
 
 
-    public final static int MAX = 127;
+    public final static int MAX = 135;
 
 }
         
\ No newline at end of file
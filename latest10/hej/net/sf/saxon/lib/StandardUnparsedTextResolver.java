@@ -10,6 +10,7 @@ package net.sf.saxon.lib;
 import net.sf.saxon.Configuration;
 import net.sf.saxon.resource.BinaryResource;
 import net.sf.saxon.resource.DataURIScheme;
+import net.sf.saxon.resource.FileChannelReader;
 import net.sf.saxon.resource.UnparsedTextResource;
 import net.sf.saxon.trans.XPathException;
 import net.sf.saxon.tree.util.FastStringBuffer;
@@ -19,7 +20,10 @@ import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.*;
+import java.nio.file.StandardOpenOption;
 import java.util.zip.GZIPInputStream;
 
 /**
@@ -77,9 +81,37 @@ public class StandardUnparsedTextResolver implements UnparsedTextURIResolver {
             throw new XPathException("URI scheme '" + absoluteURI.getScheme() + "' has been disallowed");
         }
         InputStream inputStream = null;
+        FileChannel channel = null;
         String contentEncoding;
         boolean isXmlMediaType = false;
-        if (absoluteURI.getScheme().equals("data")) {
+        File file = getLocalFile(absoluteURI);
+        if (file != null) {
+            try {
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                if (debug) {
+                    err.info("unparsed-text(): reading local file " + file);
+                }
+                if (encoding == null) {
+                    ByteBuffer start = ByteBuffer.allocate(100);
+                    int read = channel.read(start, 0);
+                    encoding = inferEncoding(start.array(), read, debug ? err : null);
+                    if (debug) {
+                        err.info("unparsed-text(): inferred encoding = " + encoding);
+                    }
+                }
+            } catch (IOException ioe) {
+                if (channel != null) {
+                    try {
+                        channel.close();
+                    } catch (IOException e) {
+                        // no action
+                    }
+                }
+                XPathException xpe = new XPathException("Failed to read input file " + absoluteURI, ioe);
+                xpe.setErrorCode("FOUT1170");
+                throw xpe;
+            }
+        } else if (absoluteURI.getScheme().equals("data")) {
             Resource resource;
             try {
                 resource = DataURIScheme.decode(absoluteURI);
@@ -230,13 +262,52 @@ public class StandardUnparsedTextResolver implements UnparsedTextURIResolver {
 
         }
 
+        if (channel != null) {
+            try {
+                return new FileChannelReader(channel, makeDecoder(encoding));
+            } catch (IllegalArgumentException e) {
+                try {
+                    channel.close();
+                } catch (IOException ioe) {
+                    // no action
+                }
+                throw new XPathException("Invalid encoding name: " + encoding, "FOUT1190");
+            }
+        }
+        CharsetDecoder decoder = makeDecoder(encoding);
+        return new BufferedReader(new InputStreamReader(inputStream, decoder));
+
+    }
+
+    private static CharsetDecoder makeDecoder(String encoding) {
         // The following is necessary to ensure that encoding errors are not recovered.
         Charset charset = Charset.forName(encoding);
         CharsetDecoder decoder = charset.newDecoder();
         decoder = decoder.onMalformedInput(CodingErrorAction.REPORT);
         decoder = decoder.onUnmappableCharacter(CodingErrorAction.REPORT);
-        return new BufferedReader(new InputStreamReader(inputStream, decoder));
+        return decoder;
+    }
 
+    /**
+     * Get the local file identified by a URI, if it is a <code>file</code> URI identifying a regular file.
+     * Such files are read using a {@link FileChannelReader}, which decodes the file in large chunks.
+     *
+     * @param absoluteURI the absolute URI
+     * @return the file, or null if the URI does not identify a regular file in the local filesystem,
+     * in which case it is read using a URL connection
+     */
+
+    private static File getLocalFile(URI absoluteURI) {
+        if (!"file".equals(absoluteURI.getScheme())) {
+            return null;
+        }
+        try {
+            File file = new File(absoluteURI);
+            return file.isFile() ? file : null;
+        } catch (IllegalArgumentException | SecurityException e) {
+            // for example, a URI with an authority or query component
+            return null;
+        }
     }
 
 
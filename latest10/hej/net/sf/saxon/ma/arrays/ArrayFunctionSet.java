@@ -35,14 +35,14 @@ public class ArrayFunctionSet extends BuiltInFunctionSet {
     public static ArrayFunctionSet THE_INSTANCE = new ArrayFunctionSet();
 
     public ArrayFunctionSet() {
-        init();
     }
 
     public static ArrayFunctionSet getInstance() {
         return THE_INSTANCE;
     }
 
-    private void init() {
+    @Override
+    protected void registerFunctions() {
 
 
         register("append", 2, ArrayAppend.class, ArrayItemType.ANY_ARRAY_TYPE, ONE, 0)
@@ -393,12 +393,26 @@ public class ArrayFunctionSet extends BuiltInFunctionSet {
         @Override
         public ArrayItem call(XPathContext context, Sequence[] arguments) throws XPathException {
             SequenceIterator iterator = arguments[0].iterate();
-            ArrayItem array = SimpleArrayItem.EMPTY_ARRAY;
-            ArrayItem nextArray;
-            while ((nextArray = (ArrayItem) iterator.next()) != null) {
-                array = array.concat(nextArray);
+            ArrayItem first = (ArrayItem) iterator.next();
+            if (first == null) {
+                return SimpleArrayItem.EMPTY_ARRAY;
+            }
+            ArrayItem nextArray = (ArrayItem) iterator.next();
+            if (nextArray == null) {
+                return first;
             }
-            return array;
+            // Collect the members in a list that is updated in place, rather than performing a
+            // sequence of concatenations each of which creates a new persistent array
+            List<GroundedValue> members = new ArrayList<>(first.arrayLength() + nextArray.arrayLength());
+            for (GroundedValue member : first.members()) {
+                members.add(member);
+            }
+            do {
+                for (GroundedValue member : nextArray.members()) {
+                    members.add(member);
+                }
+            } while ((nextArray = (ArrayItem) iterator.next()) != null);
+            return new SimpleArrayItem(members);
         }
 
     }
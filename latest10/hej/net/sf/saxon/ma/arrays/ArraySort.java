@@ -73,15 +73,14 @@ public class ArraySort extends SystemFunction {
         final AtomicComparer atomicComparer =  AtomicSortComparer.makeSortComparer(
                 collation, StandardNames.XS_ANY_ATOMIC_TYPE, context);
         try {
-            inputList.sort((a, b) -> {
+            ObjectSorter.sort(inputList, (a, b) -> {
                 int result = compareSortKeys(a.sortKey, b.sortKey, atomicComparer);
                 if (result == 0) {
-                    // TODO: unnecessary, we are now using a stable sort routine
-                    return a.originalPosition - b.originalPosition;
+                    return Integer.compare(a.originalPosition, b.originalPosition);
                 } else {
                     return result;
                 }
-            });
+            }, context);
             //GenericSorter.quickSort(0, array.arrayLength(), sortable);
         } catch (ClassCastException e) {
             XPathException err = new XPathException("Non-comparable types found while sorting: " + e.getMessage());
@@ -17,9 +17,6 @@ import net.sf.saxon.om.Sequence;
 import net.sf.saxon.trans.Err;
 import net.sf.saxon.trans.XPathException;
 import net.sf.saxon.value.EmptySequence;
-import net.sf.saxon.z.IntSetPredicate;
-
-import java.util.function.IntPredicate;
 
 import java.io.Reader;
 import java.net.URI;
@@ -50,7 +47,6 @@ public class JsonDoc extends SystemFunction  {
         String href = arg0.getStringValue();
 
         final Configuration config = context.getConfiguration();
-        IntPredicate checker = IntSetPredicate.ALWAYS_TRUE; // allow non-XML characters - bug 3911
 
         // Use the URI machinery to validate and resolve the URIs
 
@@ -58,6 +54,14 @@ public class JsonDoc extends SystemFunction  {
 
         String encoding = "UTF-8"; // for now
 
+        Map<String, Sequence> checkedOptions;
+        if (getArity() == 2) {
+            MapItem options = (MapItem) arguments[1].head();
+            checkedOptions = getDetails().optionDetails.processSuppliedOptions(options, context);
+        } else {
+            checkedOptions = ParseJsonFn.OPTION_DETAILS.getDefaultOptions();
+        }
+
         Reader reader;
         try {
             reader = context.getController().getUnparsedTextURIResolver().resolve(absoluteURI, encoding, config);
@@ -65,27 +69,20 @@ public class JsonDoc extends SystemFunction  {
             err.maybeSetErrorCode("FOUT1170");
             throw err;
         }
-        CharSequence content;
-        try {
-            content = UnparsedTextFunction.readFile(checker, reader);
+
+        // The JSON text is parsed as it is read, rather than being read into a string first.
+        // Non-XML characters are allowed in the input - bug 3911
+
+        Item result;
+        try (Reader r = reader) {
+            result = ParseJsonFn.parse(r, checkedOptions, context);
         } catch (java.io.UnsupportedEncodingException encErr) {
             XPathException e = new XPathException("Unknown encoding " + Err.wrap(encoding), encErr);
             e.setErrorCode("FOUT1190");
             throw e;
         } catch (java.io.IOException ioErr) {
-//            System.err.println("ProxyHost: " + System.getProperty("http.proxyHost"));
-//            System.err.println("ProxyPort: " + System.getProperty("http.proxyPort"));
             throw UnparsedTextFunction.handleIOError(absoluteURI, ioErr, context);
         }
-
-        Map<String, Sequence> checkedOptions;
-        if (getArity() == 2) {
-            MapItem options = (MapItem) arguments[1].head();
-            checkedOptions = getDetails().optionDetails.processSuppliedOptions(options, context);
-        } else {
-            checkedOptions = ParseJsonFn.OPTION_DETAILS.getDefaultOptions();
-        }
-        Item result = ParseJsonFn.parse(content.toString(), checkedOptions, context);
         return result == null ? EmptySequence.getInstance() : result;
     }
 
@@ -12,6 +12,8 @@ import net.sf.saxon.ma.arrays.ArrayItem;
 import net.sf.saxon.ma.arrays.SimpleArrayItem;
 import net.sf.saxon.ma.map.DictionaryMap;
 import net.sf.saxon.ma.map.MapItem;
+import net.sf.saxon.ma.map.MapShape;
+import net.sf.saxon.ma.map.ShapedMap;
 import net.sf.saxon.om.GroundedValue;
 import net.sf.saxon.om.Sequence;
 import net.sf.saxon.trans.XPathException;
@@ -26,12 +28,18 @@ import java.util.Stack;
 /**
  * Event handler for the JSON parser which constructs a structure of maps and arrays
  * representing the content of the JSON text.
+ *
+ * <p>JSON objects are represented as {@link ShapedMap} instances sharing a family of {@link MapShape}s,
+ * so that objects with the same keys share a single copy of the keys; an object whose keys exceed the limits
+ * of a shape is represented instead as a {@link DictionaryMap}.</p>
  */
 public class JsonHandlerMap extends JsonHandler {
     Stack<Sequence> stack;
 
     protected Stack<String> keys;
 
+    private MapShape shapes = MapShape.newRoot();
+
     public JsonHandlerMap(XPathContext context, int flags) {
         setContext(context);
         stack = new Stack<>();
@@ -90,7 +98,7 @@ public class JsonHandlerMap extends JsonHandler {
      */
     @Override
     public void startMap() {
-        DictionaryMap map = new DictionaryMap();
+        ShapedMap map = new ShapedMap(shapes);
         stack.push(map);
     }
 
@@ -99,7 +107,7 @@ public class JsonHandlerMap extends JsonHandler {
      */
     @Override
     public void endMap() {
-        DictionaryMap map = (DictionaryMap) stack.pop();
+        MapItem map = (MapItem) stack.pop();
         if (stack.empty()) {
             stack.push(map); // the end
         } else {
@@ -117,6 +125,11 @@ public class JsonHandlerMap extends JsonHandler {
         } else if (stack.peek() instanceof ArrayItem) {
             SimpleArrayItem array = (SimpleArrayItem) stack.peek();
             array.getMembers().add(val.materialize());
+        } else if (stack.peek() instanceof ShapedMap) {
+            String key = keys.pop();
+            if (!((ShapedMap) stack.peek()).initialPut(key, val)) {
+                toDictionaryMap().initialPut(key, val);
+            }
         } else {
             DictionaryMap map = (DictionaryMap) stack.peek();
             //StringValue key = new StringValue(reEscape(keys.pop(), true, false, false));
@@ -125,6 +138,18 @@ public class JsonHandlerMap extends JsonHandler {
         }
     }
 
+    /**
+     * Replace the map at the top of the stack, which must be a ShapedMap, by an equivalent DictionaryMap.
+     * This is done when the ShapedMap cannot accommodate any more keys.
+     *
+     * @return the new DictionaryMap
+     */
+    private DictionaryMap toDictionaryMap() {
+        DictionaryMap map = ((ShapedMap) stack.peek()).toDictionaryMap();
+        stack.set(stack.size() - 1, map);
+        return map;
+    }
+
     /**
      * Write a numeric value
      *
@@ -133,7 +158,12 @@ public class JsonHandlerMap extends JsonHandler {
      */
     @Override
     public void writeNumeric(String asString, double asDouble) {
-        writeItem(new DoubleValue(asDouble));
+        if (!stack.empty() && stack.peek() instanceof ShapedMap
+                && ((ShapedMap) stack.peek()).initialPutDouble(keys.peek(), asDouble)) {
+            keys.pop();
+        } else {
+            writeItem(new DoubleValue(asDouble));
+        }
     }
 
     /**
@@ -145,7 +175,13 @@ public class JsonHandlerMap extends JsonHandler {
      */
     @Override
     public void writeString(String val) throws XPathException {
-        writeItem(new StringValue(reEscape(val)));
+        String str = reEscape(val);
+        if (!stack.empty() && stack.peek() instanceof ShapedMap
+                && ((ShapedMap) stack.peek()).initialPutString(keys.peek(), str)) {
+            keys.pop();
+        } else {
+            writeItem(new StringValue(str));
+        }
     }
 
     /**
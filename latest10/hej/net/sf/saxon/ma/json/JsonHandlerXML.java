@@ -108,6 +108,22 @@ public class JsonHandlerXML extends JsonHandler {
         out.startDocument(ReceiverOption.NONE);
     }
 
+    /**
+     * Make a handler that writes the XML representation of the JSON input directly to a supplied
+     * destination, rather than building a new tree. The events for a document node are written
+     * to the destination, which is neither opened nor closed by this handler.
+     *
+     * @param context     the dynamic evaluation context
+     * @param destination the destination for the XML representation of the JSON input
+     * @param flags       flags indicating the chosen options
+     * @throws XPathException if initialization fails, for example because of problems loading the schema
+     */
+    public JsonHandlerXML(XPathContext context, Outputter destination, int flags) throws XPathException {
+        init(context, flags);
+        out = destination;
+        out.startDocument(ReceiverOption.NONE);
+    }
+
     /**
      * Initialise the tree builder.
      * <p>This also ensures the appropriate schema is loaded when type validation is required</p>
@@ -199,12 +215,16 @@ public class JsonHandlerXML extends JsonHandler {
     /**
      * Return the complete parsed result
      *
-     * @return the XML document for this JSON
+     * @return the XML document for this JSON, or null if the handler was writing to a
+     * supplied destination rather than building a tree
      * @throws XPathException if an error occurs downstream
      */
     @Override
     public Item getResult() throws XPathException {
         out.endDocument();
+        if (builder == null) {
+            return null;
+        }
         out.close();
         return builder.getCurrentRoot();
     }
@@ -17,6 +17,10 @@ import net.sf.saxon.type.StringToDouble;
 import net.sf.saxon.value.BooleanValue;
 import net.sf.saxon.value.StringValue;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
 import java.util.Map;
 
 /**
@@ -42,6 +46,8 @@ public class JsonParser {
     private static final String ERR_OPTIONS = "FOJS0005";
     private static final String ERR_LIMITS = "FOJS0001";  // No specific code in spec
 
+    private static final int BUFFER_SIZE = 16384;
+
     /**
      * Create a JSON parser
      */
@@ -62,8 +68,36 @@ public class JsonParser {
         if (input.isEmpty()) {
             invalidJSON("An empty string is not valid JSON", ERR_GRAMMAR, 1);
         }
+        int bufferSize = Math.max(16, Math.min(input.length(), BUFFER_SIZE));
+        parse(new JsonTokenizer(new StringReader(input), bufferSize), flags, handler, context);
+    }
 
-        JsonTokenizer t = new JsonTokenizer(input);
+    /**
+     * Parse JSON text read incrementally from a {@link Reader}, according to supplied options.
+     * <p>The input is never held in memory as a whole: it is read in chunks, and parsing events are
+     * notified to the handler as each construct is recognized. The reader is not closed by this method.</p>
+     *
+     * @param input   supplies the JSON input text
+     * @param flags   options for the conversion as a map of xs:string : value pairs
+     * @param handler event handler to which parsing events are notified
+     * @param context XPath evaluation context
+     * @throws XPathException if the syntax of the input is incorrect
+     * @throws IOException    if a failure occurs reading the input
+     */
+    public void parse(Reader input, int flags, JsonHandler handler, XPathContext context)
+            throws XPathException, IOException {
+        try {
+            JsonTokenizer t = new JsonTokenizer(input, BUFFER_SIZE);
+            if (t.isEmpty()) {
+                invalidJSON("An empty string is not valid JSON", ERR_GRAMMAR, 1);
+            }
+            parse(t, flags, handler, context);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private void parse(JsonTokenizer t, int flags, JsonHandler handler, XPathContext context) throws XPathException {
         t.next();
 
         parseConstruct(handler, t, flags, context);
@@ -437,37 +471,87 @@ public class JsonParser {
     }
 
     /**
-     * Inner class to do the tokenization
+     * Inner class to do the tokenization. The input is held in a fixed-size buffer that is refilled
+     * from a {@link Reader} as required, so the memory used does not depend on the size of the input.
      */
 
     private class JsonTokenizer {
 
-        private String input;
-        private int position;
+        private Reader reader;
+        private char[] buffer;
+        private int position;           // offset in buffer of the next character to be read
+        private int limit;              // offset in buffer after the last character available
+        private long consumed = 0;      // number of characters discarded from the buffer so far
         private int lineNumber = 1;
         public JsonToken currentToken;
         public FastStringBuffer currentTokenValue = new FastStringBuffer(FastStringBuffer.C64);
 
-        JsonTokenizer(String input) {
-            this.input = input;
-            this.position = 0;
+        JsonTokenizer(Reader reader, int bufferSize) {
+            this.reader = reader;
+            this.buffer = new char[bufferSize];
+            this.limit = 0;
+            skipByteOrderMark();
+        }
+
+        private void skipByteOrderMark() {
             // Ignore a leading BOM
-            if (!input.isEmpty() && input.charAt(0) == 65279) {
+            if (available(1) && buffer[position] == 65279) {
                 position++;
             }
         }
 
+        /**
+         * Ask whether the input is completely empty
+         * @return true if the input contains no characters
+         */
+
+        boolean isEmpty() {
+            return consumed == 0 && limit == 0;
+        }
+
+        /**
+         * Ensure that at least a given number of characters are available in the buffer,
+         * reading more input if necessary
+         * @param needed the number of characters required beyond the current position
+         * @return true if the characters are available, false if end of input is reached first
+         */
+
+        private boolean available(int needed) {
+            if (limit - position >= needed) {
+                return true;
+            }
+            int remaining = limit - position;
+            if (position > 0) {
+                System.arraycopy(buffer, position, buffer, 0, remaining);
+                consumed += position;
+                position = 0;
+                limit = remaining;
+            }
+            try {
+                while (limit < needed) {
+                    int actual = reader.read(buffer, limit, buffer.length - limit);
+                    if (actual < 0) {
+                        return false;
+                    }
+                    limit += actual;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return true;
+        }
+
         public JsonToken next() throws XPathException {
             currentToken = readToken();
             return currentToken;
         }
 
         private JsonToken readToken() throws XPathException {
-            if (position >= input.length()) {
+            if (!available(1)) {
                 return JsonToken.EOF;
             }
             ws: while (true) {
-                char c = input.charAt(position);
+                char c = buffer[position];
                 switch (c) {
                     case '\n':
                     case '\r':
@@ -475,7 +559,8 @@ public class JsonParser {
                         // drop through
                     case ' ':
                     case '\t':
-                        if (++position >= input.length()) {
+                        position++;
+                        if (!available(1)) {
                             return JsonToken.EOF;
                         }
                         break;
@@ -483,7 +568,7 @@ public class JsonParser {
                         break ws;
                 }
             }
-            char ch = input.charAt(position++);
+            char ch = buffer[position++];
             switch (ch) {
                 case '[':
                     return JsonToken.LSQB;
@@ -497,16 +582,19 @@ public class JsonParser {
                     currentTokenValue.setLength(0);
                     boolean afterBackslash = false;
                     while (true) {
-                        if (position >= input.length()) {
+                        if (!available(1)) {
                             invalidJSON("Unclosed quotes in string literal", ERR_GRAMMAR, lineNumber);
                         }
-                        char c = input.charAt(position++);
+                        char c = buffer[position++];
                         if (c < 32) {
                             invalidJSON("Unescaped control character (x" + Integer.toHexString(c) + ")", ERR_GRAMMAR, lineNumber);
                         }
                         if (afterBackslash && c == 'u') {
                             try {
-                                String hex = input.substring(position, position + 4);
+                                if (!available(4)) {
+                                    throw new NumberFormatException();
+                                }
+                                String hex = new String(buffer, position, 4);
                                 //noinspection ResultOfMethodCallIgnored
                                 Integer.parseInt(hex, 16);
                             } catch (Exception e) {
@@ -540,17 +628,13 @@ public class JsonParser {
                 case '9':
                     currentTokenValue.setLength(0);
                     currentTokenValue.cat(ch);
-                    if (position < input.length()) {   // We could be in ECMA mode when there is a single digit
-                        while (true) {
-                            char c = input.charAt(position);
-                            if ((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E') {
-                                currentTokenValue.cat(c);
-                                if (++position >= input.length()) {
-                                    break;
-                                }
-                            } else {
-                                break;
-                            }
+                    while (available(1)) {   // We could be in ECMA mode when there is a single digit
+                        char c = buffer[position];
+                        if ((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E') {
+                            currentTokenValue.cat(c);
+                            position++;
+                        } else {
+                            break;
                         }
                     }
                     return JsonToken.NUMERIC_LITERAL;
@@ -559,8 +643,8 @@ public class JsonParser {
                     if (NameChecker.isNCNameChar(ch)) {
                         currentTokenValue.setLength(0);
                         currentTokenValue.cat(ch);
-                        while (position < input.length()) {
-                            char c = input.charAt(position);
+                        while (available(1)) {
+                            char c = buffer[position];
                             if (NameChecker.isNCNameChar(c)) {
                                 currentTokenValue.cat(c);
                                 position++;
@@ -580,9 +664,9 @@ public class JsonParser {
                                 return JsonToken.UNQUOTED_STRING;
                         }
                     } else {
-                        char c = input.charAt(--position);
+                        char c = buffer[--position];
                         invalidJSON("Unexpected character '" + c + "' (\\u" +
-                                            Integer.toHexString(c) + ") at position " + position, ERR_GRAMMAR, lineNumber);
+                                            Integer.toHexString(c) + ") at position " + (consumed + position), ERR_GRAMMAR, lineNumber);
                         return JsonToken.EOF;
                     }
                 }
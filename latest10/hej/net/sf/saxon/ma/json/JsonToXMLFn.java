@@ -7,9 +7,11 @@
 
 package net.sf.saxon.ma.json;
 
+import net.sf.saxon.event.Outputter;
 import net.sf.saxon.expr.StaticProperty;
 import net.sf.saxon.expr.XPathContext;
 import net.sf.saxon.functions.OptionsParameter;
+import net.sf.saxon.functions.PushableFunction;
 import net.sf.saxon.functions.SystemFunction;
 import net.sf.saxon.ma.map.MapItem;
 import net.sf.saxon.om.Item;
@@ -26,7 +28,7 @@ import java.util.Map;
  * Implements the json-to-xml function defined in XSLT 3.0.
  */
 
-public class JsonToXMLFn extends SystemFunction {
+public class JsonToXMLFn extends SystemFunction implements PushableFunction {
 
     public static OptionsParameter OPTION_DETAILS;
 
@@ -68,6 +70,35 @@ public class JsonToXMLFn extends SystemFunction {
     }
 
 
+    /**
+     * Evaluate the function in "push" mode. The XML representation of the JSON input is written
+     * directly to the destination, so no intermediate tree is built when the result is being
+     * copied (for example, into a result document or into the content of a new element).
+     *
+     * @param destination the destination for the function result
+     * @param context     the dynamic evaluation context
+     * @param arguments   the supplied arguments to the function
+     * @throws XPathException if the syntax of the input is incorrect
+     */
+    @Override
+    public void process(Outputter destination, XPathContext context, Sequence[] arguments) throws XPathException {
+        Item arg0 = arguments[0].head();
+        if (arg0 == null) {
+            return;
+        }
+        Map<String, Sequence> checkedOptions = null;
+        if (getArity() == 2) {
+            checkedOptions = getDetails().optionDetails.processSuppliedOptions((MapItem) arguments[1].head(), context);
+        }
+        int flags = getFlags(checkedOptions, context);
+        JsonHandlerXML handler = new JsonHandlerXML(context, destination, flags);
+        if (checkedOptions != null) {
+            handler.setFallbackFunction(checkedOptions, context);
+        }
+        new JsonParser().parse(arg0.getStringValue(), flags, handler, context);
+        handler.getResult();
+    }
+
     /**
      * Parse the JSON string according to supplied options
      *
@@ -79,10 +110,31 @@ public class JsonToXMLFn extends SystemFunction {
      */
     protected Item eval(String input, MapItem options, XPathContext context) throws XPathException {
         JsonParser parser = new JsonParser();
-        int flags = 0;
         Map<String, Sequence> checkedOptions = null;
         if (options != null) {
             checkedOptions = getDetails().optionDetails.processSuppliedOptions(options, context);
+        }
+        int flags = getFlags(checkedOptions, context);
+        JsonHandlerXML handler = new JsonHandlerXML(context, getStaticBaseUriString(), flags);
+        if (options != null) {
+            handler.setFallbackFunction(checkedOptions, context);
+        }
+        parser.parse(input, flags, handler, context);
+        return handler.getResult();
+    }
+
+    /**
+     * Get the parsing flags corresponding to the supplied options
+     *
+     * @param checkedOptions the options after checking, or null if no options were supplied
+     * @param context        XPath evaluation context
+     * @return the flags to be passed to the {@link JsonParser}
+     * @throws XPathException if the options are invalid
+     */
+
+    private static int getFlags(Map<String, Sequence> checkedOptions, XPathContext context) throws XPathException {
+        int flags;
+        if (checkedOptions != null) {
             flags = JsonParser.getFlags(checkedOptions, context, true);
             if ((flags & JsonParser.DUPLICATES_LAST) != 0) {
                 throw new XPathException("json-to-xml: duplicates=use-last is not allowed", "FOJS0005");
@@ -97,12 +149,7 @@ public class JsonToXMLFn extends SystemFunction {
         } else {
             flags = JsonParser.DUPLICATES_RETAINED;
         }
-        JsonHandlerXML handler = new JsonHandlerXML(context, getStaticBaseUriString(), flags);
-        if (options != null) {
-            handler.setFallbackFunction(checkedOptions, context);
-        }
-        parser.parse(input, flags, handler, context);
-        return handler.getResult();
+        return flags;
     }
 
 
@@ -7,8 +7,11 @@
 
 package net.sf.saxon.ma.json;
 
+import net.sf.saxon.event.Outputter;
+import net.sf.saxon.event.ReceiverOption;
 import net.sf.saxon.expr.StaticProperty;
 import net.sf.saxon.expr.XPathContext;
+import net.sf.saxon.expr.parser.Loc;
 import net.sf.saxon.functions.OptionsParameter;
 import net.sf.saxon.ma.map.MapItem;
 import net.sf.saxon.om.Item;
@@ -19,6 +22,8 @@ import net.sf.saxon.value.BooleanValue;
 import net.sf.saxon.value.SequenceType;
 import net.sf.saxon.value.StringValue;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.util.Map;
 
 /**
@@ -42,6 +47,23 @@ public class ParseJsonFn extends JsonToXMLFn {
     }
 
 
+    /**
+     * Evaluate the function in "push" mode. Unlike json-to-xml, the result of parse-json is
+     * not a node, so it is simply evaluated and appended to the destination.
+     *
+     * @param destination the destination for the function result
+     * @param context     the dynamic evaluation context
+     * @param arguments   the supplied arguments to the function
+     * @throws XPathException if the syntax of the input is incorrect
+     */
+    @Override
+    public void process(Outputter destination, XPathContext context, Sequence[] arguments) throws XPathException {
+        Item result = call(context, arguments).head();
+        if (result != null) {
+            destination.append(result, Loc.NONE, ReceiverOption.ALL_NAMESPACES);
+        }
+    }
+
     /**
      * Parse the JSON string according to supplied options
      *
@@ -71,23 +93,53 @@ public class ParseJsonFn extends JsonToXMLFn {
      */
 
     public static Item parse(String input, Map<String, Sequence> options, XPathContext context) throws XPathException {
-        JsonParser parser = new JsonParser();
+        int flags = getFlags(options, context);
+        JsonHandlerMap handler = makeHandler(options, flags, context);
+        new JsonParser().parse(input, flags, handler, context);
+        return handler.getResult().head();
+    }
+
+    /**
+     * Parse JSON text read incrementally from a {@link Reader}, according to supplied options.
+     * The input is never held in memory as a whole.
+     *
+     * @param input   supplies the JSON input text. The reader is not closed by this method.
+     * @param options options for the conversion as a map of xs:string : value pairs
+     * @param context XPath evaluation context
+     * @return the result of the parsing
+     * @throws XPathException if the syntax of the input is incorrect
+     * @throws IOException    if a failure occurs reading the input
+     */
+
+    public static Item parse(Reader input, Map<String, Sequence> options, XPathContext context)
+            throws XPathException, IOException {
+        int flags = getFlags(options, context);
+        JsonHandlerMap handler = makeHandler(options, flags, context);
+        new JsonParser().parse(input, flags, handler, context);
+        return handler.getResult().head();
+    }
+
+    private static int getFlags(Map<String, Sequence> options, XPathContext context) throws XPathException {
         int flags = 0;
         if (options != null) {
             flags = JsonParser.getFlags(options, context, false);
         }
-        JsonHandlerMap handler = new JsonHandlerMap(context, flags);
         if ((flags & JsonParser.DUPLICATES_RETAINED) != 0) {
             throw new XPathException("parse-json: duplicates=retain is not allowed", "FOJS0005");
         }
         if ((flags & JsonParser.DUPLICATES_SPECIFIED) == 0) {
             flags |= JsonParser.DUPLICATES_FIRST;
         }
+        return flags;
+    }
+
+    private static JsonHandlerMap makeHandler(Map<String, Sequence> options, int flags, XPathContext context)
+            throws XPathException {
+        JsonHandlerMap handler = new JsonHandlerMap(context, flags);
         if (options != null) {
             handler.setFallbackFunction(options, context);
         }
-        parser.parse(input, flags, handler, context);
-        return handler.getResult().head();
+        return handler;
     }
 
 
@@ -63,6 +63,9 @@ public class HashTrieMap implements MapItem {
     // The number of entries in the map; -1 if unknown
     private int entries;
 
+    // Token identifying the nodes of the trie that initialPut() may update in place; created on first use
+    private Object owner;
+
     /**
      * Create an empty map
      */
@@ -104,13 +107,101 @@ public class HashTrieMap implements MapItem {
         if (map instanceof HashTrieMap) {
             return (HashTrieMap) map;
         }
+        if (map instanceof OpenAddressMap) {
+            return ((OpenAddressMap) map).toHashTrieMap();
+        }
         HashTrieMap m2 = new HashTrieMap();
         for (KeyValuePair pair : map.keyValuePairs()) {
-            m2 = m2.addEntry(pair.key, pair.value);
+            m2.initialPut(pair.key, pair.value);
         }
         return m2;
     }
 
+    /**
+     * Create a new map, initially containing the entries of an existing map, to which further entries
+     * can be added using {@link #initialPut(AtomicValue, GroundedValue)} before the new map is exposed.
+     * If the existing map is a HashTrieMap, the two maps share structure, and the nodes of the shared trie
+     * are copied only when they are first updated; the existing map is unaffected.
+     *
+     * @param map the existing map
+     * @return the new map
+     */
+
+    public static HashTrieMap copyForUpdate(MapItem map) {
+        if (map instanceof HashTrieMap || map instanceof OpenAddressMap) {
+            HashTrieMap base = copy(map);
+            HashTrieMap result = base.withTrie(base.imap);
+            result.entries = base.entries;
+            return result;
+        } else {
+            return copy(map);
+        }
+    }
+
+    /**
+     * Get a map containing the same entries as this map, using a more compact representation if all
+     * the keys are of type xs:integer, or all are of type xs:string. The compact representation is
+     * faster for lookup and uses less memory, but is more expensive to modify; this method should therefore
+     * be called only when a map has been fully built, and the caller has no reason to expect that it will
+     * be incrementally modified.
+     *
+     * @return either this map, or an {@link IntegerKeyMap} or {@link StringKeyMap} with the same entries
+     */
+
+    public MapItem compact() {
+        MapItem result = null;
+        if (keyAtomicType == BuiltInAtomicType.INTEGER || keyAtomicType == BuiltInAtomicType.STRING) {
+            result = OpenAddressMap.copyOf(this);
+        }
+        return result == null ? this : result;
+    }
+
+    /**
+     * Get the number of entries in the map, if this is known without counting them
+     *
+     * @return the number of entries, or -1 if not known
+     */
+
+    int getKnownSize() {
+        return entries;
+    }
+
+    /**
+     * Get the item type of all items in the values of the map, if they are homogeneous
+     *
+     * @return the common item type, or null if not known
+     */
+
+    ItemType getValueItemType() {
+        return valueItemType;
+    }
+
+    /**
+     * Get the envelope cardinality of the values in the map
+     *
+     * @return the cardinality, as a combination of StaticProperty flags
+     */
+
+    int getValueCardinality() {
+        return valueCardinality;
+    }
+
+    /**
+     * Create a new map with a different trie, retaining the type information of this map
+     * @param imap2 the trie to be used for the new map
+     * @return the new map
+     */
+
+    private HashTrieMap withTrie(ImmutableMap<AtomicMatchKey, KeyValuePair> imap2) {
+        HashTrieMap t2 = new HashTrieMap(imap2);
+        t2.valueCardinality = valueCardinality;
+        t2.keyUType = keyUType;
+        t2.valueUType = valueUType;
+        t2.keyAtomicType = keyAtomicType;
+        t2.valueItemType = valueItemType;
+        return t2;
+    }
+
     /**
      * After adding an entry to the map, update the cached type information
      * @param key      the new key
@@ -301,12 +392,7 @@ public class HashTrieMap implements MapItem {
     public HashTrieMap addEntry(AtomicValue key, GroundedValue value) {
         boolean empty = isEmpty();
         ImmutableMap<AtomicMatchKey, KeyValuePair> imap2 = imap.put(makeKey(key), new KeyValuePair(key, value));
-        HashTrieMap t2 = new HashTrieMap(imap2);
-        t2.valueCardinality = this.valueCardinality;
-        t2.keyUType = keyUType;
-        t2.valueUType = valueUType;
-        t2.keyAtomicType = keyAtomicType;
-        t2.valueItemType = valueItemType;
+        HashTrieMap t2 = withTrie(imap2);
         t2.updateTypeInformation(key, value, empty);
         return t2;
     }
@@ -316,6 +402,10 @@ public class HashTrieMap implements MapItem {
      * must only be called while initially populating the map, and must not be called if
      * anyone else might already be using the map.
      *
+     * <p>Nodes of the underlying trie that were created by earlier calls of this method on the
+     * same map are updated in place, so building a map by repeated calls on initialPut is much
+     * cheaper than building it by repeated calls on {@link #addEntry(AtomicValue, GroundedValue)}.</p>
+     *
      * @param key   the key of the new entry. Any existing entry with this key is replaced.
      * @param value the value associated with the new entry
      * @return true if an existing entry with the same key was replaced
@@ -327,9 +417,14 @@ public class HashTrieMap implements MapItem {
 //        }
         boolean empty = isEmpty();
         boolean exists = get(key) != null;
-        imap = imap.put(makeKey(key), new KeyValuePair(key, value));
+        if (owner == null) {
+            owner = new Object();
+        }
+        imap = imap.putTransient(makeKey(key), new KeyValuePair(key, value), owner);
         updateTypeInformation(key, value, empty);
-        entries = -1;
+        if (entries >= 0 && !exists) {
+            entries++;
+        }
         return exists;
     }
 
@@ -0,0 +1,123 @@
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Copyright (c) 2020 Saxonica Limited
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is "Incompatible With Secondary Licenses", as defined by the Mozilla Public License, v. 2.0.
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+package net.sf.saxon.ma.map;
+
+import net.sf.saxon.om.GroundedValue;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.type.AtomicType;
+import net.sf.saxon.type.BuiltInAtomicType;
+import net.sf.saxon.value.AtomicValue;
+import net.sf.saxon.value.Int64Value;
+import net.sf.saxon.value.NumericValue;
+
+/**
+ * A compact immutable map in which every key is an xs:integer within the range of a Java long. The keys
+ * are held as primitive longs, rather than as {@link Int64Value} objects.
+ *
+ * <p>Lookup follows the rules for map keys: an xs:integer key will also be found using an xs:decimal, xs:double
+ * or xs:float key that is numerically equal, or using an instance of a subtype of xs:integer such as xs:int.</p>
+ */
+
+public class IntegerKeyMap extends OpenAddressMap {
+
+    private long[] keys;
+
+    /**
+     * Create an empty IntegerKeyMap, to be populated using {@link #initialPut(AtomicValue, GroundedValue)}
+     *
+     * @param expectedSize the number of entries the map is expected to hold
+     */
+
+    IntegerKeyMap(int expectedSize) {
+        super(expectedSize);
+        keys = new long[values.length];
+    }
+
+    /**
+     * Ask whether a key can be held in an IntegerKeyMap
+     *
+     * @param key the key
+     * @return true if the key is of type xs:integer (not a subtype), and within the range of a long
+     */
+
+    static boolean isIntegerKey(AtomicValue key) {
+        return key instanceof Int64Value && key.getItemType() == BuiltInAtomicType.INTEGER;
+    }
+
+    private static int hash(long k) {
+        return (int) (k ^ (k >>> 32));
+    }
+
+    private int find(long k) {
+        int slot = firstSlot(hash(k));
+        while (values[slot] != null) {
+            if (keys[slot] == k) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    @Override
+    protected boolean acceptsKey(AtomicValue key) {
+        return isIntegerKey(key);
+    }
+
+    @Override
+    protected int addKey(AtomicValue key) {
+        long k = ((Int64Value) key).longValue();
+        int slot = emptySlot(hash(k));
+        keys[slot] = k;
+        return slot;
+    }
+
+    @Override
+    protected void rehash(GroundedValue[] oldValues) {
+        long[] oldKeys = keys;
+        keys = new long[values.length];
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                int slot = emptySlot(hash(oldKeys[i]));
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    @Override
+    protected AtomicType getKeyType() {
+        return BuiltInAtomicType.INTEGER;
+    }
+
+    @Override
+    protected AtomicValue keyAt(int slot) {
+        return Int64Value.makeIntegerValue(keys[slot]);
+    }
+
+    @Override
+    protected int slotOf(AtomicValue key) {
+        if (key instanceof Int64Value) {
+            return find(((Int64Value) key).longValue());
+        } else if (key instanceof NumericValue && ((NumericValue) key).isWholeNumber()) {
+            // Possibly an xs:decimal, xs:double, or xs:float that is equal to one of the keys. Use the
+            // long value to locate a candidate, and then confirm that it matches under the rules for map keys
+            int slot;
+            try {
+                slot = find(((NumericValue) key).longValue());
+            } catch (XPathException e) {
+                return -1;
+            }
+            return slot >= 0 && keyAt(slot).asMapKey().equals(key.asMapKey()) ? slot : -1;
+        } else {
+            return -1;
+        }
+    }
+}
+
+// Copyright (c) 2020 Saxonica Limited
@@ -0,0 +1,123 @@
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Copyright (c) 2020 Saxonica Limited
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is "Incompatible With Secondary Licenses", as defined by the Mozilla Public License, v. 2.0.
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+package net.sf.saxon.ma.map;
+
+import net.sf.saxon.om.GroundedValue;
+import net.sf.saxon.value.AtomicValue;
+
+/**
+ * Builds the result of a map constructor or of map:merge, starting from the first of the supplied maps
+ * and adding the entries of the others one at a time.
+ *
+ * <p>While all the keys are of type xs:integer, or all are of type xs:string, the entries are added directly
+ * to the table of an {@link IntegerKeyMap} or {@link StringKeyMap}, so the compact map is produced without first
+ * building a {@link HashTrieMap}. The first key of any other type causes the entries to be moved to a HashTrieMap,
+ * which is used from then on.</p>
+ *
+ * <p>The result initially shares the trie of the first map, which is copied only where it is updated. The entries
+ * are moved to a compact table once the entries added here are at least as many as those inherited from the first
+ * map, so that the cost of the move is bounded by the work of adding them. For a map constructor, whose first map
+ * holds a single entry, this happens on the first addition; a fold that adds one entry at a time to a large map
+ * keeps using the HashTrieMap.</p>
+ */
+
+class MapBuilder {
+
+    private HashTrieMap trie;
+    private OpenAddressMap table;
+    private final int baseSize;
+    private int added = 0;
+    private boolean mixedKeys = false;
+
+    /**
+     * Create a builder for a map that initially contains the entries of an existing map
+     *
+     * @param base the existing map, which is not modified
+     */
+
+    MapBuilder(MapItem base) {
+        trie = HashTrieMap.copyForUpdate(base);
+        baseSize = trie.getKnownSize();
+    }
+
+    /**
+     * Get the value associated with a key in the map being built
+     *
+     * @param key the key
+     * @return the value associated with the key, or null if there is none
+     */
+
+    GroundedValue get(AtomicValue key) {
+        return table != null ? table.get(key) : trie.get(key);
+    }
+
+    /**
+     * Add an entry to the map being built
+     *
+     * @param key   the key of the new entry. Any existing entry with this key is replaced.
+     * @param value the value associated with the new entry
+     * @return true if an existing entry with the same key was replaced
+     */
+
+    boolean put(AtomicValue key, GroundedValue value) {
+        if (table == null && !mixedKeys && baseSize >= 0 && added + 1 >= baseSize) {
+            startTable(key);
+        }
+        boolean exists;
+        if (table != null) {
+            if (table.acceptsKey(key)) {
+                exists = table.initialPut(key, value);
+            } else {
+                trie = new HashTrieMap();
+                for (KeyValuePair pair : table.keyValuePairs()) {
+                    trie.initialPut(pair.key, pair.value);
+                }
+                table = null;
+                mixedKeys = true;
+                exists = trie.initialPut(key, value);
+            }
+        } else {
+            exists = trie.initialPut(key, value);
+        }
+        if (!exists) {
+            added++;
+        }
+        return exists;
+    }
+
+    /**
+     * Move the entries added so far from the trie to a compact table, if they and the next key
+     * can all be held in the same kind of table
+     *
+     * @param key the next key to be added
+     */
+
+    private void startTable(AtomicValue key) {
+        OpenAddressMap t = trie.isEmpty()
+                ? OpenAddressMap.makeEmptyMap(key, 8)
+                : OpenAddressMap.copyOf(trie);
+        if (t != null && t.acceptsKey(key)) {
+            table = t;
+            trie = null;
+        } else {
+            mixedKeys = true;
+        }
+    }
+
+    /**
+     * Get the map that has been built. No further entries may be added after calling this method.
+     *
+     * @return the map
+     */
+
+    MapItem getResult() {
+        return table != null ? table : trie;
+    }
+}
+
+// Copyright (c) 2020 Saxonica Limited
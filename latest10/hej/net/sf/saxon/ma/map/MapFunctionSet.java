@@ -38,7 +38,6 @@ public class MapFunctionSet extends BuiltInFunctionSet {
     public static MapFunctionSet THE_INSTANCE = new MapFunctionSet();
 
     public MapFunctionSet() {
-        init();
     }
 
     public static MapFunctionSet getInstance() {
@@ -47,7 +46,8 @@ public class MapFunctionSet extends BuiltInFunctionSet {
 
 
 
-    private void init() {
+    @Override
+    protected void registerFunctions() {
 
         register("merge", 1, MapMerge.class, MapType.ANY_MAP_TYPE, ONE, 0)
                 .arg(0, MapType.ANY_MAP_TYPE, STAR | INS, null);
@@ -558,13 +558,16 @@ public class MapFunctionSet extends BuiltInFunctionSet {
                 if (baseMap == null) {
                     return new HashTrieMap();
                 } else {
-                    if (!(baseMap instanceof HashTrieMap)) {
-                        baseMap = HashTrieMap.copy(baseMap);
+                    MapItem next = (MapItem) iter.next();
+                    if (next == null) {
+                        return baseMap instanceof HashTrieMap || baseMap instanceof OpenAddressMap ? baseMap : HashTrieMap.copy(baseMap);
                     }
-                    MapItem next;
-                    while ((next = (MapItem) iter.next()) != null) {
+                    // The result map is not visible to anyone else until we return it, so it can be
+                    // built by updating it in place
+                    MapBuilder result = new MapBuilder(baseMap);
+                    do {
                         for (KeyValuePair pair : next.keyValuePairs()) {
-                            Sequence existing = baseMap.get(pair.key);
+                            Sequence existing = result.get(pair.key);
                             if (existing != null) {
                                 switch (duplicates) {
                                     case "use-first":
@@ -573,13 +576,13 @@ public class MapFunctionSet extends BuiltInFunctionSet {
                                         // no action
                                         break;
                                     case "use-last":
-                                        baseMap = baseMap.addEntry(pair.key, pair.value);
+                                        result.put(pair.key, pair.value);
                                         break;
                                     case "combine":
                                         InsertBefore.InsertIterator combinedIter =
                                                 new InsertBefore.InsertIterator(pair.value.iterate(), existing.iterate(), 1);
                                         GroundedValue combinedValue = combinedIter.materialize();
-                                        baseMap = baseMap.addEntry(pair.key, combinedValue);
+                                        result.put(pair.key, combinedValue);
                                         break;
                                     case "use-callback":
                                         assert onDuplicates != null;
@@ -587,18 +590,18 @@ public class MapFunctionSet extends BuiltInFunctionSet {
                                                 new Sequence[]{existing, pair.value} :
                                                 new Sequence[]{existing, pair.value, pair.key};
                                         Sequence combined = onDuplicates.call(context, args);
-                                        baseMap = baseMap.addEntry(pair.key, combined.materialize());
+                                        result.put(pair.key, combined.materialize());
                                         break;
                                     default:
                                         throw new XPathException("Duplicate key in constructed map: " +
                                                                          Err.wrap(pair.key.getStringValueCS()), duplicatesErrorCode);
                                 }
                             } else {
-                                baseMap = baseMap.addEntry(pair.key, pair.value);
+                                result.put(pair.key, pair.value);
                             }
                         }
-                    }
-                    return baseMap;
+                    } while ((next = (MapItem) iter.next()) != null);
+                    return result.getResult();
                 }
             }
 
@@ -0,0 +1,151 @@
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Copyright (c) 2020 Saxonica Limited
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is "Incompatible With Secondary Licenses", as defined by the Mozilla Public License, v. 2.0.
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+package net.sf.saxon.ma.map;
+
+import java.util.HashMap;
+
+/**
+ * A MapShape represents an ordered list of string-valued keys that is shared by any number of
+ * {@link ShapedMap} instances. When many maps have the same keys (typically, the objects in a large JSON array
+ * of records), each map then holds only an array of values, and the keys and the index used to find them
+ * are held once, in the shape.
+ *
+ * <p>Shapes form a tree rooted at an empty shape: the shape for keys (a, b, c) is reached from the root
+ * by adding key a, then b, then c, and the transitions are remembered so that all maps whose keys were added
+ * in the same order end up with the same shape object. A family of shapes is not thread-safe while it is
+ * being extended; it is intended to be created and extended by a single builder (such as a JSON parser),
+ * after which the shapes are used read-only.</p>
+ *
+ * <p>The number of keys in a shape, and the number of shapes in a family, are limited: when a limit is reached,
+ * {@link #withKey(String)} returns null, and the caller is expected to use a different map implementation.</p>
+ */
+
+public class MapShape {
+
+    /**
+     * The maximum number of keys in a shape
+     */
+
+    public static final int MAX_KEYS = 32;
+
+    /**
+     * The maximum number of distinct shapes in one family of shapes
+     */
+
+    private static final int MAX_SHAPES = 2048;
+
+    /**
+     * Shapes with more than this number of keys use a hash index for lookup; smaller shapes
+     * are searched serially
+     */
+
+    private static final int INDEX_THRESHOLD = 8;
+
+    private final String[] keys;
+    private final MapShape root;
+    private int shapeCount;     // maintained only on the root shape
+    private HashMap<String, MapShape> transitions;
+    private volatile HashMap<String, Integer> index;
+
+    private MapShape(String[] keys, MapShape root) {
+        this.keys = keys;
+        this.root = root == null ? this : root;
+    }
+
+    /**
+     * Create the empty root shape of a new family of shapes
+     *
+     * @return the new root shape
+     */
+
+    public static MapShape newRoot() {
+        return new MapShape(new String[0], null);
+    }
+
+    /**
+     * Get the number of keys in this shape
+     *
+     * @return the number of keys
+     */
+
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * Get the key at a given position
+     *
+     * @param slot the position of the key, zero-based, in order of insertion
+     * @return the key at that position
+     */
+
+    public String getKey(int slot) {
+        return keys[slot];
+    }
+
+    /**
+     * Get the position of a given key
+     *
+     * @param key the key being sought
+     * @return the position of the key, zero-based, or -1 if the key is not present in this shape
+     */
+
+    public int indexOf(String key) {
+        if (keys.length <= INDEX_THRESHOLD) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i].equals(key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        HashMap<String, Integer> idx = index;
+        if (idx == null) {
+            idx = new HashMap<>(keys.length * 2);
+            for (int i = 0; i < keys.length; i++) {
+                idx.put(keys[i], i);
+            }
+            index = idx;
+        }
+        Integer slot = idx.get(key);
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * Get the shape obtained by adding a key to the end of this shape. The key must not already be present.
+     *
+     * @param key the key to be added
+     * @return the shape with the additional key, or null if adding the key would exceed the
+     * limits on the size of a shape or on the number of shapes in this family
+     */
+
+    public MapShape withKey(String key) {
+        if (transitions != null) {
+            MapShape next = transitions.get(key);
+            if (next != null) {
+                return next;
+            }
+        }
+        if (keys.length >= MAX_KEYS || root.shapeCount >= MAX_SHAPES) {
+            return null;
+        }
+        String[] newKeys = new String[keys.length + 1];
+        System.arraycopy(keys, 0, newKeys, 0, keys.length);
+        newKeys[keys.length] = key;
+        MapShape next = new MapShape(newKeys, root);
+        if (transitions == null) {
+            transitions = new HashMap<>(4);
+        }
+        transitions.put(key, next);
+        root.shapeCount++;
+        return next;
+    }
+
+}
+
+// Copyright (c) 2020 Saxonica Limited
@@ -0,0 +1,455 @@
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Copyright (c) 2020 Saxonica Limited
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is "Incompatible With Secondary Licenses", as defined by the Mozilla Public License, v. 2.0.
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+package net.sf.saxon.ma.map;
+
+import net.sf.saxon.om.GroundedValue;
+import net.sf.saxon.om.SequenceTool;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.tree.iter.AtomicIterator;
+import net.sf.saxon.type.*;
+import net.sf.saxon.value.AtomicValue;
+import net.sf.saxon.value.Cardinality;
+import net.sf.saxon.value.SequenceType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Abstract superclass for compact immutable maps in which all the keys have the same atomic type,
+ * allowing the keys to be held in unboxed form in an open-addressing hash table. The subclasses
+ * {@link IntegerKeyMap} and {@link StringKeyMap} handle keys of type xs:integer and xs:string respectively.
+ *
+ * <p>These maps are populated using {@link #initialPut(AtomicValue, GroundedValue)} before they are exposed:
+ * the map constructor and map:merge add entries to them directly while all the keys have the same type (see
+ * {@link MapBuilder}), and {@link HashTrieMap#compact()} copies a map that has already been built. They are
+ * optimized for lookup: any modification (for example by map:put or map:remove) is performed on
+ * an equivalent {@link HashTrieMap}, which is created on first use and then retained, so that repeated
+ * modification of the same map does not repeatedly incur the cost of conversion.</p>
+ */
+
+public abstract class OpenAddressMap implements MapItem {
+
+    // The value in each occupied slot of the table; null for an empty slot
+    protected GroundedValue[] values;
+    protected int mask;
+    private int size = 0;
+
+    // The item type of all items in values, if they are homogeneous; otherwise null
+    private ItemType valueItemType = ErrorType.getInstance();
+
+    // The "envelope" cardinality of values in the map (0:1, 0:0, 1:1, 0:many, 1:many)
+    private int valueCardinality = 0;
+
+    // Equivalent HashTrieMap, created when needed to support modification
+    private volatile HashTrieMap trie;
+
+    /**
+     * Create an empty table for a map
+     *
+     * @param expectedSize the number of entries the map is expected to hold. The table is enlarged
+     *                     if more entries are added.
+     */
+
+    protected OpenAddressMap(int expectedSize) {
+        this.values = new GroundedValue[tableSize(expectedSize)];
+        this.mask = values.length - 1;
+    }
+
+    /**
+     * Create an empty map suitable for holding a given key
+     *
+     * @param key          the first key to be added to the map
+     * @param expectedSize the number of entries the map is expected to hold
+     * @return an empty {@link IntegerKeyMap} or {@link StringKeyMap}; or null if the key
+     * cannot be held in either
+     */
+
+    static OpenAddressMap makeEmptyMap(AtomicValue key, int expectedSize) {
+        if (IntegerKeyMap.isIntegerKey(key)) {
+            return new IntegerKeyMap(expectedSize);
+        } else if (StringKeyMap.isStringKey(key)) {
+            return new StringKeyMap(expectedSize);
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Create a compact map containing the same entries as a given HashTrieMap
+     *
+     * @param source the HashTrieMap
+     * @return the new map; or null if the source map is empty, or if its keys cannot all be held
+     * in the same kind of compact map
+     */
+
+    static OpenAddressMap copyOf(HashTrieMap source) {
+        OpenAddressMap result = null;
+        for (KeyValuePair pair : source.keyValuePairs()) {
+            if (result == null) {
+                result = makeEmptyMap(pair.key, source.size());
+                if (result == null) {
+                    return null;
+                }
+            } else if (!result.acceptsKey(pair.key)) {
+                return null;
+            }
+            result.initialPut(pair.key, pair.value);
+        }
+        return result;
+    }
+
+    /**
+     * Get the size of table to use for a given number of entries: a power of two, large enough
+     * to keep the load factor below 0.75
+     *
+     * @param size the number of entries
+     * @return the number of slots in the table
+     */
+
+    private static int tableSize(int size) {
+        int n = 4;
+        while (n < size + (size >> 1) + 1) {
+            n <<= 1;
+        }
+        return n;
+    }
+
+    /**
+     * Spread the bits of a hash code, so that keys whose hash codes differ only in the high-order bits
+     * (for example, integers that are multiples of a power of two) do not all fall into the same slot
+     *
+     * @param h the hash code
+     * @return the index of the first slot to be probed
+     */
+
+    protected final int firstSlot(int h) {
+        h *= 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * Get the first empty slot in the probe sequence for a given hash code
+     *
+     * @param h the hash code
+     * @return the index of the slot in which a new key with this hash code should be placed
+     */
+
+    protected final int emptySlot(int h) {
+        int slot = firstSlot(h);
+        while (values[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Add a new entry to this map. Since the map is supposed to be immutable, this method
+     * must only be called while initially populating the map, and must not be called if
+     * anyone else might already be using the map. The table is enlarged as necessary.
+     *
+     * @param key   the key of the new entry, which must satisfy {@link #acceptsKey(AtomicValue)}.
+     *              Any existing entry with this key is replaced.
+     * @param value the value associated with the new entry
+     * @return true if an existing entry with the same key was replaced
+     */
+
+    public boolean initialPut(AtomicValue key, GroundedValue value) {
+        boolean wasEmpty = size == 0;
+        int slot = slotOf(key);
+        boolean exists = slot >= 0;
+        if (!exists) {
+            int newSize = size + 1;
+            if (newSize + (newSize >> 1) + 1 > values.length) {
+                GroundedValue[] oldValues = values;
+                values = new GroundedValue[oldValues.length << 1];
+                mask = values.length - 1;
+                rehash(oldValues);
+            }
+            slot = addKey(key);
+            size = newSize;
+        }
+        values[slot] = value;
+        updateTypeInformation(value, wasEmpty);
+        return exists;
+    }
+
+    /**
+     * After adding an entry to the map, update the cached type information
+     *
+     * @param val      the new value
+     * @param wasEmpty true if the map was empty before adding the value
+     */
+
+    private void updateTypeInformation(GroundedValue val, boolean wasEmpty) {
+        if (wasEmpty) {
+            valueItemType = MapItem.getItemTypeOfSequence(val);
+            valueCardinality = SequenceTool.getCardinality(val);
+        } else {
+            valueCardinality = Cardinality.union(valueCardinality, SequenceTool.getCardinality(val));
+            if (!MapItem.isKnownToConform(val, valueItemType)) {
+                valueItemType = null;
+            }
+        }
+    }
+
+    /**
+     * Ask whether a key can be held in this map
+     *
+     * @param key the key
+     * @return true if the key has the type of the keys held in this map, and can be added to it using
+     * {@link #initialPut(AtomicValue, GroundedValue)}
+     */
+
+    protected abstract boolean acceptsKey(AtomicValue key);
+
+    /**
+     * Place a key that is not already present in an empty slot of the table. The caller
+     * is responsible for setting the value in the slot.
+     *
+     * @param key the key, which must satisfy {@link #acceptsKey(AtomicValue)}
+     * @return the slot number
+     */
+
+    protected abstract int addKey(AtomicValue key);
+
+    /**
+     * Move the keys and values into a new table, after the array of values has been replaced by
+     * a larger (empty) array
+     *
+     * @param oldValues the previous array of values, whose slots correspond to those of the
+     *                  existing array of keys
+     */
+
+    protected abstract void rehash(GroundedValue[] oldValues);
+
+    /**
+     * Get the common type of all the keys in the map
+     *
+     * @return the type of the keys
+     */
+
+    protected abstract AtomicType getKeyType();
+
+    /**
+     * Get the key held in a given slot
+     *
+     * @param slot the slot number, which must be occupied
+     * @return the key value, as an atomic value of the type returned by {@link #getKeyType()}
+     */
+
+    protected abstract AtomicValue keyAt(int slot);
+
+    /**
+     * Get the slot holding the entry for a given key
+     *
+     * @param key the key being sought
+     * @return the slot number, or -1 if the key is not present in the map
+     */
+
+    protected abstract int slotOf(AtomicValue key);
+
+    /**
+     * Get an entry from the Map
+     *
+     * @param key the value of the key
+     * @return the value associated with the given key, or null if the key is not present in the map.
+     */
+    @Override
+    public GroundedValue get(AtomicValue key) {
+        int slot = slotOf(key);
+        return slot < 0 ? null : values[slot];
+    }
+
+    /**
+     * Get the size of the map
+     *
+     * @return the number of keys/entries present in this map
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Ask whether the map is empty
+     *
+     * @return true if and only if the size of the map is zero
+     */
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Get the set of all key values in the map.
+     *
+     * @return a set containing all the key values present in the map, in unpredictable order
+     */
+    @Override
+    public AtomicIterator<AtomicValue> keys() {
+        return new AtomicIterator<AtomicValue>() {
+            int next = 0;
+
+            @Override
+            public AtomicValue next() {
+                while (next < values.length) {
+                    if (values[next++] != null) {
+                        return keyAt(next - 1);
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Get the set of all key-value pairs in the map
+     *
+     * @return an iterable containing all the key-value pairs
+     */
+    @Override
+    public Iterable<KeyValuePair> keyValuePairs() {
+        List<KeyValuePair> pairs = new ArrayList<>(size);
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                pairs.add(new KeyValuePair(keyAt(i), values[i]));
+            }
+        }
+        return pairs;
+    }
+
+    /**
+     * Create a new map containing the existing entries in the map plus an additional entry,
+     * without modifying the original. If there is already an entry with the specified key,
+     * this entry is replaced by the new entry.
+     *
+     * @param key   the key of the new entry
+     * @param value the value associated with the new entry
+     * @return the new map containing the additional entry
+     */
+    @Override
+    public MapItem addEntry(AtomicValue key, GroundedValue value) {
+        return toHashTrieMap().addEntry(key, value);
+    }
+
+    /**
+     * Remove an entry from the map
+     *
+     * @param key the key of the entry to be removed
+     * @return a new map in which the requested entry has been removed; or this map
+     * unchanged if the specified key was not present
+     */
+    @Override
+    public MapItem remove(AtomicValue key) {
+        return slotOf(key) < 0 ? this : toHashTrieMap().remove(key);
+    }
+
+    /**
+     * Ask whether the map conforms to a given map type
+     *
+     * @param requiredKeyType   the required keyType
+     * @param requiredValueType the required valueType
+     * @param th                the type hierarchy cache for the configuration
+     * @return true if the map conforms to the required type
+     */
+    @Override
+    public boolean conforms(AtomicType requiredKeyType, SequenceType requiredValueType, TypeHierarchy th) {
+        if (isEmpty()) {
+            return true;
+        }
+        if (requiredKeyType != BuiltInAtomicType.ANY_ATOMIC && requiredKeyType != getKeyType()) {
+            // All the keys have the same type, so it is sufficient to test one of them
+            AtomicValue firstKey = keys().next();
+            if (!requiredKeyType.matches(firstKey, th)) {
+                return false;
+            }
+        }
+        if (requiredValueType.equals(SequenceType.ANY_SEQUENCE) ||
+                (valueItemType == requiredValueType.getPrimaryType() &&
+                         Cardinality.subsumes(requiredValueType.getCardinality(), valueCardinality))) {
+            return true;
+        }
+        for (GroundedValue val : values) {
+            if (val != null) {
+                try {
+                    if (!requiredValueType.matches(val, th)) {
+                        return false;
+                    }
+                } catch (XPathException e) {
+                    throw new AssertionError(e); // cannot happen when value is grounded
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the type of the map. This method is used largely for diagnostics, to report
+     * the type of a map when it differs from the required type.
+     *
+     * @param th the type hierarchy cache
+     * @return the type of this map
+     */
+    @Override
+    public ItemType getItemType(TypeHierarchy th) {
+        ItemType valueType = null;
+        int valueCard = 0;
+        for (GroundedValue val : values) {
+            if (val == null) {
+                continue;
+            }
+            if (valueType == null) {
+                valueType = SequenceTool.getItemType(val, th);
+                valueCard = SequenceTool.getCardinality(val);
+            } else {
+                valueType = Type.getCommonSuperType(valueType, SequenceTool.getItemType(val, th), th);
+                valueCard = Cardinality.union(valueCard, SequenceTool.getCardinality(val));
+            }
+        }
+        if (valueType == null) {
+            // empty map
+            return MapType.EMPTY_MAP_TYPE;
+        } else {
+            return new MapType(getKeyType(), SequenceType.makeSequenceType(valueType, valueCard));
+        }
+    }
+
+    /**
+     * Get the lowest common item type of the keys in the map
+     *
+     * @return the most specific type to which all the keys belong. If the map is
+     * empty, return UType.VOID
+     */
+    @Override
+    public UType getKeyUType() {
+        return isEmpty() ? UType.VOID : getKeyType().getUType();
+    }
+
+    /**
+     * Get a HashTrieMap containing the same entries as this map. The HashTrieMap is
+     * retained for reuse, and must not be modified in place.
+     *
+     * @return the equivalent HashTrieMap
+     */
+
+    HashTrieMap toHashTrieMap() {
+        HashTrieMap t = trie;
+        if (t == null) {
+            t = new HashTrieMap();
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] != null) {
+                    t.initialPut(keyAt(i), values[i]);
+                }
+            }
+            trie = t;
+        }
+        return t;
+    }
+}
+
+// Copyright (c) 2020 Saxonica Limited
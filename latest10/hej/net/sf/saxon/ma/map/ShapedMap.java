@@ -0,0 +1,356 @@
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Copyright (c) 2020 Saxonica Limited
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is "Incompatible With Secondary Licenses", as defined by the Mozilla Public License, v. 2.0.
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+package net.sf.saxon.ma.map;
+
+import net.sf.saxon.om.GroundedValue;
+import net.sf.saxon.om.SequenceTool;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.tree.iter.AtomicIterator;
+import net.sf.saxon.type.*;
+import net.sf.saxon.value.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A compact implementation of MapItem for maps whose keys are strings, designed for the objects
+ * that result from parsing JSON. The keys are held in a {@link MapShape} that is shared with other maps
+ * having the same keys, and the values are held in a flat array. Values that are strings or numbers
+ * are held as a Java String or a double respectively, and are wrapped as an {@link StringValue} or
+ * {@link DoubleValue} only when they are retrieved.
+ *
+ * <p>Like {@link DictionaryMap}, the map is populated by calling the {@code initialPut} methods before it is
+ * exposed to the outside world; any subsequent modification (for example by map:put or map:remove)
+ * creates a new {@link HashTrieMap}.</p>
+ */
+
+public class ShapedMap implements MapItem {
+
+    private MapShape shape;
+    private Object[] values;      // each entry is a GroundedValue, a String, or NUMBER if the value is in numbers[]
+    private double[] numbers;     // allocated only if there are numeric values
+
+    private static final Object NUMBER = new Object();
+
+    /**
+     * Create an empty map, to which entries can be added using the {@code initialPut} methods,
+     * provided this is done before the map is exposed to the outside world.
+     *
+     * @param root the root of the family of shapes to be used by this map
+     */
+
+    public ShapedMap(MapShape root) {
+        shape = root;
+        values = new Object[4];
+    }
+
+    /**
+     * Get the slot to be used for a key during initial construction, extending the shape if necessary
+     *
+     * @param key the key
+     * @return the slot number, or -1 if the shape cannot be extended
+     */
+
+    private int slotFor(String key) {
+        int slot = shape.indexOf(key);
+        if (slot < 0) {
+            MapShape next = shape.withKey(key);
+            if (next == null) {
+                return -1;
+            }
+            shape = next;
+            slot = next.size() - 1;
+            if (slot >= values.length) {
+                Object[] v2 = new Object[Math.min(values.length * 2, MapShape.MAX_KEYS)];
+                System.arraycopy(values, 0, v2, 0, values.length);
+                values = v2;
+            }
+        }
+        return slot;
+    }
+
+    /**
+     * During initial construction of the map, add a key-value pair. If the key is already
+     * present, the existing value is replaced.
+     *
+     * @param key   the key
+     * @param value the value
+     * @return true if the entry was added; false if the map has reached the limits of its
+     * shape, in which case the caller should copy the entries to a different kind of map
+     * using {@link #toDictionaryMap()}
+     */
+
+    public boolean initialPut(String key, GroundedValue value) {
+        int slot = slotFor(key);
+        if (slot < 0) {
+            return false;
+        }
+        values[slot] = value;
+        return true;
+    }
+
+    /**
+     * During initial construction of the map, add an entry whose value is an xs:string.
+     *
+     * @param key   the key
+     * @param value the value, which will be returned as a {@link StringValue} when the entry is retrieved
+     * @return true if the entry was added; false if the map has reached the limits of its shape
+     */
+
+    public boolean initialPutString(String key, String value) {
+        int slot = slotFor(key);
+        if (slot < 0) {
+            return false;
+        }
+        values[slot] = value;
+        return true;
+    }
+
+    /**
+     * During initial construction of the map, add an entry whose value is an xs:double.
+     *
+     * @param key   the key
+     * @param value the value, which will be returned as a {@link DoubleValue} when the entry is retrieved
+     * @return true if the entry was added; false if the map has reached the limits of its shape
+     */
+
+    public boolean initialPutDouble(String key, double value) {
+        int slot = slotFor(key);
+        if (slot < 0) {
+            return false;
+        }
+        if (numbers == null) {
+            numbers = new double[values.length];
+        } else if (numbers.length < values.length) {
+            double[] n2 = new double[values.length];
+            System.arraycopy(numbers, 0, n2, 0, numbers.length);
+            numbers = n2;
+        }
+        values[slot] = NUMBER;
+        numbers[slot] = value;
+        return true;
+    }
+
+    /**
+     * Get the shape of this map
+     *
+     * @return the shape, which holds the keys of the map
+     */
+
+    public MapShape getShape() {
+        return shape;
+    }
+
+    /**
+     * Get the value held in a given slot
+     */
+
+    private GroundedValue valueAt(int slot) {
+        Object v = values[slot];
+        if (v == NUMBER) {
+            return new DoubleValue(numbers[slot]);
+        } else if (v instanceof String) {
+            return new StringValue((String) v);
+        } else {
+            return (GroundedValue) v;
+        }
+    }
+
+    /**
+     * Get an entry from the Map
+     *
+     * @param key the value of the key
+     * @return the value associated with the given key, or null if the key is not present in the map.
+     */
+    @Override
+    public GroundedValue get(AtomicValue key) {
+        if (key instanceof StringValue) {
+            int slot = shape.indexOf(key.getStringValue());
+            return slot < 0 ? null : valueAt(slot);
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Get the size of the map
+     *
+     * @return the number of keys/entries present in this map
+     */
+    @Override
+    public int size() {
+        return shape.size();
+    }
+
+    /**
+     * Ask whether the map is empty
+     *
+     * @return true if and only if the size of the map is zero
+     */
+    @Override
+    public boolean isEmpty() {
+        return shape.size() == 0;
+    }
+
+    /**
+     * Get the set of all key values in the map.
+     *
+     * @return a set containing all the key values present in the map, in unpredictable order
+     */
+    @Override
+    public AtomicIterator<StringValue> keys() {
+        MapShape s = shape;
+        return new AtomicIterator<StringValue>() {
+            int next = 0;
+            @Override
+            public StringValue next() {
+                return next < s.size() ? new StringValue(s.getKey(next++)) : null;
+            }
+        };
+    }
+
+    /**
+     * Get the set of all key-value pairs in the map
+     *
+     * @return an iterable containing all the key-value pairs
+     */
+    @Override
+    public Iterable<KeyValuePair> keyValuePairs() {
+        List<KeyValuePair> pairs = new ArrayList<>(shape.size());
+        for (int i = 0; i < shape.size(); i++) {
+            pairs.add(new KeyValuePair(new StringValue(shape.getKey(i)), valueAt(i)));
+        }
+        return pairs;
+    }
+
+    /**
+     * Create a new map containing the existing entries in the map plus an additional entry,
+     * without modifying the original. If there is already an entry with the specified key,
+     * this entry is replaced by the new entry.
+     *
+     * @param key   the key of the new entry
+     * @param value the value associated with the new entry
+     * @return the new map containing the additional entry
+     */
+    @Override
+    public MapItem addEntry(AtomicValue key, GroundedValue value) {
+        return toHashTrieMap().addEntry(key, value);
+    }
+
+    /**
+     * Remove an entry from the map
+     *
+     * @param key the key of the entry to be removed
+     * @return a new map in which the requested entry has been removed; or this map
+     * unchanged if the specified key was not present
+     */
+    @Override
+    public MapItem remove(AtomicValue key) {
+        return get(key) == null ? this : toHashTrieMap().remove(key);
+    }
+
+    /**
+     * Ask whether the map conforms to a given map type
+     *
+     * @param keyType   the required keyType
+     * @param valueType the required valueType
+     * @param th        the type hierarchy cache for the configuration
+     * @return true if the map conforms to the required type
+     */
+    @Override
+    public boolean conforms(AtomicType keyType, SequenceType valueType, TypeHierarchy th) {
+        if (isEmpty()) {
+            return true;
+        }
+        if (!(keyType == BuiltInAtomicType.STRING || keyType == BuiltInAtomicType.ANY_ATOMIC)) {
+            return false;
+        }
+        if (valueType.equals(SequenceType.ANY_SEQUENCE)) {
+            return true;
+        }
+        for (int i = 0; i < shape.size(); i++) {
+            try {
+                if (!valueType.matches(valueAt(i), th)) {
+                    return false;
+                }
+            } catch (XPathException e) {
+                throw new AssertionError(e); // cannot happen when value is grounded
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the type of the map. This method is used largely for diagnostics, to report
+     * the type of a map when it differs from the required type.
+     *
+     * @param th the type hierarchy cache
+     * @return the type of this map
+     */
+    @Override
+    public ItemType getItemType(TypeHierarchy th) {
+        ItemType valueType = null;
+        int valueCard = 0;
+        for (int i = 0; i < shape.size(); i++) {
+            GroundedValue val = valueAt(i);
+            if (valueType == null) {
+                valueType = SequenceTool.getItemType(val, th);
+                valueCard = SequenceTool.getCardinality(val);
+            } else {
+                valueType = Type.getCommonSuperType(valueType, SequenceTool.getItemType(val, th), th);
+                valueCard = Cardinality.union(valueCard, SequenceTool.getCardinality(val));
+            }
+        }
+        if (valueType == null) {
+            // empty map
+            return MapType.EMPTY_MAP_TYPE;
+        } else {
+            return new MapType(BuiltInAtomicType.STRING, SequenceType.makeSequenceType(valueType, valueCard));
+        }
+    }
+
+    /**
+     * Get the lowest common item type of the keys in the map
+     *
+     * @return the most specific type to which all the keys belong. If the map is
+     * empty, return UType.VOID
+     */
+    @Override
+    public UType getKeyUType() {
+        return isEmpty() ? UType.VOID : UType.STRING;
+    }
+
+    /**
+     * Copy the entries of this map to a {@link DictionaryMap}. This is used when a map under construction
+     * reaches the limits of its shape.
+     *
+     * @return a DictionaryMap containing the same entries, to which further entries can be added
+     */
+
+    public DictionaryMap toDictionaryMap() {
+        DictionaryMap target = new DictionaryMap();
+        for (int i = 0; i < shape.size(); i++) {
+            target.initialPut(shape.getKey(i), valueAt(i));
+        }
+        return target;
+    }
+
+    /**
+     * Convert to a HashTrieMap
+     */
+
+    private HashTrieMap toHashTrieMap() {
+        HashTrieMap target = new HashTrieMap();
+        for (int i = 0; i < shape.size(); i++) {
+            target.initialPut(new StringValue(shape.getKey(i)), valueAt(i));
+        }
+        return target;
+    }
+}
+
+// Copyright (c) 2020 Saxonica Limited
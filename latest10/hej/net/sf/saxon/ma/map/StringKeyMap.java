@@ -0,0 +1,102 @@
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Copyright (c) 2020 Saxonica Limited
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is "Incompatible With Secondary Licenses", as defined by the Mozilla Public License, v. 2.0.
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+package net.sf.saxon.ma.map;
+
+import net.sf.saxon.om.GroundedValue;
+import net.sf.saxon.type.AtomicType;
+import net.sf.saxon.type.BuiltInAtomicType;
+import net.sf.saxon.value.AtomicValue;
+import net.sf.saxon.value.StringValue;
+
+/**
+ * A compact immutable map in which every key is an xs:string. The keys are held as Java strings,
+ * rather than as {@link StringValue} objects, and there is no per-entry object other than the value.
+ *
+ * <p>Lookup follows the rules for map keys: an xs:string key will also be found using an xs:anyURI
+ * or xs:untypedAtomic key with the same codepoints.</p>
+ */
+
+public class StringKeyMap extends OpenAddressMap {
+
+    private String[] keys;
+
+    /**
+     * Create an empty StringKeyMap, to be populated using {@link #initialPut(AtomicValue, GroundedValue)}
+     *
+     * @param expectedSize the number of entries the map is expected to hold
+     */
+
+    StringKeyMap(int expectedSize) {
+        super(expectedSize);
+        keys = new String[values.length];
+    }
+
+    /**
+     * Ask whether a key can be held in a StringKeyMap
+     *
+     * @param key the key
+     * @return true if the key is of type xs:string (not a subtype)
+     */
+
+    static boolean isStringKey(AtomicValue key) {
+        return key instanceof StringValue && key.getItemType() == BuiltInAtomicType.STRING;
+    }
+
+    @Override
+    protected boolean acceptsKey(AtomicValue key) {
+        return isStringKey(key);
+    }
+
+    @Override
+    protected int addKey(AtomicValue key) {
+        String k = key.getStringValue();
+        int slot = emptySlot(k.hashCode());
+        keys[slot] = k;
+        return slot;
+    }
+
+    @Override
+    protected void rehash(GroundedValue[] oldValues) {
+        String[] oldKeys = keys;
+        keys = new String[values.length];
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                int slot = emptySlot(oldKeys[i].hashCode());
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    @Override
+    protected AtomicType getKeyType() {
+        return BuiltInAtomicType.STRING;
+    }
+
+    @Override
+    protected AtomicValue keyAt(int slot) {
+        return new StringValue(keys[slot]);
+    }
+
+    @Override
+    protected int slotOf(AtomicValue key) {
+        if (key instanceof StringValue) {
+            String k = key.getStringValue();
+            int slot = firstSlot(k.hashCode());
+            while (values[slot] != null) {
+                if (keys[slot].equals(k)) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+        return -1;
+    }
+}
+
+// Copyright (c) 2020 Saxonica Limited
@@ -35,6 +35,29 @@ public abstract class ImmutableHashTrieMap<K, V>
     }
 
 
+    /**
+     * Add a new entry to the map, updating the existing trie in place where possible. Nodes of the
+     * trie that were created by an earlier call on this method with the same owner are modified
+     * directly; any other node on the path to the new entry is copied (once), and the copy is then
+     * owned by the supplied owner. This allows a map to be built up by a sequence of insertions
+     * without copying a path through the trie on every insertion.
+     *
+     * <p>The caller is responsible for ensuring that no map that shares nodes with the returned map
+     * has been made visible to anyone else while the owner token remains in use: once the map has been
+     * exposed, the owner token must not be used again.</p>
+     *
+     * @param key   the key to use to retrieve this item
+     * @param value the value stored for this item
+     * @param owner a token identifying the owner of nodes that can be updated in place. This must
+     *              not be null, and must not be shared with any other map under construction.
+     * @return a map with this item added; this may be the original map, modified in place
+     */
+
+    @Override
+    public ImmutableHashTrieMap<K, V> putTransient(K key, V value, Object owner) {
+        return put(0, key, value, owner);
+    }
+
     @Override
     public ImmutableHashTrieMap<K, V> remove(K key) {
         return remove(0, key);
@@ -58,6 +81,15 @@ public abstract class ImmutableHashTrieMap<K, V>
     abstract ImmutableHashTrieMap<K, V> put(int shift, K key,
                                             V value);
 
+    /**
+     * Add an entry in transient mode. The default implementation, used for nodes that are
+     * never updated in place, is the same as the persistent put()
+     */
+
+    ImmutableHashTrieMap<K, V> put(int shift, K key, V value, Object owner) {
+        return put(shift, key, value);
+    }
+
     abstract ImmutableHashTrieMap<K, V> remove(int shift, K key);
 
     abstract V get(int shift, K key);
@@ -131,7 +163,19 @@ public abstract class ImmutableHashTrieMap<K, V>
             // Split this node into an ArrayHashNode with this and the new value
             // as entries.
             return newArrayHashNode(shift, this.key.hashCode(), this,
-                    key.hashCode(), new EntryHashNode<K, V>(key, value));
+                    key.hashCode(), new EntryHashNode<K, V>(key, value), null);
+        }
+
+        @Override
+        ImmutableHashTrieMap<K, V> put(final int shift, final K key,
+                                       final V value, final Object owner) {
+            if (this.key.hashCode() != key.hashCode()) {
+                // Create the new ArrayHashNode in the ownership of the caller, so that
+                // further insertions can update it in place
+                return newArrayHashNode(shift, this.key.hashCode(), this,
+                                        key.hashCode(), new EntryHashNode<K, V>(key, value), owner);
+            }
+            return put(shift, key, value);
         }
 
         @Override
@@ -195,7 +239,7 @@ public abstract class ImmutableHashTrieMap<K, V>
                         this,
                         key.hashCode(),
                                         new EntryHashNode<>(
-                                                key, value));
+                                                key, value), null);
             }
             ImmutableList<Tuple2<K, V>> newList = ImmutableList.empty();
             boolean found = false;
@@ -282,6 +326,7 @@ public abstract class ImmutableHashTrieMap<K, V>
      * @param subNode1 the first node
      * @param hash2 the hash code of the second node
      * @param subNode2 the second node
+     * @param owner the owner token for a node created in transient mode, or null
      * @param <K> the key type
      * @param <V> the value type
      * @return the new node
@@ -292,7 +337,8 @@ public abstract class ImmutableHashTrieMap<K, V>
                          int hash1,
                          ImmutableHashTrieMap<K, V> subNode1,
                          int hash2,
-                         ImmutableHashTrieMap<K, V> subNode2) {
+                         ImmutableHashTrieMap<K, V> subNode2,
+                         Object owner) {
         int curShift = shift;
         int h1 = hash1 >> shift & MASK;
         int h2 = hash2 >> shift & MASK;
@@ -304,7 +350,7 @@ public abstract class ImmutableHashTrieMap<K, V>
             h2 = hash2 >> curShift & MASK;
         }
         ImmutableHashTrieMap<K, V> newNode =
-                new BranchedArrayHashNode<K,V>(h1, subNode1, h2, subNode2);
+                new BranchedArrayHashNode<K,V>(h1, subNode1, h2, subNode2, owner);
         for (Integer bucket : buckets) {
             newNode = new SingletonArrayHashNode<K,V>(bucket, newNode);
         }
@@ -323,14 +369,18 @@ public abstract class ImmutableHashTrieMap<K, V>
     private static class BranchedArrayHashNode<K, V>
             extends ArrayHashNode<K, V> {
         private final ImmutableHashTrieMap<K, V>[] subnodes;
-        private final int size;
+        private int size;
+        // If non-null, the node may be updated in place by a transient put() with this owner
+        private final Object owner;
 
         public BranchedArrayHashNode(int h1,
                              ImmutableHashTrieMap<K, V> subNode1,
                              int h2,
-                             ImmutableHashTrieMap<K, V> subNode2) {
+                             ImmutableHashTrieMap<K, V> subNode2,
+                             Object owner) {
             assert h1 != h2;
             size = 2;
+            this.owner = owner;
             subnodes = new ImmutableHashTrieMap[FANOUT];
             for (int i = 0; i < FANOUT; i++) {
                 if (i == h1) {
@@ -345,9 +395,16 @@ public abstract class ImmutableHashTrieMap<K, V>
 
         public BranchedArrayHashNode(int size,
                              final ImmutableHashTrieMap<K, V>[] subnodes) {
+            this(size, subnodes, null);
+        }
+
+        private BranchedArrayHashNode(int size,
+                                      final ImmutableHashTrieMap<K, V>[] subnodes,
+                                      Object owner) {
             assert subnodes.length == FANOUT;
             this.size = size;
             this.subnodes = subnodes;
+            this.owner = owner;
         }
 
         @Override
@@ -364,6 +421,21 @@ public abstract class ImmutableHashTrieMap<K, V>
             return new BranchedArrayHashNode<K, V>(newSize, newNodes);
         }
 
+        @Override
+        ImmutableHashTrieMap<K, V> put(final int shift, final K key,
+                                       final V value, final Object owner) {
+            if (owner == null || owner != this.owner) {
+                // Not ours to modify: take a copy that is
+                return new BranchedArrayHashNode<K, V>(size, subnodes.clone(), owner).put(shift, key, value, owner);
+            }
+            final int bucket = getBucket(shift, key);
+            if (subnodes[bucket] == EMPTY_NODE) {
+                size++;
+            }
+            subnodes[bucket] = subnodes[bucket].put(shift + BITS, key, value, owner);
+            return this;
+        }
+
         @Override
         ImmutableHashTrieMap<K, V> remove(final int shift,
                                           final K key) {
@@ -458,7 +530,19 @@ public abstract class ImmutableHashTrieMap<K, V>
                                                     subnode.put(shift + BITS, key, value));
             }
             return new BranchedArrayHashNode<>(this.bucket, subnode,
-                                               bucket, new EntryHashNode<>(key, value));
+                                               bucket, new EntryHashNode<>(key, value), null);
+        }
+
+        @Override
+        ImmutableHashTrieMap<K, V> put(final int shift, final K key,
+                                       final V value, final Object owner) {
+            final int bucket = getBucket(shift, key);
+            if (bucket == this.bucket) {
+                ImmutableHashTrieMap<K, V> newNode = subnode.put(shift + BITS, key, value, owner);
+                return newNode == subnode ? this : new SingletonArrayHashNode<>(bucket, newNode);
+            }
+            return new BranchedArrayHashNode<>(this.bucket, subnode,
+                                               bucket, new EntryHashNode<>(key, value), owner);
         }
 
         @Override
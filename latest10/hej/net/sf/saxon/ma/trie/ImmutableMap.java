@@ -25,6 +25,24 @@ public interface ImmutableMap<K, V> extends Iterable<Tuple2<K, V>>{
      */
     ImmutableMap<K, V> put(K key, V value);
 
+    /**
+     * Add a new entry to the map, allowing the implementation to update the existing map in place
+     * rather than copying it. This must be used only while the map is being built, before it (or any
+     * map derived from it) has been made visible to anyone else. The default implementation
+     * simply calls {@link #put(Object, Object)}.
+     *
+     * @param key   the key to use to retrieve this item
+     * @param value the value stored for this item
+     * @param owner a token identifying the builder of the map; implementations that support
+     *              in-place update modify only those parts of the map that were created using
+     *              the same token
+     * @return a map with this item added, which may be the original map modified in place
+     */
+
+    default ImmutableMap<K, V> putTransient(K key, V value, Object owner) {
+        return put(key, value);
+    }
+
     /**
      * Remove an entry from the map. If no entry exists with the given
      * key, the returned map will have identical contents to the original
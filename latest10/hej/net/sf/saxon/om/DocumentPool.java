@@ -9,10 +9,9 @@ package net.sf.saxon.om;
 
 import net.sf.saxon.trans.KeyManager;
 
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * An object representing the collection of documents handled during
@@ -22,6 +21,9 @@ import java.util.Set;
  * number of effects: in particular it allows operations involving multiple
  * documents (such as generateId() and document()) to occur in a free-standing
  * XPath environment.</p>
+ * <p>The pool is safe for concurrent use: it is used by all the threads of a multi-threaded
+ * transformation, and the global document pool held by the Configuration is shared by all
+ * transformations. Lookups take no lock.</p>
  */
 
 public final class DocumentPool {
@@ -31,13 +33,13 @@ public final class DocumentPool {
     // each time. For this purpose we use a hashtable from
     // URI to DocumentInfo object.
 
-    private Map<DocumentKey, TreeInfo> documentNameMap = new HashMap<DocumentKey, TreeInfo>(10);
+    private final Map<DocumentKey, TreeInfo> documentNameMap = new ConcurrentHashMap<>(16);
 
 
     // The set of documents known to be unavailable. These documents must remain
     // unavailable for the duration of a transformation or query!
 
-    private Set<DocumentKey> unavailableDocuments = new HashSet<DocumentKey>(10);
+    private final Set<DocumentKey> unavailableDocuments = ConcurrentHashMap.newKeySet();
 
     /**
      * Add a document to the pool
@@ -46,7 +48,7 @@ public final class DocumentPool {
      * @param uri The document-uri property of the document.
      */
 
-    public synchronized void add(TreeInfo doc, /*@Nullable*/ String uri) {
+    public void add(TreeInfo doc, /*@Nullable*/ String uri) {
         if (uri != null) {
             documentNameMap.put(new DocumentKey(uri), doc);
         }
@@ -59,7 +61,7 @@ public final class DocumentPool {
      * @param uri The document-uri property of the document.
      */
 
-    public synchronized void add(TreeInfo doc, /*@Nullable*/ DocumentKey uri) {
+    public void add(TreeInfo doc, /*@Nullable*/ DocumentKey uri) {
         if (uri != null) {
             documentNameMap.put(uri, doc);
         }
@@ -73,7 +75,7 @@ public final class DocumentPool {
      *         or null if it is not found.
      */
 
-    public synchronized TreeInfo find(String uri) {
+    public TreeInfo find(String uri) {
         return documentNameMap.get(new DocumentKey(uri));
     }
 
@@ -85,7 +87,7 @@ public final class DocumentPool {
      *         or null if it is not found.
      */
 
-    public synchronized TreeInfo find(DocumentKey uri) {
+    public TreeInfo find(DocumentKey uri) {
         return documentNameMap.get(uri);
     }
 
@@ -99,14 +101,10 @@ public final class DocumentPool {
      */
 
     /*@Nullable*/
-    public synchronized String getDocumentURI(NodeInfo doc) {
-        for (DocumentKey uri : documentNameMap.keySet()) {
-            TreeInfo found = find(uri);
-            if (found == null) {
-                continue; // can happen when discard-document() is used concurrently
-            }
-            if (found.getRootNode().equals(doc)) {
-                return uri.toString();
+    public String getDocumentURI(NodeInfo doc) {
+        for (Map.Entry<DocumentKey, TreeInfo> e : documentNameMap.entrySet()) {
+            if (e.getValue().getRootNode().equals(doc)) {
+                return e.getKey().toString();
             }
         }
         return null;
@@ -119,11 +117,23 @@ public final class DocumentPool {
      * @return true if the document is present, false otherwise
      */
 
-    public synchronized boolean contains(TreeInfo doc) {
+    public boolean contains(TreeInfo doc) {
         // relies on "equals" for nodes comparing node identity
         return documentNameMap.values().contains(doc);
     }
 
+    /**
+     * Ask whether the pool is empty: that is, whether it holds no documents, and no URIs
+     * known to be unavailable
+     *
+     * @return true if the pool is empty
+     * @since 10.3
+     */
+
+    public boolean isEmpty() {
+        return documentNameMap.isEmpty() && unavailableDocuments.isEmpty();
+    }
+
     /**
      * Release a document from the document pool. This means that if the same document is
      * loaded again later, the source will need to be re-parsed, and nodes will get new identities.
@@ -132,15 +142,8 @@ public final class DocumentPool {
      * @return the document supplied in the doc parameter
      */
 
-    public synchronized TreeInfo discard(TreeInfo doc) {
-        for (Map.Entry<DocumentKey, TreeInfo> e : documentNameMap.entrySet()) {
-            DocumentKey name = e.getKey();
-            TreeInfo entry = e.getValue();
-            if (entry.equals(doc)) {
-                documentNameMap.remove(name);
-                return doc;
-            }
-        }
+    public TreeInfo discard(TreeInfo doc) {
+        documentNameMap.values().remove(doc);
         return doc;
     }
 
@@ -0,0 +1,386 @@
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Copyright (c) 2020 Saxonica Limited
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is "Incompatible With Secondary Licenses", as defined by the Mozilla Public License, v. 2.0.
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+package net.sf.saxon.om;
+
+import net.sf.saxon.lib.Feature;
+import net.sf.saxon.trans.XPathException;
+
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of documents shared by all the transformations and queries that use a Configuration, used
+ * for documents read by doc() and document() in stylesheets and queries that mark their documents
+ * as cacheable. Each document is built once: if several threads request the same document at the same
+ * time, one of them builds it and the others wait for the result.
+ *
+ * <p>The cache is bounded in size: when it holds more than the maximum number of documents, the least
+ * recently used document is evicted. A document may also be given a time to live, after which it is built
+ * again when next requested. The documents are held through soft references, so the garbage collector may
+ * discard a document that is not in use by any transformation when memory is short.</p>
+ *
+ * <p>A document is cached under its document key together with a "variant", which captures the options
+ * (such as whitespace stripping and schema validation) that affect how the document is built. A request
+ * using different options will not find a document built with other options.</p>
+ *
+ * <p>Unlike the {@link DocumentPool} of a transformation, the cache does not guarantee that two requests
+ * for the same URI deliver the same document: it may have been evicted in between. Transformations that need
+ * stable node identities must therefore register a document from the cache in their own document pool.</p>
+ *
+ * @since 10.3
+ */
+
+public class SharedDocumentCache {
+
+    /**
+     * Builds a document, when it is not found in the cache
+     */
+
+    @FunctionalInterface
+    public interface DocumentBuilder {
+        /**
+         * Build the document
+         *
+         * @return the document
+         * @throws XPathException if the document cannot be built
+         */
+        TreeInfo build() throws XPathException;
+    }
+
+    private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+    private volatile int maximumSize;
+    private volatile long timeToLive;
+
+    // Logical clock used to find the least recently used document
+    private final AtomicLong clock = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+    private final AtomicLong collections = new AtomicLong();
+
+    /**
+     * Create a shared document cache
+     *
+     * @param maximumSize the maximum number of documents to be held; zero or negative means that
+     *                    no documents are held
+     * @param timeToLive  the time in milliseconds for which a document is held after it has been built;
+     *                    zero or negative means that documents do not expire
+     */
+
+    public SharedDocumentCache(int maximumSize, long timeToLive) {
+        this.maximumSize = maximumSize;
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * Set the maximum number of documents to be held. Documents in excess of this number are evicted
+     * the next time a document is added.
+     *
+     * @param maximumSize the maximum number of documents; zero or negative disables the cache
+     * @see Feature#DOCUMENT_CACHE_SIZE
+     */
+
+    public void setMaximumSize(int maximumSize) {
+        this.maximumSize = maximumSize;
+        if (maximumSize <= 0) {
+            clear();
+        }
+    }
+
+    /**
+     * Get the maximum number of documents to be held
+     *
+     * @return the maximum number of documents; zero or negative if the cache is disabled
+     */
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * Set the time for which a document is held after it has been built
+     *
+     * @param timeToLive the time in milliseconds; zero or negative means that documents do not expire
+     * @see Feature#DOCUMENT_CACHE_TIME_TO_LIVE
+     */
+
+    public void setTimeToLive(long timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * Get the time for which a document is held after it has been built
+     *
+     * @return the time in milliseconds; zero or negative means that documents do not expire
+     */
+
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    /**
+     * Get a document from the cache, building it if it is not present. If another thread is already
+     * building the same document, wait for it to finish.
+     *
+     * @param uri     the document key (the absolute URI of the document)
+     * @param variant an object representing the options used to build the document. This must
+     *                implement <code>equals()</code> and <code>hashCode()</code>; a {@link List} of the relevant
+     *                option values is suitable.
+     * @param builder the function used to build the document if it is not in the cache
+     * @return the document
+     * @throws XPathException if the document is not in the cache and cannot be built. The failure is not
+     *                        cached: a later request will attempt to build the document again.
+     */
+
+    public TreeInfo getDocument(DocumentKey uri, Object variant, DocumentBuilder builder) throws XPathException {
+        if (maximumSize <= 0) {
+            return builder.build();
+        }
+        Key key = new Key(uri, variant);
+        while (true) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                Entry newEntry = new Entry();
+                entry = entries.putIfAbsent(key, newEntry);
+                if (entry == null) {
+                    misses.incrementAndGet();
+                    return build(key, newEntry, builder);
+                }
+            }
+            TreeInfo doc = entry.await();
+            if (doc != null) {
+                if (!entry.isExpired(timeToLive)) {
+                    hits.incrementAndGet();
+                    entry.lastUsed = clock.incrementAndGet();
+                    return doc;
+                }
+                if (entries.remove(key, entry)) {
+                    expirations.incrementAndGet();
+                }
+            } else if (entry.failed) {
+                // the build failed in another thread: try again in this thread, so that the error is
+                // reported in the context of this request
+                entries.remove(key, entry);
+            } else if (entries.remove(key, entry)) {
+                collections.incrementAndGet();
+            }
+        }
+    }
+
+    private TreeInfo build(Key key, Entry entry, DocumentBuilder builder) throws XPathException {
+        TreeInfo doc;
+        try {
+            doc = builder.build();
+        } catch (XPathException | RuntimeException | Error e) {
+            entries.remove(key, entry);
+            entry.fail();
+            throw e;
+        }
+        entry.complete(doc, clock.incrementAndGet());
+        if (entries.size() > maximumSize) {
+            evict();
+        }
+        return doc;
+    }
+
+    /**
+     * Remove documents that have been discarded by the garbage collector, and then, if there are still
+     * too many documents, remove the least recently used
+     */
+
+    private synchronized void evict() {
+        for (Iterator<Entry> iter = entries.values().iterator(); iter.hasNext(); ) {
+            Entry entry = iter.next();
+            if (entry.isCollected()) {
+                iter.remove();
+                collections.incrementAndGet();
+            }
+        }
+        while (entries.size() > maximumSize) {
+            Map.Entry<Key, Entry> oldest = null;
+            for (Map.Entry<Key, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                if (entry.isBuilt() && (oldest == null || entry.lastUsed < oldest.getValue().lastUsed)) {
+                    oldest = e;
+                }
+            }
+            if (oldest == null) {
+                // all the documents are still being built
+                return;
+            }
+            if (entries.remove(oldest.getKey(), oldest.getValue())) {
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Remove all variants of a document from the cache
+     *
+     * @param uri the document key
+     */
+
+    public void discard(DocumentKey uri) {
+        entries.keySet().removeIf(key -> key.uri.equals(uri));
+    }
+
+    /**
+     * Remove all documents from the cache. The statistics are not reset.
+     */
+
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Get the number of documents in the cache, including any that are still being built and any that
+     * have been discarded by the garbage collector but not yet removed
+     *
+     * @return the number of entries in the cache
+     */
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Get the number of requests satisfied by a document already in the cache (or being built
+     * by another thread)
+     *
+     * @return the number of cache hits
+     */
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of requests that caused a document to be built
+     *
+     * @return the number of cache misses
+     */
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Get the number of documents removed because the cache exceeded its maximum size
+     *
+     * @return the number of evictions
+     */
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Get the number of documents removed because their time to live had expired
+     *
+     * @return the number of expirations
+     */
+
+    public long getExpirationCount() {
+        return expirations.get();
+    }
+
+    /**
+     * Get the number of documents removed because they had been discarded by the garbage collector
+     *
+     * @return the number of documents found to have been garbage collected
+     */
+
+    public long getCollectionCount() {
+        return collections.get();
+    }
+
+    @Override
+    public String toString() {
+        return "SharedDocumentCache(size=" + size() + " hits=" + getHitCount() + " misses=" + getMissCount() +
+                " evictions=" + getEvictionCount() + " expirations=" + getExpirationCount() +
+                " collected=" + getCollectionCount() + ')';
+    }
+
+    private static class Key {
+        final DocumentKey uri;
+        final Object variant;
+
+        Key(DocumentKey uri, Object variant) {
+            this.uri = uri;
+            this.variant = variant;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key && uri.equals(((Key) obj).uri) && variant.equals(((Key) obj).variant);
+        }
+
+        @Override
+        public int hashCode() {
+            return uri.hashCode() ^ variant.hashCode();
+        }
+    }
+
+    private static class Entry {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private SoftReference<TreeInfo> document;
+        private long created;
+        private volatile boolean failed;
+        volatile long lastUsed;
+
+        void complete(TreeInfo doc, long tick) {
+            document = new SoftReference<>(doc);
+            created = System.currentTimeMillis();
+            lastUsed = tick;
+            done.countDown();
+        }
+
+        void fail() {
+            failed = true;
+            done.countDown();
+        }
+
+        boolean isBuilt() {
+            return done.getCount() == 0;
+        }
+
+        boolean isCollected() {
+            return isBuilt() && !failed && document.get() == null;
+        }
+
+        boolean isExpired(long timeToLive) {
+            return timeToLive > 0 && System.currentTimeMillis() - created > timeToLive;
+        }
+
+        /**
+         * Wait until the document has been built
+         *
+         * @return the document, or null if the build failed or the document has been garbage collected
+         * @throws XPathException if the thread is interrupted while waiting
+         */
+
+        TreeInfo await() throws XPathException {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new XPathException("Interrupted while waiting for another thread to build a document");
+            }
+            return failed ? null : document.get();
+        }
+    }
+}
+
+// Copyright (c) 2020 Saxonica Limited
@@ -113,6 +113,7 @@ public class XQueryExpression implements Location, ExpressionOwner, TraceableCom
             throw err;
         }
         ExpressionTool.allocateSlots(exp, 0, stackFrameMap);
+        config.obtainOptimizer().injectCompilationCandidates(exp);
         ExpressionTool.computeEvaluationModesForUserFunctionCalls(exp);
         for (GlobalVariable var : getPackageData().getGlobalVariableList()) {
             Expression top = var.getBody();
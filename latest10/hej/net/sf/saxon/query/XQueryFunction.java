@@ -491,6 +491,7 @@ public class XQueryFunction implements Declaration, Location {
 
         compiledFunction.computeEvaluationMode();
         ExpressionTool.allocateSlots(body, arity, compiledFunction.getStackFrameMap());
+        opt.injectCompilationCandidates(body);
         if (config.isGenerateByteCode(HostLanguage.XQUERY)) {
             if (config.getCountDown() == 0) {
                 ICompilerService compilerService = config.makeCompilerService(HostLanguage.XQUERY);
@@ -2102,6 +2102,20 @@ public class XQueryParser extends XPathParser {
                 case "allow-cycles":
                     warning("Value of saxon:allow-cycles is ignored");
                     break;
+                case "cache-documents":
+                    value = value.trim();
+                    switch (value) {
+                        case "true":
+                            ((QueryModule) env).getPackageData().setCachingDocuments(true);
+                            break;
+                        case "false":
+                            ((QueryModule) env).getPackageData().setCachingDocuments(false);
+                            break;
+                        default:
+                            warning("Value of saxon:cache-documents must be 'true' or 'false'");
+                            break;
+                    }
+                    break;
                 default:
                     warning("Unknown Saxon option declaration: " + varName.getDisplayName());
                     break;
@@ -10,6 +10,7 @@ package net.sf.saxon.resource;
 import net.sf.saxon.Configuration;
 import net.sf.saxon.expr.XPathContext;
 import net.sf.saxon.functions.URIQueryParameters;
+import net.sf.saxon.lib.Feature;
 import net.sf.saxon.lib.ParseOptions;
 import net.sf.saxon.lib.Resource;
 import net.sf.saxon.om.GroundedValue;
@@ -84,6 +85,17 @@ public class DirectoryCollection extends AbstractResourceCollection {
         return directoryContents(dirFile, params);
     }
 
+    /**
+     * Get the resources in the collection. If prefetching is enabled, by the query parameter
+     * <code>prefetch=N</code> or by the configuration property {@link Feature#COLLECTION_PREFETCH},
+     * XML files are parsed ahead of the resource currently being read, by a pool of worker threads.
+     * The resources are delivered in the same order either way, and errors are reported when the
+     * resource in question is reached.
+     *
+     * @param context the XPath evaluation context
+     * @return an iterator over the resources in the collection
+     */
+
     @Override
     public Iterator<Resource> getResources(final XPathContext context) {
         final ParseOptions options = optionsFromQueryParameters(params, context);
@@ -92,38 +104,92 @@ public class DirectoryCollection extends AbstractResourceCollection {
         final boolean metadata = metadataParam != null && metadataParam;
         Iterator<String> resourceURIs = getResourceURIs(context);
 
+        int prefetch = getPrefetchWindow(context);
+        if (prefetch > 0) {
+            return new PrefetchingResourceIterator(resourceURIs, prefetch,
+                in -> loadResource(in, options, metadata, context, true),
+                (in, e) -> handleFailure(in, e, context));
+        }
+
         return new MappingJavaIterator<>(resourceURIs,
              in -> {
                  try {
-                     InputDetails details = getInputDetails(in);
-                     details.resourceUri = in;
-                     details.parseOptions = options;
-                     if (params.getContentType() != null) {
-                         details.contentType = params.getContentType();
-                     }
-                     Resource resource = makeResource(context.getConfiguration(), details);
-                     if (resource != null) {
-                         if (metadata) {
-                             return makeMetadataResource(resource, details);
-                         } else {
-                             return resource;
-                         }
-                     }
-                     return null;
+                     return loadResource(in, options, metadata, context, false);
                  } catch (XPathException e) {
-                     int onError = params.getOnError();
-                     if (onError == URIQueryParameters.ON_ERROR_FAIL) {
-                         return new FailedResource(in, e);
-                     } else if (onError == URIQueryParameters.ON_ERROR_WARNING) {
-                         context.getController().warning("collection(): failed to parse " + in + ": " + e.getMessage(), e.getErrorCodeLocalPart(), null);
-                         return null;
-                     } else {
-                         return null;
-                     }
+                     return handleFailure(in, e, context);
                  }
              });
     }
 
+    /**
+     * Get the number of resources to be loaded ahead of the resource currently being read
+     *
+     * @param context the XPath evaluation context
+     * @return the size of the lookahead window, or 0 if resources are to be loaded only when reached
+     */
+
+    private int getPrefetchWindow(XPathContext context) {
+        Integer prefetch = params.getPrefetch();
+        return prefetch != null ? prefetch : context.getConfiguration().getConfigurationProperty(Feature.COLLECTION_PREFETCH);
+    }
+
+    /**
+     * Make the resource for a file in the directory
+     *
+     * @param in       the URI of the file
+     * @param options  the parsing options
+     * @param metadata true if a metadata resource is required
+     * @param context  the XPath evaluation context
+     * @param prefetch true if an XML document is to be parsed immediately, rather than when its content is requested.
+     *                 This is used when the resource is loaded by a worker thread.
+     * @return the resource, or null if there is no resource
+     * @throws XPathException if the resource cannot be made
+     */
+
+    private Resource loadResource(String in, ParseOptions options, boolean metadata, XPathContext context, boolean prefetch)
+            throws XPathException {
+        InputDetails details = getInputDetails(in);
+        details.resourceUri = in;
+        details.parseOptions = options;
+        if (params.getContentType() != null) {
+            details.contentType = params.getContentType();
+        }
+        Resource resource = makeResource(context.getConfiguration(), details);
+        if (resource != null) {
+            if (prefetch && resource instanceof XmlResource) {
+                ((XmlResource) resource).prefetch();
+            }
+            if (metadata) {
+                return makeMetadataResource(resource, details);
+            } else {
+                return resource;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Handle a failure to make the resource for a file, according to the on-error parameter
+     *
+     * @param in      the URI of the file
+     * @param e       the error
+     * @param context the XPath evaluation context
+     * @return a resource that reports the error when its content is requested, or null if the file
+     * is to be excluded from the collection
+     */
+
+    private Resource handleFailure(String in, XPathException e, XPathContext context) {
+        Integer onError = params.getOnError();
+        if (onError == null || onError == URIQueryParameters.ON_ERROR_FAIL) {
+            return new FailedResource(in, e);
+        } else if (onError == URIQueryParameters.ON_ERROR_WARNING) {
+            context.getController().warning("collection(): failed to parse " + in + ": " + e.getMessage(), e.getErrorCodeLocalPart(), null);
+            return null;
+        } else {
+            return null;
+        }
+    }
+
     /**
      * Make a metadata resource: that is, a resource containing not only the content of a file within
      * the directory structure, but properties of that file in the form of name/value pairs.
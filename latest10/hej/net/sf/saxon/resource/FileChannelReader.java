@@ -0,0 +1,138 @@
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Copyright (c) 2020 Saxonica Limited
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is "Incompatible With Secondary Licenses", as defined by the Mozilla Public License, v. 2.0.
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+package net.sf.saxon.resource;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+
+/**
+ * A Reader that reads a file through a {@link FileChannel}, decoding it in large chunks directly
+ * into the caller's character array. This is used for reading local files in unparsed-text() and
+ * unparsed-text-lines(), in place of an <code>InputStreamReader</code> wrapped in a <code>BufferedReader</code>,
+ * which decodes in small chunks and copies every character a second time.
+ *
+ * <p>The file is read into a heap buffer rather than being memory-mapped: the JDK decoders have fast paths
+ * for array-backed buffers, and decoding a mapped buffer proved several times slower than reading it.</p>
+ *
+ * <p>Decoding errors are reported by throwing the {@link java.nio.charset.CharacterCodingException} supplied
+ * by the decoder, whatever error actions the decoder has been set up with.</p>
+ */
+
+public class FileChannelReader extends Reader {
+
+    /**
+     * The number of bytes read from the file at a time
+     */
+
+    public static final int BUFFER_SIZE = 1 << 20;
+
+    private final FileChannel channel;
+    private final CharsetDecoder decoder;
+    private final ByteBuffer bytes;
+    private boolean endOfInput = false;
+    private boolean flushed = false;
+    // The second half of a surrogate pair that did not fit in the caller's array
+    private int pendingChar = -1;
+
+    /**
+     * Create a reader over a file channel
+     *
+     * @param channel the file channel, positioned at the start of the data to be read. The channel
+     *                is closed when the reader is closed.
+     * @param decoder the decoder for the encoding of the file
+     */
+
+    public FileChannelReader(FileChannel channel, CharsetDecoder decoder) {
+        this.channel = channel;
+        this.decoder = decoder;
+        this.bytes = ByteBuffer.allocate(BUFFER_SIZE);
+        this.bytes.flip();
+    }
+
+    /**
+     * Read characters into a portion of an array. Unlike an <code>InputStreamReader</code>, this
+     * returns as soon as the bytes already read from the file have been decoded, rather than reading more
+     * of the file to fill the array.
+     */
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (pendingChar >= 0) {
+            cbuf[off] = (char) pendingChar;
+            pendingChar = -1;
+            return 1;
+        }
+        if (len == 1) {
+            // A single character may be half of a surrogate pair, which the decoder cannot deliver on its own
+            char[] pair = new char[2];
+            int n = read(pair, 0, 2);
+            if (n > 0) {
+                cbuf[off] = pair[0];
+                if (n == 2) {
+                    pendingChar = pair[1];
+                }
+                return 1;
+            }
+            return n;
+        }
+        CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+        while (true) {
+            if (flushed) {
+                break;
+            }
+            CoderResult result = decoder.decode(bytes, out, endOfInput);
+            if (result.isError()) {
+                result.throwException();
+            }
+            if (result.isOverflow()) {
+                break;
+            }
+            if (endOfInput) {
+                result = decoder.flush(out);
+                if (result.isError()) {
+                    result.throwException();
+                }
+                if (result.isOverflow()) {
+                    break;
+                }
+                flushed = true;
+                break;
+            }
+            if (out.position() > off) {
+                break;
+            }
+            bytes.compact();
+            int n;
+            try {
+                n = channel.read(bytes);
+            } finally {
+                bytes.flip();
+            }
+            if (n < 0) {
+                endOfInput = true;
+            }
+        }
+        int count = out.position() - off;
+        return count == 0 && flushed ? -1 : count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
+
+// Copyright (c) 2020 Saxonica Limited
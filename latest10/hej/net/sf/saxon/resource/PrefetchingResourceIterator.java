@@ -0,0 +1,178 @@
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Copyright (c) 2020 Saxonica Limited
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is "Incompatible With Secondary Licenses", as defined by the Mozilla Public License, v. 2.0.
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+package net.sf.saxon.resource;
+
+import net.sf.saxon.lib.Resource;
+import net.sf.saxon.trans.UncheckedXPathException;
+import net.sf.saxon.trans.XPathException;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An iterator over the resources in a collection that loads resources ahead of the one currently being
+ * read, using a pool of worker threads. At most a fixed number of resources (the lookahead window) are
+ * loaded or being loaded at any time. The resources are delivered in the order of the underlying iterator
+ * over resource URIs, whatever order the loads complete in.
+ *
+ * <p>A failure to load a resource is passed to a failure handler on the thread that reads the iterator,
+ * when the resource is reached, so that errors and warnings are reported in the same order as if the
+ * resources had been loaded one at a time.</p>
+ */
+
+class PrefetchingResourceIterator implements Iterator<Resource>, Closeable {
+
+    /**
+     * Loads a resource: called on a worker thread
+     */
+
+    interface Loader {
+        /**
+         * Load a resource
+         * @param uri the resource URI
+         * @return the resource, or null if there is no resource to be delivered for this URI
+         * @throws XPathException if the resource cannot be loaded
+         */
+        Resource load(String uri) throws XPathException;
+    }
+
+    /**
+     * Handles a failure to load a resource: called on the thread that reads the iterator
+     */
+
+    interface FailureHandler {
+        /**
+         * Handle a failure
+         * @param uri   the resource URI
+         * @param error the error that occurred loading the resource
+         * @return a resource to be delivered in place of the one that failed, or null if the
+         * resource is to be skipped
+         */
+        Resource failed(String uri, XPathException error);
+    }
+
+    private static ExecutorService executor;
+
+    private final Iterator<String> uris;
+    private final int window;
+    private final Loader loader;
+    private final FailureHandler failureHandler;
+    private final ArrayDeque<String> pendingURIs;
+    private final ArrayDeque<Future<Resource>> pending;
+    private Resource next = null;
+
+    /**
+     * Create a prefetching iterator
+     *
+     * @param uris           the URIs of the resources in the collection, in the order they are to be delivered
+     * @param window         the maximum number of resources to be loaded ahead of the one being read; must be
+     *                       at least one
+     * @param loader         the function used to load each resource, on a worker thread
+     * @param failureHandler the function used to handle a failure to load a resource
+     */
+
+    PrefetchingResourceIterator(Iterator<String> uris, int window, Loader loader, FailureHandler failureHandler) {
+        this.uris = uris;
+        this.window = window;
+        this.loader = loader;
+        this.failureHandler = failureHandler;
+        this.pendingURIs = new ArrayDeque<>(window);
+        this.pending = new ArrayDeque<>(window);
+    }
+
+    /**
+     * Get the pool of worker threads, creating it if necessary. The pool is shared by all collections,
+     * and has one thread for each available processor. The threads are daemon threads, so they do not
+     * prevent the Java VM from exiting.
+     */
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            AtomicInteger threadNumber = new AtomicInteger(0);
+            executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+                Thread t = new Thread(r, "saxon-collection-" + threadNumber.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return executor;
+    }
+
+    private void fill() {
+        while (pending.size() < window && uris.hasNext()) {
+            String uri = uris.next();
+            pendingURIs.addLast(uri);
+            pending.addLast(getExecutor().submit(() -> loader.load(uri)));
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (next == null) {
+            fill();
+            if (pending.isEmpty()) {
+                return false;
+            }
+            String uri = pendingURIs.removeFirst();
+            Future<Resource> future = pending.removeFirst();
+            fill();
+            try {
+                next = future.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof XPathException) {
+                    next = failureHandler.failed(uri, (XPathException) cause);
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                } else {
+                    throw new UncheckedXPathException(new XPathException(cause));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                close();
+                throw new UncheckedXPathException(
+                        new XPathException("Interrupted while reading collection resource " + uri));
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Resource next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Resource r = next;
+        next = null;
+        return r;
+    }
+
+    /**
+     * Abandon the iteration, cancelling any loads that have not yet started
+     */
+
+    @Override
+    public void close() {
+        for (Future<Resource> future : pending) {
+            future.cancel(false);
+        }
+        pending.clear();
+        pendingURIs.clear();
+    }
+}
+
+// Copyright (c) 2020 Saxonica Limited
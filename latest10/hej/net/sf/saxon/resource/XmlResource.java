@@ -34,6 +34,7 @@ public class XmlResource implements Resource {
     private NodeInfo doc;
     private Configuration config;
     private AbstractResourceCollection.InputDetails details;
+    private XPathException parseFailure;
     //private int onError = URIQueryParameters.ON_ERROR_FAIL;
 
     public final static ResourceFactory FACTORY = new ResourceFactory() {
@@ -133,48 +134,97 @@ public class XmlResource implements Resource {
     @Override
     public Item getItem(XPathContext context) throws XPathException {
         if (doc == null) {
-            String resourceURI = details.resourceUri;
-            ParseOptions options = details.parseOptions;
-            if (options == null) {
-                options = config.getParseOptions();
-            }
-            StreamSource source;
-            if (details.characterContent != null) {
-                source = new StreamSource(new StringReader(details.characterContent), resourceURI);
-            } else if (details.binaryContent != null) {
-                source = new StreamSource(new ByteArrayInputStream(details.binaryContent), resourceURI);
-            } else {
+            XPathException failure = parseFailure;
+            if (failure == null) {
                 try {
-                    InputStream stream = details.getInputStream();
-                    source = new StreamSource(stream, resourceURI);
-                } catch (IOException e) {
-                    throw new XPathException(e);
+                    doc = build(makeSource());
+                } catch (ParseFailure e) {
+                    failure = e.error;
                 }
             }
-            try {
-                doc = config.buildDocumentTree(source, options).getRootNode();
-            } catch (XPathException e) {
+            if (failure != null) {
                 if (details.onError == URIQueryParameters.ON_ERROR_FAIL) {
-                    XPathException e2 = new XPathException("collection(): failed to parse XML file " + source.getSystemId() + ": " + e.getMessage(),
-                                                           e.getErrorCodeLocalPart());
+                    XPathException e2 = new XPathException("collection(): failed to parse XML file " + details.resourceUri + ": " + failure.getMessage(),
+                                                           failure.getErrorCodeLocalPart());
                     throw e2;
                 } else if (details.onError == URIQueryParameters.ON_ERROR_WARNING) {
-                    context.getController().warning("collection(): failed to parse XML file " + source.getSystemId() + ": " + e.getMessage(), e.getErrorCodeLocalPart(), null);
-                }
-                doc = null;
-            } finally {
-                if (source != null && source.getInputStream() != null) {
-                    try {
-                        source.getInputStream().close();
-                    } catch (IOException e) {
-                        // ignore the failure
-                    }
+                    context.getController().warning("collection(): failed to parse XML file " + details.resourceUri + ": " + failure.getMessage(), failure.getErrorCodeLocalPart(), null);
                 }
             }
         }
         return doc;
     }
 
+    /**
+     * Parse the document in advance of a request for its content, typically in a worker thread. A parsing
+     * error is retained, and is reported according to the on-error setting when {@link #getItem(XPathContext)}
+     * is called. If the input cannot be opened, nothing is done, and the error will be reported when the
+     * document is requested.
+     */
+
+    void prefetch() {
+        if (doc == null && parseFailure == null && details != null) {
+            try {
+                doc = build(makeSource());
+            } catch (ParseFailure e) {
+                parseFailure = e.error;
+            } catch (XPathException e) {
+                // leave it to getItem() to report the failure
+            }
+        }
+    }
+
+    private StreamSource makeSource() throws XPathException {
+        String resourceURI = details.resourceUri;
+        if (details.characterContent != null) {
+            return new StreamSource(new StringReader(details.characterContent), resourceURI);
+        } else if (details.binaryContent != null) {
+            return new StreamSource(new ByteArrayInputStream(details.binaryContent), resourceURI);
+        } else {
+            try {
+                InputStream stream = details.getInputStream();
+                return new StreamSource(stream, resourceURI);
+            } catch (IOException e) {
+                throw new XPathException(e);
+            }
+        }
+    }
+
+    private NodeInfo build(StreamSource source) throws ParseFailure {
+        ParseOptions options = details.parseOptions;
+        if (options == null) {
+            options = config.getParseOptions();
+        }
+        try {
+            return config.buildDocumentTree(source, options).getRootNode();
+        } catch (XPathException e) {
+            throw new ParseFailure(e);
+        } finally {
+            if (source.getInputStream() != null) {
+                try {
+                    source.getInputStream().close();
+                } catch (IOException e) {
+                    // ignore the failure
+                }
+            }
+        }
+    }
+
+    /**
+     * Exception used internally to distinguish a failure to parse the document, which is handled according
+     * to the on-error setting, from a failure to open the input
+     */
+
+    private static class ParseFailure extends XPathException {
+        private static final long serialVersionUID = 1L;
+        final XPathException error;
+
+        ParseFailure(XPathException error) {
+            super(error.getMessage());
+            this.error = error;
+        }
+    }
+
     /**
      * Get the media type (MIME type) of the resource if known
      *
@@ -52,6 +52,17 @@ abstract class AbstractXsltTransformer {
         this.controller = controller;
     }
 
+    /**
+     * Discard the settings held by this object rather than by the controller, when the transformer
+     * is reset for reuse
+     */
+
+    void resetSettings() {
+        baseOutputUriWasSet = false;
+        messageListener = null;
+        messageListener2 = null;
+    }
+
     /**
      * Set the base output URI.
      * <p>This defaults to the base URI of the {@link Destination} for the principal output
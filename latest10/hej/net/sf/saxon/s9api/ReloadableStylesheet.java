@@ -0,0 +1,459 @@
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Copyright (c) 2020 Saxonica Limited
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is "Incompatible With Secondary Licenses", as defined by the Mozilla Public License, v. 2.0.
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+package net.sf.saxon.s9api;
+
+import net.sf.saxon.PreparedStylesheet;
+import net.sf.saxon.functions.DocumentFn;
+import net.sf.saxon.lib.RelativeURIResolver;
+import net.sf.saxon.om.DocumentKey;
+import net.sf.saxon.style.Compilation;
+import net.sf.saxon.trans.CompilerInfo;
+import net.sf.saxon.trans.UncheckedXPathException;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.trans.XmlProcessingAbort;
+import net.sf.saxon.trans.XmlProcessingException;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.URIResolver;
+import javax.xml.transform.stream.StreamSource;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * A <code>ReloadableStylesheet</code> holds a compiled stylesheet that is recompiled when any of its modules
+ * changes. It is created using {@link XsltCompiler#compileReloadable(Source)}.
+ *
+ * <p>The method {@link #getExecutable()} returns the most recent successful compilation of the stylesheet.
+ * Applications should call it each time they start a transformation, rather than retaining the
+ * {@link XsltExecutable}. Because an <code>XsltExecutable</code> is immutable, a transformation that is already
+ * running when the stylesheet is recompiled continues to use the executable it started with.</p>
+ *
+ * <p>The modules of the stylesheet are the principal module and all the modules reachable from it using
+ * <code>xsl:include</code> and <code>xsl:import</code>; only modules held in files are monitored. A module is
+ * considered to have changed only if its content has changed: saving a file without changing it does not
+ * cause recompilation. Changes are detected either by calling {@link #checkForChanges()}, or, after calling
+ * {@link #startWatching()}, by a background thread that is notified by the file system of changes to the
+ * directories holding the modules.</p>
+ *
+ * <p>The stylesheet is always recompiled as a whole, using a snapshot of the options of the
+ * <code>XsltCompiler</code> taken when the <code>ReloadableStylesheet</code> was created. If recompilation fails,
+ * the errors are notified to the <code>ErrorReporter</code> of the compiler, and the previous executable remains
+ * in use until the modules change again.</p>
+ *
+ * @since 10.3
+ */
+
+public class ReloadableStylesheet implements AutoCloseable {
+
+    /**
+     * The time in milliseconds for which the watching thread waits after a change is notified, so
+     * that a group of related changes (for example, an editor saving several files) causes a single
+     * recompilation
+     */
+
+    private static final long SETTLE_TIME = 100;
+
+    private final XsltCompiler compiler;
+    private final CompilerInfo compilerInfo;
+    private final String systemId;
+    private volatile XsltExecutable executable;
+    private Map<File, ModuleState> modules = new HashMap<>();
+    private volatile Consumer<XsltExecutable> reloadListener;
+    private volatile XPathException lastError;
+    private WatchService watchService;
+    private Thread watcher;
+    private final Set<Path> watchedDirectories = new HashSet<>();
+
+    /**
+     * The last-seen state of a module held in a file
+     */
+
+    private static class ModuleState {
+        long lastModified;
+        long length;
+        byte[] digest;
+    }
+
+    /**
+     * Create a ReloadableStylesheet, and compile the stylesheet
+     *
+     * @param compiler the XsltCompiler
+     * @param source   the principal stylesheet module. This must have a system ID, from which the
+     *                 stylesheet is read when it is recompiled.
+     * @throws SaxonApiException if the stylesheet cannot be compiled
+     */
+
+    protected ReloadableStylesheet(XsltCompiler compiler, Source source) throws SaxonApiException {
+        this.compiler = compiler;
+        this.compilerInfo = new CompilerInfo(compiler.getUnderlyingCompilerInfo());
+        this.systemId = source.getSystemId();
+        if (systemId == null) {
+            throw new IllegalArgumentException("A reloadable stylesheet must have a system ID");
+        }
+        synchronized (this) {
+            compile(source, true);
+        }
+    }
+
+    /**
+     * Get the most recent successful compilation of the stylesheet
+     *
+     * @return the compiled stylesheet
+     */
+
+    public XsltExecutable getExecutable() {
+        return executable;
+    }
+
+    /**
+     * Get the error that caused the most recent recompilation to fail, if any
+     *
+     * @return the error, or null if the most recent compilation succeeded
+     */
+
+    public XPathException getLastError() {
+        return lastError;
+    }
+
+    /**
+     * Set a function to be called each time the stylesheet has been successfully recompiled. It is called
+     * on the thread that detected the change, after the new executable has been made available.
+     *
+     * @param listener the function to be called, or null
+     */
+
+    public void setReloadListener(Consumer<XsltExecutable> listener) {
+        this.reloadListener = listener;
+    }
+
+    /**
+     * Get the files holding the modules of the stylesheet, as found by the most recent compilation
+     *
+     * @return the files holding the stylesheet modules. Modules that are not held in files are not included.
+     */
+
+    public synchronized Set<File> getModuleFiles() {
+        return Collections.unmodifiableSet(new HashSet<>(modules.keySet()));
+    }
+
+    /**
+     * Check whether any module of the stylesheet has changed, and if so, recompile it
+     *
+     * @return true if the stylesheet was recompiled successfully, making a new executable available
+     */
+
+    public synchronized boolean checkForChanges() {
+        boolean changed = false;
+        for (Map.Entry<File, ModuleState> entry : modules.entrySet()) {
+            if (hasChanged(entry.getKey(), entry.getValue())) {
+                changed = true;
+                // keep checking: the new states are recorded even if recompilation fails
+            }
+        }
+        if (!changed) {
+            return false;
+        }
+        try {
+            compile(new StreamSource(systemId), false);
+        } catch (SaxonApiException e) {
+            return false;
+        }
+        Consumer<XsltExecutable> listener = reloadListener;
+        if (listener != null) {
+            listener.accept(executable);
+        }
+        return true;
+    }
+
+    /**
+     * Start a daemon thread that watches the directories holding the stylesheet modules, and recompiles the
+     * stylesheet when a module changes
+     *
+     * @throws IOException if the directories cannot be watched
+     */
+
+    public synchronized void startWatching() throws IOException {
+        if (watcher != null) {
+            return;
+        }
+        watchService = FileSystems.getDefault().newWatchService();
+        registerDirectories();
+        watcher = new Thread(this::watch, "Saxon stylesheet watcher " + systemId);
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * Stop watching for changes to the stylesheet modules. The current executable remains available.
+     */
+
+    @Override
+    public void close() {
+        Thread thread;
+        synchronized (this) {
+            thread = watcher;
+            watcher = null;
+            if (watchService != null) {
+                try {
+                    watchService.close();
+                } catch (IOException e) {
+                    // no action
+                }
+                watchService = null;
+                watchedDirectories.clear();
+            }
+        }
+        if (thread != null && thread != Thread.currentThread()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void watch() {
+        WatchService service;
+        synchronized (this) {
+            service = watchService;
+        }
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                key.pollEvents();
+                key.reset();
+                Thread.sleep(SETTLE_TIME);
+                while ((key = service.poll()) != null) {
+                    key.pollEvents();
+                    key.reset();
+                }
+                synchronized (this) {
+                    if (watchService != service) {
+                        return;
+                    }
+                    checkForChanges();
+                    registerDirectories();
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // the watcher has been closed
+        } catch (IOException e) {
+            compilerInfo.getErrorReporter().report(new XmlProcessingException(
+                    new XPathException("Cannot watch stylesheet modules: " + e.getMessage())));
+        }
+    }
+
+    private void registerDirectories() throws IOException {
+        for (File file : modules.keySet()) {
+            File dir = file.getAbsoluteFile().getParentFile();
+            if (dir != null && watchedDirectories.add(dir.toPath())) {
+                dir.toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                                      StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            }
+        }
+    }
+
+    /**
+     * Compile the stylesheet, and record the modules it uses
+     *
+     * @param source  the principal stylesheet module
+     * @param initial true for the first compilation, false for a recompilation
+     * @throws SaxonApiException if compilation fails. In the case of a recompilation, the modules that
+     *                           were read are still recorded, so that a change to any of them causes another attempt.
+     */
+
+    private void compile(Source source, boolean initial) throws SaxonApiException {
+        // The state of each module file is taken before the file is read, so that a change made while
+        // the stylesheet is being compiled is detected by the next check
+        Map<File, ModuleState> read = new HashMap<>();
+        recordBeforeRead(read, systemId);
+        CompilerInfo info = new CompilerInfo(compilerInfo);
+        URIResolver resolver = info.getURIResolver();
+        if (resolver instanceof RelativeURIResolver) {
+            info.setURIResolver(new RecordingRelativeURIResolver((RelativeURIResolver) resolver, read));
+        } else if (resolver != null) {
+            info.setURIResolver(new RecordingURIResolver(resolver, read));
+        }
+        Compilation compilation = new Compilation(compiler.getProcessor().getUnderlyingConfiguration(), info);
+        boolean succeeded = false;
+        try {
+            PreparedStylesheet pss;
+            try {
+                pss = Compilation.compileSingletonPackage(compilation, source);
+                succeeded = true;
+            } finally {
+                recordModules(compilation, read, !initial && !succeeded);
+            }
+            executable = new XsltExecutable(compiler.getProcessor(), pss);
+            lastError = null;
+        } catch (UncheckedXPathException e) {
+            lastError = e.getXPathException();
+            throw new SaxonApiException(lastError);
+        } catch (XPathException e) {
+            lastError = e;
+            throw new SaxonApiException(e);
+        } catch (XmlProcessingAbort e) {
+            lastError = new XPathException(e.getMessage());
+            throw new SaxonApiException(e);
+        }
+    }
+
+    private void recordModules(Compilation compilation, Map<File, ModuleState> read, boolean keepPrevious) {
+        Map<File, ModuleState> found = new HashMap<>();
+        addModule(found, read, systemId);
+        for (DocumentKey key : compilation.getStylesheetModules().keySet()) {
+            addModule(found, read, key.getAbsoluteURI());
+        }
+        if (keepPrevious) {
+            // after a failed recompilation, the modules that were not reached must still be watched
+            for (Map.Entry<File, ModuleState> entry : modules.entrySet()) {
+                found.putIfAbsent(entry.getKey(), entry.getValue());
+            }
+        }
+        modules = found;
+    }
+
+    private void addModule(Map<File, ModuleState> found, Map<File, ModuleState> read, String uri) {
+        File file = moduleFile(uri);
+        if (file != null) {
+            ModuleState state = modules.get(file);
+            if (state == null) {
+                state = read.get(file);
+            }
+            if (state == null) {
+                // not read through the URIResolver: the best available is its state now
+                state = new ModuleState();
+                hasChanged(file, state);
+            }
+            found.put(file, state);
+        }
+    }
+
+    /**
+     * Record the state of a module file that is about to be read by the compiler, unless its state
+     * is already known
+     *
+     * @param read the states recorded during the current compilation
+     * @param uri  the absolute URI of the module
+     */
+
+    private void recordBeforeRead(Map<File, ModuleState> read, String uri) {
+        File file = moduleFile(uri);
+        if (file != null && !modules.containsKey(file) && !read.containsKey(file)) {
+            ModuleState state = new ModuleState();
+            hasChanged(file, state);
+            read.put(file, state);
+        }
+    }
+
+    private static File moduleFile(String uri) {
+        try {
+            URI u = new URI(uri);
+            if ("file".equals(u.getScheme())) {
+                return new File(u);
+            }
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            // not a file: ignore it
+        }
+        return null;
+    }
+
+    /**
+     * A URIResolver used during compilation, which records the state of each module file before passing
+     * the request to the URIResolver of the compiler
+     */
+
+    private class RecordingURIResolver implements URIResolver {
+
+        final URIResolver base;
+        final Map<File, ModuleState> read;
+
+        RecordingURIResolver(URIResolver base, Map<File, ModuleState> read) {
+            this.base = base;
+            this.read = read;
+        }
+
+        @Override
+        public Source resolve(String href, String baseUri) throws TransformerException {
+            // absolutize the URI exactly as the compiler does when it identifies the module
+            recordBeforeRead(read, DocumentFn.computeDocumentKey(href, baseUri, null, base, false).getAbsoluteURI());
+            return base.resolve(href, baseUri);
+        }
+    }
+
+    /**
+     * A RecordingURIResolver for a compiler whose URIResolver is a RelativeURIResolver, which is therefore
+     * also responsible for absolutizing URIs
+     */
+
+    private class RecordingRelativeURIResolver extends RecordingURIResolver implements RelativeURIResolver {
+
+        RecordingRelativeURIResolver(RelativeURIResolver base, Map<File, ModuleState> read) {
+            super(base, read);
+        }
+
+        @Override
+        public String makeAbsolute(String href, String baseUri) throws TransformerException {
+            return ((RelativeURIResolver) base).makeAbsolute(href, baseUri);
+        }
+
+        @Override
+        public Source dereference(String uri) throws TransformerException {
+            recordBeforeRead(read, uri);
+            return ((RelativeURIResolver) base).dereference(uri);
+        }
+    }
+
+    /**
+     * Compare a module file with its recorded state, and update the state
+     *
+     * @param file  the module file
+     * @param state the recorded state of the file
+     * @return true if the content of the file has changed
+     */
+
+    private static boolean hasChanged(File file, ModuleState state) {
+        long lastModified = file.lastModified();
+        long length = file.length();
+        if (lastModified == state.lastModified && length == state.length && state.digest != null) {
+            return false;
+        }
+        state.lastModified = lastModified;
+        state.length = length;
+        byte[] digest = digest(file);
+        boolean changed = !Arrays.equals(digest, state.digest);
+        state.digest = digest;
+        return changed;
+    }
+
+    private static byte[] digest(File file) {
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                md.update(buffer, 0, n);
+            }
+            return md.digest();
+        } catch (IOException | NoSuchAlgorithmException e) {
+            // a missing or unreadable file is treated as empty
+            return new byte[0];
+        }
+    }
+}
+
+// Copyright (c) 2020 Saxonica Limited
@@ -17,6 +17,9 @@ import net.sf.saxon.sxpath.XPathVariable;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Stream;
 
 /**
@@ -25,6 +28,9 @@ import java.util.stream.Stream;
  * <p>An XPathExecutable is immutable, and therefore thread-safe. It is simplest to load
  * a new XPathSelector each time the expression is to be evaluated. However, the XPathSelector
  * is serially reusable within a single thread.</p>
+ * <p>Applications that evaluate the same expression very frequently, possibly in many threads, can
+ * avoid the cost of loading a new XPathSelector for each evaluation by using {@link #acquireSelector()}
+ * and {@link #releaseSelector(XPathSelector)}, which take selectors from a pool held by the XPathExecutable.</p>
  * <p>An XPathExecutable is created by using the {@link XPathCompiler#compile} method
  * on the {@link XPathCompiler} class.</p>
  */
@@ -34,6 +40,16 @@ public class XPathExecutable {
     private XPathExpression exp;
     private Processor processor;
     private IndependentContext env;
+    private volatile Map<StructuredQName, XPathVariable> declaredVariables;
+
+    /**
+     * The maximum number of idle XPathSelectors held in the pool
+     */
+
+    private static final int MAX_POOLED_SELECTORS = 64;
+
+    private final Queue<XPathSelector> selectorPool = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger selectorPoolSize = new AtomicInteger();
 
     // protected constructor
 
@@ -41,7 +57,6 @@ public class XPathExecutable {
         this.exp = exp;
         this.processor = processor;
         this.env = env;
-        //this.declaredVariables = declaredVariables;
     }
 
     /**
@@ -52,12 +67,65 @@ public class XPathExecutable {
      */
 
     public XPathSelector load() {
-        Map<StructuredQName, XPathVariable> declaredVariables = new LinkedHashMap<StructuredQName, XPathVariable>();
-        for (Iterator iter = env.iterateExternalVariables(); iter.hasNext(); ) {
-            XPathVariable var = (XPathVariable) iter.next();
-            declaredVariables.put(var.getVariableQName(), var);
+        Map<StructuredQName, XPathVariable> vars = declaredVariables;
+        if (vars == null) {
+            vars = new LinkedHashMap<>();
+            for (Iterator iter = env.iterateExternalVariables(); iter.hasNext(); ) {
+                XPathVariable var = (XPathVariable) iter.next();
+                vars.put(var.getVariableQName(), var);
+            }
+            // the map is never modified after this point, so it can be shared by all the selectors
+            declaredVariables = vars;
+        }
+        return new XPathSelector(exp, vars);
+    }
+
+    /**
+     * Get an XPathSelector for evaluating the expression, taken from a pool of selectors held by this
+     * XPathExecutable if one is available, or newly loaded otherwise. The selector is in the same state as
+     * one returned by {@link #load()}. The calling thread has exclusive use of the selector until it
+     * returns it to the pool by calling {@link #releaseSelector(XPathSelector)}.
+     *
+     * <p>This method is thread-safe.</p>
+     *
+     * @return an XPathSelector ready to be initialized and evaluated
+     * @since 10.3
+     */
+
+    public XPathSelector acquireSelector() {
+        XPathSelector selector = selectorPool.poll();
+        if (selector == null) {
+            return load();
+        }
+        selectorPoolSize.decrementAndGet();
+        return selector;
+    }
+
+    /**
+     * Return an XPathSelector to the pool held by this XPathExecutable, so that it can be reused by a
+     * later call on {@link #acquireSelector()}. The selector is reset (see {@link XPathSelector#reset()}),
+     * which releases the context item, the values of variables, and any documents it holds. The caller
+     * must not use the selector, or read any results obtained from it, after releasing it. If the pool
+     * is full, the selector is simply discarded.
+     *
+     * <p>This method is thread-safe.</p>
+     *
+     * @param selector a selector obtained from {@link #acquireSelector()} or {@link #load()}
+     *                 on this XPathExecutable
+     * @throws IllegalArgumentException if the selector was loaded from a different XPathExecutable
+     * @since 10.3
+     */
+
+    public void releaseSelector(XPathSelector selector) {
+        if (selector.getUnderlyingExpression() != exp) {
+            throw new IllegalArgumentException("The XPathSelector was not loaded from this XPathExecutable");
+        }
+        selector.reset();
+        if (selectorPoolSize.incrementAndGet() <= MAX_POOLED_SELECTORS) {
+            selectorPool.offer(selector);
+        } else {
+            selectorPoolSize.decrementAndGet();
         }
-        return new XPathSelector(exp, declaredVariables);
     }
 
     /**
@@ -260,6 +260,34 @@ public class XPathSelector implements Iterable<XdmItem> {
         }
     }
 
+    /**
+     * Reset this XPathSelector to the state it was in when it was first loaded, so that it can be used
+     * for a further evaluation of the expression, independent of the previous one. The context item and the
+     * values of all variables are cleared, any URI resolver or error reporter that was set is removed, and
+     * documents loaded during previous evaluations are released. Reusing an XPathSelector in this way
+     * avoids much of the cost of loading a new one.
+     *
+     * <p>An XPathSelector must not be reset while the results of a previous evaluation (for example, the
+     * iterator returned by {@link #iterator()}) are still being read.</p>
+     *
+     * @since 10.3
+     */
+
+    public void reset() {
+        dynamicContext.reset();
+        dynamicContext.getXPathContextObject().getController().resetDynamicState();
+    }
+
+    /**
+     * Get the compiled expression evaluated by this XPathSelector
+     *
+     * @return the underlying compiled expression
+     */
+
+    XPathExpression getUnderlyingExpression() {
+        return exp;
+    }
+
     /**
      * Get the underlying dynamic context object. This provides an escape hatch to the underlying
      * implementation classes, which contain methods that may change from one release to another.
@@ -216,6 +216,29 @@ public class Xslt30Transformer extends AbstractXsltTransformer {
         primed = true;
     }
 
+    /**
+     * Restore this transformer to the state it was in when it was first loaded from the {@link XsltExecutable},
+     * so that it can be used for a further, unrelated transformation without the cost of loading a new one.
+     * The global context item, the stylesheet parameters, the values of global variables, any documents read
+     * using <code>doc()</code> or <code>document()</code>, and all other settings made through this interface
+     * (such as the destination, message listener, URI resolver, and initial mode) are discarded.
+     *
+     * <p>This method must not be called while a transformation is in progress, and results obtained from
+     * the previous transformation must not be read after calling it.</p>
+     *
+     * @see XsltExecutable#releaseTransformer(Xslt30Transformer)
+     * @since 10.3
+     */
+
+    public synchronized void reset() {
+        ((PreparedStylesheet) controller.getExecutable()).resetController(controller);
+        resetSettings();
+        globalParameterSet = new GlobalParameterSet();
+        globalContextItem = null;
+        alreadyStripped = false;
+        primed = false;
+    }
+
 
     /**
      * Set parameters to be passed to the initial template. These are used
@@ -11,6 +11,7 @@ import net.sf.saxon.Configuration;
 import net.sf.saxon.PreparedStylesheet;
 import net.sf.saxon.expr.parser.OptimizerOptions;
 import net.sf.saxon.lib.ErrorReporter;
+import net.sf.saxon.lib.Feature;
 import net.sf.saxon.lib.StringCollator;
 import net.sf.saxon.om.NodeInfo;
 import net.sf.saxon.om.Sequence;
@@ -20,6 +21,7 @@ import net.sf.saxon.trans.CompilerInfo;
 import net.sf.saxon.trans.UncheckedXPathException;
 import net.sf.saxon.trans.XPathException;
 import net.sf.saxon.trans.XmlProcessingAbort;
+import net.sf.saxon.trans.packages.CompiledStylesheetCache;
 import net.sf.saxon.trans.packages.IPackageLoader;
 import net.sf.saxon.trans.packages.PackageDetails;
 import net.sf.saxon.trans.packages.PackageLibrary;
@@ -68,6 +70,7 @@ public class XsltCompiler {
     private Processor processor;
     private Configuration config;
     private CompilerInfo compilerInfo;
+    private CompiledStylesheetCache compiledStylesheetCache;
 
 
     /**
@@ -835,8 +838,20 @@ public class XsltCompiler {
         Objects.requireNonNull(source);
         try {
             CompilerInfo ci2 = new CompilerInfo(compilerInfo);
+            CompiledStylesheetCache cache = compiledStylesheetCache;
+            String key = cache == null ? null : cache.getKey(ci2, source);
+            if (key != null) {
+                StylesheetPackage pack = cache.load(config, key);
+                if (pack != null) {
+                    return new XsltPackage(this, pack).link();
+                }
+            }
             PreparedStylesheet pss = Compilation.compileSingletonPackage(config, ci2, source);
-            return new XsltExecutable(processor, pss);
+            XsltExecutable executable = new XsltExecutable(processor, pss);
+            if (key != null) {
+                cache.store(config, key, executable);
+            }
+            return executable;
         } catch (UncheckedXPathException e) {
             throw new SaxonApiException(e.getXPathException());
         } catch (XPathException | XmlProcessingAbort e) {
@@ -844,6 +859,27 @@ public class XsltCompiler {
         }
     }
 
+    /**
+     * Compile a stylesheet that is to be recompiled whenever one of its modules changes. This is intended
+     * for use during development, and in services whose stylesheets are edited while the service is running.
+     * The returned {@link ReloadableStylesheet} supplies the most recently compiled {@link XsltExecutable}; changes
+     * are detected by calling {@link ReloadableStylesheet#checkForChanges()}, or automatically after calling
+     * {@link ReloadableStylesheet#startWatching()}. Recompilation uses a snapshot of the properties of this
+     * <code>XsltCompiler</code> taken when this method is called.
+     *
+     * @param source the principal stylesheet module. This must have a system ID, from which the stylesheet
+     *               is read when it is recompiled.
+     * @return a {@code ReloadableStylesheet} holding the compiled stylesheet
+     * @throws SaxonApiException if the stylesheet contains static errors or if it cannot be read
+     * @throws IllegalArgumentException if the source has no system ID
+     * @since 10.3
+     */
+
+    public ReloadableStylesheet compileReloadable(Source source) throws SaxonApiException {
+        Objects.requireNonNull(source);
+        return new ReloadableStylesheet(this, source);
+    }
+
     /**
      * Get the underlying {@link CompilerInfo} object, which provides more detailed (but less stable) control
      * over some compilation options
@@ -856,6 +892,31 @@ public class XsltCompiler {
         return compilerInfo;
     }
 
+    /**
+     * Set a cache of compiled stylesheets, held in filestore, to be used by the {@link #compile(Source)}
+     * method. If a cache is set, a stylesheet whose modules and compilation options are unchanged since
+     * it was added to the cache is loaded from the cache rather than being compiled; a stylesheet that is
+     * not found is compiled and (if the configuration is able to export stylesheets) added to the cache.
+     *
+     * @param cache the cache to be used, or null if no cache is to be used (the default)
+     * @since 10.3
+     */
+
+    public void setCompiledStylesheetCache(CompiledStylesheetCache cache) {
+        this.compiledStylesheetCache = cache;
+    }
+
+    /**
+     * Get the cache of compiled stylesheets used by the {@link #compile(Source)} method, if any
+     *
+     * @return the cache, or null if none has been set
+     * @since 10.3
+     */
+
+    public CompiledStylesheetCache getCompiledStylesheetCache() {
+        return compiledStylesheetCache;
+    }
+
     /**
      * Say whether just-in-time compilation of template rules should be used.
      * @param jit true if just-in-time compilation is to be enabled. With this option enabled,
@@ -895,6 +956,34 @@ public class XsltCompiler {
         return compilerInfo.isJustInTimeCompilation();
     }
 
+    /**
+     * Say whether template rules and named templates should be compiled and optimized in parallel.
+     * This can reduce the compile time of large stylesheets on a multi-core machine. Other declarations,
+     * such as functions and global variables, are still compiled one at a time, before the templates
+     * that use them. The default is taken from the configuration property
+     * {@link Feature#XSLT_PARALLEL_COMPILATION}.
+     * <p>With this option, static errors found in different templates may be reported in a different
+     * order from one compilation to the next.</p>
+     *
+     * @param parallel true if templates are to be compiled in parallel
+     * @since 10.3
+     */
+
+    public void setParallelCompilation(boolean parallel) {
+        compilerInfo.setParallelCompilation(parallel);
+    }
+
+    /**
+     * Ask whether template rules and named templates are to be compiled and optimized in parallel
+     *
+     * @return true if templates are to be compiled in parallel
+     * @since 10.3
+     */
+
+    public boolean isParallelCompilation() {
+        return compilerInfo.isParallelCompilation();
+    }
+
     /**
      * Get the value of the default namespace for elements and types
      * @return the value that was set using the method {@link #getDefaultElementNamespace()},
@@ -21,6 +21,9 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * An XsltExecutable represents the compiled form of a stylesheet.
@@ -28,13 +31,25 @@ import java.util.Map;
  * <p>An XsltExecutable is immutable, and therefore thread-safe.
  * It is simplest to load a new XsltTransformer each time the stylesheet is to be run.
  * However, the XsltTransformer is serially reusable within a single thread. </p>
+ * <p>Applications that run many small transformations can avoid the cost of loading a new
+ * {@link Xslt30Transformer} for each one by using {@link #acquireTransformer()} and
+ * {@link #releaseTransformer(Xslt30Transformer)}, which take transformers from a pool held by the
+ * XsltExecutable.</p>
  * <p>An XsltExecutable is created by using one of the <code>compile</code> methods on the
  * {@link XsltCompiler} class.</p>
  */
 public class XsltExecutable {
 
+    /**
+     * The maximum number of idle Xslt30Transformers held in the pool
+     */
+
+    private static final int MAX_POOLED_TRANSFORMERS = 64;
+
     Processor processor;
     PreparedStylesheet preparedStylesheet;
+    private final Queue<Xslt30Transformer> transformerPool = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger transformerPoolSize = new AtomicInteger();
 
     protected XsltExecutable(Processor processor, PreparedStylesheet preparedStylesheet) {
         this.processor = processor;
@@ -93,6 +108,54 @@ public class XsltExecutable {
         return new Xslt30Transformer(processor, preparedStylesheet.newController(), preparedStylesheet.getCompileTimeParams());
     }
 
+    /**
+     * Get an Xslt30Transformer, taken from a pool of transformers held by this XsltExecutable if one
+     * is available, or newly loaded otherwise. The transformer is in the same state as one returned by
+     * {@link #load30()}. The calling thread has exclusive use of the transformer until it returns it to the
+     * pool by calling {@link #releaseTransformer(Xslt30Transformer)}.
+     *
+     * <p>This method is thread-safe.</p>
+     *
+     * @return an Xslt30Transformer ready to be initialized and run
+     * @since 10.3
+     */
+
+    public Xslt30Transformer acquireTransformer() {
+        Xslt30Transformer transformer = transformerPool.poll();
+        if (transformer == null) {
+            return load30();
+        }
+        transformerPoolSize.decrementAndGet();
+        return transformer;
+    }
+
+    /**
+     * Return an Xslt30Transformer to the pool held by this XsltExecutable, so that it can be reused by
+     * a later call on {@link #acquireTransformer()}. The transformer is reset (see {@link Xslt30Transformer#reset()}),
+     * which discards its parameters, global variables, documents, and other settings. The caller must not use
+     * the transformer, or read any results held in memory by it, after releasing it. If the pool is full,
+     * the transformer is simply discarded.
+     *
+     * <p>This method is thread-safe.</p>
+     *
+     * @param transformer a transformer obtained from {@link #acquireTransformer()} or {@link #load30()}
+     *                    on this XsltExecutable
+     * @throws IllegalArgumentException if the transformer was loaded from a different XsltExecutable
+     * @since 10.3
+     */
+
+    public void releaseTransformer(Xslt30Transformer transformer) {
+        if (transformer.getUnderlyingController().getExecutable() != preparedStylesheet) {
+            throw new IllegalArgumentException("The Xslt30Transformer was not loaded from this XsltExecutable");
+        }
+        transformer.reset();
+        if (transformerPoolSize.incrementAndGet() <= MAX_POOLED_TRANSFORMERS) {
+            transformerPool.offer(transformer);
+        } else {
+            transformerPoolSize.decrementAndGet();
+        }
+    }
+
     /**
      * Produce a diagnostic representation of the compiled stylesheet, in XML form.
      * <p><i>The detailed form of this representation is not stable (or even documented).</i></p>
@@ -108,13 +108,30 @@ public class Compilation {
      */
 
     public static PreparedStylesheet compileSingletonPackage(Configuration config, CompilerInfo compilerInfo, Source source) throws XPathException {
+        return compileSingletonPackage(new Compilation(config, compilerInfo), source);
+    }
+
+    /**
+     * Static factory method: Compile an XSLT stylesheet consisting of a single package, using a
+     * supplied Compilation. This allows the caller to examine the compilation afterwards, for example
+     * to find the stylesheet modules that were read.
+     *
+     * @param compilation  a new Compilation, not previously used
+     * @param source       the source of the root stylesheet module in the package to be compiled. This may
+     *                     contain an xsl:package element at its root, or it may be a conventional xsl:stylesheet or xsl:transform,
+     *                     or a "simplified stylesheet" rooted at a literal result element
+     * @return the PreparedStylesheet representing the result of the compilation
+     * @throws XPathException if any errors occur. The errors will have been reported to the ErrorListener
+     *                        contained in the CompilerInfo.
+     * @since 10.3
+     */
+
+    public static PreparedStylesheet compileSingletonPackage(Compilation compilation, Source source) throws XPathException {
         try {
-            Compilation compilation = new Compilation(config, compilerInfo);
             return StylesheetModule.loadStylesheet(source, compilation);
-
         } catch (XPathException err) {
             if (!err.hasBeenReported()) {
-                compilerInfo.getErrorReporter().report(new XmlProcessingException(err));
+                compilation.getCompilerInfo().getErrorReporter().report(new XmlProcessingException(err));
             }
             throw err;
         }
@@ -436,12 +453,13 @@ public class Compilation {
 
     /**
      * Report a compile time error. This calls the errorListener to output details
-     * of the error, and increments an error count.
+     * of the error, and increments an error count. The methods for reporting errors and warnings
+     * are synchronized, because templates may be compiled in parallel.
      *
      * @param err the exception containing details of the error
      */
 
-    public void reportError(XmlProcessingError err) {
+    public synchronized void reportError(XmlProcessingError err) {
         ErrorReporter reporter = compilerInfo.getErrorReporter();
         if (reporter != null) {
             reporter.report(err);
@@ -459,7 +477,7 @@ public class Compilation {
      * @param err the exception containing details of the error
      */
 
-    public void reportError(XPathException err) {
+    public synchronized void reportError(XPathException err) {
         err.setHostLanguage(HostLanguage.XSLT);
         ErrorReporter el = compilerInfo.getErrorReporter();
         if (el == null) {
@@ -484,7 +502,7 @@ public class Compilation {
      * @return the number of errors reported
      */
 
-    public int getErrorCount() {
+    public synchronized int getErrorCount() {
         return errorCount;
     }
 
@@ -496,7 +514,7 @@ public class Compilation {
      *            reported
      */
 
-    public void reportWarning(XPathException err) {
+    public synchronized void reportWarning(XPathException err) {
         err.setHostLanguage(HostLanguage.XSLT);
         ErrorReporter reporter = compilerInfo.getErrorReporter();
         if (reporter == null) {
@@ -509,7 +527,7 @@ public class Compilation {
         }
     }
 
-    public void reportWarning(String message, String errorCode, Location location) {
+    public synchronized void reportWarning(String message, String errorCode, Location location) {
         XmlProcessingIncident error = new XmlProcessingIncident(message, errorCode, location).asWarning();
         error.setHostLanguage(HostLanguage.XSLT);
         compilerInfo.getErrorReporter().report(error);
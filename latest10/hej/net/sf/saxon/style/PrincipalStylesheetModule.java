@@ -38,6 +38,7 @@ import net.sf.saxon.z.IntHashMap;
 
 import javax.xml.transform.URIResolver;
 import java.util.*;
+import java.util.stream.IntStream;
 
 
 /**
@@ -122,6 +123,7 @@ public class PrincipalStylesheetModule extends StylesheetModule implements Globa
         stylesheetPackage.setRelocatable(compilerInfo.isRelocatable());
         stylesheetPackage.setJustInTimeCompilation(compilerInfo.isJustInTimeCompilation());
         stylesheetPackage.setImplicitPackage(!sourceElement.getLocalPart().equals("package"));
+        stylesheetPackage.setCachingDocuments(sourceElement.isCachingDocuments());
 
         keyManager = stylesheetPackage.getKeyManager();
         decimalFormatManager = stylesheetPackage.getDecimalFormatManager();
@@ -231,7 +233,7 @@ public class PrincipalStylesheetModule extends StylesheetModule implements Globa
      * @param action the callback action
      */
 
-    public void addFixupAction(Action action) {
+    public synchronized void addFixupAction(Action action) {
         fixupActions.add(action);
     }
 
@@ -1235,11 +1237,19 @@ public class PrincipalStylesheetModule extends StylesheetModule implements Globa
             // Note, some declarations (templates) need to be compiled repeatedly if the module
             // is imported repeatedly; others (variables, functions) do not
 
+            // In parallel mode, templates are compiled after all other declarations, so that nothing they
+            // refer to is changing while they are being compiled
+
+            List<ComponentDeclaration> templates = isParallelCompilation(compilation) ? new ArrayList<>() : null;
             for (ComponentDeclaration decl : topLevel) {
                 StyleElement snode = decl.getSourceElement();
                 if (!snode.isActionCompleted(StyleElement.ACTION_COMPILE)) {
                     snode.setActionCompleted(StyleElement.ACTION_COMPILE);
-                    snode.compileDeclaration(compilation, decl);
+                    if (templates != null && snode instanceof XSLTemplate) {
+                        templates.add(decl);
+                    } else {
+                        snode.compileDeclaration(compilation, decl);
+                    }
                 }
             }
 
@@ -1247,6 +1257,13 @@ public class PrincipalStylesheetModule extends StylesheetModule implements Globa
                 timer.report("compile top-level objects (" + topLevel.size() + ")");
             }
 
+            if (templates != null) {
+                processInParallel(templates, decl -> decl.getSourceElement().compileDeclaration(compilation, decl));
+                if (Compilation.TIMING) {
+                    timer.report("compile templates in parallel (" + templates.size() + ")");
+                }
+            }
+
             // Call type-check method for each user-defined function in the stylesheet. This is no longer
             // done during the optimize step, to avoid functions being inlined before they are type-checked.
 
@@ -1271,7 +1288,7 @@ public class PrincipalStylesheetModule extends StylesheetModule implements Globa
 
             // Call optimize() method for each top-level declaration
 
-            optimizeTopLevel();
+            optimizeTopLevel(compilation, timer);
 
             if (Compilation.TIMING) {
                 timer.report("optimize top level");
@@ -1467,20 +1484,107 @@ public class PrincipalStylesheetModule extends StylesheetModule implements Globa
     }
 
     public void optimizeTopLevel() throws XPathException {
+        optimizeTopLevel(getRootElement().getCompilation(), null);
+    }
+
+    private void optimizeTopLevel(Compilation compilation, Timer timer) throws XPathException {
         // Call optimize method for each top-level object in the stylesheet
         // But for functions, do it only for those of highest precedence.
+        // In parallel mode, templates are optimized after all the other declarations.
 
+        List<ComponentDeclaration> templates = isParallelCompilation(compilation) ? new ArrayList<>() : null;
         for (ComponentDeclaration decl : topLevel) {
             StyleElement node = decl.getSourceElement();
             if (node instanceof StylesheetComponent && !(node instanceof XSLFunction) &&
                     !node.isActionCompleted(StyleElement.ACTION_OPTIMIZE)) {
                 node.setActionCompleted(StyleElement.ACTION_OPTIMIZE);
+                if (templates != null && node instanceof XSLTemplate) {
+                    templates.add(decl);
+                    continue;
+                }
                 ((StylesheetComponent) node).optimize(decl);
             }
-            if (node instanceof XSLTemplate) {
+            if (templates == null && node instanceof XSLTemplate) {
                 ((XSLTemplate) node).allocatePatternSlotNumbers();
             }
         }
+
+        if (templates != null) {
+            if (Compilation.TIMING && timer != null) {
+                timer.report("optimize declarations other than templates");
+            }
+            processInParallel(templates, decl -> ((XSLTemplate) decl.getSourceElement()).optimize(decl));
+            if (Compilation.TIMING && timer != null) {
+                timer.report("optimize templates in parallel (" + templates.size() + ")");
+            }
+            // Pattern slots are allocated in the mode, which is shared by many templates
+            for (ComponentDeclaration decl : topLevel) {
+                if (decl.getSourceElement() instanceof XSLTemplate) {
+                    ((XSLTemplate) decl.getSourceElement()).allocatePatternSlotNumbers();
+                }
+            }
+        }
+    }
+
+    /**
+     * Ask whether templates are to be compiled and optimized in parallel. This is not done when the
+     * compilation injects code for tracing, because the code injector is not required to be thread-safe.
+     *
+     * @param compilation the compilation episode
+     * @return true if templates are to be processed in parallel
+     */
+
+    private static boolean isParallelCompilation(Compilation compilation) {
+        CompilerInfo info = compilation.getCompilerInfo();
+        return info.isParallelCompilation() && info.getCodeInjector() == null &&
+                !info.isCompileWithTracing() && !compilation.getConfiguration().isCompileWithTracing();
+    }
+
+    /**
+     * An action applied to a declaration by {@link #processInParallel}
+     */
+
+    @FunctionalInterface
+    private interface DeclarationAction {
+        void process(ComponentDeclaration decl) throws XPathException;
+    }
+
+    /**
+     * Apply an action to each of a list of declarations, in parallel, using the threads of the common
+     * fork-join pool as well as the calling thread. Errors reported using the static error reporting methods
+     * may be reported in any order. If the action throws an exception for any declaration, the exception
+     * for the first such declaration in the list is rethrown once all the declarations have been processed.
+     *
+     * @param decls  the declarations to be processed. Each must be independent of the others: that is,
+     *               processing one declaration must not modify any data that is read or modified
+     *               when processing another.
+     * @param action the action to be applied to each declaration
+     * @throws XPathException if the action throws an exception for any declaration
+     */
+
+    private static void processInParallel(List<ComponentDeclaration> decls, DeclarationAction action)
+            throws XPathException {
+        // Initialize data that is computed lazily and shared by sibling declarations, such as the
+        // retained static context of the containing module, before any threads are started
+        for (ComponentDeclaration decl : decls) {
+            decl.getSourceElement().makeRetainedStaticContext();
+        }
+        if (!decls.isEmpty()) {
+            decls.get(0).getSourceElement().getConfiguration().obtainOptimizer();
+        }
+        XPathException[] errors = new XPathException[decls.size()];
+        IntStream.range(0, decls.size()).parallel().forEach(i -> {
+            try {
+                action.process(decls.get(i));
+            } catch (XPathException e) {
+                errors[i] = e;
+            }
+        });
+        for (XPathException e : errors) {
+            if (e != null) {
+                throw e;
+            }
+        }
     }
 
 
@@ -17,6 +17,7 @@ import net.sf.saxon.om.NoElementsSpaceStrippingRule;
 import net.sf.saxon.om.NodeInfo;
 import net.sf.saxon.om.StylesheetSpaceStrippingRule;
 import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.trans.packages.BinaryPackageReader;
 import net.sf.saxon.trans.packages.IPackageLoader;
 import net.sf.saxon.tree.linked.DocumentImpl;
 import net.sf.saxon.tree.linked.LinkedTreeBuilder;
@@ -31,6 +32,7 @@ import javax.xml.transform.Source;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.URIResolver;
 import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamSource;
 import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Comparator;
@@ -225,8 +227,21 @@ public class StylesheetModule {
         // build the stylesheet document
 
         ParseOptions options = makeStylesheetParseOptions(styleSource, pipe);
+        // Open the source once, so that the stream examined for a binary package is the one that is parsed
+        Source input = styleSource instanceof StreamSource
+                ? BinaryPackageReader.open((StreamSource) styleSource) : styleSource;
         try {
-            sendStylesheetSource(styleSource, config, sourcePipeline, options);
+            if (input instanceof StreamSource && BinaryPackageReader.isBinaryPackage((StreamSource) input)) {
+                // A pre-compiled package in binary form
+                IPackageLoader loader = config.makePackageLoader();
+                StylesheetPackage pack = loader.loadPackage(input);
+                compilation.setPackageData(pack);
+                PreparedStylesheet pss = new PreparedStylesheet(compilation);
+                pack.checkForAbstractComponents();
+                pack.updatePreparedStylesheet(pss);
+                return pss;
+            }
+            sendStylesheetSource(input, config, sourcePipeline, options);
 
             NodeInfo doc;
             if (valve.wasDiverted()) {
@@ -267,6 +282,9 @@ public class StylesheetModule {
             }
             throw err;
         } finally {
+            if (input != styleSource) {
+                ParseOptions.close(input);
+            }
             if (options.isPleaseCloseAfterUse()) {
                 ParseOptions.close(styleSource);
             }
@@ -26,6 +26,7 @@ public class XSLPackage extends XSLModuleRoot {
     private String nameAtt = null;
     private PackageVersion packageVersion = null;
     private boolean declaredModes = true;
+    private boolean cachingDocuments = false;
     private boolean prepared = false;
 
     /**
@@ -113,6 +114,8 @@ public class XSLPackage extends XSLModuleRoot {
 
             } else if (lexicalName.equals("input-type-annotations")) {
                 inputTypeAnnotationsAtt = value;
+            } else if (attName.hasURI(NamespaceConstant.SAXON) && attName.getLocalPart().equals("cache-documents")) {
+                cachingDocuments = processBooleanAttribute("saxon:cache-documents", value);
             } else {
                 checkUnknownAttribute(attName);
             }
@@ -165,6 +168,17 @@ public class XSLPackage extends XSLModuleRoot {
         return declaredModes;
     }
 
+    /**
+     * Ask whether documents read by doc() and document() are to be held in the Configuration's shared
+     * document cache (the value of the saxon:cache-documents attribute)
+     * @return true if saxon:cache-documents="yes" is specified
+     */
+
+    public boolean isCachingDocuments() {
+        prepareAttributes();
+        return cachingDocuments;
+    }
+
     /**
      * Recursive walk through the stylesheet to validate all nodes
      * @param decl not used
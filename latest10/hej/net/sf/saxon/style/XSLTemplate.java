@@ -1054,6 +1054,7 @@ public final class XSLTemplate extends StyleElement implements StylesheetCompone
                             if (m2 != match) {
                                 r.setPattern(m2);
                             }
+                            opt.injectCompilationCandidates(m2);
                         }
 
                         if (visitor.getConfiguration().isDeferredByteCode(HostLanguage.XSLT) && !isTailRecursive) {
@@ -23,6 +23,7 @@ import net.sf.saxon.type.TypeHierarchy;
 import net.sf.saxon.value.SequenceType;
 
 import javax.xml.transform.URIResolver;
+import java.util.Arrays;
 
 /**
  * This object represents the dynamic XPath execution context for use in the free-standing Saxon XPath API.
@@ -35,6 +36,7 @@ public class XPathDynamicContext {
     private ItemType contextItemType;
     private XPathContextMajor contextObject;
     private SlotManager stackFrameMap;
+    private ManualIterator contextIterator;
 
     protected XPathDynamicContext(ItemType contextItemType, XPathContextMajor contextObject, SlotManager stackFrameMap) {
         this.contextItemType = contextItemType;
@@ -62,8 +64,12 @@ public class XPathDynamicContext {
             throw new XPathException("Supplied context item does not match required context item type " +
                                              contextItemType);
         }
-        ManualIterator iter = new ManualIterator(item);
-        contextObject.setCurrentIterator(iter);
+        if (contextIterator == null) {
+            contextIterator = new ManualIterator(item);
+        } else {
+            contextIterator.setContextItem(item);
+        }
+        contextObject.setCurrentIterator(contextIterator);
     }
 
     /**
@@ -96,13 +102,13 @@ public class XPathDynamicContext {
                 throw err;
             }
         }
-        SequenceIterator iter = value.iterate();
-        Item item;
-        while ((item = iter.next()) != null) {
-            if (item instanceof NodeInfo && !((NodeInfo) item).getConfiguration().isCompatible(contextObject.getConfiguration())) {
-                throw new XPathException(
-                        "Supplied node must be built using the same or a compatible Configuration",
-                        SaxonErrorCode.SXXP0004);
+        if (value instanceof Item) {
+            checkCompatibleNode((Item) value);
+        } else {
+            SequenceIterator iter = value.iterate();
+            Item item;
+            while ((item = iter.next()) != null) {
+                checkCompatibleNode(item);
             }
         }
         int slot = variable.getLocalSlotNumber();
@@ -115,6 +121,36 @@ public class XPathDynamicContext {
         contextObject.setLocalVariable(slot, value);
     }
 
+    private void checkCompatibleNode(Item item) throws XPathException {
+        if (item instanceof NodeInfo && !((NodeInfo) item).getConfiguration().isCompatible(contextObject.getConfiguration())) {
+            throw new XPathException(
+                    "Supplied node must be built using the same or a compatible Configuration",
+                    SaxonErrorCode.SXXP0004);
+        }
+    }
+
+    /**
+     * Reset the dynamic context so that it can be used for a further evaluation of the expression,
+     * independent of the previous one. The context item and the values of all variables are cleared, and
+     * any URI resolver or error reporter set locally is removed. The stack frame and other internal objects
+     * are retained, so that reusing a dynamic context is cheaper than creating a new one.
+     *
+     * <p>This method does not reset the state held in the underlying {@link net.sf.saxon.Controller},
+     * which may be shared with other dynamic contexts.</p>
+     *
+     * @since 10.3
+     */
+
+    public void reset() {
+        if (contextIterator != null) {
+            contextIterator.setContextItem(null);
+        }
+        contextObject.setCurrentIterator(null);
+        Arrays.fill(contextObject.getStackFrame().getStackFrameValues(), null);
+        contextObject.setURIResolver(null);
+        contextObject.setErrorReporter(null);
+    }
+
     /**
      * Set an object that will be used to resolve URIs used in
      * document(), etc.  The URIResolver is set locally to this XPathContext
@@ -18,6 +18,7 @@ import net.sf.saxon.om.SequenceIterator;
 import net.sf.saxon.trans.XPathException;
 import net.sf.saxon.type.ItemType;
 import net.sf.saxon.type.TypeHierarchy;
+import net.sf.saxon.value.Cardinality;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -204,6 +205,10 @@ public class XPathExpression {
 
     /*@Nullable*/
     public Item evaluateSingle(XPathDynamicContext context) throws XPathException {
+        if (!Cardinality.allowsMany(expression.getCardinality())) {
+            // avoid creating an iterator when the expression delivers at most one item
+            return expression.evaluateItem(context.getXPathContextObject());
+        }
         SequenceIterator iter = expression.iterate(context.getXPathContextObject());
         Item result = iter.next();
         iter.close();
@@ -47,6 +47,7 @@ public class CompilerInfo {
     private boolean assertionsEnabled = false;
     private String targetEdition = "HE";
     private boolean relocatable = false;
+    private boolean parallelCompilation = false;
     private Collection<QueryLibrary> queryLibraries;
     private OptimizerOptions optimizerOptions;
     private String defaultNamespaceForElementsAndTypes = "";
@@ -99,6 +100,7 @@ public class CompilerInfo {
         targetEdition = info.targetEdition;
         packageLibrary = new PackageLibrary(info.packageLibrary);
         relocatable = info.relocatable;
+        parallelCompilation = info.parallelCompilation;
         optimizerOptions = info.optimizerOptions;
         queryLibraries = info.queryLibraries;
         defaultNamespaceForElementsAndTypes = info.defaultNamespaceForElementsAndTypes;
@@ -139,6 +141,31 @@ public class CompilerInfo {
         return optimizerOptions.isSet(OptimizerOptions.JIT);
     }
 
+    /**
+     * Say whether template rules and named templates should be compiled and optimized in parallel, using
+     * the threads of the common fork-join pool. Other declarations, such as functions and global variables,
+     * are always compiled sequentially, before the templates that refer to them. With this option, errors in
+     * different templates may be reported in a different order from one compilation to the next.
+     *
+     * @param parallel true if templates are to be compiled in parallel
+     * @since 10.3
+     */
+
+    public void setParallelCompilation(boolean parallel) {
+        parallelCompilation = parallel;
+    }
+
+    /**
+     * Ask whether template rules and named templates are to be compiled and optimized in parallel
+     *
+     * @return true if templates are to be compiled in parallel
+     * @since 10.3
+     */
+
+    public boolean isParallelCompilation() {
+        return parallelCompilation;
+    }
+
     /**
      * Set the URI Resolver to be used in this compilation episode.
      *
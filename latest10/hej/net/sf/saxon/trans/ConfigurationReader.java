@@ -348,6 +348,7 @@ public class ConfigurationReader implements ContentHandler, NamespaceResolver {
         applyProperty(props, "allowSyntaxExtensions", Feature.ALLOW_SYNTAX_EXTENSIONS);
         applyProperty(props, "collationUriResolver", Feature.COLLATION_URI_RESOLVER_CLASS);
         applyProperty(props, "collectionFinder", Feature.COLLECTION_FINDER_CLASS);
+        applyProperty(props, "collectionPrefetch", Feature.COLLECTION_PREFETCH);
         applyProperty(props, "compileWithTracing", Feature.COMPILE_WITH_TRACING);
         applyProperty(props, "debugByteCode", Feature.DEBUG_BYTE_CODE);
         applyProperty(props, "debugByteCodeDirectory", Feature.DEBUG_BYTE_CODE_DIR);
@@ -355,6 +356,8 @@ public class ConfigurationReader implements ContentHandler, NamespaceResolver {
         applyProperty(props, "defaultCollection", Feature.DEFAULT_COLLECTION);
         applyProperty(props, "defaultRegexEngine", Feature.DEFAULT_REGEX_ENGINE);
         applyProperty(props, "displayByteCode", Feature.DISPLAY_BYTE_CODE);
+        applyProperty(props, "documentCacheSize", Feature.DOCUMENT_CACHE_SIZE);
+        applyProperty(props, "documentCacheTimeToLive", Feature.DOCUMENT_CACHE_TIME_TO_LIVE);
         applyProperty(props, "dtdValidation", Feature.DTD_VALIDATION);
         applyProperty(props, "dtdValidationRecoverable", Feature.DTD_VALIDATION_RECOVERABLE);
         applyProperty(props, "eagerEvaluation", Feature.EAGER_EVALUATION);
@@ -387,6 +390,10 @@ public class ConfigurationReader implements ContentHandler, NamespaceResolver {
         applyProperty(props, "suppressEvaluationExpiryWarning", Feature.SUPPRESS_EVALUATION_EXPIRY_WARNING);
         applyProperty(props, "suppressXPathWarnings", Feature.SUPPRESS_XPATH_WARNINGS);
         applyProperty(props, "suppressXsltNamespaceCheck", Feature.SUPPRESS_XSLT_NAMESPACE_CHECK);
+        applyProperty(props, "temporaryFileDirectory", Feature.TEMPORARY_FILE_DIRECTORY);
+        applyProperty(props, "thresholdForExpressionCompilation", Feature.THRESHOLD_FOR_EXPRESSION_COMPILATION);
+        applyProperty(props, "thresholdForExternalGrouping", Feature.THRESHOLD_FOR_EXTERNAL_GROUPING);
+        applyProperty(props, "thresholdForExternalSort", Feature.THRESHOLD_FOR_EXTERNAL_SORT);
         applyProperty(props, "thresholdForHotspotByteCode", Feature.THRESHOLD_FOR_HOTSPOT_BYTE_CODE);
         applyProperty(props, "timing", Feature.TIMING);
         applyProperty(props, "traceExternalFunctions", Feature.TRACE_EXTERNAL_FUNCTIONS);
@@ -683,6 +690,7 @@ public class ConfigurationReader implements ContentHandler, NamespaceResolver {
         applyProperty(props, "initialTemplate", Feature.XSLT_INITIAL_TEMPLATE);
         applyProperty(props, "messageEmitter", Feature.MESSAGE_EMITTER_CLASS);
         applyProperty(props, "outputUriResolver", Feature.OUTPUT_URI_RESOLVER_CLASS);
+        applyProperty(props, "parallelCompilation", Feature.XSLT_PARALLEL_COMPILATION);
         applyProperty(props, "recoveryPolicy", Feature.RECOVERY_POLICY_NAME);
         applyProperty(props, "resultDocumentThreads", Feature.RESULT_DOCUMENT_THREADS);
         applyProperty(props, "schemaAware", Feature.XSLT_SCHEMA_AWARE);
@@ -34,6 +34,7 @@ import net.sf.saxon.style.PackageVersion;
 import net.sf.saxon.style.StylesheetFunctionLibrary;
 import net.sf.saxon.style.StylesheetPackage;
 import net.sf.saxon.sxpath.IndependentContext;
+import net.sf.saxon.trans.packages.BinaryPackageReader;
 import net.sf.saxon.trans.packages.IPackageLoader;
 import net.sf.saxon.trans.rules.BuiltInRuleSet;
 import net.sf.saxon.trans.rules.Rule;
@@ -78,6 +79,7 @@ public class PackageLoaderHE implements IPackageLoader {
     private final Map<Component, String> externalReferences = new HashMap<>();
     private String relocatableBase = null;
     private NestedIntegerValue originalVersion = null;
+    private boolean lazyLoading = false;
 
     public PackageLoaderHE(Configuration config) {
         this.config = config;
@@ -132,9 +134,55 @@ public class PackageLoaderHE implements IPackageLoader {
         completionActions.add(action);
     }
 
+    /**
+     * Say whether the bodies of functions, named templates, and template rules are to be built lazily.
+     * If so, the expression tree for the body of each of these components is built from the export
+     * file the first time the component is used, rather than when the package is loaded, so the cost of
+     * loading a large package is paid only for the components that a transformation actually invokes.
+     * The export file is retained in memory until the package is discarded. Errors in the body of a
+     * component are then reported when the component is first used, rather than when the package is
+     * loaded. The default is false.
+     *
+     * @param lazy true if the bodies of components are to be built when first used
+     * @since 10.3
+     */
+
+    public void setLazyLoading(boolean lazy) {
+        this.lazyLoading = lazy;
+    }
+
+    /**
+     * Ask whether the bodies of functions, named templates, and template rules are to be built lazily
+     *
+     * @return true if the bodies of components are built when first used
+     * @since 10.3
+     */
+
+    public boolean isLazyLoading() {
+        return lazyLoading;
+    }
+
     @Override
     public StylesheetPackage loadPackage(Source source) throws XPathException {
 
+        if (source instanceof StreamSource) {
+            // Open the source once, so that the stream examined for a binary package is the one that is read
+            StreamSource input = BinaryPackageReader.open((StreamSource) source);
+            if (input != source) {
+                try {
+                    return loadPackage(input);
+                } finally {
+                    ParseOptions.close(input);
+                }
+            }
+            if (BinaryPackageReader.isBinaryPackage(input)) {
+                // The binary form carries its own checksum, which is checked by the reader
+                NodeInfo doc = new BinaryPackageReader(config).read(input);
+                setLazyLoading(true);
+                return loadPackageDoc(doc);
+            }
+        }
+
         ParseOptions options = new ParseOptions();
         options.setSpaceStrippingRule(AllElementsSpaceStrippingRule.getInstance());
         options.setSchemaValidationMode(Validation.SKIP);
@@ -470,7 +518,9 @@ public class PackageLoaderHE implements IPackageLoader {
                 Optimizer optimizer = config.obtainOptimizer();
                 StructuredQName name = cc.getComponentName();
                 int evaluationModes = Expression.ITERATE_METHOD | Expression.PROCESS_METHOD;
-                if (codeGen) {
+                if (lazyLoading) {
+                    // byte code candidates are made when each deferred body is built
+                } else if (codeGen) {
                     String objectName = name == null ? ("h" + component.hashCode()) : name.getLocalPart();
                     cc.setBody(optimizer.makeByteCodeCandidate(cc, cc.getBody(), objectName, evaluationModes));
                     optimizer.injectByteCodeCandidates(cc.getBody());
@@ -591,6 +641,9 @@ public class PackageLoaderHE implements IPackageLoader {
         NodeInfo bodyElement = getChildWithRole(templateElement, "body");
         if (bodyElement == null) {
             template.setBody(Literal.makeEmptySequence());
+        } else if (lazyLoading) {
+            template.setDeferredBody(
+                    makeDeferredBody(bodyElement, template, Collections.emptyList(), null, templateName.getLocalPart()));
         } else {
             Expression body = loadExpression(bodyElement);
             template.setBody(body);
@@ -602,7 +655,7 @@ public class PackageLoaderHE implements IPackageLoader {
 
     private UserFunction readGlobalFunction(NodeInfo functionElement) throws XPathException {
         localBindings = new Stack<>();
-        UserFunction function = readFunction(functionElement);
+        UserFunction function = readFunction(functionElement, lazyLoading);
         userFunctions.put(function.getSymbolicName(), function);
         underriding.addFunction(function);
         return function;
@@ -611,6 +664,10 @@ public class PackageLoaderHE implements IPackageLoader {
     private UserFunction currentFunction;
 
     public UserFunction readFunction(NodeInfo functionElement) throws XPathException {
+        return readFunction(functionElement, false);
+    }
+
+    private UserFunction readFunction(NodeInfo functionElement, boolean deferBody) throws XPathException {
         StylesheetPackage pack = packStack.peek();
         StructuredQName functionName = getQNameAttribute(functionElement, "name");
         int slots = getIntegerAttribute(functionElement, "slots");
@@ -683,6 +740,10 @@ public class PackageLoaderHE implements IPackageLoader {
         NodeInfo bodyElement = getChildWithRole(functionElement, "body");
         if (bodyElement == null) {
             function.setBody(Literal.makeEmptySequence());
+        } else if (deferBody) {
+            String objectName = function.getDeclaredStreamability() == FunctionStreamability.UNCLASSIFIED
+                    ? functionName.getLocalPart() : null;
+            function.setDeferredBody(makeDeferredBody(bodyElement, function, params, function, objectName));
         } else {
             Expression body = loadExpression(bodyElement);
             function.setBody(body);
@@ -810,6 +871,9 @@ public class PackageLoaderHE implements IPackageLoader {
             NodeInfo bodyElement = getChildWithRole(templateRuleElement, "action");
             if (bodyElement == null) {
                 template.setBody(Literal.makeEmptySequence());
+            } else if (lazyLoading) {
+                template.setDeferredBody(
+                        makeDeferredBody(bodyElement, template, Collections.emptyList(), null, "match=\"" + match + '"'));
             } else {
                 Expression body = loadExpression(bodyElement);
                 template.setBody(body);
@@ -821,6 +885,9 @@ public class PackageLoaderHE implements IPackageLoader {
             mode.addRule(match, rule);
             mode.setHasRules(true);
         }
+        if (config.obtainOptimizer().isOptionSet(OptimizerOptions.RULE_SET)) {
+            mode.optimizeRules();
+        }
 
         addCompletionAction(mode::prepareStreamability);
 
@@ -829,6 +896,67 @@ public class PackageLoaderHE implements IPackageLoader {
 
     }
 
+    /**
+     * Create the deferred body of a component, used when loading lazily. The body is built from its element
+     * in the export file when the component is first used, in the same context as if it had been built when
+     * the package was loaded.
+     *
+     * @param bodyElement the element holding the exported body
+     * @param owner       the component whose body this is
+     * @param params      the function parameters in scope within the body; empty for templates
+     * @param function    the function whose body this is, or null for templates
+     * @param objectName  the name to be used for the byte code candidate, or null if byte code generation
+     *                    does not apply
+     * @return the deferred body
+     */
+
+    private DeferredBody makeDeferredBody(NodeInfo bodyElement, ExpressionOwner owner,
+                                          List<? extends LocalBinding> params, UserFunction function,
+                                          String objectName) {
+        final StylesheetPackage pack = packStack.peek();
+        final RetainedStaticContext rsc = contextStack.peek();
+        // Instructions with effects on the package as a whole must be noticed now
+        if (bodyElement.iterateAxis(AxisInfo.DESCENDANT_OR_SELF,
+                                    new NameTest(Type.ELEMENT, NamespaceConstant.SAXON_XSLT_EXPORT, "resultDoc", config.getNamePool()))
+                .next() != null) {
+            pack.setCreatesSecondaryResultDocuments(true);
+        }
+        return new DeferredBody(this, () -> {
+            Stack<LocalBinding> savedBindings = localBindings;
+            UserFunction savedFunction = currentFunction;
+            int actionCount = completionActions.size();
+            packStack.push(pack);
+            contextStack.push(rsc);
+            fixups.push(new ArrayList<>());
+            localBindings = new Stack<>();
+            localBindings.addAll(params);
+            currentFunction = function;
+            try {
+                Expression body = loadExpression(bodyElement);
+                body.setRetainedStaticContext(body.getRetainedStaticContext()); // to propagate it to the subtree
+                processFixups(pack);
+                List<Action> actions = completionActions.subList(actionCount, completionActions.size());
+                for (Action a : new ArrayList<>(actions)) {
+                    a.doAction();
+                }
+                actions.clear();
+                if (objectName != null) {
+                    Optimizer optimizer = config.obtainOptimizer();
+                    body = optimizer.makeByteCodeCandidate(owner, body, objectName,
+                                                           Expression.ITERATE_METHOD | Expression.PROCESS_METHOD);
+                    optimizer.injectByteCodeCandidates(body);
+                }
+                return body;
+            } finally {
+                fixups.pop();
+                contextStack.pop();
+                packStack.pop();
+                localBindings = savedBindings;
+                currentFunction = savedFunction;
+            }
+        });
+    }
+
     private void readAccumulators(NodeInfo packageElement) throws XPathException {
         StylesheetPackage pack = packStack.peek();
         NodeInfo accElement;
@@ -3479,12 +3607,16 @@ public class PackageLoaderHE implements IPackageLoader {
 
     private void resolveFixups() throws XPathException {
         StylesheetPackage pack = packStack.peek();
+        processFixups(pack);
+        pack.allocateBinderySlots();
+    }
+
+    private void processFixups(StylesheetPackage pack) throws XPathException {
         for (ComponentInvocation call : fixups.peek()) {
             if (processComponentReference(pack, call)) {
                 break; // It will have a binding slot
             }
         }
-        pack.allocateBinderySlots();
     }
 
     protected boolean processComponentReference(StylesheetPackage pack, ComponentInvocation call) throws XPathException {
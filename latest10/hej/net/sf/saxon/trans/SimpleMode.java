@@ -423,6 +423,7 @@ public class SimpleMode extends Mode {
 
 
     private void addRuleToList(Rule newRule, RuleChain list) {
+        list.setIndex(null);
         if (list.head() == null) {
             list.setHead(newRule);
         } else {
@@ -627,6 +628,10 @@ public class SimpleMode extends Mode {
         RuleSearchState ruleSearchState = makeRuleSearchState(chain, context);
 
         Rule head = chain == null ? null : chain.head();
+        RuleChainIndex.Candidates candidates = getCandidates(item, chain);
+        if (candidates != null) {
+            head = candidates.next();
+        }
         while (head != null) {
             if (bestRule != null) {
                 int rank = head.compareRank(bestRule);
@@ -668,7 +673,7 @@ public class SimpleMode extends Mode {
                 }
             }
             //ruleSearchState.count();// Keep tab of the number of checks
-            head = head.getNext();
+            head = candidates == null ? head.getNext() : candidates.next();
         }
 
         return bestRule;
@@ -823,6 +828,10 @@ public class SimpleMode extends Mode {
     protected Rule searchRuleChain(Item item, XPathContext context,
                                    Rule/*@Nullable*/ bestRule, RuleChain chain, RuleSearchState ruleSearchState, RuleFilter filter) throws XPathException {
         Rule head = chain == null ? null : chain.head();
+        RuleChainIndex.Candidates candidates = getCandidates(item, chain);
+        if (candidates != null) {
+            head = candidates.next();
+        }
         while (!(context instanceof XPathContextMajor)) {
             context = context.getCaller();
         }
@@ -857,11 +866,26 @@ public class SimpleMode extends Mode {
                     }
                 }
             }
-            head = head.getNext();
+            head = candidates == null ? head.getNext() : candidates.next();
         }
         return bestRule;
     }
 
+    /**
+     * If a rule chain is indexed, get the rules in the chain that might match a given item
+     *
+     * @param item  the item being matched
+     * @param chain the chain to be searched (may be null)
+     * @return an iterator over the candidate rules, in chain order, or null if the whole chain must be searched
+     */
+
+    private static RuleChainIndex.Candidates getCandidates(Item item, RuleChain chain) {
+        if (chain != null && chain.getIndex() != null && item instanceof NodeInfo) {
+            return chain.getIndex().getCandidates((NodeInfo) item);
+        }
+        return null;
+    }
+
 
     /**
      * Report an ambiguity, that is, the situation where two rules of the same
@@ -1167,11 +1191,22 @@ public class SimpleMode extends Mode {
     }
 
     /**
-     * Perform optimization on the complete set of rules comprising this Mode. This is a null operation
-     * in Saxon-HE.
+     * Perform optimization on the complete set of rules comprising this Mode. In Saxon-HE this builds
+     * a {@link RuleChainIndex} for each chain of element rules in which enough rules test the same attribute
+     * for equality with a string, so that only the rules that might match an element's attribute value
+     * are tested.
      */
 
     public void optimizeRules() {
+        if (isDeclaredStreamable()) {
+            return;
+        }
+        IntIterator ii = namedElementRuleChains.keyIterator();
+        while (ii.hasNext()) {
+            RuleChain chain = namedElementRuleChains.get(ii.next());
+            chain.setIndex(RuleChainIndex.makeIndex(chain));
+        }
+        unnamedElementRuleChain.setIndex(RuleChainIndex.makeIndex(unnamedElementRuleChain));
     }
 
     @Override
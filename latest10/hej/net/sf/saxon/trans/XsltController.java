@@ -46,7 +46,7 @@ public class XsltController extends Controller {
 
     private final Map<StructuredQName, Integer> messageCounters = new HashMap<>();
     private Receiver explicitMessageReceiver = null;
-    private Supplier<Receiver> messageFactory = () -> new NamespaceDifferencer(new MessageEmitter(), new Properties());
+    private Supplier<Receiver> messageFactory = XsltController::makeDefaultMessageReceiver;
     private boolean assertionsEnabled = true;
     private ResultDocumentResolver resultDocumentResolver;
     private HashSet<DocumentKey> allOutputDestinations;
@@ -55,7 +55,7 @@ public class XsltController extends Controller {
     private Map<StructuredQName, Sequence> initialTemplateParams;
     private Map<StructuredQName, Sequence> initialTemplateTunnelParams;
     private Map<Long, Stack<AttributeSet>> attributeSetEvaluationStacks = new HashMap<>();
-    private AccumulatorManager accumulatorManager = new AccumulatorManager();
+    private AccumulatorManager accumulatorManager; // initialized by reset()
     private PrincipalOutputGatekeeper gatekeeper = null;
     private Destination principalDestination;
 
@@ -109,6 +109,33 @@ public class XsltController extends Controller {
         clearPerTransformationData();
     }
 
+    /**
+     * Clear the settings made for one particular invocation of the stylesheet: the initial template
+     * parameters, the initial function, the message receiver or message factory, the result document
+     * resolver, the principal destination, and whether assertions are enabled. Unlike {@link #reset()},
+     * this does not preserve any settings made when the controller was created, so it should be followed
+     * by a call on {@link PreparedStylesheet#resetController(XsltController)} or equivalent.
+     *
+     * @since 10.3
+     */
+
+    public void clearInvocationSettings() {
+        initialFunction = null;
+        initialTemplateParams = null;
+        initialTemplateTunnelParams = null;
+        explicitMessageReceiver = null;
+        messageFactory = XsltController::makeDefaultMessageReceiver;
+        resultDocumentResolver = null;
+        principalDestination = null;
+        gatekeeper = null;
+        assertionsEnabled = true;
+        attributeSetEvaluationStacks.clear();
+    }
+
+    private static Receiver makeDefaultMessageReceiver() {
+        return new NamespaceDifferencer(new MessageEmitter(), new Properties());
+    }
+
     /**
      * Reset variables that need to be reset for each transformation if the controller
      * is serially reused
@@ -0,0 +1,290 @@
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Copyright (c) 2020 Saxonica Limited
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is "Incompatible With Secondary Licenses", as defined by the Mozilla Public License, v. 2.0.
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+package net.sf.saxon.trans.packages;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.event.ReceiverOption;
+import net.sf.saxon.expr.parser.Loc;
+import net.sf.saxon.om.*;
+import net.sf.saxon.trans.SaxonErrorCode;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.tree.tiny.Statistics;
+import net.sf.saxon.tree.tiny.TinyBuilder;
+import net.sf.saxon.type.BuiltInAtomicType;
+import net.sf.saxon.type.Untyped;
+
+import javax.xml.transform.stream.StreamSource;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Reads an exported package (a SEF file) in the binary form written by {@link BinaryPackageWriter},
+ * building the same tree as would be built from the XML form. The tree is built directly, without parsing,
+ * and each distinct string and name in the file is decoded only once.
+ *
+ * <p>Binary input is recognized by its first four bytes, so it can be supplied wherever an exported package
+ * is accepted as a <code>StreamSource</code>. The {@link net.sf.saxon.trans.PackageLoaderHE} loads a package
+ * supplied in binary form lazily: see {@link net.sf.saxon.trans.PackageLoaderHE#setLazyLoading(boolean)}.</p>
+ *
+ * @since 10.3
+ */
+
+public class BinaryPackageReader {
+
+    /**
+     * The first four bytes of a binary package. The first byte cannot start an XML document in any encoding.
+     */
+
+    static final byte[] MAGIC = {(byte) 0x89, 'S', 'E', 'F'};
+
+    /**
+     * The version of the binary format
+     */
+
+    static final int VERSION = 1;
+
+    private final Configuration config;
+    private byte[] buffer;
+    private int pos;
+    private String[] strings;
+    private NodeName[] names;
+    private TinyBuilder builder;
+
+    /**
+     * Create a reader
+     *
+     * @param config the configuration
+     */
+
+    public BinaryPackageReader(Configuration config) {
+        this.config = config;
+    }
+
+    /**
+     * Open a source that is identified only by its system ID, so that the same input stream can be used first
+     * to ask whether it holds a binary package, and then to read it. This avoids reading the start of the
+     * resource twice.
+     *
+     * @param source the source to be opened
+     * @return a new source, with the same system ID, holding a markable input stream for the resource; the
+     * caller is responsible for closing it. If the source already supplies an input stream or reader, if it
+     * has no system ID, or if the resource cannot be opened, the original source is returned unchanged, and
+     * any error is left to be reported by whoever reads it.
+     */
+
+    public static StreamSource open(StreamSource source) {
+        if (source.getInputStream() != null || source.getReader() != null || source.getSystemId() == null) {
+            return source;
+        }
+        try {
+            InputStream in = new BufferedInputStream(new URL(source.getSystemId()).openStream());
+            return new StreamSource(in, source.getSystemId());
+        } catch (IOException e) {
+            return source;
+        }
+    }
+
+    /**
+     * Ask whether a source holds an exported package in binary form. Only a source that supplies an input
+     * stream is examined: a source identified only by its system ID is not opened, and should first be
+     * passed to {@link #open(StreamSource)}. If the input stream does not support <code>mark()</code>,
+     * it is replaced with a buffered stream, so that the source can still be read from the start.
+     *
+     * @param source the source to be examined
+     * @return true if the source supplies an input stream that starts with the bytes identifying a binary package
+     */
+
+    public static boolean isBinaryPackage(StreamSource source) {
+        InputStream in = source.getInputStream();
+        if (in == null) {
+            return false;
+        }
+        byte[] start = new byte[MAGIC.length];
+        try {
+            if (!in.markSupported()) {
+                in = new BufferedInputStream(in);
+                source.setInputStream(in);
+            }
+            in.mark(MAGIC.length);
+            boolean binary = readFully(in, start) && Arrays.equals(start, MAGIC);
+            in.reset();
+            return binary;
+        } catch (IOException e) {
+            // leave the error to be reported by whoever reads the source
+            return false;
+        }
+    }
+
+    private static boolean readFully(InputStream in, byte[] bytes) throws IOException {
+        int n = 0;
+        while (n < bytes.length) {
+            int r = in.read(bytes, n, bytes.length - n);
+            if (r < 0) {
+                return false;
+            }
+            n += r;
+        }
+        return true;
+    }
+
+    /**
+     * Read an exported package in binary form. The input stream is closed after reading.
+     *
+     * @param source the source holding the binary form, either as an input stream or as a system ID
+     * @return the document node of the tree representing the exported package
+     * @throws XPathException if the source cannot be read, or if it is not a binary package of the
+     * right version, or if its checksum is incorrect
+     */
+
+    public NodeInfo read(StreamSource source) throws XPathException {
+        try (InputStream in = source.getInputStream() != null ? source.getInputStream()
+                : new URL(source.getSystemId()).openStream()) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 16);
+            byte[] chunk = new byte[1 << 16];
+            int n;
+            while ((n = in.read(chunk)) >= 0) {
+                bytes.write(chunk, 0, n);
+            }
+            return read(bytes.toByteArray(), source.getSystemId());
+        } catch (IOException e) {
+            throw new XPathException(e);
+        }
+    }
+
+    /**
+     * Read an exported package in binary form
+     *
+     * @param data     the binary form
+     * @param systemId the system ID to be used for the tree, and hence the base URI of the package element
+     * @return the document node of the tree representing the exported package
+     * @throws XPathException if the data is not a binary package of the right version, or if its checksum
+     * is incorrect
+     */
+
+    public NodeInfo read(byte[] data, String systemId) throws XPathException {
+        int length = data.length - 4;
+        if (length < MAGIC.length + 1 ||
+                !Arrays.equals(Arrays.copyOf(data, MAGIC.length), MAGIC)) {
+            throw new XPathException("Not a binary exported package", SaxonErrorCode.SXPK0002);
+        }
+        if (data[MAGIC.length] != VERSION) {
+            throw new XPathException("Binary exported package has unsupported format version " +
+                                             data[MAGIC.length], SaxonErrorCode.SXPK0002);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        int checksum = ((data[length] & 0xFF) << 24) | ((data[length + 1] & 0xFF) << 16) |
+                ((data[length + 2] & 0xFF) << 8) | (data[length + 3] & 0xFF);
+        if ((int) crc.getValue() != checksum) {
+            throw new XPathException("Package cannot be loaded: incorrect checksum", SaxonErrorCode.SXPK0002);
+        }
+        buffer = data;
+        pos = MAGIC.length + 1;
+        try {
+            int nodes = readNumber();
+            int attributes = readNumber();
+            int namespaces = readNumber();
+            int characters = readNumber();
+
+            strings = new String[readNumber()];
+            for (int i = 0; i < strings.length; i++) {
+                int len = readNumber();
+                strings[i] = new String(buffer, pos, len, StandardCharsets.UTF_8);
+                pos += len;
+            }
+            NamePool pool = config.getNamePool();
+            names = new NodeName[readNumber()];
+            for (int i = 0; i < names.length; i++) {
+                String uri = strings[readNumber()];
+                String local = strings[readNumber()];
+                String prefix = strings[readNumber()];
+                names[i] = new FingerprintedQName(prefix, uri, local, pool);
+            }
+
+            builder = new TinyBuilder(config.makePipelineConfiguration());
+            builder.setStatistics(new Statistics(nodes + 1, attributes, namespaces, characters));
+            builder.setSystemId(systemId);
+            builder.open();
+            builder.startDocument(ReceiverOption.NONE);
+            if (buffer[pos++] != BinaryPackageWriter.ELEMENT) {
+                throw new XPathException("Binary exported package has no outermost element", SaxonErrorCode.SXPK0002);
+            }
+            readElement(NamespaceMap.emptyMap());
+            builder.endDocument();
+            builder.close();
+            return builder.getCurrentRoot();
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new XPathException("Binary exported package is truncated or corrupt", SaxonErrorCode.SXPK0002);
+        } finally {
+            buffer = null;
+            strings = null;
+            names = null;
+            builder = null;
+        }
+    }
+
+    private void readElement(NamespaceMap parentNamespaces) throws XPathException {
+        NodeName name = names[readNumber()];
+        NamespaceMap namespaces = parentNamespaces;
+        for (int i = readNumber(); i > 0; i--) {
+            String prefix = strings[readNumber()];
+            String uri = strings[readNumber()];
+            namespaces = uri.isEmpty() ? namespaces.remove(prefix) : namespaces.put(prefix, uri);
+        }
+        int attCount = readNumber();
+        AttributeMap attributes;
+        if (attCount == 0) {
+            attributes = EmptyAttributeMap.getInstance();
+        } else {
+            List<AttributeInfo> list = new ArrayList<>(attCount);
+            for (int i = 0; i < attCount; i++) {
+                NodeName attName = names[readNumber()];
+                String value = strings[readNumber()];
+                list.add(new AttributeInfo(attName, BuiltInAtomicType.UNTYPED_ATOMIC, value, Loc.NONE, ReceiverOption.NONE));
+            }
+            attributes = AttributeMap.fromList(list);
+        }
+        builder.startElement(name, Untyped.getInstance(), attributes, namespaces, Loc.NONE, ReceiverOption.NONE);
+        while (true) {
+            int tag = buffer[pos++];
+            if (tag == BinaryPackageWriter.END) {
+                break;
+            } else if (tag == BinaryPackageWriter.ELEMENT) {
+                readElement(namespaces);
+            } else if (tag == BinaryPackageWriter.TEXT) {
+                builder.characters(strings[readNumber()], Loc.NONE, ReceiverOption.NONE);
+            } else {
+                throw new XPathException("Binary exported package is corrupt: unknown record " + tag,
+                                         SaxonErrorCode.SXPK0002);
+            }
+        }
+        builder.endElement();
+    }
+
+    private int readNumber() {
+        int result = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer[pos++];
+            result |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return result;
+    }
+}
+
+// Copyright (c) 2020 Saxonica Limited
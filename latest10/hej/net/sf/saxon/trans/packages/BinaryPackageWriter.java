@@ -0,0 +1,316 @@
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Copyright (c) 2020 Saxonica Limited
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is "Incompatible With Secondary Licenses", as defined by the Mozilla Public License, v. 2.0.
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+package net.sf.saxon.trans.packages;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.event.CheckSumFilter;
+import net.sf.saxon.lib.ParseOptions;
+import net.sf.saxon.lib.Validation;
+import net.sf.saxon.om.*;
+import net.sf.saxon.pattern.NodeKindTest;
+import net.sf.saxon.trans.SaxonErrorCode;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.tree.iter.AxisIterator;
+import net.sf.saxon.type.Type;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.zip.CRC32;
+
+/**
+ * Converts an exported package (a SEF file) from its XML form to the compact binary form read by
+ * {@link BinaryPackageReader}. The binary form holds the same tree as the XML form, but every distinct
+ * string and name is written once, in a table at the start of the file, and is referenced elsewhere by
+ * its position in the table. Reading it involves no XML parsing, no character decoding other than for the
+ * string table, and no checksum computation over the text of the document.
+ *
+ * <p>The format is as follows, where <i>n</i> is an unsigned integer written in the variable-length
+ * encoding used by {@link #writeNumber}:</p>
+ * <ul>
+ * <li>the four bytes of {@link BinaryPackageReader#MAGIC}, followed by a version byte;</li>
+ * <li>the number of non-attribute nodes, attributes, and namespace bindings in the tree, and the number of
+ * characters in text nodes, each as <i>n</i>, used to size the tree when it is rebuilt;</li>
+ * <li>the string table: <i>n</i> strings, each as the length <i>n</i> of its UTF-8 encoding followed by the
+ * encoded bytes;</li>
+ * <li>the name table: <i>n</i> names, each as the string numbers of its namespace URI, local part,
+ * and prefix;</li>
+ * <li>the tree, as a sequence of records. An element is written as {@link #ELEMENT}, its name number,
+ * the number of namespace bindings that differ from those of its parent followed by the string numbers of the
+ * prefix and URI of each (an empty URI undeclares the prefix), the number of attributes followed by the name
+ * number and value string number of each, the records for its children, and {@link #END}. A text node is
+ * written as {@link #TEXT} followed by its string number;</li>
+ * <li>the CRC-32 checksum of all the preceding bytes, as four bytes, most significant first.</li>
+ * </ul>
+ * <p>Comments and processing instructions, including the checksum of the XML form, are not retained.</p>
+ *
+ * @since 10.3
+ */
+
+public class BinaryPackageWriter {
+
+    /**
+     * Record tag marking the end of an element
+     */
+
+    public static final int END = 0;
+
+    /**
+     * Record tag introducing an element
+     */
+
+    public static final int ELEMENT = 1;
+
+    /**
+     * Record tag introducing a text node
+     */
+
+    public static final int TEXT = 2;
+
+    private final Map<String, Integer> strings = new HashMap<>();
+    private final List<String> stringList = new ArrayList<>();
+    private final Map<NameKey, Integer> names = new HashMap<>();
+    private final List<NodeName> nameList = new ArrayList<>();
+    private int nodeCount;
+    private int attributeCount;
+    private int namespaceCount;
+    private int characterCount;
+
+    /**
+     * Convert an exported package from XML form to binary form. The XML form is checked against its checksum.
+     *
+     * @param config the configuration
+     * @param source the XML form of the exported package
+     * @param out    the destination for the binary form. The stream is not closed.
+     * @throws XPathException if the XML form cannot be read, or its checksum is incorrect, or writing fails
+     */
+
+    public static void convert(Configuration config, Source source, OutputStream out) throws XPathException {
+        ParseOptions options = new ParseOptions();
+        options.setSpaceStrippingRule(AllElementsSpaceStrippingRule.getInstance());
+        options.setSchemaValidationMode(Validation.SKIP);
+        options.setDTDValidationMode(Validation.SKIP);
+        final List<CheckSumFilter> filters = new ArrayList<>(1);
+        options.addFilter(next -> {
+            CheckSumFilter filter = new CheckSumFilter(next);
+            filter.setCheckExistingChecksum(true);
+            filters.add(filter);
+            return filter;
+        });
+        NodeInfo doc = config.buildDocumentTree(source, options).getRootNode();
+        if (!filters.get(0).isChecksumCorrect()) {
+            throw new XPathException("Package cannot be converted: incorrect checksum", SaxonErrorCode.SXPK0002);
+        }
+        new BinaryPackageWriter().write(doc, out);
+    }
+
+    /**
+     * Write the binary form of a tree
+     *
+     * @param doc the document node of the XML form of an exported package
+     * @param out the destination for the binary form. The stream is not closed.
+     * @throws XPathException if writing fails
+     */
+
+    public void write(NodeInfo doc, OutputStream out) throws XPathException {
+        NodeInfo packageElement = doc.iterateAxis(AxisInfo.CHILD, NodeKindTest.ELEMENT).next();
+        if (packageElement == null) {
+            throw new XPathException("Exported package has no outermost element", SaxonErrorCode.SXPK0002);
+        }
+        ByteArrayOutputStream treeBytes = new ByteArrayOutputStream(1 << 16);
+        try {
+            writeElement(packageElement, NamespaceMap.emptyMap(), treeBytes);
+
+            CRC32 crc = new CRC32();
+            OutputStream body = new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                    crc.update(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                    crc.update(b, off, len);
+                }
+            };
+            body.write(BinaryPackageReader.MAGIC);
+            body.write(BinaryPackageReader.VERSION);
+            writeNumber(nodeCount, body);
+            writeNumber(attributeCount, body);
+            writeNumber(namespaceCount, body);
+            writeNumber(characterCount, body);
+            writeNumber(stringList.size(), body);
+            for (String s : stringList) {
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                writeNumber(bytes.length, body);
+                body.write(bytes);
+            }
+            writeNumber(nameList.size(), body);
+            for (NodeName name : nameList) {
+                writeNumber(stringNumber(name.getURI()), body);
+                writeNumber(stringNumber(name.getLocalPart()), body);
+                writeNumber(stringNumber(name.getPrefix()), body);
+            }
+            treeBytes.writeTo(body);
+            int checksum = (int) crc.getValue();
+            out.write(checksum >>> 24);
+            out.write(checksum >>> 16);
+            out.write(checksum >>> 8);
+            out.write(checksum);
+            out.flush();
+        } catch (IOException e) {
+            throw new XPathException(e);
+        }
+    }
+
+    private void writeElement(NodeInfo element, NamespaceMap parentNamespaces, OutputStream out) throws IOException {
+        nodeCount++;
+        out.write(ELEMENT);
+        writeNumber(nameNumber(NameOfNode.makeName(element)), out);
+
+        NamespaceMap namespaces = element.getAllNamespaces();
+        List<NamespaceBinding> delta = new ArrayList<>();
+        if (namespaces != parentNamespaces) {
+            for (NamespaceBinding binding : namespaces) {
+                if (!binding.getURI().equals(parentNamespaces.getURI(binding.getPrefix()))) {
+                    delta.add(binding);
+                }
+            }
+            for (NamespaceBinding binding : parentNamespaces) {
+                if (namespaces.getURI(binding.getPrefix()) == null) {
+                    delta.add(new NamespaceBinding(binding.getPrefix(), ""));
+                }
+            }
+        }
+        namespaceCount += delta.size();
+        writeNumber(delta.size(), out);
+        for (NamespaceBinding binding : delta) {
+            writeNumber(stringNumber(binding.getPrefix()), out);
+            writeNumber(stringNumber(binding.getURI()), out);
+        }
+
+        AttributeMap attributes = element.attributes();
+        attributeCount += attributes.size();
+        writeNumber(attributes.size(), out);
+        for (AttributeInfo att : attributes) {
+            writeNumber(nameNumber(att.getNodeName()), out);
+            writeNumber(stringNumber(att.getValue()), out);
+        }
+
+        AxisIterator children = element.iterateAxis(AxisInfo.CHILD);
+        NodeInfo child;
+        while ((child = children.next()) != null) {
+            if (child.getNodeKind() == Type.ELEMENT) {
+                writeElement(child, namespaces, out);
+            } else if (child.getNodeKind() == Type.TEXT) {
+                nodeCount++;
+                String value = child.getStringValue();
+                characterCount += value.length();
+                out.write(TEXT);
+                writeNumber(stringNumber(value), out);
+            }
+        }
+        out.write(END);
+    }
+
+    private int stringNumber(String s) {
+        Integer n = strings.get(s);
+        if (n == null) {
+            n = stringList.size();
+            strings.put(s, n);
+            stringList.add(s);
+        }
+        return n;
+    }
+
+    private int nameNumber(NodeName name) {
+        NameKey key = new NameKey(name);
+        Integer n = names.get(key);
+        if (n == null) {
+            n = nameList.size();
+            names.put(key, n);
+            nameList.add(name);
+            // the strings of the name table must be in the string table, which is written first
+            stringNumber(key.uri);
+            stringNumber(key.local);
+            stringNumber(key.prefix);
+        }
+        return n;
+    }
+
+    /**
+     * Write an unsigned integer in a variable number of bytes: seven bits to each byte, least significant
+     * first, with the top bit set in every byte except the last
+     *
+     * @param value the integer to be written, which must not be negative
+     * @param out   the destination
+     * @throws IOException if writing fails
+     */
+
+    public static void writeNumber(int value, OutputStream out) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Command line interface: convert an exported package from XML form to binary form
+     *
+     * @param args the file name of the XML form, and the file name to be used for the binary form
+     * @throws Exception if conversion fails
+     */
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Usage: java net.sf.saxon.trans.packages.BinaryPackageWriter input.sef output.sefb");
+            System.exit(2);
+        }
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(args[1]))) {
+            convert(new Configuration(), new StreamSource(new File(args[0])), out);
+        }
+    }
+
+    /**
+     * Key for the name table, which (unlike a NodeName) distinguishes names that differ only in their prefix
+     */
+
+    private static class NameKey {
+        final String uri;
+        final String local;
+        final String prefix;
+
+        NameKey(NodeName name) {
+            uri = name.getURI();
+            local = name.getLocalPart();
+            prefix = name.getPrefix();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof NameKey && local.equals(((NameKey) obj).local) &&
+                    uri.equals(((NameKey) obj).uri) && prefix.equals(((NameKey) obj).prefix);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(uri, local, prefix);
+        }
+    }
+}
+
+// Copyright (c) 2020 Saxonica Limited
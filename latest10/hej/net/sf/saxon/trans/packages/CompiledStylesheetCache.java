@@ -0,0 +1,436 @@
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Copyright (c) 2020 Saxonica Limited
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is "Incompatible With Secondary Licenses", as defined by the Mozilla Public License, v. 2.0.
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+package net.sf.saxon.trans.packages;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.Version;
+import net.sf.saxon.functions.ResolveURI;
+import net.sf.saxon.lib.NamespaceConstant;
+import net.sf.saxon.om.GroundedValue;
+import net.sf.saxon.om.Item;
+import net.sf.saxon.om.StructuredQName;
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XsltExecutable;
+import net.sf.saxon.style.StylesheetPackage;
+import net.sf.saxon.trans.CompilerInfo;
+import net.sf.saxon.trans.XPathException;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.URIResolver;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamSource;
+import java.io.*;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A cache of compiled stylesheets held in a directory in filestore, so that a stylesheet compiled in one
+ * Java VM can be reused by later ones. It is used by {@link net.sf.saxon.s9api.XsltCompiler#compile} when set
+ * using {@link net.sf.saxon.s9api.XsltCompiler#setCompiledStylesheetCache}.
+ *
+ * <p>Each entry is an exported package, held in the binary form written by {@link BinaryPackageWriter}, in a file
+ * whose name is a key computed from the stylesheet. The key is a SHA-256 digest of the content of every module in
+ * the stylesheet (the principal module and all modules reachable from it by <code>xsl:include</code> and
+ * <code>xsl:import</code>), of the compiler options that affect the compiled result, including the values of
+ * static parameters, and of the Saxon version. Unless the compilation is relocatable, the locations of the modules
+ * also form part of the key, since the compiled stylesheet holds their base URIs. Any change to a module therefore
+ * results in a new key, and the stale entry is simply never used again; entries are never deleted by Saxon.</p>
+ *
+ * <p>A stylesheet is cached only if every module can be read a second time from its system ID: so the principal
+ * module must be supplied as a <code>StreamSource</code> with a system ID and no input stream or reader, and any
+ * <code>URIResolver</code> must return sources that are similarly identified only by a system ID. Stylesheets that use packages (<code>xsl:use-package</code>),
+ * shadow attributes on <code>xsl:include</code> or <code>xsl:import</code>, or schema imports, and compilations that
+ * inject tracing code, are not cached. External entities and DTDs are not included in the key.</p>
+ *
+ * <p>A new entry is written by exporting the compiled stylesheet, which requires a configuration capable of
+ * exporting packages (Saxon-EE). Where this is not available the cache is used read-only: it can be populated
+ * from packages exported elsewhere using {@link #importPackage}, or from the command line using
+ * {@link #main}. An entry is written to a temporary file and then renamed, so several Java VMs can share the
+ * cache directory.</p>
+ *
+ * @since 10.3
+ */
+
+public class CompiledStylesheetCache {
+
+    /**
+     * The file extension used for entries in the cache
+     */
+
+    public static final String EXTENSION = ".sefb";
+
+    private final File directory;
+    private volatile boolean writable = true;
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    /**
+     * Create a cache held in a given directory
+     *
+     * @param directory the directory holding the cache. It is created, if necessary, when the first
+     *                  entry is written.
+     */
+
+    public CompiledStylesheetCache(File directory) {
+        this.directory = Objects.requireNonNull(directory);
+    }
+
+    /**
+     * Get the directory holding the cache
+     *
+     * @return the directory
+     */
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Get the number of compilations that have been satisfied from the cache
+     *
+     * @return the number of cache hits
+     */
+
+    public int getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of cacheable compilations that could not be satisfied from the cache
+     *
+     * @return the number of cache misses
+     */
+
+    public int getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Get the file holding the cache entry for a given key
+     *
+     * @param key the key, as returned by {@link #getKey}
+     * @return the file holding the entry, which might not exist
+     */
+
+    public File getEntryFile(String key) {
+        return new File(directory, key + EXTENSION);
+    }
+
+    /**
+     * Compute the cache key for a stylesheet. This involves reading and parsing every module of the
+     * stylesheet, but not compiling it.
+     *
+     * @param info   the compiler options to be used for the compilation
+     * @param source the principal stylesheet module
+     * @return the key, or null if the stylesheet cannot be cached. Null is also returned if any module
+     * cannot be read or parsed: the error will be reported when the stylesheet is compiled.
+     */
+
+    public String getKey(CompilerInfo info, Source source) {
+        if (!(source instanceof StreamSource) || !isRereadable(source) || info.getCodeInjector() != null) {
+            return null;
+        }
+        Configuration config = info.getConfiguration();
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+        update(digest, Version.getProductVersion());
+        update(digest, config.getEditionCode());
+        addOptions(digest, info);
+
+        Set<String> seen = new HashSet<>();
+        Deque<String> pending = new ArrayDeque<>();
+        pending.add(source.getSystemId());
+        XMLReader parser = config.getStyleParser();
+        try {
+            while (!pending.isEmpty()) {
+                String uri = pending.removeFirst();
+                if (!seen.add(uri)) {
+                    continue;
+                }
+                byte[] content = readModule(uri);
+                if (!info.isRelocatable()) {
+                    update(digest, uri);
+                }
+                digest.update(content);
+                digest.update((byte) 0);
+                ModuleScanner scanner = new ModuleScanner();
+                parser.setContentHandler(scanner);
+                InputSource is = new InputSource(new ByteArrayInputStream(content));
+                is.setSystemId(uri);
+                parser.parse(is);
+                if (scanner.uncacheable) {
+                    return null;
+                }
+                for (String href : scanner.hrefs) {
+                    String resolved = resolve(info.getURIResolver(), href, uri);
+                    if (resolved == null) {
+                        return null;
+                    }
+                    pending.add(resolved);
+                }
+            }
+        } catch (IOException | SAXException | URISyntaxException | TransformerException e) {
+            return null;
+        } finally {
+            config.reuseStyleParser(parser);
+        }
+
+        StringBuilder key = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return key.toString();
+    }
+
+    private static void addOptions(MessageDigest digest, CompilerInfo info) {
+        update(digest, "schemaAware=" + info.isSchemaAware());
+        update(digest, "target=" + info.getTargetEdition());
+        update(digest, "relocatable=" + info.isRelocatable());
+        update(digest, "assertions=" + info.isAssertionsEnabled());
+        update(digest, "collation=" + info.getDefaultCollation());
+        update(digest, "elementNamespace=" + info.getDefaultElementNamespace());
+        update(digest, "unprefixed=" + info.getUnprefixedElementMatchingPolicy());
+        update(digest, "initialMode=" + info.getDefaultInitialMode());
+        update(digest, "initialTemplate=" + info.getDefaultInitialTemplate());
+        update(digest, "optimizer=" + info.getOptimizerOptions().getOptions());
+        List<StructuredQName> names = new ArrayList<>(info.getParameters().getKeys());
+        names.sort(Comparator.comparing(StructuredQName::getClarkName));
+        for (StructuredQName name : names) {
+            update(digest, "param=" + name.getClarkName());
+            GroundedValue value = info.getParameters().get(name);
+            for (Item item : value.asIterable()) {
+                update(digest, item.getClass().getName() + "=" + item.getStringValue());
+            }
+        }
+    }
+
+    private static void update(MessageDigest digest, String s) {
+        digest.update(s.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    private static byte[] readModule(String uri) throws IOException {
+        try (InputStream in = new URL(uri).openStream()) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(8192);
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                bytes.write(buffer, 0, n);
+            }
+            return bytes.toByteArray();
+        }
+    }
+
+    /**
+     * Resolve the href of an xsl:include or xsl:import in the same way as the compiler will
+     *
+     * @return the absolute URI of the module, or null if the module cannot be cached because the
+     * URIResolver returns something other than a simple system ID
+     */
+
+    private static String resolve(URIResolver resolver, String href, String base)
+            throws TransformerException, URISyntaxException {
+        if (resolver != null) {
+            Source s = resolver.resolve(href, base);
+            if (s != null) {
+                return isRereadable(s) ? s.getSystemId() : null;
+            }
+        }
+        return ResolveURI.makeAbsolute(href, base).toString();
+    }
+
+    /**
+     * Ask whether a source is identified only by its system ID, so that the compiler will read the
+     * same content as the cache
+     */
+
+    private static boolean isRereadable(Source s) {
+        if (s.getSystemId() == null) {
+            return false;
+        } else if (s instanceof StreamSource) {
+            return ((StreamSource) s).getInputStream() == null && ((StreamSource) s).getReader() == null;
+        } else if (s instanceof SAXSource) {
+            InputSource is = ((SAXSource) s).getInputSource();
+            return is == null || (is.getByteStream() == null && is.getCharacterStream() == null);
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Finds the modules referenced from a stylesheet module, and the constructs that prevent it from being cached
+     */
+
+    private static class ModuleScanner extends DefaultHandler {
+        final List<String> hrefs = new ArrayList<>();
+        boolean uncacheable = false;
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes atts) {
+            if (!uri.equals(NamespaceConstant.XSLT)) {
+                return;
+            }
+            switch (localName) {
+                case "include":
+                case "import":
+                    String href = atts.getValue("", "href");
+                    if (href == null || atts.getValue("", "_href") != null) {
+                        uncacheable = true;
+                    } else {
+                        hrefs.add(href);
+                    }
+                    break;
+                case "use-package":
+                case "import-schema":
+                    uncacheable = true;
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Get a stylesheet package from the cache
+     *
+     * @param config the configuration
+     * @param key    the key, as returned by {@link #getKey}
+     * @return the package, or null if there is no entry for this key, or if the entry cannot be loaded
+     * (in which case a warning is logged)
+     */
+
+    public StylesheetPackage load(Configuration config, String key) {
+        File file = getEntryFile(key);
+        if (file.exists()) {
+            IPackageLoader loader = config.makePackageLoader();
+            if (loader != null) {
+                try {
+                    StylesheetPackage pack = loader.loadPackage(new StreamSource(file));
+                    hits.incrementAndGet();
+                    return pack;
+                } catch (XPathException e) {
+                    config.getLogger().warning("Cannot load " + file + " from compiled stylesheet cache: " + e.getMessage());
+                }
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Add a compiled stylesheet to the cache, by exporting it. If the configuration cannot export
+     * stylesheets, the cache becomes read-only and a warning is logged (once).
+     *
+     * @param config     the configuration
+     * @param key        the key, as returned by {@link #getKey}
+     * @param executable the compiled stylesheet
+     */
+
+    public void store(Configuration config, String key, XsltExecutable executable) {
+        if (!writable) {
+            return;
+        }
+        ByteArrayOutputStream exported = new ByteArrayOutputStream(1 << 16);
+        try {
+            executable.export(exported);
+        } catch (SaxonApiException e) {
+            writable = false;
+            config.getLogger().warning("Compiled stylesheet cache " + directory +
+                                               " is read-only, because stylesheets cannot be exported: " + e.getMessage());
+            return;
+        }
+        try {
+            importPackage(config, key, new StreamSource(new ByteArrayInputStream(exported.toByteArray())));
+        } catch (XPathException e) {
+            config.getLogger().warning("Cannot write to compiled stylesheet cache: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Add an exported package to the cache. This allows the cache to be populated with packages
+     * exported by a different configuration, for example by Saxon-EE.
+     *
+     * @param config   the configuration
+     * @param key      the key, as returned by {@link #getKey}, for the stylesheet from which the package
+     *                 was exported
+     * @param exported the exported package, in XML form
+     * @throws XPathException if the package cannot be read, or the entry cannot be written
+     */
+
+    public void importPackage(Configuration config, String key, Source exported) throws XPathException {
+        File target = getEntryFile(key);
+        File temp = null;
+        try {
+            Files.createDirectories(directory.toPath());
+            temp = File.createTempFile(key, ".tmp", directory);
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(temp))) {
+                BinaryPackageWriter.convert(config, exported, out);
+            }
+            try {
+                Files.move(temp.toPath(), target.toPath(),
+                           StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            temp = null;
+        } catch (IOException e) {
+            throw new XPathException(e);
+        } finally {
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Command line interface: add an exported package to a cache, under the key computed for a
+     * stylesheet using the default compiler options of Saxon-HE
+     *
+     * @param args the cache directory, the file name of the principal stylesheet module, and the
+     *             file name of the package exported from that stylesheet
+     * @throws Exception if the key cannot be computed, or the package cannot be added
+     */
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 3) {
+            System.err.println("Usage: java net.sf.saxon.trans.packages.CompiledStylesheetCache cache-directory stylesheet.xsl exported.sef");
+            System.exit(2);
+        }
+        Processor processor = new Processor(false);
+        Configuration config = processor.getUnderlyingConfiguration();
+        CompiledStylesheetCache cache = new CompiledStylesheetCache(new File(args[0]));
+        CompilerInfo info = processor.newXsltCompiler().getUnderlyingCompilerInfo();
+        String key = cache.getKey(info, new StreamSource(new File(args[1])));
+        if (key == null) {
+            System.err.println("The stylesheet " + args[1] + " cannot be cached");
+            System.exit(2);
+        }
+        cache.importPackage(config, key, new StreamSource(new File(args[2])));
+        System.err.println("Added " + cache.getEntryFile(key));
+    }
+}
+
+// Copyright (c) 2020 Saxonica Limited
@@ -14,6 +14,7 @@ package net.sf.saxon.trans.rules;
 public class RuleChain {
 
     private Rule head;
+    private RuleChainIndex index;
     public Object optimizationData; // give this a better type
 
     /**
@@ -51,6 +52,25 @@ public class RuleChain {
         this.head = head;
     }
 
+    /**
+     * Get the index used to select candidate rules from the chain by attribute value, if any
+     * @return the index, or null if the chain is not indexed
+     */
+
+    public RuleChainIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Set the index used to select candidate rules from the chain by attribute value. The index must
+     * be discarded (by setting it to null) if the chain is changed.
+     * @param index the index, or null if the chain is not to be indexed
+     */
+
+    public void setIndex(RuleChainIndex index) {
+        this.index = index;
+    }
+
     /**
      * Get the length of the rule chain
      * @return the number of rules in the chain
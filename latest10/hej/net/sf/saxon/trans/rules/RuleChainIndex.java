@@ -0,0 +1,294 @@
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Copyright (c) 2020 Saxonica Limited
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is "Incompatible With Secondary Licenses", as defined by the Mozilla Public License, v. 2.0.
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+package net.sf.saxon.trans.rules;
+
+import net.sf.saxon.expr.*;
+import net.sf.saxon.expr.parser.Token;
+import net.sf.saxon.expr.sort.CodepointCollatingComparer;
+import net.sf.saxon.om.AxisInfo;
+import net.sf.saxon.om.Item;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.om.StructuredQName;
+import net.sf.saxon.pattern.AncestorQualifiedPattern;
+import net.sf.saxon.pattern.BasePatternWithPredicate;
+import net.sf.saxon.pattern.NameTest;
+import net.sf.saxon.pattern.Pattern;
+import net.sf.saxon.type.AtomicType;
+import net.sf.saxon.type.BuiltInAtomicType;
+import net.sf.saxon.type.Type;
+import net.sf.saxon.type.Untyped;
+import net.sf.saxon.value.AtomicValue;
+
+import java.util.*;
+
+/**
+ * A secondary index to the rules in a {@link RuleChain} for elements, used where many of the rules differ only
+ * in the value they require for one attribute, as with <code>match="record[@type='X17']"</code>. The index maps
+ * each value of the attribute to the rules that require that value; rules that do not constrain the attribute
+ * (or constrain it in some other way) are candidates for every element. When searching the chain for an element,
+ * only the candidate rules for the value of its attribute need to be tested, in their original order of precedence
+ * and priority.
+ *
+ * <p>A rule is indexed on an attribute if its pattern, applied to the element, has a predicate
+ * (possibly one operand of <code>and</code>) comparing the attribute for equality with a string literal, or a
+ * sequence of string literals, using the Unicode codepoint collation. Such a predicate is false for any other
+ * value of the attribute, so skipping the rule cannot change the result of the search. The index is used only
+ * for untyped elements, whose attribute values compare as strings.</p>
+ */
+
+public class RuleChainIndex {
+
+    /**
+     * The minimum number of rules in a chain that must be indexable on the same attribute for an index
+     * to be worth building. Shorter chains are searched almost as quickly without one.
+     */
+
+    public static final int MIN_INDEXED_RULES = 8;
+
+    private static final int[] NONE = new int[0];
+
+    private final StructuredQName attributeName;
+    private final Rule[] rules;
+    private final Map<String, int[]> candidatesByValue;
+    private final int[] unindexed;
+
+    private RuleChainIndex(StructuredQName attributeName, Rule[] rules,
+                           Map<String, int[]> candidatesByValue, int[] unindexed) {
+        this.attributeName = attributeName;
+        this.rules = rules;
+        this.candidatesByValue = candidatesByValue;
+        this.unindexed = unindexed;
+    }
+
+    /**
+     * Build an index for a chain of rules
+     *
+     * @param chain the rule chain, all of whose rules match elements only
+     * @return the index, or null if the chain does not contain enough rules that can be indexed on
+     * the same attribute
+     */
+
+    public static RuleChainIndex makeIndex(RuleChain chain) {
+        List<Rule> ruleList = new ArrayList<>();
+        for (Rule r = chain.head(); r != null; r = r.getNext()) {
+            ruleList.add(r);
+        }
+        if (ruleList.size() < MIN_INDEXED_RULES) {
+            return null;
+        }
+
+        // Find the conditions on attribute values imposed by each rule, and choose the attribute
+        // that discriminates between the most rules
+
+        List<Map<StructuredQName, Set<String>>> conditions = new ArrayList<>(ruleList.size());
+        Map<StructuredQName, Integer> counts = new HashMap<>();
+        for (Rule r : ruleList) {
+            Map<StructuredQName, Set<String>> c = new HashMap<>();
+            findConditions(r.getPattern(), c);
+            conditions.add(c);
+            for (StructuredQName name : c.keySet()) {
+                counts.merge(name, 1, Integer::sum);
+            }
+        }
+        StructuredQName best = null;
+        int bestCount = 0;
+        for (Map.Entry<StructuredQName, Integer> entry : counts.entrySet()) {
+            if (entry.getValue() > bestCount) {
+                best = entry.getKey();
+                bestCount = entry.getValue();
+            }
+        }
+        if (bestCount < MIN_INDEXED_RULES) {
+            return null;
+        }
+
+        // Allocate each rule, identified by its position in the chain, to the values it can match
+
+        Map<String, List<Integer>> byValue = new HashMap<>();
+        List<Integer> others = new ArrayList<>();
+        for (int i = 0; i < ruleList.size(); i++) {
+            Set<String> values = conditions.get(i).get(best);
+            if (values == null) {
+                others.add(i);
+            } else {
+                for (String value : values) {
+                    byValue.computeIfAbsent(value, k -> new ArrayList<>()).add(i);
+                }
+            }
+        }
+        Map<String, int[]> candidatesByValue = new HashMap<>(byValue.size() * 2);
+        for (Map.Entry<String, List<Integer>> entry : byValue.entrySet()) {
+            candidatesByValue.put(entry.getKey(), toArray(entry.getValue()));
+        }
+        return new RuleChainIndex(best, ruleList.toArray(new Rule[0]), candidatesByValue, toArray(others));
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        if (list.isEmpty()) {
+            return NONE;
+        }
+        int[] result = new int[list.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = list.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Get the name of the attribute used to discriminate between rules
+     *
+     * @return the attribute name
+     */
+
+    public StructuredQName getAttributeName() {
+        return attributeName;
+    }
+
+    /**
+     * Get the rules that might match a given node
+     *
+     * @param node the node to be matched
+     * @return an iterator over the rules that might match the node, in chain order; or null if the index
+     * cannot be used for this node, in which case the whole chain must be searched
+     */
+
+    public Candidates getCandidates(NodeInfo node) {
+        if (node.getNodeKind() != Type.ELEMENT || node.getSchemaType() != Untyped.getInstance()) {
+            return null;
+        }
+        String value = node.getAttributeValue(attributeName.getURI(), attributeName.getLocalPart());
+        int[] indexed = value == null ? NONE : candidatesByValue.getOrDefault(value, NONE);
+        return new Candidates(rules, indexed, unindexed);
+    }
+
+    /**
+     * An iterator over the candidate rules for a node, merging the rules indexed under the node's attribute value
+     * with the rules that are not indexed, in their original order
+     */
+
+    public static final class Candidates {
+        private final Rule[] rules;
+        private final int[] indexed;
+        private final int[] unindexed;
+        private int i = 0;
+        private int u = 0;
+
+        private Candidates(Rule[] rules, int[] indexed, int[] unindexed) {
+            this.rules = rules;
+            this.indexed = indexed;
+            this.unindexed = unindexed;
+        }
+
+        /**
+         * Get the next candidate rule
+         *
+         * @return the next rule, or null if there are no more
+         */
+
+        public Rule next() {
+            if (i < indexed.length) {
+                if (u < unindexed.length && unindexed[u] < indexed[i]) {
+                    return rules[unindexed[u++]];
+                }
+                return rules[indexed[i++]];
+            } else if (u < unindexed.length) {
+                return rules[unindexed[u++]];
+            } else {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Find the attribute equality conditions that a pattern imposes on the node it matches
+     *
+     * @param pattern the pattern
+     * @param result  a map to which the conditions are added: the key is the attribute name, the value is
+     *                the set of values, one of which the attribute must have if the pattern is to match
+     */
+
+    private static void findConditions(Pattern pattern, Map<StructuredQName, Set<String>> result) {
+        if (pattern instanceof BasePatternWithPredicate) {
+            findConditions(((BasePatternWithPredicate) pattern).getBasePattern(), result);
+            findConditions(((BasePatternWithPredicate) pattern).getPredicate(), result);
+        } else if (pattern instanceof AncestorQualifiedPattern) {
+            findConditions(((AncestorQualifiedPattern) pattern).getBasePattern(), result);
+        }
+    }
+
+    private static void findConditions(Expression predicate, Map<StructuredQName, Set<String>> result) {
+        if (predicate instanceof AndExpression) {
+            findConditions(((AndExpression) predicate).getLhsExpression(), result);
+            findConditions(((AndExpression) predicate).getRhsExpression(), result);
+        } else if (predicate instanceof ValueComparison || predicate instanceof GeneralComparison ||
+                predicate instanceof CompareToStringConstant) {
+            ComparisonExpression comparison = (ComparisonExpression) predicate;
+            if (comparison.getSingletonOperator() != Token.FEQ ||
+                    !(comparison.getAtomicComparer() instanceof CodepointCollatingComparer)) {
+                return;
+            }
+            Expression lhs = comparison.getLhsExpression();
+            Expression rhs = comparison.getRhsExpression();
+            StructuredQName name = getAttributeName(lhs);
+            Set<String> values = getStringValues(rhs);
+            if (name == null || values == null) {
+                name = getAttributeName(rhs);
+                values = getStringValues(lhs);
+            }
+            if (name != null && values != null) {
+                result.putIfAbsent(name, values);
+            }
+        }
+    }
+
+    /**
+     * If an expression selects an attribute of the context node by name, possibly atomized and
+     * cast to a string, get the name of the attribute
+     */
+
+    private static StructuredQName getAttributeName(Expression exp) {
+        if (exp instanceof CastExpression) {
+            AtomicType target = ((CastExpression) exp).getTargetType();
+            if (target != BuiltInAtomicType.STRING && target != BuiltInAtomicType.UNTYPED_ATOMIC) {
+                return null;
+            }
+            exp = ((CastExpression) exp).getBaseExpression();
+        }
+        if (exp instanceof Atomizer) {
+            exp = ((Atomizer) exp).getBaseExpression();
+        }
+        if (exp instanceof AttributeGetter) {
+            return ((AttributeGetter) exp).getAttributeName().getStructuredQName();
+        } else if (exp instanceof AxisExpression && ((AxisExpression) exp).getAxis() == AxisInfo.ATTRIBUTE &&
+                ((AxisExpression) exp).getNodeTest() instanceof NameTest) {
+            return ((NameTest) ((AxisExpression) exp).getNodeTest()).getMatchingNodeName();
+        }
+        return null;
+    }
+
+    /**
+     * If an expression is a literal whose items are all strings, get the strings
+     */
+
+    private static Set<String> getStringValues(Expression exp) {
+        if (!(exp instanceof Literal)) {
+            return null;
+        }
+        Set<String> values = new HashSet<>();
+        for (Item item : ((Literal) exp).getValue().asIterable()) {
+            if (!(item instanceof AtomicValue) ||
+                    ((AtomicValue) item).getPrimitiveType() != BuiltInAtomicType.STRING) {
+                return null;
+            }
+            values.add(item.getStringValue());
+        }
+        return values.isEmpty() ? null : values;
+    }
+}
+
+// Copyright (c) 2020 Saxonica Limited
@@ -124,7 +124,7 @@ public final class RuleManager {
 
 
     /*@Nullable*/
-    public Mode obtainMode(StructuredQName modeName, boolean createIfAbsent) {
+    public synchronized Mode obtainMode(StructuredQName modeName, boolean createIfAbsent) {
         if (modeName == null || modeName.equals(Mode.UNNAMED_MODE_NAME)) {
             return unnamedMode;
         }
@@ -304,7 +304,6 @@ public final class RuleManager {
     /**
      * Optimization of template rules
      * Only invoked when rule optimization has been turned on.
-     * In this case we know the modes are instances of at least ModeEE
      */
     public void optimizeRules() {
         unnamedMode.optimizeRules();
@@ -12,26 +12,45 @@ import net.sf.saxon.functions.UnparsedTextFunction;
 import net.sf.saxon.om.SequenceIterator;
 import net.sf.saxon.serialize.charcode.UTF16CharacterSet;
 import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.tree.tiny.CharSlice;
 import net.sf.saxon.value.StringValue;
 
 import java.util.function.IntPredicate;
 
 import java.io.IOException;
-import java.io.LineNumberReader;
+import java.io.Reader;
 import java.net.URI;
 
 /**
  * An iterator that iterates over a file line by line, returning each line as a {@link StringValue}
+ *
+ * <p>The text is read in large chunks, and each line is returned as a slice of the chunk that contains it,
+ * without copying. A line that extends beyond the end of a chunk is copied to the start of the next.
+ * Because each line retains the chunk that contains it, retaining a few lines of a large file holds on
+ * to more memory than the lines themselves need.</p>
+ *
+ * <p>A line is terminated by a newline, a carriage return, or a carriage return followed immediately by a
+ * newline, as with {@link java.io.BufferedReader#readLine()}.</p>
  */
 public abstract class TextLinesIterator implements SequenceIterator {
 
-    protected LineNumberReader reader;
+    protected Reader reader;
     protected IntPredicate checker;
     StringValue current = null;
     int position = 0;
     protected Location location;
     protected URI uri;
 
+    // The current chunk of text, of which the characters from start to limit have not yet been returned
+    private char[] buffer = EMPTY_BUFFER;
+    private int start = 0;
+    private int limit = 0;
+    // True if the last chunk ended with a carriage return, which may be followed by a newline
+    private boolean skipLF = false;
+    private boolean endOfInput = false;
+
+    private static final char[] EMPTY_BUFFER = new char[0];
+
     protected TextLinesIterator() {
 
     }
@@ -47,20 +66,13 @@ public abstract class TextLinesIterator implements SequenceIterator {
      *          if a dynamic error occurs
      */
 
-    public TextLinesIterator(LineNumberReader reader, Location location, URI uri, IntPredicate checker) throws XPathException {
+    public TextLinesIterator(Reader reader, Location location, URI uri, IntPredicate checker) throws XPathException {
         this.reader = reader;
         this.location = location;
         this.uri = uri;
         this.checker = checker;
     }
 
-//    public TextLinesIterator(File file, String encoding) throws IOException {
-//        this.file = file;
-//        this.encoding = encoding;
-//        this.reader = new LineNumberReader(new InputStreamReader(new FileInputStream(file), encoding));
-//        this.checker = Name11Checker.getInstance();
-//    }
-
     /*@Nullable*/
     @Override
     public StringValue next() throws XPathException {
@@ -70,21 +82,41 @@ public abstract class TextLinesIterator implements SequenceIterator {
             return null;
         }
         try {
-            String s = reader.readLine();
-            if (s == null) {
-                current = null;
-                position = -1;
-                close();
-                return null;
+            int i = start;
+            while (true) {
+                char[] buf = buffer;
+                for (; i < limit; i++) {
+                    char ch = buf[i];
+                    if (ch == '\n' || ch == '\r') {
+                        int lineStart = start;
+                        start = i + 1;
+                        if (ch == '\r') {
+                            if (start < limit) {
+                                if (buf[start] == '\n') {
+                                    start++;
+                                }
+                            } else {
+                                skipLF = true;
+                            }
+                        }
+                        return makeLine(lineStart, i);
+                    }
+                }
+                int scanned = limit - start;
+                if (!fill()) {
+                    if (start < limit) {
+                        // final line with no terminator
+                        int lineStart = start;
+                        start = limit;
+                        return makeLine(lineStart, limit);
+                    }
+                    current = null;
+                    position = -1;
+                    close();
+                    return null;
+                }
+                i = start + scanned;
             }
-            if (position == 0 && s.startsWith("\ufeff")) {
-                // remove any BOM found at start of file
-                s = s.substring(1);
-            }
-            checkLine(checker, s);
-            current = new StringValue(s);
-            position++;
-            return current;
         } catch (IOException err) {
             close();
             XPathException e = UnparsedTextFunction.handleIOError(uri, err, null);
@@ -92,15 +124,56 @@ public abstract class TextLinesIterator implements SequenceIterator {
                 e.setLocator(location);
             }
             throw e;
-//        } catch (Exception err) {
-//            XPathException e = new XPathException(err.getMessage(), "XPST0001");
-//            if (location != null) {
-//                e.setLocator(location);
-//            }
-//            throw e;
         }
     }
 
+    /**
+     * Read the next chunk of text into a new buffer, following any part of a line that remains
+     * unread in the current buffer. A new buffer is used because lines already returned are slices
+     * of the current one.
+     *
+     * @return false if the end of the input has been reached
+     * @throws IOException if the input cannot be read
+     */
+
+    private boolean fill() throws IOException {
+        if (endOfInput) {
+            return false;
+        }
+        int remaining = limit - start;
+        char[] chunk = new char[Math.max(UnparsedTextFunction.READ_BUFFER_SIZE, remaining * 2)];
+        System.arraycopy(buffer, start, chunk, 0, remaining);
+        buffer = chunk;
+        start = 0;
+        limit = remaining;
+        int n = reader.read(chunk, remaining, chunk.length - remaining);
+        if (n < 0) {
+            endOfInput = true;
+            return false;
+        }
+        if (skipLF && n > 0) {
+            // the previous chunk ended with a carriage return, which terminated a line, so nothing remains from it
+            skipLF = false;
+            if (chunk[0] == '\n') {
+                start = 1;
+            }
+        }
+        limit += n;
+        return true;
+    }
+
+    private StringValue makeLine(int lineStart, int lineEnd) throws XPathException {
+        if (position == 0 && lineStart < lineEnd && buffer[lineStart] == '\ufeff') {
+            // remove any BOM found at start of file
+            lineStart++;
+        }
+        checkLine(checker, buffer, lineStart, lineEnd);
+        current = lineStart == lineEnd ? StringValue.EMPTY_STRING :
+                new StringValue(new CharSlice(buffer, lineStart, lineEnd - lineStart));
+        position++;
+        return current;
+    }
+
     @Override
     public void close() {
         try {
@@ -111,16 +184,20 @@ public abstract class TextLinesIterator implements SequenceIterator {
     }
 
 
-    private void checkLine(IntPredicate checker, /*@NotNull*/ String buffer) throws XPathException {
-        for (int c = 0; c < buffer.length(); ) {
-            int ch32 = buffer.charAt(c++);
+    private void checkLine(IntPredicate checker, char[] buffer, int lineStart, int lineEnd) throws XPathException {
+        for (int c = lineStart; c < lineEnd; ) {
+            int ch32 = buffer[c++];
+            if (ch32 >= 0x20 && ch32 < 0xD800) {
+                // legal in both XML 1.0 and XML 1.1
+                continue;
+            }
             if (UTF16CharacterSet.isHighSurrogate(ch32)) {
-                char low = buffer.charAt(c++);
+                char low = buffer[c++];
                 ch32 = UTF16CharacterSet.combinePair((char) ch32, low);
             }
             if (!checker.test(ch32)) {
                 XPathException err = new XPathException("The unparsed-text file contains a character that is illegal in XML (line=" +
-                        position + " column=" + (c + 1) + " value=hex " + Integer.toHexString(ch32) + ')');
+                        position + " column=" + (c - lineStart + 1) + " value=hex " + Integer.toHexString(ch32) + ')');
                 err.setErrorCode("FOUT1190");
                 err.setLocator(location);
                 throw err;
@@ -128,4 +205,3 @@ public abstract class TextLinesIterator implements SequenceIterator {
         }
     }
 }
-
@@ -36,11 +36,7 @@ public class UnparsedTextIterator extends TextLinesIterator {
 
     public UnparsedTextIterator(URI absoluteURI, /*@NotNull*/ XPathContext context, String encoding, Location location) throws XPathException {
         Configuration config = context.getConfiguration();
-        Reader reader = context.getController().getUnparsedTextURIResolver().resolve(absoluteURI, encoding, config);
-        // Note: this relies on the fact that LineNumberReader use the same definition of line endings as the unparsed-text-lines()
-        // function.
-
-        this.reader = new LineNumberReader(reader);
+        this.reader = context.getController().getUnparsedTextURIResolver().resolve(absoluteURI, encoding, config);
         this.uri = absoluteURI;
         this.context = context;
         this.checker = context.getConfiguration().getValidCharacterChecker();
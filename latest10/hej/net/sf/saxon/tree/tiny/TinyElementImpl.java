@@ -341,7 +341,7 @@ public class TinyElementImpl extends TinyParentNodeImpl {
                                               ReceiverOption.BEQUEATH_INHERITED_NAMESPACES_ONLY);
                         // output characters
                         final CharSequence value = TinyTextImpl.getStringValue(tree, next);
-                        receiver.characters(value, location, ReceiverOption.WHOLE_TEXT_NODE);
+                        receiver.characters(value, location, tree.getTextCopyProperties(next));
                         receiver.endElement();
                     } else {
                         // there is an element to close
@@ -369,7 +369,7 @@ public class TinyElementImpl extends TinyParentNodeImpl {
                                     }
                                 }
                                 String attPrefix = tree.prefixPool.getPrefix(attCode >> 20);
-                                int attProps = ReceiverOption.NOT_A_DUPLICATE;
+                                int attProps = ReceiverOption.NOT_A_DUPLICATE | tree.getAttributeCopyProperties(att);
                                 if (tree.isIdAttribute(att)) {
                                     attProps |= ReceiverOption.IS_ID;
                                 }
@@ -404,7 +404,7 @@ public class TinyElementImpl extends TinyParentNodeImpl {
 
                     // output characters
                     final CharSequence value = TinyTextImpl.getStringValue(tree, next);
-                    receiver.characters(value, location, ReceiverOption.WHOLE_TEXT_NODE);
+                    receiver.characters(value, location, tree.getTextCopyProperties(next));
                     break;
                 }
 
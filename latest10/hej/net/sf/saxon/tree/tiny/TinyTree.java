@@ -169,6 +169,14 @@ public final class TinyTree extends GenericTreeInfo implements NodeVectorTree {
     // uniformBaseUri is set if all nodes in the tree have the same Base URI; otherwise it is null.
     private String uniformBaseUri = null;
 
+    // the following arrays cache, for text nodes and attributes respectively, whether the value has been
+    // found to need no escaping on output (PLAIN) or to contain characters that may need escaping (SPECIAL).
+    // They are allocated only when a subtree of this tree is first copied, and are filled in lazily.
+    private volatile byte[] textEscapeState = null;
+    private volatile byte[] attEscapeState = null;
+    private static final byte ESCAPE_STATE_PLAIN = 1;
+    private static final byte ESCAPE_STATE_SPECIAL = 2;
+
     /**
      * Create a tree with a specified initial size
      *
@@ -1060,6 +1068,93 @@ public final class TinyTree extends GenericTreeInfo implements NodeVectorTree {
         }
     }
 
+    /**
+     * Get the properties to be passed on a {@code characters()} event when the content of a text node
+     * (or textual element) is copied to a {@link net.sf.saxon.event.Receiver}. If the content consists
+     * entirely of ASCII characters that never need to be escaped by the serializer, the result includes
+     * {@link ReceiverOption#NO_SPECIAL_CHARS}, which allows an emitter to write the characters straight
+     * through to the output without examining them again. The outcome of the check is remembered,
+     * so copying the same node a second time costs nothing.
+     *
+     * @param nodeNr the node number of a text node or textual element
+     * @return {@link ReceiverOption#WHOLE_TEXT_NODE}, possibly combined with {@link ReceiverOption#NO_SPECIAL_CHARS}
+     */
+
+    public int getTextCopyProperties(int nodeNr) {
+        byte[] states = textEscapeState;
+        if (states == null || states.length < numberOfNodes) {
+            textEscapeState = states = new byte[numberOfNodes];
+        }
+        byte state = nodeNr < states.length ? states[nodeNr] : 0;
+        if (state == 0) {
+            int start = alpha[nodeNr];
+            state = isPlainText(charBuffer, start, start + beta[nodeNr]) ? ESCAPE_STATE_PLAIN : ESCAPE_STATE_SPECIAL;
+            if (nodeNr < states.length) {
+                states[nodeNr] = state;
+            }
+        }
+        return state == ESCAPE_STATE_PLAIN
+                ? ReceiverOption.WHOLE_TEXT_NODE | ReceiverOption.NO_SPECIAL_CHARS
+                : ReceiverOption.WHOLE_TEXT_NODE;
+    }
+
+    /**
+     * Get the properties to be used for an attribute when it is copied to a {@link net.sf.saxon.event.Receiver}.
+     * This is the attribute-level equivalent of {@link #getTextCopyProperties(int)}: if the value contains only
+     * ASCII characters that never need escaping within a quoted attribute value, the result includes
+     * {@link ReceiverOption#NO_SPECIAL_CHARS}.
+     *
+     * @param attNr the node number of the attribute
+     * @return {@link ReceiverOption#NO_SPECIAL_CHARS} or {@link ReceiverOption#NONE}
+     */
+
+    public int getAttributeCopyProperties(int attNr) {
+        byte[] states = attEscapeState;
+        if (states == null || states.length < numberOfAttributes) {
+            attEscapeState = states = new byte[numberOfAttributes];
+        }
+        byte state = attNr < states.length ? states[attNr] : 0;
+        if (state == 0) {
+            state = isPlainAttributeValue(attValue[attNr]) ? ESCAPE_STATE_PLAIN : ESCAPE_STATE_SPECIAL;
+            if (attNr < states.length) {
+                states[attNr] = state;
+            }
+        }
+        return state == ESCAPE_STATE_PLAIN ? ReceiverOption.NO_SPECIAL_CHARS : ReceiverOption.NONE;
+    }
+
+    /**
+     * Test whether a range of characters can be written to any serializer without escaping: that is,
+     * whether every character is printable ASCII (or newline or tab) other than the markup characters
+     * {@code <}, {@code >}, and {@code &}.
+     */
+
+    private static boolean isPlainText(CharSequence chars, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = chars.charAt(i);
+            if (c > 126 || (c < 32 && c != '\n' && c != '\t') || c == '<' || c == '>' || c == '&') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Test whether an attribute value can be written within quotes without escaping: that is,
+     * whether every character is printable ASCII other than {@code <}, {@code >}, {@code &}
+     * and the two quotation marks.
+     */
+
+    private static boolean isPlainAttributeValue(CharSequence chars) {
+        for (int i = 0; i < chars.length(); i++) {
+            char c = chars.charAt(i);
+            if (c > 126 || c < 32 || c == '<' || c == '>' || c == '&' || c == '"' || c == '\'') {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Determine whether an attribute is an ID attribute. (The represents the
      * is-id property in the data model)
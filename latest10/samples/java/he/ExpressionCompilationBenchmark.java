@@ -0,0 +1,122 @@
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Copyright (c) 2020 Saxonica Limited
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is "Incompatible With Secondary Licenses", as defined by the Mozilla Public License, v. 2.0.
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+package he;
+
+import net.sf.saxon.lib.Feature;
+import net.sf.saxon.s9api.*;
+
+import javax.xml.transform.stream.StreamSource;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+/**
+ * Measures the time taken by template rules whose conditions and computed values are arithmetic and
+ * comparisons on attributes, with and without compilation of these expressions to bytecode
+ * (Feature.THRESHOLD_FOR_EXPRESSION_COMPILATION). The outputs of the two runs are checked to be identical.
+ */
+
+public class ExpressionCompilationBenchmark {
+
+    private static final String STYLESHEET =
+            "<xsl:stylesheet version='3.0' xmlns:xsl='http://www.w3.org/1999/XSL/Transform'>\n" +
+            "  <xsl:mode on-no-match='shallow-skip'/>\n" +
+            "  <xsl:template match='/'>\n" +
+            "    <summary><xsl:apply-templates select='*/line'/></summary>\n" +
+            "  </xsl:template>\n" +
+            "  <xsl:template match='line[@price * @qty gt 1000 and @status = \"open\"]'>\n" +
+            "    <xsl:if test='@discount &lt; 0.2 or not(@price &gt;= 50)'>\n" +
+            "      <big v='{@price * @qty * (1 - @discount)}'/>\n" +
+            "    </xsl:if>\n" +
+            "  </xsl:template>\n" +
+            "  <xsl:template match='line'>\n" +
+            "    <xsl:if test='@qty mod 7 = 0 and @status != \"closed\"'>\n" +
+            "      <small v='{@price + @qty div 4}'/>\n" +
+            "    </xsl:if>\n" +
+            "  </xsl:template>\n" +
+            "</xsl:stylesheet>";
+
+    private static final String[] STATUS = {"open", "closed", "held"};
+
+    /**
+     * Class is not instantiated, so give it a private constructor
+     */
+    private ExpressionCompilationBenchmark() {
+    }
+
+    /**
+     * Method main
+     * @param argv command line arguments: optionally the number of elements in the input document
+     *             (default 200000), and the number of rounds of measurement (default 10)
+     */
+    public static void main(String[] argv) throws Exception {
+        int n = argv.length > 0 ? Integer.parseInt(argv[0]) : 200000;
+        int rounds = argv.length > 1 ? Integer.parseInt(argv[1]) : 10;
+
+        StringBuilder sb = new StringBuilder(n * 64);
+        sb.append("<order>");
+        for (int i = 0; i < n; i++) {
+            sb.append("<line price='").append(i % 97 + 0.5)
+                    .append("' qty='").append(i % 41)
+                    .append("' discount='").append((i % 5) / 10.0)
+                    .append("' status='").append(STATUS[i % 3])
+                    .append("'/>");
+        }
+        sb.append("</order>");
+
+        Processor interpreter = new Processor(false);
+        Processor compiler = new Processor(false);
+        compiler.setConfigurationProperty(Feature.THRESHOLD_FOR_EXPRESSION_COMPILATION, 100);
+
+        String interpreted = null;
+        String compiled = null;
+        Run interpretedRun = new Run("interpreted", interpreter, sb);
+        Run compiledRun = new Run("compiled", compiler, sb);
+        for (int round = 0; round < rounds; round++) {
+            interpreted = interpretedRun.measure(round, n);
+            compiled = compiledRun.measure(round, n);
+        }
+        System.out.println(interpreted.equals(compiled) ? "Outputs are identical" : "*** Outputs differ ***");
+    }
+
+    /**
+     * A compiled stylesheet and a source document, both built with one Processor. The same stylesheet is
+     * used in every round, so that the rounds after the first measure expressions that have already been
+     * compiled to bytecode (and whose bytecode has been compiled by the Java JIT compiler).
+     */
+    private static class Run {
+
+        private final String label;
+        private final Processor processor;
+        private final XsltExecutable executable;
+        private final XdmNode doc;
+
+        Run(String label, Processor processor, CharSequence input) throws SaxonApiException {
+            this.label = label;
+            this.processor = processor;
+            executable = processor.newXsltCompiler().compile(new StreamSource(new StringReader(STYLESHEET)));
+            doc = processor.newDocumentBuilder().build(new StreamSource(new StringReader(input.toString())));
+        }
+
+        /**
+         * Time one transformation
+         *
+         * @return the serialized result of the transformation
+         */
+        String measure(int round, int n) throws SaxonApiException {
+            Xslt30Transformer transformer = executable.load30();
+            StringWriter out = new StringWriter();
+            long start = System.nanoTime();
+            transformer.applyTemplates(doc, processor.newSerializer(out));
+            long time = System.nanoTime() - start;
+
+            System.out.printf("%-11s round %d: %.1f ms, %.1f ns/element%n",
+                              label, round, time / 1e6, (double) time / n);
+            return out.toString();
+        }
+    }
+}
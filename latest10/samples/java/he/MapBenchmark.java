@@ -0,0 +1,114 @@
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Copyright (c) 2020 Saxonica Limited
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is "Incompatible With Secondary Licenses", as defined by the Mozilla Public License, v. 2.0.
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+package he;
+
+import net.sf.saxon.s9api.*;
+
+/**
+ * Measures the cost of building a map with map:merge, the throughput of map:get and map:put on the map,
+ * and the heap occupied by the map, per entry. Each measurement is made for a map with integer keys, a map
+ * with string keys, and a map with integer keys plus one decimal key. The first two are held in compact
+ * tables (IntegerKeyMap and StringKeyMap); the mixed keys force the third to be held in a HashTrieMap,
+ * for comparison.
+ */
+
+public class MapBenchmark {
+
+    private static final String[][] MAPS = {
+            {"integer", "map:merge(for $i in 1 to $n return map{$i: $i})"},
+            {"string", "map:merge(for $i in 1 to $n return map{string($i): $i})"},
+            {"mixed", "map:merge((map{0.5: 0}, for $i in 1 to $n return map{$i: $i}))"}
+    };
+
+    private static final String[][] KEYS = {
+            {"integer", "$i"},
+            {"string", "string($i)"},
+            {"mixed", "$i"}
+    };
+
+    /**
+     * Class is not instantiated, so give it a private constructor
+     */
+    private MapBenchmark() {
+    }
+
+    /**
+     * Method main
+     * @param argv command line arguments: optionally the number of entries in each map (default 1000000),
+     *             and the number of rounds of measurement (default 5)
+     */
+    public static void main(String[] argv) throws Exception {
+        int n = argv.length > 0 ? Integer.parseInt(argv[0]) : 1000000;
+        int rounds = argv.length > 1 ? Integer.parseInt(argv[1]) : 5;
+
+        Processor processor = new Processor(false);
+        XPathCompiler compiler = processor.newXPathCompiler();
+        compiler.declareNamespace("map", "http://www.w3.org/2005/xpath-functions/map");
+        compiler.declareVariable(new QName("n"));
+        compiler.declareVariable(new QName("m"));
+
+        for (int k = 0; k < MAPS.length; k++) {
+            XPathExecutable build = compiler.compile(MAPS[k][1]);
+            XPathExecutable get = compiler.compile(
+                    "sum(for $i in 1 to $n return map:get($m, " + KEYS[k][1] + "))");
+            XPathExecutable put = compiler.compile(
+                    "sum(for $i in 1 to $n return map:get(map:put($m, " + KEYS[k][1] + ", 0), " + KEYS[k][1] + "))");
+            for (int round = 0; round < rounds; round++) {
+                measure(MAPS[k][0], round, n, build, get, put);
+            }
+        }
+    }
+
+    /**
+     * Build one map and measure it. This is a separate method so that nothing from one round is
+     * still reachable when the heap is measured in the next.
+     */
+    private static void measure(String label, int round, int n,
+                                XPathExecutable build, XPathExecutable get, XPathExecutable put)
+            throws SaxonApiException, InterruptedException {
+        XdmAtomicValue size = new XdmAtomicValue(n);
+
+        XPathSelector builder = build.load();
+        builder.setVariable(new QName("n"), size);
+        builder.setVariable(new QName("m"), XdmEmptySequence.getInstance());
+        long heapBefore = usedHeap();
+        long start = System.nanoTime();
+        XdmValue map = builder.evaluate();
+        long buildTime = System.nanoTime() - start;
+        long heapAfter = usedHeap();
+        String kind = map.getUnderlyingValue().getClass().getSimpleName();
+
+        XPathSelector getter = get.load();
+        getter.setVariable(new QName("n"), size);
+        getter.setVariable(new QName("m"), map);
+        start = System.nanoTime();
+        getter.evaluate();
+        long getTime = System.nanoTime() - start;
+
+        XPathSelector putter = put.load();
+        putter.setVariable(new QName("n"), size);
+        putter.setVariable(new QName("m"), map);
+        start = System.nanoTime();
+        putter.evaluate();
+        long putTime = System.nanoTime() - start;
+
+        System.out.printf("%-7s %-13s round %d: build %.1f ms, get %.2f M/s, put %.2f M/s, %.1f bytes/entry%n",
+                          label, kind, round, buildTime / 1e6,
+                          n / (getTime / 1e3), n / (putTime / 1e3),
+                          (double) (heapAfter - heapBefore) / n);
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
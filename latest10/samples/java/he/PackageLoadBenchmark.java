@@ -0,0 +1,67 @@
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Copyright (c) 2020 Saxonica Limited
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is "Incompatible With Secondary Licenses", as defined by the Mozilla Public License, v. 2.0.
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+package he;
+
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.XsltCompiler;
+import net.sf.saxon.trans.packages.BinaryPackageWriter;
+
+import javax.xml.transform.stream.StreamSource;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+
+/**
+ * Measures the time taken to load an exported package (a SEF file) in its XML form and in its
+ * binary form, in milliseconds per load. The binary form is created from the XML form, alongside it,
+ * with the extension <code>.sefb</code>. A package loaded from the binary form builds the bodies of its
+ * templates and functions only when they are first used, so the figures show the cost of getting a
+ * package ready to run, not the cost of building every component.
+ */
+
+public class PackageLoadBenchmark {
+
+    /**
+     * Class is not instantiated, so give it a private constructor
+     */
+    private PackageLoadBenchmark() {
+    }
+
+    /**
+     * Method main
+     * @param argv command line arguments: the file name of the exported package in XML form, and optionally
+     *             the number of loads of each form (default 10)
+     */
+    public static void main(String[] argv) throws Exception {
+        if (argv.length < 1) {
+            System.err.println("Usage: java he.PackageLoadBenchmark package.sef [count]");
+            return;
+        }
+        File xml = new File(argv[0]);
+        int count = argv.length > 1 ? Integer.parseInt(argv[1]) : 10;
+
+        Processor processor = new Processor(false);
+        File binary = new File(xml.getPath().replaceFirst("(\\.[^.\\\\/]*)?$", ".sefb"));
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(binary))) {
+            BinaryPackageWriter.convert(processor.getUnderlyingConfiguration(), new StreamSource(xml), out);
+        }
+        System.out.printf("XML form %d bytes, binary form %d bytes%n", xml.length(), binary.length());
+
+        for (int round = 0; round < count; round++) {
+            for (File f : new File[]{xml, binary}) {
+                // use a new Processor each time, so that nothing is shared between loads
+                XsltCompiler compiler = new Processor(false).newXsltCompiler();
+                long start = System.nanoTime();
+                compiler.loadExecutablePackage(f.toURI());
+                long elapsed = System.nanoTime() - start;
+                System.out.printf("%-6s round %d: %.1f ms%n", f == xml ? "xml" : "binary", round, elapsed / 1e6);
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Copyright (c) 2020 Saxonica Limited
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is "Incompatible With Secondary Licenses", as defined by the Mozilla Public License, v. 2.0.
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+package he;
+
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.XPathCompiler;
+import net.sf.saxon.s9api.XdmValue;
+
+/**
+ * Measures the startup cost of Saxon: the time from entering <code>main</code> to the result of the first
+ * XPath expression, in milliseconds, broken down into the steps taken to get there. The figures are only
+ * meaningful for the first use of Saxon in a Java VM, so each measurement needs a new VM, for example
+ * <pre>for i in 1 2 3 4 5; do java -cp saxon-he.jar:samples he.StartupBenchmark; done</pre>
+ * <p>The last step evaluates an expression that calls functions from the standard function library,
+ * which is initialized when a function is first looked up, rather than when the XPath compiler is created.</p>
+ */
+
+public class StartupBenchmark {
+
+    /**
+     * Class is not instantiated, so give it a private constructor
+     */
+    private StartupBenchmark() {
+    }
+
+    /**
+     * Method main
+     * @param argv command line arguments: optionally, the XPath expression to be evaluated first
+     *             (default <code>1 + 2</code>)
+     */
+    public static void main(String[] argv) throws Exception {
+        String expression = argv.length > 0 ? argv[0] : "1 + 2";
+
+        long start = System.nanoTime();
+        Processor processor = new Processor(false);
+        long processorCreated = System.nanoTime();
+        XPathCompiler compiler = processor.newXPathCompiler();
+        long compilerCreated = System.nanoTime();
+        XdmValue first = compiler.evaluate(expression, null);
+        long firstResult = System.nanoTime();
+        XdmValue second = compiler.evaluate("string-join(for $i in 1 to 3 return upper-case(string($i * 2)), '-')", null);
+        long secondResult = System.nanoTime();
+
+        System.out.printf("new Processor             %7.1f ms%n", (processorCreated - start) / 1e6);
+        System.out.printf("newXPathCompiler          %7.1f ms%n", (compilerCreated - processorCreated) / 1e6);
+        System.out.printf("first expression          %7.1f ms  (%s)%n", (firstResult - compilerCreated) / 1e6, first);
+        System.out.printf("time to first result      %7.1f ms%n", (firstResult - start) / 1e6);
+        System.out.printf("first function calls      %7.1f ms  (%s)%n", (secondResult - firstResult) / 1e6, second);
+    }
+}
@@ -0,0 +1,101 @@
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+// Copyright (c) 2020 Saxonica Limited
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is "Incompatible With Secondary Licenses", as defined by the Mozilla Public License, v. 2.0.
+////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+package he;
+
+import net.sf.saxon.s9api.*;
+
+import javax.xml.transform.stream.StreamSource;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Measures the fixed cost of running a small transformation, in microseconds per transformation,
+ * comparing three ways of obtaining the transformer:
+ * <dl>
+ * <dt>load</dt><dd>a new <code>Xslt30Transformer</code> is loaded for each transformation</dd>
+ * <dt>pool</dt><dd>transformers are taken from the pool held by the <code>XsltExecutable</code>,
+ * using <code>acquireTransformer()</code> and <code>releaseTransformer()</code></dd>
+ * <dt>reset</dt><dd>a single transformer is reused, calling <code>reset()</code> after each transformation</dd>
+ * </dl>
+ * <p>Each transformation supplies a stylesheet parameter and transforms a small document held in memory,
+ * so the figures are dominated by the per-transformation overhead rather than by the work done.</p>
+ */
+
+public class TransformerOverheadBenchmark {
+
+    private static final String STYLESHEET =
+            "<xsl:stylesheet version='3.0' xmlns:xsl='http://www.w3.org/1999/XSL/Transform'>" +
+            "<xsl:param name='who' select=\"'world'\"/>" +
+            "<xsl:key name='k' match='item' use='@id'/>" +
+            "<xsl:template match='/'>" +
+            "<out greeting='hello {$who}' n='{count(//item)}'><xsl:apply-templates select='//item[@v &gt; 5]'/></out>" +
+            "</xsl:template>" +
+            "<xsl:template match='item'><i id='{@id}'><xsl:value-of select='@v * 2'/></i></xsl:template>" +
+            "</xsl:stylesheet>";
+
+    private static final String SOURCE =
+            "<root><item id='a' v='3'/><item id='b' v='7'/><item id='c' v='11'/></root>";
+
+    /**
+     * Class is not instantiated, so give it a private constructor
+     */
+    private TransformerOverheadBenchmark() {
+    }
+
+    /**
+     * Method main
+     * @param argv command line arguments: optionally the mode (<code>load</code>, <code>pool</code>,
+     *             <code>reset</code>, or <code>all</code>, the default), and the number of transformations
+     *             in each round (default 100000)
+     */
+    public static void main(String[] argv) throws Exception {
+        String mode = argv.length > 0 ? argv[0] : "all";
+        int count = argv.length > 1 ? Integer.parseInt(argv[1]) : 100000;
+
+        Processor processor = new Processor(false);
+        XsltExecutable executable = processor.newXsltCompiler().compile(
+                new StreamSource(new StringReader(STYLESHEET)));
+        Map<QName, XdmAtomicValue> params =
+                Collections.singletonMap(new QName("who"), new XdmAtomicValue("benchmark"));
+
+        for (String m : mode.equals("all") ? new String[]{"load", "pool", "reset"} : new String[]{mode}) {
+            Xslt30Transformer shared = executable.load30();
+            for (int round = 0; round < 5; round++) {
+                long start = System.nanoTime();
+                for (int i = 0; i < count; i++) {
+                    Xslt30Transformer transformer;
+                    switch (m) {
+                        case "load":
+                            transformer = executable.load30();
+                            break;
+                        case "pool":
+                            transformer = executable.acquireTransformer();
+                            break;
+                        case "reset":
+                            transformer = shared;
+                            break;
+                        default:
+                            throw new IllegalArgumentException("Unknown mode " + m);
+                    }
+                    StringWriter sw = new StringWriter();
+                    transformer.setStylesheetParameters(params);
+                    transformer.transform(new StreamSource(new StringReader(SOURCE)), processor.newSerializer(sw));
+                    if (m.equals("pool")) {
+                        executable.releaseTransformer(transformer);
+                    } else if (m.equals("reset")) {
+                        transformer.reset();
+                    }
+                }
+                long elapsed = System.nanoTime() - start;
+                System.out.printf("%-5s round %d: %.2f us per transformation%n", m, round, elapsed / 1000.0 / count);
+            }
+        }
+    }
+}